@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Packets per second received over loopback by a {@link RtpDemultiplexer} with one channel, and with several channels
+ * bound on the same port with {@code SO_REUSEPORT}, one I/O thread each. Several senders, each on its own port (and
+ * thus its own flow), send as fast as they can.
+ * <p/>
+ * Receiving only scales while there are spare cores for the I/O threads (the senders take cores too); on a single
+ * core, more channels only add context switches.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ReusePortReceiveBenchmark {
+
+    private static final int SENDERS = 8;
+    private static final long DURATION = 3000;
+    private static final InetSocketAddress DATA_ADDRESS = new InetSocketAddress("127.0.0.1", 17100);
+    private static final InetSocketAddress CONTROL_ADDRESS = new InetSocketAddress("127.0.0.1", 17101);
+
+    @Test
+    public void testReceiveScaling() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.err.println(cores + " cores available");
+
+        // Warm up.
+        this.packetsPerSecond(1);
+
+        for (int channels = 1; channels <= Math.max(4, cores); channels *= 2) {
+            System.err.println(String.format("%2d receive channel(s) - %,11.0f packets/s", channels,
+                                             this.packetsPerSecond(channels)));
+        }
+    }
+
+    private double packetsPerSecond(int channels) throws Exception {
+        NioDatagramChannelFactory factory = new NioDatagramChannelFactory(Executors.newCachedThreadPool(), channels);
+        RtpDemultiplexer demultiplexer = new RtpDemultiplexer(factory, DATA_ADDRESS, CONTROL_ADDRESS);
+        if (channels > 1) {
+            assertTrue("SO_REUSEPORT not supported", demultiplexer.getTransport().isReusePortSupported());
+        }
+        demultiplexer.setReceiveChannels(channels);
+        assertTrue(demultiplexer.init());
+
+        final AtomicLong received = new AtomicLong();
+        DataPacketReceiver counter = new DataPacketReceiver() {
+            @Override
+            public void dataPacketReceived(SocketAddress origin, DataPacket packet) {
+                received.incrementAndGet();
+            }
+        };
+
+        final AtomicBoolean sending = new AtomicBoolean(true);
+        final CountDownLatch finished = new CountDownLatch(SENDERS);
+        for (int i = 0; i < SENDERS; i++) {
+            final DatagramSocket socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+            demultiplexer.addDataRoute(socket.getLocalSocketAddress(), counter);
+
+            DataPacket packet = new DataPacket();
+            packet.setPayloadType(8);
+            packet.setSsrc(i + 1);
+            packet.setData(new byte[160]);
+            ChannelBuffer encoded = packet.encode();
+            final DatagramPacket datagram = new DatagramPacket(encoded.array(), encoded.arrayOffset(),
+                                                               encoded.readableBytes(), DATA_ADDRESS);
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (sending.get()) {
+                            socket.send(datagram);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        socket.close();
+                        finished.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        Thread.sleep(500);
+        long before = received.get();
+        long start = System.nanoTime();
+        Thread.sleep(DURATION);
+        long count = received.get() - before;
+        long elapsed = System.nanoTime() - start;
+
+        sending.set(false);
+        finished.await();
+        System.err.println(String.format("%,d datagrams dropped by the kernel", demultiplexer.getKernelDrops()));
+        demultiplexer.terminate();
+        factory.releaseExternalResources();
+
+        assertEquals(0, demultiplexer.getUnroutablePackets());
+        return count / (elapsed / 1000000000d);
+    }
+}
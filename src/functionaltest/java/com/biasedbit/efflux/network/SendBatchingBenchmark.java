@@ -0,0 +1,197 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Datagrams sent per second of CPU time (caller and I/O threads together, i.e. per core) on a RTP channel, writing
+ * every packet as soon as it's sent and queueing writes to hand them to the I/O thread in batches. Each packet goes to
+ * several receivers, and packets go out in bursts, each followed by a pause long enough for the I/O thread to catch up.
+ * <p/>
+ * The NIO transport already coalesces writes: a channel has at most one write task queued on its I/O thread and the
+ * selector is woken up at most once until that task runs, so writes issued meanwhile cost neither a hand-off nor a
+ * system call. Every datagram still takes its own {@code send()} system call either way, as Java has no
+ * {@code sendmmsg()}. Batching on top of the transport only adds queueing.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class SendBatchingBenchmark {
+
+    private static final int[] BATCH_SIZES = {0, 8, 32, 128};
+    private static final int RECEIVERS = 8;
+    private static final int BURSTS = 200;
+    private static final int PACKETS_PER_BURST = 500;
+
+    private NioDatagramChannelFactory factory;
+    private Channel channel;
+    private SocketAddress[] receivers;
+    private ChannelBuffer encoded;
+
+    @Before
+    public void setUp() {
+        this.factory = new NioDatagramChannelFactory(Executors.newCachedThreadPool(), 1);
+        ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(this.factory);
+        bootstrap.setPipelineFactory(new ControlChannelPipelineFactory(new DataPacketReceiver() {
+            @Override
+            public void dataPacketReceived(SocketAddress origin, DataPacket packet) {
+            }
+        }));
+        this.channel = bootstrap.bind(new InetSocketAddress("127.0.0.1", 17000));
+
+        this.receivers = new SocketAddress[RECEIVERS];
+        for (int i = 0; i < RECEIVERS; i++) {
+            // Nothing listens on these ports; datagrams are simply dropped by the kernel.
+            this.receivers[i] = new InetSocketAddress("127.0.0.1", 20000 + (i * 2));
+        }
+
+        DataPacket packet = new DataPacket();
+        packet.setPayloadType(8);
+        packet.setData(new byte[160]);
+        this.encoded = packet.encodeComposite();
+    }
+
+    @After
+    public void tearDown() {
+        this.channel.close().awaitUninterruptibly();
+        this.factory.releaseExternalResources();
+    }
+
+    @Test
+    public void testDatagramsPerCoreSecond() throws Exception {
+        // Warm up.
+        for (int batchSize : BATCH_SIZES) {
+            this.datagramsPerCpuSecond(batchSize);
+        }
+
+        for (int batchSize : BATCH_SIZES) {
+            System.err.println(String.format("batch size %3d - %,9.0f datagrams/s per core", batchSize,
+                                             this.datagramsPerCpuSecond(batchSize)));
+        }
+    }
+
+    private double datagramsPerCpuSecond(int batchSize) throws InterruptedException {
+        BatchingWriter writer = batchSize == 0 ? null : new BatchingWriter(this.channel, batchSize);
+
+        long before = processCpuTime();
+        for (int burst = 0; burst < BURSTS; burst++) {
+            for (int i = 0; i < PACKETS_PER_BURST; i++) {
+                for (SocketAddress receiver : this.receivers) {
+                    if (writer == null) {
+                        this.channel.write(this.encoded.duplicate(), receiver);
+                    } else {
+                        writer.write(this.encoded.duplicate(), receiver);
+                    }
+                }
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+            // Idle time doesn't count.
+            Thread.sleep(20L);
+        }
+        Thread.sleep(100L);
+        long after = processCpuTime();
+
+        return (BURSTS * PACKETS_PER_BURST * RECEIVERS) / ((after - before) / 1000000000d);
+    }
+
+    private static long processCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * Queues writes and hands them to the I/O thread, in a single task, once {@code batchSize} are queued or when
+     * flushed.
+     */
+    private static class BatchingWriter {
+
+        private final Channel channel;
+        private final int batchSize;
+        private final Queue<PendingWrite> queue;
+        private final AtomicInteger pending;
+        private final AtomicBoolean flushScheduled;
+        private final Runnable drainTask;
+
+        private BatchingWriter(Channel channel, int batchSize) {
+            this.channel = channel;
+            this.batchSize = batchSize;
+            this.queue = new ConcurrentLinkedQueue<PendingWrite>();
+            this.pending = new AtomicInteger();
+            this.flushScheduled = new AtomicBoolean();
+            this.drainTask = new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            };
+        }
+
+        private void write(Object message, SocketAddress destination) {
+            this.queue.offer(new PendingWrite(message, destination));
+            if (this.pending.incrementAndGet() >= this.batchSize) {
+                this.flush();
+            }
+        }
+
+        private void flush() {
+            if (this.flushScheduled.compareAndSet(false, true)) {
+                this.channel.getPipeline().execute(this.drainTask);
+            }
+        }
+
+        private void drain() {
+            this.flushScheduled.set(false);
+            PendingWrite write;
+            while ((write = this.queue.poll()) != null) {
+                this.pending.decrementAndGet();
+                // On the I/O thread, so this goes straight to the socket.
+                this.channel.write(write.message, write.destination);
+            }
+        }
+    }
+
+    private static class PendingWrite {
+
+        private final Object message;
+        private final SocketAddress destination;
+
+        private PendingWrite(Object message, SocketAddress destination) {
+            this.message = message;
+            this.destination = destination;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Time and allocation per datagram when decoding RTCP, validating compound packets up front and, for comparison,
+ * decoding packet after packet until something fails (what the control channel used to do). Valid traffic is compared
+ * with floods of random datagrams and of datagrams whose first header looks right but whose lengths don't add up.
+ * <p/>
+ * Relies on {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, available on HotSpot.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ControlPacketDecodeBenchmark {
+
+    private static final int DATAGRAMS = 1024;
+    private static final int WARMUP = 200;
+    private static final int ROUNDS = 1000;
+
+    @Test
+    public void testDecode() throws Exception {
+        ReceiverReportPacket report = new ReceiverReportPacket();
+        report.setSenderSsrc(0x45);
+        report.addReceptionReportBlock(new ReceptionReport());
+        SourceDescriptionPacket sdes = new SourceDescriptionPacket();
+        SdesChunk chunk = new SdesChunk(0x45);
+        chunk.addItem(SdesChunkItems.createCnameItem("efflux@127.0.0.1"));
+        chunk.addItem(SdesChunkItems.createToolItem("efflux"));
+        sdes.addItem(chunk);
+        ChannelBuffer valid = new CompoundControlPacket(report, sdes).encode();
+        int size = valid.readableBytes();
+
+        Random random = new Random(0x45);
+        ChannelBuffer[] validFlood = new ChannelBuffer[DATAGRAMS];
+        ChannelBuffer[] randomFlood = new ChannelBuffer[DATAGRAMS];
+        ChannelBuffer[] plausibleFlood = new ChannelBuffer[DATAGRAMS];
+        for (int i = 0; i < DATAGRAMS; i++) {
+            validFlood[i] = valid.duplicate();
+
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            randomFlood[i] = ChannelBuffers.wrappedBuffer(bytes);
+
+            bytes = new byte[size];
+            random.nextBytes(bytes);
+            bytes[0] = (byte) 0x80;
+            bytes[1] = ControlPacket.Type.RECEIVER_REPORT.getByte();
+            bytes[2] = 0;
+            bytes[3] = 1;
+            plausibleFlood[i] = ChannelBuffers.wrappedBuffer(bytes);
+        }
+
+        report(validFlood, "valid");
+        report(randomFlood, "random");
+        report(plausibleFlood, "plausible first header");
+    }
+
+    private static void report(ChannelBuffer[] datagrams, String traffic) {
+        System.err.println(String.format("%-24s - validated: %s, unvalidated: %s", traffic,
+                                         measure(datagrams, true), measure(datagrams, false)));
+    }
+
+    private static String measure(ChannelBuffer[] datagrams, boolean validated) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long checksum = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            checksum += run(datagrams, validated);
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            checksum += run(datagrams, validated);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue(checksum >= 0);
+
+        long decoded = ROUNDS * (long) DATAGRAMS;
+        return String.format("%,6.0f ns, %,6.0f B per datagram", elapsed / (double) decoded,
+                             allocated / (double) decoded);
+    }
+
+    private static long run(ChannelBuffer[] datagrams, boolean validated) {
+        long packets = 0;
+        for (ChannelBuffer datagram : datagrams) {
+            datagram.readerIndex(0);
+            if (validated) {
+                CompoundControlPacket packet = CompoundControlPacket.decode(datagram);
+                if (packet != null) {
+                    packets += packet.getPacketCount();
+                }
+            } else {
+                packets += decodeUnvalidated(datagram).size();
+            }
+        }
+
+        return packets;
+    }
+
+    private static List<ControlPacket> decodeUnvalidated(ChannelBuffer buffer) {
+        List<ControlPacket> packets = new ArrayList<ControlPacket>(2);
+        while (buffer.readableBytes() > 0) {
+            try {
+                packets.add(ControlPacket.decode(buffer));
+            } catch (Exception e) {
+                // Whatever was left can't be resynchronised with.
+                break;
+            }
+        }
+
+        return packets;
+    }
+}
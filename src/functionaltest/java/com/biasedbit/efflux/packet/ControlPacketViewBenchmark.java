@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Time and allocation per datagram when picking the report block that concerns the local participant out of a sender
+ * report from a busy session (31 report blocks, the last one being ours) followed by an SDES packet: through a
+ * {@link ControlPacketView}, as the session does, and by decoding every packet and block up front, as it used to.
+ * <p/>
+ * Relies on {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, available on HotSpot.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ControlPacketViewBenchmark {
+
+    private static final long LOCAL_SSRC = 0x45;
+    private static final int WARMUP = 200000;
+    private static final int ROUNDS = 2000000;
+
+    @Test
+    public void testFindLocalReportBlock() throws Exception {
+        SenderReportPacket report = new SenderReportPacket();
+        report.setSenderSsrc(0x1000);
+        for (int i = 0; i < 31; i++) {
+            ReceptionReport block = new ReceptionReport();
+            block.setSsrc(i == 30 ? LOCAL_SSRC : 0x2000 + i);
+            block.setExtendedHighestSequenceNumberReceived(i);
+            report.addReceptionReportBlock(block);
+        }
+        SourceDescriptionPacket sdes = new SourceDescriptionPacket();
+        SdesChunk chunk = new SdesChunk(0x1000);
+        chunk.addItem(SdesChunkItems.createCnameItem("efflux@127.0.0.1"));
+        sdes.addItem(chunk);
+        ChannelBuffer datagram = new CompoundControlPacket(report, sdes).encode();
+
+        System.err.println(String.format("view: %s, eager: %s", measure(datagram, true), measure(datagram, false)));
+    }
+
+    private static String measure(ChannelBuffer datagram, boolean view) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long checksum = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            checksum += run(datagram, view);
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            checksum += run(datagram, view);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(30L * (WARMUP + ROUNDS), checksum);
+
+        return String.format("%,6.0f ns, %,6.0f B per datagram", elapsed / (double) ROUNDS,
+                             allocated / (double) ROUNDS);
+    }
+
+    private static long run(ChannelBuffer datagram, boolean view) {
+        datagram.readerIndex(0);
+        CompoundControlPacket packet = CompoundControlPacket.decode(datagram);
+        if (view) {
+            ControlPacketView packets = packet.getView();
+            while (packets.next()) {
+                if (packets.getType() != ControlPacket.Type.SENDER_REPORT) {
+                    continue;
+                }
+                for (int i = 0; i < packets.getInnerBlockCount(); i++) {
+                    if (packets.getReportBlockSsrc(i) == LOCAL_SSRC) {
+                        return packets.getReceptionReport(i).getExtendedHighestSequenceNumberReceived();
+                    }
+                }
+            }
+        } else {
+            for (ControlPacket controlPacket : packet.getControlPackets()) {
+                if (controlPacket.getType() != ControlPacket.Type.SENDER_REPORT) {
+                    continue;
+                }
+                for (ReceptionReport block : ((SenderReportPacket) controlPacket).getReceptionReports()) {
+                    if (block.getSsrc() == LOCAL_SSRC) {
+                        return block.getExtendedHighestSequenceNumberReceived();
+                    }
+                }
+            }
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Allocation rate of the receive path (decode, deliver, release) with and without packet pooling.
+ * <p/>
+ * Relies on {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, available on HotSpot.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class DataPacketPoolBenchmark {
+
+    private static final int WARMUP = 200000;
+    private static final int PACKETS = 1000000;
+
+    @Test
+    public void testAllocatedBytesPerPacket() throws Exception {
+        DataPacket template = new DataPacket();
+        template.setSsrc(0x45);
+        template.setPayloadType(8);
+        template.setData(new byte[160]);
+        ChannelBuffer datagram = template.encode();
+
+        double copying = bytesPerPacket(datagram, false, null);
+        double zeroCopy = bytesPerPacket(datagram, true, null);
+        double pooledZeroCopy = bytesPerPacket(datagram, true, new DataPacketPool());
+
+        System.err.println(String.format("Allocated bytes per packet - copying decode: %.1f, zero-copy decode: %.1f, " +
+                                         "pooled zero-copy decode: %.1f", copying, zeroCopy, pooledZeroCopy));
+        assertTrue(pooledZeroCopy < zeroCopy);
+        assertTrue(zeroCopy < copying);
+    }
+
+    private static double bytesPerPacket(ChannelBuffer datagram, boolean zeroCopy, DataPacketPool pool) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long checksum = run(datagram, zeroCopy, pool, WARMUP);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        checksum += run(datagram, zeroCopy, pool, PACKETS);
+        long after = threads.getThreadAllocatedBytes(threadId);
+        assertTrue(checksum != 0);
+
+        return (after - before) / (double) PACKETS;
+    }
+
+    private static long run(ChannelBuffer datagram, boolean zeroCopy, DataPacketPool pool, int packets) {
+        long checksum = 0;
+        for (int i = 0; i < packets; i++) {
+            datagram.readerIndex(0);
+            DataPacket packet = DataPacket.decode(datagram, zeroCopy, pool);
+            // Stand-in for a listener touching the packet.
+            checksum += packet.getSsrc() + packet.getDataSize();
+            packet.release();
+        }
+
+        return checksum;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.participant;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput of the per-packet participant lookup as the amount of threads receiving packets grows, comparing a
+ * database that takes a global write lock on every lookup with the lock-free lookup of
+ * {@link DefaultParticipantDatabase}.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ParticipantDatabaseContentionBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private static final int SOURCES = 64;
+    private static final int LOOKUPS_PER_THREAD = 500000;
+
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp() {
+        this.timer = new HashedWheelTimer();
+    }
+
+    @After
+    public void tearDown() {
+        this.timer.stop();
+    }
+
+    @Test
+    public void testLookupThroughputPerThreadCount() throws Exception {
+        System.err.println(String.format("%d cores available", Runtime.getRuntime().availableProcessors()));
+        for (int threads : THREADS) {
+            // Warm up.
+            lookupsPerMicro(new GlobalLockParticipantDatabase(this.timer), threads);
+            lookupsPerMicro(this.newDatabase(), threads);
+
+            double globalLock = lookupsPerMicro(new GlobalLockParticipantDatabase(this.timer), threads);
+            double lockFree = lookupsPerMicro(this.newDatabase(), threads);
+            System.err.println(String.format("%2d threads - global lock: %6.2f lookups/us, " +
+                                             "lock-free lookup: %6.2f lookups/us", threads, globalLock, lockFree));
+        }
+    }
+
+    private DefaultParticipantDatabase newDatabase() {
+        return new DefaultParticipantDatabase(this.timer, "benchmark", new NoopListener());
+    }
+
+    private static double lookupsPerMicro(final ParticipantDatabase database, int threadCount) throws Exception {
+        final SocketAddress origin = new InetSocketAddress("127.0.0.1", 9000);
+        final DataPacket[] packets = new DataPacket[SOURCES];
+        for (int i = 0; i < SOURCES; i++) {
+            packets[i] = new DataPacket();
+            packets[i].setSsrc(1000 + i);
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            final int offset = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < LOOKUPS_PER_THREAD; j++) {
+                            // The first lookups create the participants, all others hit known sources.
+                            assertNotNull(database.getOrCreateParticipantFromDataPacket(origin,
+                                                                                        packets[(j + offset) % SOURCES]));
+                        }
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long before = System.nanoTime();
+        start.countDown();
+        done.await();
+        long after = System.nanoTime();
+
+        assertEquals(SOURCES, database.getParticipantCount());
+        return (threadCount * (double) LOOKUPS_PER_THREAD) / ((after - before) / 1000d);
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * Serializes lookups the way the database used to: under a global write lock.
+     */
+    private static class GlobalLockParticipantDatabase extends DefaultParticipantDatabase {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private GlobalLockParticipantDatabase(HashedWheelTimer timer) {
+            super(timer, "benchmarkGlobalLock", new NoopListener());
+        }
+
+        @Override
+        public RtpParticipant getOrCreateParticipantFromDataPacket(SocketAddress origin, DataPacket packet) {
+            this.lock.writeLock().lock();
+            try {
+                return super.getOrCreateParticipantFromDataPacket(origin, packet);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private static class NoopListener implements ParticipantEventListener {
+
+        @Override
+        public void participantCreatedFromSdesChunk(RtpParticipant participant) {
+        }
+
+        @Override
+        public void participantCreatedFromDataPacket(RtpParticipant participant) {
+        }
+
+        @Override
+        public void participantDeleted(RtpParticipant participant) {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.participant;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cost of a burst of new SSRC's (one per configured receiver) as the amount of receivers grows, comparing a database
+ * that scans the receivers on every new source, as it used to, with the indexed lookup of
+ * {@link DefaultParticipantDatabase}.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ReceiverMatchingBenchmark {
+
+    private static final int[] RECEIVERS = {100, 1000, 5000};
+
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp() {
+        this.timer = new HashedWheelTimer();
+    }
+
+    @After
+    public void tearDown() {
+        this.timer.stop();
+    }
+
+    @Test
+    public void testNewSourceBurstPerReceiverCount() throws Exception {
+        // Warm up.
+        burstMillis(new ScanningParticipantDatabase(this.timer), 1000);
+        burstMillis(this.newDatabase(), 1000);
+
+        for (int receivers : RECEIVERS) {
+            double scanning = burstMillis(new ScanningParticipantDatabase(this.timer), receivers);
+            double indexed = burstMillis(this.newDatabase(), receivers);
+            System.err.println(String.format("%4d receivers - scanning: %8.2fms, indexed: %6.2fms",
+                                             receivers, scanning, indexed));
+        }
+    }
+
+    private DefaultParticipantDatabase newDatabase() {
+        return new DefaultParticipantDatabase(this.timer, "benchmark", new NoopListener());
+    }
+
+    private static double burstMillis(ParticipantDatabase database, int receivers) {
+        SocketAddress[] origins = new SocketAddress[receivers];
+        for (int i = 0; i < receivers; i++) {
+            int port = 10000 + (i * 2);
+            assertTrue(database.addReceiver(RtpParticipant.createReceiver("127.0.0.1", port, port + 1)));
+            origins[i] = new InetSocketAddress("127.0.0.1", port);
+        }
+
+        DataPacket packet = new DataPacket();
+        long before = System.nanoTime();
+        // Every receiver starts sending at once, in reverse order of configuration (worst case for a scan).
+        for (int i = receivers - 1; i >= 0; i--) {
+            packet.setSsrc(1000 + i);
+            database.getOrCreateParticipantFromDataPacket(origins[i], packet);
+        }
+        long after = System.nanoTime();
+
+        assertEquals(receivers, database.getParticipantCount());
+        return (after - before) / 1000000d;
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * Matches new sources the way the database used to: by comparing the origin with every receiver's address.
+     */
+    private static class ScanningParticipantDatabase extends DefaultParticipantDatabase {
+
+        private ScanningParticipantDatabase(HashedWheelTimer timer) {
+            super(timer, "benchmarkScanning", new NoopListener());
+        }
+
+        @Override
+        public RtpParticipant getOrCreateParticipantFromDataPacket(SocketAddress origin, DataPacket packet) {
+            if (this.getParticipant(packet.getSsrc()) == null) {
+                for (RtpParticipant receiver : this.getReceivers()) {
+                    if (receiver.getDataDestination().equals(origin)) {
+                        break;
+                    }
+                }
+            }
+            return super.getOrCreateParticipantFromDataPacket(origin, packet);
+        }
+    }
+
+    private static class NoopListener implements ParticipantEventListener {
+
+        @Override
+        public void participantCreatedFromSdesChunk(RtpParticipant participant) {
+        }
+
+        @Override
+        public void participantCreatedFromDataPacket(RtpParticipant participant) {
+        }
+
+        @Override
+        public void participantDeleted(RtpParticipant participant) {
+        }
+    }
+}
@@ -19,9 +19,11 @@ package com.biasedbit.efflux.session;
 import com.biasedbit.efflux.packet.AppDataPacket;
 import com.biasedbit.efflux.packet.ByePacket;
 import com.biasedbit.efflux.packet.CompoundControlPacket;
+import com.biasedbit.efflux.packet.FeedbackPacket;
 import com.biasedbit.efflux.packet.SdesChunk;
 import com.biasedbit.efflux.packet.SdesChunkItems;
 import com.biasedbit.efflux.packet.SourceDescriptionPacket;
+import com.biasedbit.efflux.participant.RemoteReceptionStatistics;
 import com.biasedbit.efflux.participant.RtpParticipant;
 import com.biasedbit.efflux.participant.RtpParticipantInfo;
 import org.junit.After;
@@ -71,6 +73,11 @@ public class ControlPacketFunctionalTest {
             public void appDataReceived(RtpSession session, AppDataPacket appDataPacket) {
                 fail("Unexpected APP_DATA packet received");
             }
+
+            @Override
+            public void feedbackReceived(RtpSession session, FeedbackPacket packet) {
+                fail("Unexpected feedback packet received");
+            }
         });
 
         RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
@@ -120,6 +127,11 @@ public class ControlPacketFunctionalTest {
             public void appDataReceived(RtpSession session, AppDataPacket appDataPacket) {
                 fail("Unexpected APP_DATA packet received");
             }
+
+            @Override
+            public void feedbackReceived(RtpSession session, FeedbackPacket packet) {
+                fail("Unexpected feedback packet received");
+            }
         });
 
         RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
@@ -185,6 +197,11 @@ public class ControlPacketFunctionalTest {
                 System.err.println("Participant deleted: " + participant);
             }
 
+            @Override
+            public void receptionReportReceived(RtpSession session, RtpParticipant participant,
+                                                RemoteReceptionStatistics statistics) {
+            }
+
             @Override
             public void resolvedSsrcConflict(RtpSession session, long oldSsrc, long newSsrc) {
                 fail("Unexpected event triggered.");
@@ -245,6 +262,11 @@ public class ControlPacketFunctionalTest {
                 System.err.println("Participant deleted: " + participant);
             }
 
+            @Override
+            public void receptionReportReceived(RtpSession session, RtpParticipant participant,
+                                                RemoteReceptionStatistics statistics) {
+            }
+
             @Override
             public void resolvedSsrcConflict(RtpSession session, long oldSsrc, long newSsrc) {
             }
@@ -307,6 +329,11 @@ public class ControlPacketFunctionalTest {
             public void appDataReceived(RtpSession session, AppDataPacket appDataPacket) {
                 fail("Unexpected APP_DATA packet received");
             }
+
+            @Override
+            public void feedbackReceived(RtpSession session, FeedbackPacket packet) {
+                fail("Unexpected feedback packet received");
+            }
         });
 
         RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
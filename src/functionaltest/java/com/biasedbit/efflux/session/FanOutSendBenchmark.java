@@ -0,0 +1,146 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.ParticipantOperation;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Caller-side cost of sending a RTP packet as the amount of receivers grows, comparing one encoding per receiver with
+ * a single encoding shared by all of them.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FanOutSendBenchmark {
+
+    private static final int[] RECEIVERS = {1, 8, 32, 64};
+    private static final int PACKETS = 2000;
+
+    private HashedWheelTimer timer;
+    private OrderedMemoryAwareThreadPoolExecutor executor;
+    private NioDatagramChannelFactory factory;
+    private int nextLocalPort = 16000;
+
+    @Before
+    public void setUp() {
+        this.timer = new HashedWheelTimer();
+        this.executor = new OrderedMemoryAwareThreadPoolExecutor(1, 0, 0);
+        this.factory = new NioDatagramChannelFactory(Executors.newCachedThreadPool());
+    }
+
+    @After
+    public void tearDown() {
+        this.factory.releaseExternalResources();
+        this.executor.shutdownNow();
+        this.timer.stop();
+    }
+
+    @Test
+    public void testSendCostPerReceiverCount() throws Exception {
+        for (int receivers : RECEIVERS) {
+            double perPacketEncoding = microsPerPacket(new PerReceiverEncodingSession(this.newLocal(), this.timer,
+                                                                                     this.executor, this.factory), receivers);
+            double sharedEncoding = microsPerPacket(this.newSession(this.newLocal()), receivers);
+            System.err.println(String.format("%2d receivers - encoding per receiver: %6.2fus/packet, " +
+                                             "shared encoding: %6.2fus/packet",
+                                             receivers, perPacketEncoding, sharedEncoding));
+        }
+    }
+
+    private RtpParticipant newLocal() {
+        // Sessions close their channels asynchronously, so each one gets its own ports.
+        int port = this.nextLocalPort;
+        this.nextLocalPort += 2;
+        return RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", port, port + 1);
+    }
+
+    private DefaultRtpSession newSession(RtpParticipant local) {
+        return new DefaultRtpSession("FanOut", 8, local, this.timer, this.executor, this.factory);
+    }
+
+    private double microsPerPacket(DefaultRtpSession session, int receivers) throws InterruptedException {
+        session.setAutomatedRtcpHandling(false);
+        for (int i = 0; i < receivers; i++) {
+            // Nothing listens on these ports; datagrams are simply dropped by the kernel.
+            assertTrue(session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(100 + i), "127.0.0.1",
+                                                                         20000 + (i * 2), 20001 + (i * 2))));
+        }
+        assertTrue(session.init());
+
+        try {
+            byte[] payload = new byte[160];
+            // Warm up.
+            send(session, payload, PACKETS);
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long before = threads.getCurrentThreadCpuTime();
+            send(session, payload, PACKETS);
+            long after = threads.getCurrentThreadCpuTime();
+
+            // Let the I/O thread drain queued writes before closing the channels.
+            Thread.sleep(1000L);
+
+            return (after - before) / (PACKETS * 1000d);
+        } finally {
+            session.terminate();
+        }
+    }
+
+    private static void send(DefaultRtpSession session, byte[] payload, int packets) {
+        for (int i = 0; i < packets; i++) {
+            assertTrue(session.sendData(payload, i * 160, false));
+        }
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * Sends the way sessions used to: the packet goes through the pipeline's encoder once per receiver.
+     */
+    private static class PerReceiverEncodingSession extends DefaultRtpSession {
+
+        private PerReceiverEncodingSession(RtpParticipant local, HashedWheelTimer timer,
+                                           OrderedMemoryAwareThreadPoolExecutor executor,
+                                           NioDatagramChannelFactory factory) {
+            super("FanOutPerReceiver", 8, local, timer, executor, factory);
+        }
+
+        @Override
+        protected void internalSendData(final DataPacket packet) {
+            this.participantDatabase.doWithReceivers(new ParticipantOperation() {
+                @Override
+                public void doWithParticipant(RtpParticipant participant) throws Exception {
+                    writeToData(packet, participant.getDataDestination());
+                }
+            });
+        }
+    }
+}
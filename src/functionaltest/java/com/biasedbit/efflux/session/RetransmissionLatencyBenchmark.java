@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.GenericNackPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Time from a receiver sending a generic NACK over loopback to it receiving the lost packet, retransmitted by the
+ * sender from its {@link RetransmissionCache} without the application's help.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RetransmissionLatencyBenchmark {
+
+    private static final int PACKETS = 500;
+    private static final int WARMUP = 200;
+    private static final int ROUNDS = 2000;
+
+    private HashedWheelTimer timer;
+    private OrderedMemoryAwareThreadPoolExecutor executor;
+    private NioDatagramChannelFactory factory;
+    private DefaultRtpSession sender;
+    private DefaultRtpSession receiver;
+
+    @Before
+    public void setUp() {
+        this.timer = new HashedWheelTimer();
+        this.executor = new OrderedMemoryAwareThreadPoolExecutor(1, 0, 0);
+        this.factory = new NioDatagramChannelFactory(Executors.newCachedThreadPool());
+    }
+
+    @After
+    public void tearDown() {
+        if (this.sender != null) {
+            this.sender.terminate();
+        }
+        if (this.receiver != null) {
+            this.receiver.terminate();
+        }
+        this.factory.releaseExternalResources();
+        this.executor.shutdownNow();
+        this.timer.stop();
+    }
+
+    @Test
+    public void testNackToRetransmission() throws Exception {
+        this.sender = new DefaultRtpSession("sender", 8, participant(1, 17200), this.timer, this.executor,
+                                            this.factory);
+        this.sender.setRetransmissionCacheSize(256 * 1024);
+        assertTrue(this.sender.addReceiver(participant(2, 17202)));
+        this.receiver = new DefaultRtpSession("receiver", 8, participant(2, 17202), this.timer, this.executor,
+                                              this.factory);
+        // Retransmitted packets are, by definition, out of order.
+        this.receiver.setDiscardOutOfOrder(false);
+        assertTrue(this.receiver.addReceiver(participant(1, 17200)));
+
+        final AtomicInteger awaited = new AtomicInteger(-1);
+        final AtomicReference<CountDownLatch> arrived = new AtomicReference<CountDownLatch>();
+        final CountDownLatch firstSent = new CountDownLatch(PACKETS);
+        this.receiver.addDataListener(new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                firstSent.countDown();
+                if (packet.getSequenceNumber() == awaited.get()) {
+                    arrived.get().countDown();
+                }
+            }
+        });
+        assertTrue(this.sender.init());
+        assertTrue(this.receiver.init());
+
+        byte[] payload = new byte[160];
+        for (int i = 0; i < PACKETS; i++) {
+            assertTrue(this.sender.sendData(payload, i * 160, false));
+        }
+        assertTrue(firstSent.await(5, TimeUnit.SECONDS));
+
+        long[] latencies = new long[ROUNDS];
+        for (int i = 0; i < (WARMUP + ROUNDS); i++) {
+            // Sequence numbers start at 1.
+            int sequenceNumber = 1 + (i % PACKETS);
+            GenericNackPacket nack = new GenericNackPacket();
+            nack.setSenderSsrc(2);
+            nack.setMediaSsrc(1);
+            nack.addLostPacket(sequenceNumber);
+
+            awaited.set(sequenceNumber);
+            arrived.set(new CountDownLatch(1));
+            long start = System.nanoTime();
+            assertTrue(this.receiver.sendControlPacket(nack));
+            assertTrue("Packet " + sequenceNumber + " not retransmitted", arrived.get().await(1, TimeUnit.SECONDS));
+            if (i >= WARMUP) {
+                latencies[i - WARMUP] = System.nanoTime() - start;
+            }
+        }
+
+        Arrays.sort(latencies);
+        System.err.println(String.format("NACK to retransmission over loopback: median %,d us, p90 %,d us, " +
+                                         "p99 %,d us, max %,d us", latencies[ROUNDS / 2] / 1000,
+                                         latencies[(ROUNDS * 9) / 10] / 1000, latencies[(ROUNDS * 99) / 100] / 1000,
+                                         latencies[ROUNDS - 1] / 1000));
+        System.err.println(String.format("Cache: %,d bytes, %,d hits, %,d misses",
+                                         this.sender.getRetransmissionCache().getBytes(),
+                                         this.sender.getRetransmissionCache().getHits(),
+                                         this.sender.getRetransmissionCache().getMisses()));
+    }
+
+    private static RtpParticipant participant(long ssrc, int port) {
+        return RtpParticipant.createReceiver(new RtpParticipantInfo(ssrc), "127.0.0.1", port, port + 1);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Heap and threads taken by sessions hosted on a {@link RtpSessionManager}, right after they start and once RTCP
+ * reports are flowing.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpSessionManagerFootprintBenchmark {
+
+    private static final int SESSIONS = 2000;
+    private static final int FIRST_PORT = 30000;
+
+    private RtpSessionManager manager;
+
+    @Before
+    public void setUp() {
+        this.manager = new RtpSessionManager(SESSIONS);
+    }
+
+    @After
+    public void tearDown() {
+        this.manager.terminate();
+    }
+
+    @Test
+    public void testFootprintPerSession() throws Exception {
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long before = usedMemory();
+
+        for (int i = 0; i < SESSIONS; i++) {
+            int port = FIRST_PORT + (i * 2);
+            RtpParticipant local = RtpParticipant.createReceiver(new RtpParticipantInfo(1 + i), "127.0.0.1", port,
+                                                                 port + 1);
+            DefaultRtpSession session = this.manager.createSession("session" + i, 8, local);
+            // Nothing listens on the receivers' ports; reports are simply dropped by the kernel.
+            assertTrue(session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(100000 + i),
+                                                                         "127.0.0.1", 10000, 10001)));
+            assertTrue(session.init());
+        }
+        long started = usedMemory();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        try {
+            this.manager.createSession("oneTooMany", 8, RtpParticipant.createReceiver("127.0.0.1", 29000, 29001));
+            fail("Session limit should have been enforced");
+        } catch (IllegalStateException expected) {
+        }
+
+        // Let every session send a few rounds of reports.
+        Thread.sleep(15000L);
+        long steady = usedMemory();
+
+        System.err.println(String.format("%d sessions - startup: %.1fKB/session, steady state: %.1fKB/session, " +
+                                         "%d threads for all sessions", SESSIONS,
+                                         (started - before) / (SESSIONS * 1024d),
+                                         (steady - before) / (SESSIONS * 1024d),
+                                         threadsAfter - threadsBefore));
+        assertEquals(SESSIONS, this.manager.getSessionCount());
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -17,6 +17,7 @@
 package com.biasedbit.efflux.session;
 
 import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RemoteReceptionStatistics;
 import com.biasedbit.efflux.participant.RtpParticipant;
 import com.biasedbit.efflux.participant.RtpParticipantInfo;
 import org.junit.After;
@@ -232,6 +233,11 @@ public class SingleParticipantSessionFunctionalTest {
             public void participantDeleted(RtpSession session, RtpParticipant participant) {
             }
 
+            @Override
+            public void receptionReportReceived(RtpSession session, RtpParticipant participant,
+                                                RemoteReceptionStatistics statistics) {
+            }
+
             @Override
             public void resolvedSsrcConflict(RtpSession session, long oldSsrc, long newSsrc) {
                 System.err.println("Resolved SSRC conflict, local SSRC was " + oldSsrc + " and now is " + newSsrc);
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Heap taken by the participant index alone (keys and map structure, not participants) at 100k participants, for
+ * {@link HashMap}, {@link ConcurrentHashMap} and {@link SsrcMap}.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class SsrcMapFootprintBenchmark {
+
+    private static final int PARTICIPANTS = 100000;
+    private static final Object PARTICIPANT = new Object();
+
+    @Test
+    public void testFootprintAt100kParticipants() throws Exception {
+        long[] ssrcs = new long[PARTICIPANTS];
+        Random random = new Random(0);
+        for (int i = 0; i < PARTICIPANTS; i++) {
+            ssrcs[i] = random.nextInt() & 0xffffffffL;
+        }
+
+        // Warm up, so that class loading and JIT don't count.
+        fillHashMap(new HashMap<Long, Object>(), ssrcs);
+        fillHashMap(new ConcurrentHashMap<Long, Object>(), ssrcs);
+        fillSsrcMap(ssrcs);
+
+        long before = usedMemory();
+        Map<Long, Object> hashMap = fillHashMap(new HashMap<Long, Object>(), ssrcs);
+        long hashMapBytes = usedMemory() - before;
+
+        before = usedMemory();
+        Map<Long, Object> concurrentHashMap = fillHashMap(new ConcurrentHashMap<Long, Object>(), ssrcs);
+        long concurrentHashMapBytes = usedMemory() - before;
+
+        before = usedMemory();
+        SsrcMap<Object> ssrcMap = fillSsrcMap(ssrcs);
+        long ssrcMapBytes = usedMemory() - before;
+
+        System.err.println(String.format("%d participants - HashMap: %.1fMB (%d bytes/entry), " +
+                                         "ConcurrentHashMap: %.1fMB (%d bytes/entry), SsrcMap: %.1fMB (%d bytes/entry)",
+                                         PARTICIPANTS,
+                                         hashMapBytes / 1048576d, hashMapBytes / PARTICIPANTS,
+                                         concurrentHashMapBytes / 1048576d, concurrentHashMapBytes / PARTICIPANTS,
+                                         ssrcMapBytes / 1048576d, ssrcMapBytes / PARTICIPANTS));
+
+        // Keep the maps reachable until measured.
+        assertEquals(hashMap.size(), concurrentHashMap.size());
+        assertEquals(hashMap.size(), ssrcMap.size());
+        assertTrue(ssrcMapBytes < hashMapBytes);
+    }
+
+    private static Map<Long, Object> fillHashMap(Map<Long, Object> map, long[] ssrcs) {
+        for (long ssrc : ssrcs) {
+            map.put(ssrc, PARTICIPANT);
+        }
+        return map;
+    }
+
+    private static SsrcMap<Object> fillSsrcMap(long[] ssrcs) {
+        SsrcMap<Object> map = new SsrcMap<Object>();
+        for (long ssrc : ssrcs) {
+            map.put(ssrc, PARTICIPANT);
+        }
+        return map;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,5 +1,6 @@
 package com.biasedbit.efflux.network;
 
+import com.biasedbit.efflux.packet.DataPacketPool;
 import com.google.common.base.Optional;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -7,30 +8,41 @@ import org.jboss.netty.channel.Channels;
 import org.jboss.netty.handler.execution.ExecutionHandler;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.concurrent.Executor;
 
 public class ControlChannelPipelineFactory implements ChannelPipelineFactory {
 
   private final Optional<Executor> executor;
   private final DataPacketReceiver receiver;
+  private final boolean zeroCopyDecode;
+  private final DataPacketPool packetPool;
 
   public ControlChannelPipelineFactory(@Nonnull Executor executor, @Nonnull DataPacketReceiver receiver) {
-    this(Optional.of(executor), receiver);
+    this(Optional.of(executor), receiver, false, null);
+  }
+
+  public ControlChannelPipelineFactory(@Nonnull Executor executor, @Nonnull DataPacketReceiver receiver,
+                                       boolean zeroCopyDecode, @Nullable DataPacketPool packetPool) {
+    this(Optional.of(executor), receiver, zeroCopyDecode, packetPool);
   }
 
   public ControlChannelPipelineFactory(@Nonnull DataPacketReceiver receiver) {
-    this(Optional.<Executor>absent(), receiver);
+    this(Optional.<Executor>absent(), receiver, false, null);
   }
 
-  private ControlChannelPipelineFactory(@Nonnull Optional<Executor> executor, @Nonnull DataPacketReceiver receiver) {
+  private ControlChannelPipelineFactory(@Nonnull Optional<Executor> executor, @Nonnull DataPacketReceiver receiver,
+                                        boolean zeroCopyDecode, @Nullable DataPacketPool packetPool) {
     this.executor = executor;
     this.receiver = receiver;
+    this.zeroCopyDecode = zeroCopyDecode;
+    this.packetPool = packetPool;
   }
 
   @Override
   public ChannelPipeline getPipeline() throws Exception {
     ChannelPipeline pipeline = Channels.pipeline();
-    pipeline.addLast("decoder", new DataPacketDecoder());
+    pipeline.addLast("decoder", new DataPacketDecoder(zeroCopyDecode, packetPool));
     pipeline.addLast("encoder", DataPacketEncoder.getInstance());
     if (executor.isPresent()) {
       pipeline.addLast("executorHandler", new ExecutionHandler(executor.get()));
@@ -53,6 +53,8 @@ class ControlHandler extends SimpleChannelUpstreamHandler {
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         if (e.getMessage() instanceof CompoundControlPacket) {
             this.receiver.controlPacketReceived(e.getRemoteAddress(), (CompoundControlPacket) e.getMessage());
+        } else {
+            ctx.sendUpstream(e);
         }
     }
 
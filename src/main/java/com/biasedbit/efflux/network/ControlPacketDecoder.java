@@ -17,7 +17,6 @@
 package com.biasedbit.efflux.network;
 
 import com.biasedbit.efflux.packet.CompoundControlPacket;
-import com.biasedbit.efflux.packet.ControlPacket;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -27,9 +26,6 @@ import org.jboss.netty.channel.MessageEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
  */
@@ -55,28 +51,14 @@ class ControlPacketDecoder implements ChannelUpstreamHandler {
         }
 
         ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
-        if ((buffer.readableBytes() % 4) != 0) {
-            LOG.debug("Invalid RTCP packet received: total length should be multiple of 4 but is {}",
-                      buffer.readableBytes());
+        int size = buffer.readableBytes();
+        CompoundControlPacket packet = CompoundControlPacket.decode(buffer);
+        if (packet == null) {
+            // The whole compound packet is discarded when any of its packets is malformed (RFC 3550, A.2).
+            LOG.debug("Discarding invalid RTCP compound packet ({} bytes) from {}.", size, e.getRemoteAddress());
             return;
         }
 
-        // Usually 2 packets per UDP frame...
-        List<ControlPacket> controlPacketList = new ArrayList<ControlPacket>(2);
-
-        // While there's data to read, keep on decoding.
-        while (buffer.readableBytes() > 0) {
-            try {
-                controlPacketList.add(ControlPacket.decode(buffer));
-            } catch (Exception e1) {
-                LOG.debug("Exception caught while decoding RTCP packet.", e1);
-            }
-        }
-
-        if (!controlPacketList.isEmpty()) {
-            // Only send upwards when there were more than one valid decoded packets.
-            // TODO shouldn't the whole compound packet be discarded when one of them has errors?!
-            Channels.fireMessageReceived(ctx, new CompoundControlPacket(controlPacketList), e.getRemoteAddress());
-        }
+        Channels.fireMessageReceived(ctx, packet, e.getRemoteAddress());
     }
 }
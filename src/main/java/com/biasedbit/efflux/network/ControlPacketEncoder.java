@@ -19,7 +19,6 @@ package com.biasedbit.efflux.network;
 import com.biasedbit.efflux.packet.CompoundControlPacket;
 import com.biasedbit.efflux.packet.ControlPacket;
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelDownstreamHandler;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandler;
@@ -29,8 +28,6 @@ import org.jboss.netty.channel.MessageEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-
 /**
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
  */
@@ -62,16 +59,17 @@ class ControlPacketEncoder implements ChannelDownstreamHandler {
         }
 
         MessageEvent e = (MessageEvent) evt;
+        if (e.getMessage() instanceof ChannelBuffer) {
+            // Already encoded (e.g. a single encoding shared by writes to several participants).
+            ctx.sendDownstream(evt);
+            return;
+        }
+
         try {
             if (e.getMessage() instanceof ControlPacket) {
                 Channels.write(ctx, e.getFuture(), ((ControlPacket) e.getMessage()).encode(), e.getRemoteAddress());
             } else if (e.getMessage() instanceof CompoundControlPacket) {
-                List<ControlPacket> packets = ((CompoundControlPacket) e.getMessage()).getControlPackets();
-                ChannelBuffer[] buffers = new ChannelBuffer[packets.size()];
-                for (int i = 0; i < buffers.length; i++) {
-                    buffers[i] = packets.get(i).encode();
-                }
-                ChannelBuffer compoundBuffer = ChannelBuffers.wrappedBuffer(buffers);
+                ChannelBuffer compoundBuffer = ((CompoundControlPacket) e.getMessage()).encode();
                 Channels.write(ctx, e.getFuture(), compoundBuffer, e.getRemoteAddress());
             }
         } catch (Exception e1) {
@@ -52,7 +52,16 @@ class DataHandler extends SimpleChannelUpstreamHandler {
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         if (e.getMessage() instanceof DataPacket) {
-            this.receiver.dataPacketReceived(e.getRemoteAddress(), (DataPacket) e.getMessage());
+            DataPacket packet = (DataPacket) e.getMessage();
+            try {
+                this.receiver.dataPacketReceived(e.getRemoteAddress(), packet);
+            } finally {
+                // Whoever needs the packet past this point must have retained it; pooled packets go back to the pool.
+                packet.release();
+            }
+        } else {
+            // Let whatever comes next (e.g. RTCP on a multiplexed channel) be handled further up.
+            ctx.sendUpstream(e);
         }
     }
 
@@ -17,6 +17,7 @@
 package com.biasedbit.efflux.network;
 
 import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.DataPacketPool;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -33,6 +34,28 @@ class DataPacketDecoder extends OneToOneDecoder {
 
     protected static final Logger LOG = LoggerFactory.getLogger(OneToOneDecoder.class);
 
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final boolean zeroCopy;
+    private final DataPacketPool pool;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public DataPacketDecoder() {
+        this(false, null);
+    }
+
+    /**
+     * @param zeroCopy Whether decoded packets should keep payload, extension and CSRC's as views over the inbound
+     *                 datagram instead of copying them. See {@link DataPacket#decode(ChannelBuffer, boolean)}.
+     * @param pool     Pool to take decoded packets from, or {@code null} to always create new ones. Pooled packets are
+     *                 released by {@link DataHandler} once the receiver is done with them.
+     */
+    public DataPacketDecoder(boolean zeroCopy, DataPacketPool pool) {
+        this.zeroCopy = zeroCopy;
+        this.pool = pool;
+    }
+
     // OneToOneDecoder ------------------------------------------------------------------------------------------------
 
     @Override
@@ -42,7 +65,7 @@ class DataPacketDecoder extends OneToOneDecoder {
         }
 
         try {
-            return DataPacket.decode((ChannelBuffer) msg);
+            return DataPacket.decode((ChannelBuffer) msg, this.zeroCopy, this.pool);
         } catch (Exception e) {
             LOG.debug("Failed to decode RTP packet.", e);
             return null;
@@ -17,6 +17,7 @@
 package com.biasedbit.efflux.network;
 
 import com.biasedbit.efflux.packet.DataPacket;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandler;
@@ -24,6 +25,9 @@ import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 
 /**
+ * Encodes {@link DataPacket}s without copying their payload; see {@link DataPacket#encodeComposite(int, DataPacket)}.
+ * Buffers are passed through untouched.
+ *
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
  */
 @ChannelHandler.Sharable
@@ -44,6 +48,11 @@ class DataPacketEncoder extends OneToOneEncoder {
 
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+        if (msg instanceof ChannelBuffer) {
+            // Already encoded (e.g. a single encoding shared by writes to several participants).
+            return msg;
+        }
+
         if (!(msg instanceof DataPacket)) {
             return ChannelBuffers.EMPTY_BUFFER;
         }
@@ -52,7 +61,7 @@ class DataPacketEncoder extends OneToOneEncoder {
         if (packet.getDataSize() == 0) {
             return ChannelBuffers.EMPTY_BUFFER;
         }
-        return packet.encode();
+        return packet.encodeComposite();
     }
 
     // private classes ------------------------------------------------------------------------------------------------
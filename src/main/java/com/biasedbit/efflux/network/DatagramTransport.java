@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds the datagram channels that RTP and RTCP are received on.
+ * <p/>
+ * A transport may be able to bind several channels on the same local address ({@code SO_REUSEPORT}), in which case the
+ * kernel spreads the flows (source address and port) across them. Each channel is then read by its own I/O thread,
+ * while packets of any given flow always arrive on the same channel.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ * @see DefaultDatagramTransport
+ */
+public interface DatagramTransport {
+
+    /**
+     * @return Whether {@link #bind(SocketAddress, ChannelPipelineFactory, Map, int)} can bind more than one channel.
+     */
+    boolean isReusePortSupported();
+
+    /**
+     * Binds channels on a local address, each with its own pipeline.
+     *
+     * @param address         Local address.
+     * @param pipelineFactory Factory for the pipeline of each channel.
+     * @param options         Channel options, as for {@link org.jboss.netty.bootstrap.ConnectionlessBootstrap}.
+     * @param channels        Amount of channels to bind; more than one requires {@link #isReusePortSupported()}.
+     *
+     * @return The bound channels.
+     *
+     * @throws IllegalArgumentException If more than one channel is requested but the transport can't bind them on
+     *                                  the same address.
+     * @throws ChannelException         If any of the channels fails to bind; those already bound are closed.
+     */
+    List<Channel> bind(SocketAddress address, ChannelPipelineFactory pipelineFactory, Map<String, Object> options,
+                       int channels);
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannel;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds channels created by a {@link DatagramChannelFactory}.
+ * <p/>
+ * Several channels can be bound on the same address if the factory is a {@link NioDatagramChannelFactory} and the JVM
+ * exposes {@code SO_REUSEPORT} (Java 9 or newer, on Linux or BSD). Netty doesn't expose the option itself, so it's set
+ * through reflection on the underlying socket, before binding. The factory hands out its workers in turn, so as long
+ * as it has at least as many workers as channels are bound, each channel gets an I/O thread of its own.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class DefaultDatagramTransport implements DatagramTransport {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    protected static final Logger LOG = LoggerFactory.getLogger(DefaultDatagramTransport.class);
+
+    private static final Object SO_REUSEPORT;
+    private static final Method GET_DATAGRAM_CHANNEL;
+    private static final Method SET_OPTION;
+
+    static {
+        Object option = null;
+        Method getDatagramChannel = null;
+        Method setOption = null;
+        try {
+            Class<?> socketOption = Class.forName("java.net.SocketOption");
+            Object candidate = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+            DatagramChannel probe = DatagramChannel.open();
+            try {
+                Method supportedOptions = DatagramChannel.class.getMethod("supportedOptions");
+                if (((Collection<?>) supportedOptions.invoke(probe)).contains(candidate)) {
+                    getDatagramChannel = NioDatagramChannel.class.getDeclaredMethod("getDatagramChannel");
+                    getDatagramChannel.setAccessible(true);
+                    setOption = DatagramChannel.class.getMethod("setOption", socketOption, Object.class);
+                    option = candidate;
+                }
+            } finally {
+                probe.close();
+            }
+        } catch (Exception e) {
+            // Older JVM or a platform without SO_REUSEPORT; a single channel per address, then.
+            option = null;
+        }
+
+        SO_REUSEPORT = option;
+        GET_DATAGRAM_CHANNEL = getDatagramChannel;
+        SET_OPTION = setOption;
+    }
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final DatagramChannelFactory factory;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public DefaultDatagramTransport(DatagramChannelFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Channel factory cannot be null");
+        }
+
+        this.factory = factory;
+    }
+
+    // DatagramTransport ----------------------------------------------------------------------------------------------
+
+    @Override
+    public boolean isReusePortSupported() {
+        return (SO_REUSEPORT != null) && (this.factory instanceof NioDatagramChannelFactory);
+    }
+
+    @Override
+    public List<Channel> bind(SocketAddress address, ChannelPipelineFactory pipelineFactory,
+                              Map<String, Object> options, int channels) {
+        if (channels <= 0) {
+            throw new IllegalArgumentException("Channel count must be > 0");
+        }
+        if ((channels > 1) && !this.isReusePortSupported()) {
+            throw new IllegalArgumentException("Cannot bind " + channels + " channels on " + address +
+                                               ": SO_REUSEPORT is not supported");
+        }
+
+        List<Channel> bound = new ArrayList<Channel>(channels);
+        try {
+            for (int i = 0; i < channels; i++) {
+                bound.add(this.bind(address, pipelineFactory, options, channels > 1));
+            }
+        } catch (RuntimeException e) {
+            for (Channel channel : bound) {
+                channel.close().awaitUninterruptibly();
+            }
+            throw e;
+        }
+
+        if (channels > 1) {
+            LOG.debug("Bound {} channels on {} with SO_REUSEPORT.", channels, address);
+        }
+        return bound;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link org.jboss.netty.bootstrap.ConnectionlessBootstrap#bind(SocketAddress)}, but with the chance to
+     * set {@code SO_REUSEPORT} before binding.
+     */
+    private Channel bind(SocketAddress address, ChannelPipelineFactory pipelineFactory, Map<String, Object> options,
+                         boolean reusePort) {
+        Channel channel;
+        try {
+            channel = this.factory.newChannel(pipelineFactory.getPipeline());
+        } catch (ChannelException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ChannelException("Failed to initialize a pipeline.", e);
+        }
+
+        boolean configured = false;
+        try {
+            channel.getConfig().setOptions(options);
+            if (reusePort) {
+                setReusePort(channel);
+            }
+            configured = true;
+        } finally {
+            if (!configured) {
+                channel.close();
+            }
+        }
+
+        ChannelFuture future = channel.bind(address).awaitUninterruptibly();
+        if (!future.isSuccess()) {
+            channel.close().awaitUninterruptibly();
+            throw new ChannelException("Failed to bind to: " + address, future.getCause());
+        }
+
+        return channel;
+    }
+
+    private static void setReusePort(Channel channel) {
+        try {
+            SET_OPTION.invoke(GET_DATAGRAM_CHANNEL.invoke(channel), SO_REUSEPORT, true);
+        } catch (Exception e) {
+            throw new ChannelException("Failed to set SO_REUSEPORT.", e);
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public DatagramChannelFactory getFactory() {
+        return factory;
+    }
+}
@@ -0,0 +1,64 @@
+package com.biasedbit.efflux.network;
+
+import com.biasedbit.efflux.packet.DataPacketPool;
+import com.google.common.base.Optional;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.Executor;
+
+/**
+ * Pipeline for a channel that carries both RTP and RTCP (rtcp-mux, RFC 5761).
+ */
+public class MultiplexedChannelPipelineFactory implements ChannelPipelineFactory {
+
+  private final Optional<Executor> executor;
+  private final DataPacketReceiver dataReceiver;
+  private final ControlPacketReceiver controlReceiver;
+  private final boolean zeroCopyDecode;
+  private final DataPacketPool packetPool;
+
+  public MultiplexedChannelPipelineFactory(@Nonnull Executor executor, @Nonnull DataPacketReceiver dataReceiver,
+                                           @Nonnull ControlPacketReceiver controlReceiver) {
+    this(Optional.of(executor), dataReceiver, controlReceiver, false, null);
+  }
+
+  public MultiplexedChannelPipelineFactory(@Nonnull Executor executor, @Nonnull DataPacketReceiver dataReceiver,
+                                           @Nonnull ControlPacketReceiver controlReceiver, boolean zeroCopyDecode,
+                                           @Nullable DataPacketPool packetPool) {
+    this(Optional.of(executor), dataReceiver, controlReceiver, zeroCopyDecode, packetPool);
+  }
+
+  public MultiplexedChannelPipelineFactory(@Nonnull DataPacketReceiver dataReceiver,
+                                           @Nonnull ControlPacketReceiver controlReceiver) {
+    this(Optional.<Executor>absent(), dataReceiver, controlReceiver, false, null);
+  }
+
+  private MultiplexedChannelPipelineFactory(@Nonnull Optional<Executor> executor,
+                                            @Nonnull DataPacketReceiver dataReceiver,
+                                            @Nonnull ControlPacketReceiver controlReceiver, boolean zeroCopyDecode,
+                                            @Nullable DataPacketPool packetPool) {
+    this.executor = executor;
+    this.dataReceiver = dataReceiver;
+    this.controlReceiver = controlReceiver;
+    this.zeroCopyDecode = zeroCopyDecode;
+    this.packetPool = packetPool;
+  }
+
+  @Override
+  public ChannelPipeline getPipeline() throws Exception {
+    ChannelPipeline pipeline = Channels.pipeline();
+    pipeline.addLast("decoder", new MultiplexedPacketDecoder(new DataPacketDecoder(zeroCopyDecode, packetPool)));
+    pipeline.addLast("encoder", MultiplexedPacketEncoder.getInstance());
+    if (executor.isPresent()) {
+      pipeline.addLast("executorHandler", new ExecutionHandler(executor.get()));
+    }
+    pipeline.addLast("dataHandler", new DataHandler(dataReceiver));
+    pipeline.addLast("controlHandler", new ControlHandler(controlReceiver));
+    return pipeline;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * Tells RTP from RTCP datagrams received on the same port and hands each to the matching decoder.
+ * <p/>
+ * As per RFC 5761, section 4, a datagram whose second byte (the RTCP packet type, or the RTP marker bit and payload
+ * type) is in the range [192;223] is RTCP; anything else is RTP. RTP payload types 64 to 95 are therefore not usable
+ * when multiplexing.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+class MultiplexedPacketDecoder implements ChannelUpstreamHandler {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FIRST_RTCP_TYPE = 192;
+    public static final int LAST_RTCP_TYPE = 223;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final DataPacketDecoder dataDecoder;
+    private final ControlPacketDecoder controlDecoder;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public MultiplexedPacketDecoder(DataPacketDecoder dataDecoder) {
+        this.dataDecoder = dataDecoder;
+        this.controlDecoder = new ControlPacketDecoder();
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    public static boolean isControlPacket(ChannelBuffer buffer) {
+        if (buffer.readableBytes() < 2) {
+            return false;
+        }
+
+        int type = buffer.getUnsignedByte(buffer.readerIndex() + 1);
+        return (type >= FIRST_RTCP_TYPE) && (type <= LAST_RTCP_TYPE);
+    }
+
+    // ChannelUpstreamHandler -----------------------------------------------------------------------------------------
+
+    @Override
+    public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+        if (!(evt instanceof MessageEvent) || !(((MessageEvent) evt).getMessage() instanceof ChannelBuffer)) {
+            ctx.sendUpstream(evt);
+            return;
+        }
+
+        // Both decoders pass what they decode on to the handler after this one.
+        if (isControlPacket((ChannelBuffer) ((MessageEvent) evt).getMessage())) {
+            this.controlDecoder.handleUpstream(ctx, evt);
+        } else {
+            this.dataDecoder.handleUpstream(ctx, evt);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * Encodes both RTP and RTCP packets written to a multiplexed channel, by handing each to the matching encoder.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+@ChannelHandler.Sharable
+class MultiplexedPacketEncoder implements ChannelDownstreamHandler {
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    private MultiplexedPacketEncoder() {
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    public static MultiplexedPacketEncoder getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    // ChannelDownstreamHandler ---------------------------------------------------------------------------------------
+
+    @Override
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+        // Already encoded buffers go through either encoder untouched.
+        if ((evt instanceof MessageEvent) && (((MessageEvent) evt).getMessage() instanceof DataPacket)) {
+            DataPacketEncoder.getInstance().handleDownstream(ctx, evt);
+        } else {
+            ControlPacketEncoder.getInstance().handleDownstream(ctx, evt);
+        }
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private static final class InstanceHolder {
+        private static final MultiplexedPacketEncoder INSTANCE = new MultiplexedPacketEncoder();
+    }
+}
@@ -0,0 +1,576 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import com.biasedbit.efflux.packet.CompoundControlPacket;
+import com.biasedbit.efflux.packet.ControlPacketView;
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.util.SsrcMap;
+import com.biasedbit.efflux.util.UdpSocketStatistics;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binds a single data channel and a single control channel and routes the packets they receive to any amount of
+ * receivers (usually sessions), so that those don't each need their own pair of ports.
+ * <p/>
+ * Inbound packets are routed by origin address and SSRC:
+ * <ol>
+ * <li>a source whose SSRC was already seen from the same address goes to the receiver it went to before;</li>
+ * <li>otherwise, the receiver registered for the origin address (see {@link #addDataRoute(SocketAddress,
+ * DataPacketReceiver)}) gets the packet, and the source's SSRC is learnt;</li>
+ * <li>if the address is unknown, but the SSRC isn't (e.g. the source is now behind a different NAT binding), the
+ * packet goes to the receiver that SSRC was learnt for.</li>
+ * </ol>
+ * Packets that match none of the above are dropped and counted (see {@link #getUnroutablePackets()}). Routing never
+ * locks; only registering routes and learning new SSRC's do.
+ * <p/>
+ * Packets are delivered by the executor, when one is given, or by the I/O thread otherwise. Either way, a single
+ * socket is read by a single thread, so packets from both channels are delivered in order, one at a time.
+ * <p/>
+ * A single socket caps the packet rate at what one thread can read. If the transport supports it, each address can be
+ * bound by several channels (see {@link #setReceiveChannels(int)}); the kernel then spreads the flows across them and
+ * each is read by its own thread. Packets of the same flow still arrive in order, but receivers may get packets from
+ * different flows concurrently.
+ * <p/>
+ * With rtcp-mux (RFC 5761), a single channel carries both RTP and RTCP; see
+ * {@link #RtpDemultiplexer(DatagramChannelFactory, Executor, SocketAddress)}.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpDemultiplexer implements DataPacketReceiver, ControlPacketReceiver {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    protected static final Logger LOG = LoggerFactory.getLogger(RtpDemultiplexer.class);
+
+    // configuration defaults -----------------------------------------------------------------------------------------
+
+    protected static final int SEND_BUFFER_SIZE = 64 * 1024;
+    protected static final int RECEIVE_BUFFER_SIZE = 256 * 1024;
+    protected static final int READ_BUFFER_SIZE = 1500;
+    protected static final int RECEIVE_CHANNELS = 1;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final DatagramTransport transport;
+    private final Executor executor;
+    private final SocketAddress dataAddress;
+    private final SocketAddress controlAddress;
+    private final boolean rtcpMux;
+    private int sendBufferSize;
+    private int receiveBufferSize;
+    private int readBufferSize;
+    private int receiveChannels;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final Routes<DataPacketReceiver> dataRoutes;
+    private final Routes<ControlPacketReceiver> controlRoutes;
+    private final AtomicLong unroutablePackets;
+    private volatile boolean running;
+    private List<Channel> dataChannels;
+    private List<Channel> controlChannels;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public RtpDemultiplexer(DatagramChannelFactory factory, SocketAddress dataAddress, SocketAddress controlAddress) {
+        this(factory, null, dataAddress, controlAddress);
+    }
+
+    /**
+     * @param factory        Factory for both channels.
+     * @param executor       Executor that delivers packets to the receivers, or {@code null} to deliver them from the
+     *                       I/O thread.
+     * @param dataAddress    Local address for RTP.
+     * @param controlAddress Local address for RTCP.
+     */
+    public RtpDemultiplexer(DatagramChannelFactory factory, Executor executor, SocketAddress dataAddress,
+                            SocketAddress controlAddress) {
+        this(new DefaultDatagramTransport(factory), executor, dataAddress, controlAddress, false);
+    }
+
+    /**
+     * @param transport      Transport that binds both channels.
+     * @param executor       Executor that delivers packets to the receivers, or {@code null} to deliver them from the
+     *                       I/O thread.
+     * @param dataAddress    Local address for RTP.
+     * @param controlAddress Local address for RTCP.
+     */
+    public RtpDemultiplexer(DatagramTransport transport, Executor executor, SocketAddress dataAddress,
+                            SocketAddress controlAddress) {
+        this(transport, executor, dataAddress, controlAddress, false);
+    }
+
+    /**
+     * Creates a demultiplexer with rtcp-mux: RTP and RTCP share a single channel.
+     *
+     * @param factory  Factory for the channel.
+     * @param executor Executor that delivers packets to the receivers, or {@code null} to deliver them from the I/O
+     *                 thread.
+     * @param address  Local address for both RTP and RTCP.
+     */
+    public RtpDemultiplexer(DatagramChannelFactory factory, Executor executor, SocketAddress address) {
+        this(new DefaultDatagramTransport(factory), executor, address, address, true);
+    }
+
+    /**
+     * Creates a demultiplexer with rtcp-mux: RTP and RTCP share a single channel.
+     *
+     * @param transport Transport that binds the channel.
+     * @param executor  Executor that delivers packets to the receivers, or {@code null} to deliver them from the I/O
+     *                  thread.
+     * @param address   Local address for both RTP and RTCP.
+     */
+    public RtpDemultiplexer(DatagramTransport transport, Executor executor, SocketAddress address) {
+        this(transport, executor, address, address, true);
+    }
+
+    private RtpDemultiplexer(DatagramTransport transport, Executor executor, SocketAddress dataAddress,
+                             SocketAddress controlAddress, boolean rtcpMux) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport cannot be null");
+        }
+        if ((dataAddress == null) || (controlAddress == null)) {
+            throw new IllegalArgumentException("Data and control addresses cannot be null");
+        }
+
+        this.transport = transport;
+        this.executor = executor;
+        this.dataAddress = dataAddress;
+        this.controlAddress = controlAddress;
+        this.rtcpMux = rtcpMux;
+        this.sendBufferSize = SEND_BUFFER_SIZE;
+        this.receiveBufferSize = RECEIVE_BUFFER_SIZE;
+        this.readBufferSize = READ_BUFFER_SIZE;
+        this.receiveChannels = RECEIVE_CHANNELS;
+
+        this.dataRoutes = new Routes<DataPacketReceiver>();
+        this.controlRoutes = new Routes<ControlPacketReceiver>();
+        this.unroutablePackets = new AtomicLong();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public synchronized boolean init() {
+        if (this.running) {
+            return true;
+        }
+
+        if (this.rtcpMux) {
+            return this.initMultiplexed();
+        }
+
+        ChannelPipelineFactory dataPipelineFactory = this.executor == null ?
+                                                     new ControlChannelPipelineFactory(this) :
+                                                     new ControlChannelPipelineFactory(this.executor, this);
+        ChannelPipelineFactory controlPipelineFactory = this.executor == null ?
+                                                        new DataChannelPipelineFactory(this) :
+                                                        new DataChannelPipelineFactory(this.executor, this);
+
+        try {
+            this.dataChannels = this.bind(this.dataAddress, dataPipelineFactory);
+            this.controlChannels = this.bind(this.controlAddress, controlPipelineFactory);
+        } catch (Exception e) {
+            LOG.error("Failed to bind shared channels on {} and {}.", this.dataAddress, this.controlAddress, e);
+            if (this.dataChannels != null) {
+                close(this.dataChannels);
+                this.dataChannels = null;
+            }
+            return false;
+        }
+
+        LOG.debug("Shared data & control channels bound on {} and {}.", this.dataAddress, this.controlAddress);
+        this.running = true;
+        return true;
+    }
+
+    /**
+     * Closes both channels. Receivers aren't notified; they should be terminated first.
+     */
+    public synchronized void terminate() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+
+        close(this.dataChannels);
+        if (!this.rtcpMux) {
+            close(this.controlChannels);
+        }
+        this.dataRoutes.clear();
+        this.controlRoutes.clear();
+        LOG.debug("Shared data & control channels on {} and {} closed.", this.dataAddress, this.controlAddress);
+    }
+
+    /**
+     * Routes RTP packets from the given address to the given receiver.
+     *
+     * @return {@code false} if another receiver already gets the packets from that address.
+     */
+    public boolean addDataRoute(SocketAddress origin, DataPacketReceiver receiver) {
+        return this.dataRoutes.add(origin, receiver);
+    }
+
+    public void removeDataRoute(SocketAddress origin, DataPacketReceiver receiver) {
+        this.dataRoutes.remove(origin, receiver);
+    }
+
+    /**
+     * Routes RTCP packets from the given address to the given receiver.
+     *
+     * @return {@code false} if another receiver already gets the packets from that address.
+     */
+    public boolean addControlRoute(SocketAddress origin, ControlPacketReceiver receiver) {
+        return this.controlRoutes.add(origin, receiver);
+    }
+
+    public void removeControlRoute(SocketAddress origin, ControlPacketReceiver receiver) {
+        this.controlRoutes.remove(origin, receiver);
+    }
+
+    /**
+     * Removes every route to the given receiver, including the SSRC's learnt for it.
+     */
+    public void removeRoutes(Object receiver) {
+        this.dataRoutes.removeAll(receiver);
+        this.controlRoutes.removeAll(receiver);
+    }
+
+    // DataPacketReceiver ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void dataPacketReceived(SocketAddress origin, DataPacket packet) {
+        DataPacketReceiver receiver = this.dataRoutes.route(origin, packet.getSsrc());
+        if (receiver == null) {
+            this.unroutable(origin, packet.getSsrc());
+            return;
+        }
+
+        receiver.dataPacketReceived(origin, packet);
+    }
+
+    // ControlPacketReceiver ------------------------------------------------------------------------------------------
+
+    @Override
+    public void controlPacketReceived(SocketAddress origin, CompoundControlPacket packet) {
+        long ssrc = getSenderSsrc(packet);
+        ControlPacketReceiver receiver = this.controlRoutes.route(origin, ssrc);
+        if (receiver == null) {
+            this.unroutable(origin, ssrc);
+            return;
+        }
+
+        receiver.controlPacketReceived(origin, packet);
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    private static void close(List<Channel> channels) {
+        for (Channel channel : channels) {
+            Channels.close(channel);
+        }
+    }
+
+    /**
+     * @return SSRC of the source that sent the compound packet, as identified by its first packet, or -1 if unknown.
+     *         Validation guarantees a received compound packet starts with a SR or RR, so the SSRC is read straight
+     *         from the datagram, leaving the packets undecoded.
+     */
+    private static long getSenderSsrc(CompoundControlPacket packet) {
+        ControlPacketView view = packet.getView();
+        if (!view.next() || (view.getLength() < 8)) {
+            return -1;
+        }
+
+        // Sender SSRC for reports, SSRC of the first chunk for SDES, first SSRC for BYE.
+        return view.getSenderSsrc();
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private boolean initMultiplexed() {
+        ChannelPipelineFactory pipelineFactory = this.executor == null ?
+                                                 new MultiplexedChannelPipelineFactory(this, this) :
+                                                 new MultiplexedChannelPipelineFactory(this.executor, this, this);
+
+        try {
+            this.dataChannels = this.bind(this.dataAddress, pipelineFactory);
+            this.controlChannels = this.dataChannels;
+        } catch (Exception e) {
+            LOG.error("Failed to bind shared multiplexed channel on {}.", this.dataAddress, e);
+            return false;
+        }
+
+        LOG.debug("Shared multiplexed channel bound on {}.", this.dataAddress);
+        this.running = true;
+        return true;
+    }
+
+    private List<Channel> bind(SocketAddress address, ChannelPipelineFactory pipelineFactory) {
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put("sendBufferSize", this.sendBufferSize);
+        options.put("receiveBufferSize", this.receiveBufferSize);
+        options.put("receiveBufferSizePredictorFactory",
+                    new FixedReceiveBufferSizePredictorFactory(this.readBufferSize));
+        return this.transport.bind(address, pipelineFactory, options, this.receiveChannels);
+    }
+
+    private void unroutable(SocketAddress origin, long ssrc) {
+        this.unroutablePackets.incrementAndGet();
+        LOG.trace("Dropped packet from {} with SSRC {}: no route.", origin, ssrc);
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isRtcpMux() {
+        return rtcpMux;
+    }
+
+    public SocketAddress getDataAddress() {
+        return dataAddress;
+    }
+
+    public SocketAddress getControlAddress() {
+        return controlAddress;
+    }
+
+    /**
+     * @return The channel receivers should send RTP through, or {@code null} if not running.
+     */
+    public Channel getDataChannel() {
+        return this.dataChannels == null ? null : this.dataChannels.get(0);
+    }
+
+    /**
+     * @return The channel receivers should send RTCP through, or {@code null} if not running.
+     */
+    public Channel getControlChannel() {
+        return this.controlChannels == null ? null : this.controlChannels.get(0);
+    }
+
+    /**
+     * @return All channels bound on the data address.
+     */
+    public List<Channel> getDataChannels() {
+        return this.dataChannels == null ? Collections.<Channel>emptyList() :
+                                           Collections.unmodifiableList(this.dataChannels);
+    }
+
+    /**
+     * @return All channels bound on the control address; the same as the data channels with rtcp-mux.
+     */
+    public List<Channel> getControlChannels() {
+        return this.controlChannels == null ? Collections.<Channel>emptyList() :
+                                              Collections.unmodifiableList(this.controlChannels);
+    }
+
+    public DatagramTransport getTransport() {
+        return transport;
+    }
+
+    public long getUnroutablePackets() {
+        return this.unroutablePackets.get();
+    }
+
+    /**
+     * @return Amount of datagrams the kernel dropped on the shared sockets because their receive buffers were full, or
+     *         -1 if not running or the OS doesn't expose it (see {@link UdpSocketStatistics}).
+     */
+    public long getKernelDrops() {
+        if (!this.running) {
+            return -1;
+        }
+
+        return UdpSocketStatistics.getDrops((InetSocketAddress) this.getDataChannel().getLocalAddress(),
+                                            (InetSocketAddress) this.getControlChannel().getLocalAddress());
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * @param sendBufferSize Size of the sockets' send buffers ({@code SO_SNDBUF}), in bytes.
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (this.running) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Datagrams that arrive while the receive buffer is full are dropped by the kernel (see {@link #getKernelDrops()}),
+     * so it should hold the largest burst expected across all receivers; the OS may cap it (on Linux, at
+     * {@code net.core.rmem_max}).
+     *
+     * @param receiveBufferSize Size of the sockets' receive buffers ({@code SO_RCVBUF}), in bytes.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (this.running) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * @param readBufferSize Size of the buffer each datagram is read into, in bytes; larger datagrams are truncated.
+     */
+    public void setReadBufferSize(int readBufferSize) {
+        if (this.running) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.readBufferSize = readBufferSize;
+    }
+
+    public int getReceiveChannels() {
+        return receiveChannels;
+    }
+
+    /**
+     * Sets the amount of channels bound on each address. More than one requires a transport that supports
+     * {@code SO_REUSEPORT} (see {@link DatagramTransport#isReusePortSupported()}); it's only worth it if the I/O
+     * threads can run on different cores.
+     */
+    public void setReceiveChannels(int receiveChannels) {
+        if (this.running) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        if (receiveChannels <= 0) {
+            throw new IllegalArgumentException("Receive channels must be > 0");
+        }
+        if ((receiveChannels > 1) && !this.transport.isReusePortSupported()) {
+            throw new IllegalArgumentException("Transport cannot bind several channels on the same address");
+        }
+        this.receiveChannels = receiveChannels;
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * Routing table for one of the channels: receivers by origin address, as registered, and by SSRC, as learnt.
+     */
+    private static class Routes<R> {
+
+        private final ConcurrentHashMap<SocketAddress, R> byAddress;
+        private final SsrcMap<LearntRoute<R>> bySsrc;
+
+        private Routes() {
+            this.byAddress = new ConcurrentHashMap<SocketAddress, R>();
+            this.bySsrc = new SsrcMap<LearntRoute<R>>();
+        }
+
+        private boolean add(SocketAddress origin, R receiver) {
+            if ((origin == null) || (receiver == null)) {
+                throw new IllegalArgumentException("Origin and receiver cannot be null");
+            }
+
+            R previous = this.byAddress.putIfAbsent(origin, receiver);
+            return (previous == null) || (previous == receiver);
+        }
+
+        private void remove(SocketAddress origin, R receiver) {
+            if (!this.byAddress.remove(origin, receiver)) {
+                return;
+            }
+
+            // Iterators work on a snapshot of the table, so entries can be removed while iterating.
+            for (Map.Entry<Long, LearntRoute<R>> entry : this.bySsrc.asMap().entrySet()) {
+                LearntRoute<R> route = entry.getValue();
+                if ((route.receiver == receiver) && route.origin.equals(origin)) {
+                    this.bySsrc.remove(entry.getKey(), route);
+                }
+            }
+        }
+
+        private void removeAll(Object receiver) {
+            for (Map.Entry<SocketAddress, R> entry : this.byAddress.entrySet()) {
+                if (entry.getValue() == receiver) {
+                    this.byAddress.remove(entry.getKey());
+                }
+            }
+
+            for (Map.Entry<Long, LearntRoute<R>> entry : this.bySsrc.asMap().entrySet()) {
+                if (entry.getValue().receiver == receiver) {
+                    this.bySsrc.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        private void clear() {
+            this.byAddress.clear();
+            this.bySsrc.clear();
+        }
+
+        private R route(SocketAddress origin, long ssrc) {
+            LearntRoute<R> learnt = SsrcMap.isValidSsrc(ssrc) ? this.bySsrc.get(ssrc) : null;
+            if ((learnt != null) && learnt.origin.equals(origin)) {
+                return learnt.receiver;
+            }
+
+            R receiver = this.byAddress.get(origin);
+            if (receiver != null) {
+                if ((learnt == null) && SsrcMap.isValidSsrc(ssrc)) {
+                    this.bySsrc.putIfAbsent(ssrc, new LearntRoute<R>(origin, receiver));
+                }
+                return receiver;
+            }
+
+            // Unknown address, but known source.
+            return learnt == null ? null : learnt.receiver;
+        }
+    }
+
+    private static class LearntRoute<R> {
+
+        private final SocketAddress origin;
+        private final R receiver;
+
+        private LearntRoute(SocketAddress origin, R receiver) {
+            this.origin = origin;
+            this.receiver = receiver;
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.biasedbit.efflux.packet;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -56,6 +58,23 @@ public abstract class AbstractReportPacket extends ControlPacket {
         return (byte) this.receptionReports.size();
     }
 
+    // ControlPacket --------------------------------------------------------------------------------------------------
+
+    @Override
+    protected int getInnerBlockCount() {
+        return this.getReceptionReportCount();
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    protected void encodeReceptionReports(ChannelBuffer buffer) {
+        if (this.receptionReports != null) {
+            for (ReceptionReport block : this.receptionReports) {
+                block.encode(buffer);
+            }
+        }
+    }
+
     // getters & setters ----------------------------------------------------------------------------------------------
 
     public long getSenderSsrc() {
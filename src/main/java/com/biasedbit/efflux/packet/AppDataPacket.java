@@ -17,33 +17,200 @@
 package com.biasedbit.efflux.packet;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
 
 /**
+ *  0                   1                   2                   3
+ *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |V=2|P| subtype |   PT=APP=204  |             length            |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                           SSRC/CSRC                           |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                          name (ASCII)                         |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                   application-dependent data                ...
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * <p/>
+ * The application-dependent data is never copied: decoded packets keep it as a slice of the datagram and packets
+ * being sent keep a reference to the buffer they were given (see {@link CompoundControlPacket#encodeComposite()}).
+ *
  * @author <a:mailto="bruno.carvalho@wit-software.com" />Bruno de Carvalho</a>
  */
 public class AppDataPacket extends ControlPacket {
 
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private int subtype;
+    private long ssrc;
+    private String name;
+    private ChannelBuffer data;
+
     // constructors ---------------------------------------------------------------------------------------------------
 
-    public AppDataPacket(Type type) {
-        super(type);
+    public AppDataPacket() {
+        super(Type.APP_DATA);
+        this.data = ChannelBuffers.EMPTY_BUFFER;
     }
 
     // public static methods ------------------------------------------------------------------------------------------
 
+    /**
+     * Decodes an APP packet, keeping its data as a slice of {@code buffer}; the packet is only valid while
+     * {@code buffer} is.
+     */
+    public static AppDataPacket decode(ChannelBuffer buffer, boolean hasPadding, byte innerBlocks, int length) {
+        // Length is written in 32bit words, not octet count.
+        int lengthInOctets = (length * 4);
+        int padding = hasPadding ? buffer.getUnsignedByte(buffer.readerIndex() + lengthInOctets - 1) : 0;
+        int dataLength = lengthInOctets - 8 - padding;
+        if (dataLength < 0) {
+            throw new IllegalArgumentException("Invalid APP packet length: " + lengthInOctets + " bytes, " + padding +
+                                               " of which padding");
+        }
+
+        AppDataPacket packet = new AppDataPacket();
+        packet.subtype = innerBlocks;
+        packet.ssrc = buffer.readUnsignedInt();
+        packet.name = buffer.toString(buffer.readerIndex(), 4, CharsetUtil.US_ASCII);
+        buffer.skipBytes(4);
+        packet.data = buffer.readSlice(dataLength);
+        buffer.skipBytes(padding);
+
+        return packet;
+    }
+
     public static ChannelBuffer encode(int currentCompoundLength, int fixedBlockSize, AppDataPacket packet) {
-        return null;
+        return packet.encode(currentCompoundLength, fixedBlockSize);
     }
 
     // ControlPacket --------------------------------------------------------------------------------------------------
 
     @Override
-    public ChannelBuffer encode(int currentCompoundLength, int fixedBlockSize) {
-        return encode(currentCompoundLength, fixedBlockSize, this);
+    public int getEncodedLength() {
+        if (this.name == null) {
+            throw new IllegalStateException("APP packet name must be set");
+        }
+        if ((this.data.readableBytes() % 4) != 0) {
+            throw new IllegalStateException("APP packet data must be a multiple of 4 bytes long and is " +
+                                            this.data.readableBytes());
+        }
+
+        return 12 + this.data.readableBytes();
+    }
+
+    @Override
+    protected int getInnerBlockCount() {
+        return this.subtype;
+    }
+
+    @Override
+    protected void encodeBody(ChannelBuffer buffer) {
+        this.encodeSsrcAndName(buffer);
+        buffer.writeBytes(this.data, this.data.readerIndex(), this.data.readableBytes());
+    }
+
+    // package-private helpers ----------------------------------------------------------------------------------------
+
+    /**
+     * Writes header, SSRC and name, leaving the data out, so it can follow as a separate buffer. Never padded.
+     */
+    void encodeWithoutData(ChannelBuffer buffer) {
+        int length = this.getEncodedLength();
+        buffer.writeByte(this.version.getByte() | this.subtype);
+        buffer.writeByte(this.type.getByte());
+        buffer.writeShort((length / 4) - 1);
+        this.encodeSsrcAndName(buffer);
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void encodeSsrcAndName(ChannelBuffer buffer) {
+        buffer.writeInt((int) this.ssrc);
+        for (int i = 0; i < 4; i++) {
+            buffer.writeByte(this.name.charAt(i));
+        }
     }
 
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getSubtype() {
+        return subtype;
+    }
+
+    public void setSubtype(int subtype) {
+        if ((subtype < 0) || (subtype > 31)) {
+            throw new IllegalArgumentException("Valid range for subtype is [0;31]");
+        }
+        this.subtype = subtype;
+    }
+
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    public void setSsrc(long ssrc) {
+        if ((ssrc < 0) || (ssrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        this.ssrc = ssrc;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name Exactly 4 ASCII characters, chosen by whoever defines the packet's format.
+     */
+    public void setName(String name) {
+        if ((name == null) || (name.length() != 4)) {
+            throw new IllegalArgumentException("Name must be exactly 4 characters long");
+        }
+        for (int i = 0; i < 4; i++) {
+            if (name.charAt(i) > 0x7f) {
+                throw new IllegalArgumentException("Name must be ASCII");
+            }
+        }
+        this.name = name;
+    }
+
+    /**
+     * @return The application-dependent data; for decoded packets, a slice of the datagram.
+     */
+    public ChannelBuffer getData() {
+        return data;
+    }
+
+    /**
+     * @param data Application-dependent data, from its reader index to its writer index; a multiple of 4 bytes long.
+     *             It's kept by reference, not copied, so it must not be modified until the packet has been sent.
+     */
+    public void setData(ChannelBuffer data) {
+        if (data == null) {
+            data = ChannelBuffers.EMPTY_BUFFER;
+        } else if ((data.readableBytes() % 4) != 0) {
+            throw new IllegalArgumentException("Data must be a multiple of 4 bytes long and is " +
+                                               data.readableBytes());
+        }
+        this.data = data;
+    }
+
+    public int getDataSize() {
+        return this.data.readableBytes();
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
     @Override
-    public ChannelBuffer encode() {
-        return encode(0, 0, this);
+    public String toString() {
+        return new StringBuilder()
+                .append("AppDataPacket{")
+                .append("subtype=").append(this.subtype)
+                .append(", ssrc=").append(this.ssrc)
+                .append(", name='").append(this.name).append('\'')
+                .append(", dataSize=").append(this.getDataSize())
+                .append('}').toString();
     }
 }
@@ -17,10 +17,10 @@
 package com.biasedbit.efflux.packet;
 
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.util.CharsetUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -31,8 +31,10 @@ public class ByePacket extends ControlPacket {
 
     // internal vars --------------------------------------------------------------------------------------------------
 
-    private List<Long> ssrcList;
+    private long[] ssrcs;
+    private int ssrcCount;
     private String reasonForLeaving;
+    private byte[] reasonForLeavingBytes;
 
     // constructors ---------------------------------------------------------------------------------------------------
 
@@ -68,132 +70,116 @@ public class ByePacket extends ControlPacket {
     }
 
     public static ChannelBuffer encode(int currentCompoundLength, int fixedBlockSize, ByePacket packet) {
-        if ((currentCompoundLength < 0) || ((currentCompoundLength % 4) > 0)) {
-            throw new IllegalArgumentException("Current compound length must be a non-negative multiple of 4");
-        }
-        if ((fixedBlockSize < 0) || ((fixedBlockSize % 4) > 0)) {
-            throw new IllegalArgumentException("Padding modulus must be a non-negative multiple of 4");
-        }
+        return packet.encode(currentCompoundLength, fixedBlockSize);
+    }
 
-        int size = 4;
-        ChannelBuffer buffer;
-        if (packet.ssrcList != null) {
-            size += packet.ssrcList.size() * 4;
-        }
-        byte[] reasonForLeavingBytes = null;
-        int reasonForLeavingPadding = 0;
-        if (packet.reasonForLeaving != null) {
-            reasonForLeavingBytes = packet.reasonForLeaving.getBytes(CharsetUtil.UTF_8);
-            if (reasonForLeavingBytes.length > 255) {
-                throw new IllegalArgumentException("Reason for leaving cannot exceed 255 bytes and this has " +
-                                                   reasonForLeavingBytes.length);
-            }
+    // ControlPacket --------------------------------------------------------------------------------------------------
 
-            size += (1 + reasonForLeavingBytes.length);
+    @Override
+    public int getEncodedLength() {
+        int length = 4 + (this.ssrcCount * 4);
+        byte[] reasonForLeavingBytes = this.getReasonForLeavingBytes();
+        if (reasonForLeavingBytes != null) {
             // 'reason for leaving' must be 32bit aligned, so extra null octets might be needed.
-            reasonForLeavingPadding = 4 - ((1 + reasonForLeavingBytes.length) % 4);
-            if (reasonForLeavingPadding == 4) {
-                reasonForLeavingPadding = 0;
-            }
-            if (reasonForLeavingPadding > 0) {
-                size += reasonForLeavingPadding;
-            }
+            length += (1 + reasonForLeavingBytes.length + 3) & ~3;
         }
 
-        // If packet was configured to have padding, calculate padding and add it.
-        int padding = 0;
-        if (fixedBlockSize > 0) {
-            // If padding modulus is > 0 then the padding is equal to:
-            // (global size of the compound RTCP packet) mod (block size)
-            // Block size alignment might be necessary for some encryption algorithms
-            // RFC section 6.4.1
-            padding = fixedBlockSize - ((size + currentCompoundLength) % fixedBlockSize);
-            if (padding == fixedBlockSize) {
-                padding = 0;
-            }
-        }
+        return length;
+    }
 
-        size += padding;
+    @Override
+    protected int getInnerBlockCount() {
+        return this.ssrcCount;
+    }
 
-        // Allocate the buffer and write contents
-        buffer = ChannelBuffers.buffer(size);
-        // First byte: Version (2b), Padding (1b), SSRC (chunks) count (5b)
-        byte b = packet.getVersion().getByte();
-        if (padding > 0) {
-            b |= 0x20;
-        }
-        if (packet.ssrcList != null) {
-            b |= packet.ssrcList.size();
-        }
-        buffer.writeByte(b);
-        // Second byte: Packet Type
-        buffer.writeByte(packet.type.getByte());
-        // Third byte: total length of the packet, in multiples of 4 bytes (32bit words) - 1
-        int sizeInOctets = (size / 4) - 1;
-        buffer.writeShort(sizeInOctets);
+    @Override
+    protected void encodeBody(ChannelBuffer buffer) {
         // Payload: ssrc list
-        if (packet.ssrcList != null) {
-            for (Long ssrc : packet.ssrcList) {
-                buffer.writeInt(ssrc.intValue());
-            }
+        for (int i = 0; i < this.ssrcCount; i++) {
+            buffer.writeInt((int) this.ssrcs[i]);
         }
         // If 'reason for leaving' was specified, add it.
+        byte[] reasonForLeavingBytes = this.getReasonForLeavingBytes();
         if (reasonForLeavingBytes != null) {
             buffer.writeByte(reasonForLeavingBytes.length);
             buffer.writeBytes(reasonForLeavingBytes);
-            for (int i = 0; i < reasonForLeavingPadding; i++) {
-                buffer.writeByte(0x00);
+            int reasonForLeavingPadding = 4 - ((1 + reasonForLeavingBytes.length) % 4);
+            if (reasonForLeavingPadding != 4) {
+                buffer.writeZero(reasonForLeavingPadding);
             }
         }
+    }
 
-        if (padding > 0) {
-            // Final bytes: padding
-            for (int i = 0; i < (padding - 1); i++) {
-                buffer.writeByte(0x00);
-            }
+    // public methods -------------------------------------------------------------------------------------------------
 
-            // Final byte: the amount of padding bytes that should be discarded.
-            // Unless something's wrong, it will be a multiple of 4.
-            buffer.writeByte(padding);
+    public boolean addSsrc(long ssrc) {
+        if ((ssrc < 0) || (ssrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
         }
 
-        return buffer;
-    }
-
-    // ControlPacket --------------------------------------------------------------------------------------------------
+        if (this.ssrcs == null) {
+            this.ssrcs = new long[4];
+        } else if (this.ssrcCount == this.ssrcs.length) {
+            this.ssrcs = Arrays.copyOf(this.ssrcs, this.ssrcCount * 2);
+        }
 
-    @Override
-    public ChannelBuffer encode(int currentCompoundLength, int fixedBlockSize) {
-        return encode(currentCompoundLength, fixedBlockSize, this);
+        this.ssrcs[this.ssrcCount++] = ssrc;
+        return true;
     }
 
-    @Override
-    public ChannelBuffer encode() {
-        return encode(0, 0, this);
+    /**
+     * @return Amount of SSRC's in this packet.
+     */
+    public int getSsrcCount() {
+        return this.ssrcCount;
     }
 
-    // public methods -------------------------------------------------------------------------------------------------
-
-    public boolean addSsrc(long ssrc) {
-        if ((ssrc < 0) || (ssrc > 0xffffffffL)) {
-            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+    /**
+     * Reads an SSRC without boxing; prefer this and {@link #getSsrcCount()} over {@link #getSsrcList()}.
+     *
+     * @param index Index of the SSRC, in range [0;{@link #getSsrcCount()}[.
+     *
+     * @return The SSRC at the given index.
+     */
+    public long getSsrc(int index) {
+        if ((index < 0) || (index >= this.ssrcCount)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", SSRC count: " + this.ssrcCount);
         }
 
-        if (this.ssrcList == null) {
-            this.ssrcList = new ArrayList<Long>();
+        return this.ssrcs[index];
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private byte[] getReasonForLeavingBytes() {
+        if ((this.reasonForLeaving != null) && (this.reasonForLeavingBytes == null)) {
+            byte[] bytes = this.reasonForLeaving.getBytes(CharsetUtil.UTF_8);
+            if (bytes.length > 255) {
+                throw new IllegalArgumentException("Reason for leaving cannot exceed 255 bytes and this has " +
+                                                   bytes.length);
+            }
+            this.reasonForLeavingBytes = bytes;
         }
 
-        return this.ssrcList.add(ssrc);
+        return this.reasonForLeavingBytes;
     }
 
     // getters & setters ----------------------------------------------------------------------------------------------
 
+    /**
+     * @return A copy of the SSRC list, boxed.
+     */
     public List<Long> getSsrcList() {
-        return Collections.unmodifiableList(this.ssrcList);
+        List<Long> ssrcList = new ArrayList<Long>(this.ssrcCount);
+        for (int i = 0; i < this.ssrcCount; i++) {
+            ssrcList.add(this.ssrcs[i]);
+        }
+        return Collections.unmodifiableList(ssrcList);
     }
 
     public void setSsrcList(List<Long> ssrcList) {
-        this.ssrcList = new ArrayList<Long>(ssrcList.size());
+        this.ssrcs = null;
+        this.ssrcCount = 0;
         for (Long ssrc : ssrcList) {
             // Validate each ssrc being added.
             this.addSsrc(ssrc);
@@ -206,6 +192,7 @@ public class ByePacket extends ControlPacket {
 
     public void setReasonForLeaving(String reasonForLeaving) {
         this.reasonForLeaving = reasonForLeaving;
+        this.reasonForLeavingBytes = null;
     }
 
     // low level overrides --------------------------------------------------------------------------------------------
@@ -214,7 +201,7 @@ public class ByePacket extends ControlPacket {
     public String toString() {
         return new StringBuilder()
                 .append("ByePacket{")
-                .append("ssrcList=").append(this.ssrcList)
+                .append("ssrcList=").append(this.getSsrcList())
                 .append(", reasonForLeaving='").append(reasonForLeaving).append('\'')
                 .append('}').toString();
     }
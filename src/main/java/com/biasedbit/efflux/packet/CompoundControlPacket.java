@@ -16,17 +16,30 @@
 
 package com.biasedbit.efflux.packet;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 /**
+ * A RTCP compound packet.
+ * <p/>
+ * Compound packets decoded with {@link #decode(ChannelBuffer)} keep the datagram and only build {@link ControlPacket}
+ * instances once {@link #getControlPackets()} is first called; {@link #getView()} reads fields straight from the
+ * datagram instead, without allocating anything.
+ *
  * @author <a:mailto="bruno.carvalho@wit-software.com" />Bruno de Carvalho</a>
  */
 public class CompoundControlPacket {
 
     // internal vars --------------------------------------------------------------------------------------------------
 
-    private final List<ControlPacket> controlPackets;
+    private volatile List<ControlPacket> controlPackets;
+    private final ChannelBuffer buffer;
+    private final int packetCount;
+    private final int encodedSize;
 
     // constructors ---------------------------------------------------------------------------------------------------
 
@@ -35,34 +48,383 @@ public class CompoundControlPacket {
             throw new IllegalArgumentException("At least one RTCP packet must be provided");
         }
         this.controlPackets = Arrays.asList(controlPackets);
+        this.buffer = null;
+        this.packetCount = controlPackets.length;
+        this.encodedSize = -1;
     }
 
     public CompoundControlPacket(List<ControlPacket> controlPackets) {
+        this(controlPackets, -1);
+    }
+
+    /**
+     * @param controlPackets RTCP packets.
+     * @param encodedSize    Size, in bytes, of the datagram these packets were decoded from.
+     */
+    public CompoundControlPacket(List<ControlPacket> controlPackets, int encodedSize) {
         if ((controlPackets == null) || controlPackets.isEmpty()) {
             throw new IllegalArgumentException("ControlPacket list cannot be null or empty");
         }
         this.controlPackets = controlPackets;
+        this.buffer = null;
+        this.packetCount = controlPackets.size();
+        this.encodedSize = encodedSize;
+    }
+
+    private CompoundControlPacket(ChannelBuffer buffer, int packetCount) {
+        this.buffer = buffer;
+        this.packetCount = packetCount;
+        this.encodedSize = buffer.readableBytes();
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * Checks a datagram against the validity rules of RFC 3550 (appendix A.2) by walking the headers of its packets:
+     * every packet must be version 2, the first one must be a SR or RR, only the last one may carry padding (with a
+     * sensible padding count) and the lengths must add up to the datagram's size. The contents of the packets that
+     * can be decoded must fit their lengths too: report blocks, SSRCs, SDES items, the BYE reason, the APP name and
+     * feedback FCI entries.
+     * <p/>
+     * Nothing is decoded nor allocated, so bogus datagrams can be discarded cheaply. The buffer's indexes are left
+     * untouched.
+     *
+     * @param buffer Datagram, from its reader index to its writer index.
+     *
+     * @return Amount of packets in the compound packet, or -1 if it's invalid.
+     */
+    public static int validate(ChannelBuffer buffer) {
+        return validate(buffer, false);
+    }
+
+    /**
+     * Validates (see {@link #validate(ChannelBuffer)}) a compound packet and wraps it, without decoding anything yet.
+     * Packets of types that can't be decoded (i.e. defined by other RFCs, or feedback messages other than generic NACK,
+     * PLI and FIR) are skipped.
+     *
+     * @param buffer Datagram, from its reader index to its writer index; fully consumed if valid, and not to be
+     *               modified afterwards.
+     *
+     * @return The compound packet, or {@code null} if the datagram is invalid.
+     */
+    public static CompoundControlPacket decode(ChannelBuffer buffer) {
+        int count = validate(buffer, true);
+        if (count < 0) {
+            return null;
+        }
+
+        CompoundControlPacket packet = new CompoundControlPacket(buffer.slice(), count);
+        buffer.skipBytes(buffer.readableBytes());
+        return packet;
+    }
+
+    /**
+     * Encodes all packets into a single buffer, sized up front.
+     */
+    public static ChannelBuffer encode(CompoundControlPacket packet) {
+        List<ControlPacket> packets = packet.getControlPackets();
+        ChannelBuffer buffer = HeaderBufferAllocator.allocate(packet.getEncodedLength());
+        for (int i = 0; i < packets.size(); i++) {
+            packets.get(i).encode(buffer, 0, 0);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Encodes all packets without copying the data of APP packets.
+     * <p/>
+     * Everything but APP data is written into a single buffer, taken from a per-thread chunk, and returned along with
+     * the APP data buffers as a single composite buffer (not a gathering one, which Netty would send as several
+     * datagrams). The APP data is only read when the composite is written to the socket, so it must not be modified
+     * until then. Without APP data, this is the same as {@link #encode(CompoundControlPacket)}.
+     */
+    public static ChannelBuffer encodeComposite(CompoundControlPacket packet) {
+        List<ControlPacket> packets = packet.getControlPackets();
+        int dataLength = 0;
+        for (int i = 0; i < packets.size(); i++) {
+            if (packets.get(i) instanceof AppDataPacket) {
+                dataLength += ((AppDataPacket) packets.get(i)).getDataSize();
+            }
+        }
+        if (dataLength == 0) {
+            return encode(packet);
+        }
+
+        ChannelBuffer buffer = HeaderBufferAllocator.allocate(packet.getEncodedLength() - dataLength);
+        List<ChannelBuffer> components = new ArrayList<ChannelBuffer>();
+        int componentStart = 0;
+        for (int i = 0; i < packets.size(); i++) {
+            ControlPacket controlPacket = packets.get(i);
+            if (!(controlPacket instanceof AppDataPacket) || (((AppDataPacket) controlPacket).getDataSize() == 0)) {
+                controlPacket.encode(buffer, 0, 0);
+                continue;
+            }
+
+            AppDataPacket appDataPacket = (AppDataPacket) controlPacket;
+            appDataPacket.encodeWithoutData(buffer);
+            components.add(buffer.slice(componentStart, buffer.writerIndex() - componentStart));
+            components.add(appDataPacket.getData().slice());
+            componentStart = buffer.writerIndex();
+        }
+        if (componentStart < buffer.writerIndex()) {
+            components.add(buffer.slice(componentStart, buffer.writerIndex() - componentStart));
+        }
+
+        return ChannelBuffers.wrappedBuffer(false, components.toArray(new ChannelBuffer[components.size()]));
     }
 
     // public methods -------------------------------------------------------------------------------------------------
 
+    public ChannelBuffer encode() {
+        return encode(this);
+    }
+
+    public ChannelBuffer encodeComposite() {
+        return encodeComposite(this);
+    }
+
+    /**
+     * @return A new view, positioned before the first packet, over the datagram this packet was decoded from (or over
+     *         its encoding, if it wasn't decoded).
+     */
+    public ControlPacketView getView() {
+        return new ControlPacketView(this.buffer == null ? this.encode() : this.buffer);
+    }
+
+    /**
+     * @return Length of this compound packet once encoded.
+     */
+    public int getEncodedLength() {
+        List<ControlPacket> packets = this.getControlPackets();
+        int length = 0;
+        for (int i = 0; i < packets.size(); i++) {
+            length += packets.get(i).getEncodedLength();
+        }
+
+        return length;
+    }
+
+    /**
+     * @return Amount of packets in {@link #getControlPackets()}, without decoding them.
+     */
     public int getPacketCount() {
-        return this.controlPackets.size();
+        return this.packetCount;
+    }
+
+    // package-private helpers -----------------------------------------------------------------------------------------
+
+    /**
+     * @param firstByte First byte of the packet's header, which holds the feedback message type of RTPFB and PSFB.
+     * @param type      Packet type.
+     */
+    static boolean isDecodable(byte firstByte, byte type) {
+        if ((type == ControlPacket.Type.TRANSPORT_FEEDBACK.getByte()) ||
+            (type == ControlPacket.Type.PAYLOAD_SPECIFIC_FEEDBACK.getByte())) {
+            return FeedbackPacket.isSupported(ControlPacket.Type.fromByte(type), firstByte & 0x1f);
+        }
+
+        return (type == ControlPacket.Type.SENDER_REPORT.getByte()) ||
+               (type == ControlPacket.Type.RECEIVER_REPORT.getByte()) ||
+               (type == ControlPacket.Type.SOURCE_DESCRIPTION.getByte()) ||
+               (type == ControlPacket.Type.BYE.getByte()) ||
+               (type == ControlPacket.Type.APP_DATA.getByte());
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    /**
+     * @param countDecodable Whether to count only the packets that can be decoded, rather than all of them.
+     */
+    private static int validate(ChannelBuffer buffer, boolean countDecodable) {
+        int index = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        if (((end - index) < 4) || (((end - index) % 4) != 0)) {
+            return -1;
+        }
+
+        // First byte: version 2, no padding.
+        if ((buffer.getByte(index) & 0xe0) != 0x80) {
+            return -1;
+        }
+        byte firstType = buffer.getByte(index + 1);
+        if ((firstType != ControlPacket.Type.SENDER_REPORT.getByte()) &&
+            (firstType != ControlPacket.Type.RECEIVER_REPORT.getByte())) {
+            return -1;
+        }
+
+        int count = 0;
+        while (index < end) {
+            byte b = buffer.getByte(index);
+            if ((b & 0xc0) != 0x80) {
+                return -1;
+            }
+
+            // Length is in 32bit words, minus one.
+            int length = (buffer.getUnsignedShort(index + 2) + 1) * 4;
+            if (length > (end - index)) {
+                return -1;
+            }
+
+            int payloadEnd = index + length;
+            if ((b & 0x20) != 0) {
+                // Padding is only allowed on the last packet and can't exceed the packet's contents.
+                int padding = buffer.getUnsignedByte(end - 1);
+                if ((payloadEnd != end) || (padding == 0) || (padding > (length - 4))) {
+                    return -1;
+                }
+                payloadEnd -= padding;
+            }
+
+            byte type = buffer.getByte(index + 1);
+            int innerBlocks = b & 0x1f;
+            if (type == ControlPacket.Type.SENDER_REPORT.getByte()) {
+                if ((index + 28 + (innerBlocks * 24)) > payloadEnd) {
+                    return -1;
+                }
+            } else if (type == ControlPacket.Type.RECEIVER_REPORT.getByte()) {
+                if ((index + 8 + (innerBlocks * 24)) > payloadEnd) {
+                    return -1;
+                }
+            } else if (type == ControlPacket.Type.BYE.getByte()) {
+                if (!isValidBye(buffer, index + 4 + (innerBlocks * 4), payloadEnd)) {
+                    return -1;
+                }
+            } else if (type == ControlPacket.Type.SOURCE_DESCRIPTION.getByte()) {
+                // Chunks missing the null item are only tolerated at the very end of the datagram.
+                if (!isValidSdes(buffer, index + 4, payloadEnd, innerBlocks, payloadEnd == end)) {
+                    return -1;
+                }
+            } else if (type == ControlPacket.Type.APP_DATA.getByte()) {
+                // SSRC and name.
+                if ((index + 12) > payloadEnd) {
+                    return -1;
+                }
+            } else if ((type == ControlPacket.Type.TRANSPORT_FEEDBACK.getByte()) ||
+                       (type == ControlPacket.Type.PAYLOAD_SPECIFIC_FEEDBACK.getByte())) {
+                if (!isValidFeedback(type, innerBlocks, payloadEnd - index - 12)) {
+                    return -1;
+                }
+            }
+
+            if (!countDecodable || isDecodable(b, type)) {
+                count++;
+            }
+            index += length;
+        }
+
+        return count;
+    }
+
+    /**
+     * Sender and media source SSRCs, then whole FCI entries.
+     */
+    private static boolean isValidFeedback(byte type, int format, int fciLength) {
+        if (fciLength < 0) {
+            return false;
+        }
+        if ((type == ControlPacket.Type.TRANSPORT_FEEDBACK.getByte()) && (format == GenericNackPacket.FORMAT)) {
+            return (fciLength % 4) == 0;
+        }
+        if ((type == ControlPacket.Type.PAYLOAD_SPECIFIC_FEEDBACK.getByte()) &&
+            (format == FullIntraRequestPacket.FORMAT)) {
+            return (fciLength % 8) == 0;
+        }
+
+        return true;
+    }
+
+    private static boolean isValidBye(ChannelBuffer buffer, int reasonOffset, int end) {
+        if (reasonOffset >= end) {
+            return reasonOffset == end;
+        }
+
+        // Reason length (1b), reason (xb)
+        return (reasonOffset + 1 + buffer.getUnsignedByte(reasonOffset)) <= end;
+    }
+
+    private static boolean isValidSdes(ChannelBuffer buffer, int index, int end, int chunks, boolean last) {
+        for (int i = 0; i < chunks; i++) {
+            int chunkStart = index;
+            // SSRC
+            index += 4;
+            for (;;) {
+                if (index >= end) {
+                    if ((index > end) || !last || (i < (chunks - 1))) {
+                        return false;
+                    }
+                    break;
+                }
+
+                int type = buffer.getUnsignedByte(index);
+                if (type == SdesChunkItem.Type.NULL.getByte()) {
+                    // Null item, followed by null octets up to the 32 bit alignment.
+                    index = chunkStart + (((index + 1 - chunkStart) + 3) & ~3);
+                    break;
+                }
+                if ((type > SdesChunkItem.Type.PRIV.getByte()) || ((index + 2) > end)) {
+                    return false;
+                }
+
+                // Type (1b), length (1b), value (xb)
+                int itemLength = buffer.getUnsignedByte(index + 1);
+                if ((index + 2 + itemLength) > end) {
+                    return false;
+                }
+                if ((type == SdesChunkItem.Type.PRIV.getByte()) &&
+                    ((itemLength == 0) || (buffer.getUnsignedByte(index + 2) > (itemLength - 1)))) {
+                    return false;
+                }
+                index += 2 + itemLength;
+            }
+        }
+
+        return index <= end;
     }
 
     // getters & setters ----------------------------------------------------------------------------------------------
 
+    /**
+     * @return The RTCP packets, decoded on the first call if this packet was decoded from a datagram.
+     */
     public List<ControlPacket> getControlPackets() {
+        if (this.controlPackets == null) {
+            ControlPacketView view = new ControlPacketView(this.buffer);
+            List<ControlPacket> packets = new ArrayList<ControlPacket>(this.packetCount);
+            while (view.next()) {
+                ControlPacket packet = view.decode();
+                if (packet != null) {
+                    packets.add(packet);
+                }
+            }
+            this.controlPackets = packets;
+        }
+
         return this.controlPackets;
     }
 
+    /**
+     * @return {@code true} once {@link #getControlPackets()} holds decoded packets; always for packets that weren't
+     *         decoded from a datagram.
+     */
+    public boolean isDecoded() {
+        return this.controlPackets != null;
+    }
+
+    /**
+     * @return Size, in bytes, of the datagram this packet was decoded from, or -1 if it wasn't decoded.
+     */
+    public int getEncodedSize() {
+        return this.encodedSize;
+    }
+
     // low level overrides --------------------------------------------------------------------------------------------
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("CompoundControlPacket{\n");
-        for (ControlPacket packet : this.controlPackets) {
+        for (ControlPacket packet : this.getControlPackets()) {
             builder.append("  ").append(packet.toString()).append('\n');
         }
         return builder.append('}').toString();
@@ -17,6 +17,7 @@
 package com.biasedbit.efflux.packet;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 /**
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
@@ -53,10 +54,7 @@ public abstract class ControlPacket {
         ControlPacket.Type type = ControlPacket.Type.fromByte(buffer.readByte());
 
         // This length is in 32bit (4byte) words. These first 4 bytes already read don't count.
-        int length = buffer.readShort();
-        if (length == 0) {
-            return null;
-        }
+        int length = buffer.readUnsignedShort();
 
         // No need to pass version downwards, only V2 is supported so subclasses can safely assume V2.
         // I know it's ugly when the superclass knows about the subclasses but since this method is static (and NEEDS
@@ -71,15 +69,116 @@ public abstract class ControlPacket {
             case BYE:
                 return ByePacket.decode(buffer, hasPadding, innerBlocks, length);
             case APP_DATA:
-                return null;
+                return AppDataPacket.decode(buffer, hasPadding, innerBlocks, length);
+            case TRANSPORT_FEEDBACK:
+            case PAYLOAD_SPECIFIC_FEEDBACK:
+                return FeedbackPacket.decode(buffer, type, hasPadding, innerBlocks, length);
             default:
                 throw new IllegalArgumentException("Unknown RTCP packet type: " + type);
         }
     }
 
-    public abstract ChannelBuffer encode(int currentCompoundLength, int fixedBlockSize);
+    /**
+     * @param currentCompoundLength Length, in bytes, of the packets that precede this one in the compound packet.
+     * @param fixedBlockSize        Block size the compound packet must be aligned to (with padding in this packet), or
+     *                              0 for no padding.
+     *
+     * @return Length of this packet once encoded, padding included.
+     */
+    public int getEncodedLength(int currentCompoundLength, int fixedBlockSize) {
+        int length = this.getEncodedLength();
+        return length + getPadding(length, currentCompoundLength, fixedBlockSize);
+    }
+
+    /**
+     * Writes this packet into the given buffer, so that several packets can share a single buffer.
+     *
+     * @param buffer                Buffer to write to, with at least {@link #getEncodedLength(int, int)} writable
+     *                              bytes.
+     * @param currentCompoundLength Length, in bytes, of the packets that precede this one in the compound packet.
+     * @param fixedBlockSize        Block size the compound packet must be aligned to (with padding in this packet), or
+     *                              0 for no padding.
+     */
+    public void encode(ChannelBuffer buffer, int currentCompoundLength, int fixedBlockSize) {
+        int length = this.getEncodedLength();
+        int padding = getPadding(length, currentCompoundLength, fixedBlockSize);
+
+        // First byte: Version (2b), Padding (1b), inner block count (5b)
+        byte b = this.version.getByte();
+        if (padding > 0) {
+            b |= 0x20;
+        }
+        b |= this.getInnerBlockCount();
+        buffer.writeByte(b);
+        // Second byte: Packet Type
+        buffer.writeByte(this.type.getByte());
+        // Third byte: total length of the packet, in multiples of 4 bytes (32bit words) - 1
+        buffer.writeShort(((length + padding) / 4) - 1);
+        // Remaining bytes: type specific
+        this.encodeBody(buffer);
+
+        if (padding > 0) {
+            // Final bytes: padding
+            buffer.writeZero(padding - 1);
+
+            // Final byte: the amount of padding bytes that should be discarded.
+            // Unless something's wrong, it will be a multiple of 4.
+            buffer.writeByte(padding);
+        }
+    }
+
+    public ChannelBuffer encode(int currentCompoundLength, int fixedBlockSize) {
+        ChannelBuffer buffer = ChannelBuffers.buffer(this.getEncodedLength(currentCompoundLength, fixedBlockSize));
+        this.encode(buffer, currentCompoundLength, fixedBlockSize);
+        return buffer;
+    }
+
+    public ChannelBuffer encode() {
+        return this.encode(0, 0);
+    }
+
+    /**
+     * @return Length of this packet once encoded, header included and padding excluded; always a multiple of 4.
+     */
+    public abstract int getEncodedLength();
+
+    // protected static helpers ---------------------------------------------------------------------------------------
+
+    protected static int getPadding(int length, int currentCompoundLength, int fixedBlockSize) {
+        if ((currentCompoundLength < 0) || ((currentCompoundLength % 4) > 0)) {
+            throw new IllegalArgumentException("Current compound length must be a non-negative multiple of 4");
+        }
+        if ((fixedBlockSize < 0) || ((fixedBlockSize % 4) > 0)) {
+            throw new IllegalArgumentException("Padding modulus must be a non-negative multiple of 4");
+        }
+        if (fixedBlockSize == 0) {
+            return 0;
+        }
+
+        // If padding modulus is > 0 then the padding is equal to:
+        // (global size of the compound RTCP packet) mod (block size)
+        // Block size alignment might be necessary for some encryption algorithms
+        // RFC section 6.4.1
+        int padding = fixedBlockSize - ((length + currentCompoundLength) % fixedBlockSize);
+        if (padding == fixedBlockSize) {
+            return 0;
+        }
+
+        return padding;
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Value of the 5 bit field in the header (report blocks, chunks, SSRCs, subtype or feedback message type,
+     *         depending on the type).
+     */
+    protected abstract int getInnerBlockCount();
 
-    public abstract ChannelBuffer encode();
+    /**
+     * Writes everything that follows the common header, exactly {@link #getEncodedLength()} - 4 bytes.
+     */
+    protected abstract void encodeBody(ChannelBuffer buffer);
 
     // getters & setters ----------------------------------------------------------------------------------------------
 
@@ -108,7 +207,10 @@ public abstract class ControlPacket {
         RECEIVER_REPORT((byte) 0xc9),
         SOURCE_DESCRIPTION((byte) 0xca),
         BYE((byte) 0xcb),
-        APP_DATA((byte) 0xcc);
+        APP_DATA((byte) 0xcc),
+        // RFC 4585
+        TRANSPORT_FEEDBACK((byte) 0xcd),
+        PAYLOAD_SPECIFIC_FEEDBACK((byte) 0xce);
 
         // internal vars ----------------------------------------------------------------------------------------------
 
@@ -134,6 +236,10 @@ public abstract class ControlPacket {
                     return BYE;
                 case (byte) 0xcc:
                     return APP_DATA;
+                case (byte) 0xcd:
+                    return TRANSPORT_FEEDBACK;
+                case (byte) 0xce:
+                    return PAYLOAD_SPECIFIC_FEEDBACK;
                 default:
                     throw new IllegalArgumentException("Unknown RTCP packet type: " + b);
             }
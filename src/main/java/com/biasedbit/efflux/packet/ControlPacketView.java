@@ -0,0 +1,224 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * Read-only cursor over the packets of a validated RTCP compound packet, reading fields straight from the buffer as
+ * they're asked for. Nothing is allocated by moving the cursor or reading numeric fields, so the packets (or report
+ * blocks) that don't matter to the caller cost nothing; {@link #decode()} builds the full {@link ControlPacket} for
+ * the ones that do.
+ * <p/>
+ * Obtained through {@link CompoundControlPacket#getView()}, positioned before the first packet:
+ * <pre>
+ * ControlPacketView view = compoundPacket.getView();
+ * while (view.next()) {
+ *     if (view.getType() == ControlPacket.Type.BYE) {
+ *         for (int i = 0; i < view.getInnerBlockCount(); i++) {
+ *             long ssrc = view.getSsrc(i);
+ *             ...
+ * </pre>
+ * Accessors that don't apply to the current packet's type return meaningless values. Views aren't thread-safe.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ControlPacketView {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final ChannelBuffer buffer;
+    /**
+     * Offset of the current packet, or -1 before the first one.
+     */
+    private int offset;
+    private int length;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param buffer Buffer holding a compound packet that passed {@link CompoundControlPacket#validate(ChannelBuffer)},
+     *               from its reader index to its writer index; neither index is modified.
+     */
+    ControlPacketView(ChannelBuffer buffer) {
+        this.buffer = buffer;
+        this.offset = -1;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Moves on to the next packet.
+     *
+     * @return {@code false} if there are no more packets.
+     */
+    public boolean next() {
+        int nextOffset = this.offset < 0 ? this.buffer.readerIndex() : this.offset + this.length;
+        if (nextOffset >= this.buffer.writerIndex()) {
+            return false;
+        }
+
+        this.offset = nextOffset;
+        this.length = (this.buffer.getUnsignedShort(nextOffset + 2) + 1) * 4;
+        return true;
+    }
+
+    /**
+     * @return Type of the current packet, or {@code null} if it's a type that isn't supported (i.e. defined by other
+     *         RFCs).
+     */
+    public ControlPacket.Type getType() {
+        int type = this.buffer.getUnsignedByte(this.offset + 1);
+        if ((type < (ControlPacket.Type.SENDER_REPORT.getByte() & 0xff)) ||
+            (type > (ControlPacket.Type.PAYLOAD_SPECIFIC_FEEDBACK.getByte() & 0xff))) {
+            return null;
+        }
+
+        return ControlPacket.Type.fromByte((byte) type);
+    }
+
+    /**
+     * @return Report block count (SR, RR), chunk count (SDES), SSRC count (BYE), subtype (APP) or feedback message type
+     *         (RTPFB, PSFB).
+     */
+    public int getInnerBlockCount() {
+        return this.buffer.getByte(this.offset) & 0x1f;
+    }
+
+    /**
+     * @return Length of the current packet, in bytes, header and padding included.
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * @return Sender SSRC (SR, RR, RTPFB, PSFB) or SSRC of the source (APP).
+     */
+    public long getSenderSsrc() {
+        return this.buffer.getUnsignedInt(this.offset + 4);
+    }
+
+    /**
+     * @return SSRC of the media source the feedback is about (RTPFB, PSFB).
+     */
+    public long getMediaSsrc() {
+        return this.buffer.getUnsignedInt(this.offset + 8);
+    }
+
+    // SR sender info
+
+    public long getNtpTimestamp() {
+        return this.buffer.getLong(this.offset + 8);
+    }
+
+    public long getRtpTimestamp() {
+        return this.buffer.getUnsignedInt(this.offset + 16);
+    }
+
+    public long getSenderPacketCount() {
+        return this.buffer.getUnsignedInt(this.offset + 20);
+    }
+
+    public long getSenderOctetCount() {
+        return this.buffer.getUnsignedInt(this.offset + 24);
+    }
+
+    // SR and RR report blocks
+
+    /**
+     * @param index Index of the report block, in range [0;{@link #getInnerBlockCount()}[.
+     *
+     * @return SSRC of the source the report block is about.
+     */
+    public long getReportBlockSsrc(int index) {
+        return this.buffer.getUnsignedInt(this.getReportBlockOffset(index));
+    }
+
+    /**
+     * @param index Index of the report block, in range [0;{@link #getInnerBlockCount()}[.
+     *
+     * @return The report block, decoded.
+     */
+    public ReceptionReport getReceptionReport(int index) {
+        return ReceptionReport.decode(this.buffer.slice(this.getReportBlockOffset(index), 24));
+    }
+
+    // BYE
+
+    /**
+     * @param index Index of the SSRC, in range [0;{@link #getInnerBlockCount()}[.
+     *
+     * @return SSRC of a source that left.
+     */
+    public long getSsrc(int index) {
+        this.checkIndex(index);
+        return this.buffer.getUnsignedInt(this.offset + 4 + (index * 4));
+    }
+
+    /**
+     * @return The reason for leaving, decoded, or {@code null} if none was given.
+     */
+    public String getReasonForLeaving() {
+        int reasonOffset = this.offset + 4 + (this.getInnerBlockCount() * 4);
+        if (reasonOffset >= this.getPayloadEnd()) {
+            return null;
+        }
+
+        int reasonLength = this.buffer.getUnsignedByte(reasonOffset);
+        return this.buffer.toString(reasonOffset + 1, reasonLength, CharsetUtil.UTF_8);
+    }
+
+    // any type
+
+    /**
+     * @return The current packet, fully decoded, or {@code null} if its type can't be decoded.
+     */
+    public ControlPacket decode() {
+        byte type = this.buffer.getByte(this.offset + 1);
+        if (!CompoundControlPacket.isDecodable(this.buffer.getByte(this.offset), type)) {
+            return null;
+        }
+
+        return ControlPacket.decode(this.buffer.slice(this.offset, this.length));
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private int getReportBlockOffset(int index) {
+        this.checkIndex(index);
+        // Common header and sender SSRC, plus sender info for SR.
+        int headerLength = this.buffer.getByte(this.offset + 1) == ControlPacket.Type.SENDER_REPORT.getByte() ? 28 : 8;
+        return this.offset + headerLength + (index * 24);
+    }
+
+    private int getPayloadEnd() {
+        int end = this.offset + this.length;
+        if ((this.buffer.getByte(this.offset) & 0x20) != 0) {
+            end -= this.buffer.getUnsignedByte(end - 1);
+        }
+
+        return end;
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= this.getInnerBlockCount())) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", count: " + this.getInnerBlockCount());
+        }
+    }
+}
@@ -21,6 +21,7 @@ import org.jboss.netty.buffer.ChannelBuffers;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  *  0                   1                   2                   3
@@ -48,6 +49,15 @@ import java.util.List;
  */
 public class DataPacket {
 
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final AtomicIntegerFieldUpdater<DataPacket> REFERENCE_COUNT_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(DataPacket.class, "referenceCount");
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final DataPacketPool pool;
+
     // internal vars --------------------------------------------------------------------------------------------------
 
     private RtpVersion version;
@@ -58,16 +68,30 @@ public class DataPacket {
     private long ssrc;
 
     private short extensionHeaderData;
-    private byte[] extensionData;
+    private ChannelBuffer extensionData;
 
     private List<Long> contributingSourceIds;
+    /**
+     * CSRC list as encoded in the datagram this packet was decoded from: a read-only view over the datagram when decoded
+     * in zero-copy mode, a copy otherwise, so decoding never boxes CSRC's. Only one of {@link #contributingSourceIds}
+     * and this field is ever set.
+     */
+    private ChannelBuffer contributingSourceIdsView;
 
     private ChannelBuffer data;
 
+    private volatile int referenceCount;
+
     // constructors ---------------------------------------------------------------------------------------------------
 
     public DataPacket() {
+        this(null);
+    }
+
+    DataPacket(DataPacketPool pool) {
+        this.pool = pool;
         this.version = RtpVersion.V2;
+        this.referenceCount = 1;
     }
 
     // public static methods ------------------------------------------------------------------------------------------
@@ -77,12 +101,58 @@ public class DataPacket {
     }
 
     public static DataPacket decode(ChannelBuffer buffer) throws IndexOutOfBoundsException {
+        return decode(buffer, false);
+    }
+
+    /**
+     * Decodes a RTP packet from a buffer.
+     * <p/>
+     * When {@code zeroCopy} is {@code false}, payload and extension data are copied into new arrays and CSRC's are
+     * decoded into a list, so the returned packet shares no memory with {@code buffer}.
+     * <p/>
+     * When {@code zeroCopy} is {@code true}, payload, extension data and CSRC's are kept as slices of {@code buffer}
+     * and nothing but the {@link DataPacket} itself is allocated. Such packets are only guaranteed to be valid while
+     * {@code buffer} is, which for packets delivered to a {@code RtpSessionDataListener} means until the listener
+     * returns. Use {@link #copy()} to keep a packet (or any of its buffers) beyond that.
+     *
+     * @param buffer   Buffer holding a single RTP packet.
+     * @param zeroCopy Whether payload, extension data and CSRC's should be views over {@code buffer}.
+     *
+     * @return The decoded packet.
+     */
+    public static DataPacket decode(ChannelBuffer buffer, boolean zeroCopy) throws IndexOutOfBoundsException {
+        return decode(buffer, zeroCopy, null);
+    }
+
+    /**
+     * Same as {@link #decode(ChannelBuffer, boolean)} but takes the packet instance from a pool, if one is provided.
+     * Should decoding fail, the pooled instance is released before the exception is propagated.
+     *
+     * @param buffer   Buffer holding a single RTP packet.
+     * @param zeroCopy Whether payload, extension data and CSRC's should be views over {@code buffer}.
+     * @param pool     Pool to take the packet from, or {@code null} to create a new one.
+     *
+     * @return The decoded packet, whose reference count is 1.
+     */
+    public static DataPacket decode(ChannelBuffer buffer, boolean zeroCopy, DataPacketPool pool)
+            throws IndexOutOfBoundsException {
         if (buffer.readableBytes() < 12) {
             throw new IllegalArgumentException("A RTP packet must be at least 12 octets long");
         }
 
+        DataPacket packet = pool == null ? new DataPacket() : pool.acquire();
+        try {
+            decodeInto(buffer, zeroCopy, packet);
+        } catch (RuntimeException e) {
+            packet.release();
+            throw e;
+        }
+
+        return packet;
+    }
+
+    private static void decodeInto(ChannelBuffer buffer, boolean zeroCopy, DataPacket packet) {
         // Version, Padding, eXtension, CSRC Count
-        DataPacket packet = new DataPacket();
         byte b = buffer.readByte();
         packet.version = RtpVersion.fromByte(b);
         boolean padding = (b & 0x20) > 0; // mask 0010 0000
@@ -101,114 +171,91 @@ public class DataPacket {
         // Read extension headers & data
         if (extension) {
             packet.extensionHeaderData = buffer.readShort();
-            packet.extensionData = new byte[buffer.readUnsignedShort()];
-            buffer.readBytes(packet.extensionData);
+            int extensionLength = buffer.readUnsignedShort();
+            if (zeroCopy) {
+                packet.extensionData = buffer.readSlice(extensionLength);
+            } else {
+                byte[] extensionData = new byte[extensionLength];
+                buffer.readBytes(extensionData);
+                packet.extensionData = ChannelBuffers.wrappedBuffer(extensionData);
+            }
         }
 
         // Read CCRC's
         if (contributingSourcesCount > 0) {
-            packet.contributingSourceIds = new ArrayList<Long>(contributingSourcesCount);
-            for (int i = 0; i < contributingSourcesCount; i++) {
-                long contributingSource = buffer.readUnsignedInt();
-                packet.contributingSourceIds.add(contributingSource);
+            if (zeroCopy) {
+                packet.contributingSourceIdsView = buffer.readSlice(contributingSourcesCount * 4);
+            } else {
+                packet.contributingSourceIdsView = buffer.readBytes(contributingSourcesCount * 4);
             }
         }
 
-        if (!padding) {
-            // No padding used, assume remaining data is the packet
-            byte[] remainingBytes = new byte[buffer.readableBytes()];
-            buffer.readBytes(remainingBytes);
-            packet.setData(remainingBytes);
-        } else {
+        int dataLength = buffer.readableBytes();
+        if (padding) {
             // Padding bit was set, so last byte contains the number of padding octets that should be discarded.
             short lastByte = buffer.getUnsignedByte(buffer.readerIndex() + buffer.readableBytes() - 1);
-            byte[] dataBytes = new byte[buffer.readableBytes() - lastByte];
+            dataLength -= lastByte;
+        }
+
+        if (zeroCopy) {
+            packet.data = buffer.readSlice(dataLength);
+        } else {
+            byte[] dataBytes = new byte[dataLength];
             buffer.readBytes(dataBytes);
             packet.setData(dataBytes);
-            // Discard rest of buffer.
-            buffer.skipBytes(buffer.readableBytes());
         }
-
-        return packet;
+        // Discard rest of buffer (padding, if any).
+        buffer.skipBytes(buffer.readableBytes());
     }
 
     public static ChannelBuffer encode(int fixedBlockSize, DataPacket packet) {
-        int size = 12; // Fixed width
-        if (packet.hasExtension()) {
-            size += 4 + packet.getExtensionDataSize();
-        }
-        size += packet.getContributingSourcesCount() * 4;
-        size += packet.getDataSize();
-
-        // If packet was configured to have padding (fixed block size), calculate padding and add it.
-        int padding = 0;
-        if (fixedBlockSize > 0) {
-            // If padding modulus is > 0 then the padding is equal to:
-            // (global size of the compound RTCP packet) mod (block size)
-            // Block size alignment might be necessary for some encryption algorithms
-            // RFC section 6.4.1
-            padding = fixedBlockSize - (size % fixedBlockSize);
-            if (padding == fixedBlockSize) {
-                padding = 0;
-            }
-        }
-        size += padding;
-
-        ChannelBuffer buffer = ChannelBuffers.buffer(size);
-
-        // Version, Padding, eXtension, CSRC Count
-        byte b = packet.getVersion().getByte();
-        if (padding > 0) {
-            b |= 0x20;
-        }
-        if (packet.hasExtension()) {
-            b |= 0x10;
-        }
-        b |= packet.getContributingSourcesCount();
-        buffer.writeByte(b);
-
-        // Marker, Payload Type
-        b = (byte) packet.getPayloadType();
-        if (packet.hasMarker()) {
-            b |= 0x80; // 1000 0000
-        }
-        buffer.writeByte(b);
-
-        buffer.writeShort(packet.sequenceNumber);
-        buffer.writeInt((int) packet.timestamp);
-        buffer.writeInt((int) packet.ssrc);
-
-        // Write extension headers & data
-        if (packet.hasExtension()) {
-            buffer.writeShort(packet.extensionHeaderData);
-            buffer.writeShort(packet.extensionData.length);
-            buffer.writeBytes(packet.extensionData);
-        }
+        int headerSize = getHeaderSize(packet);
+        int padding = getPadding(fixedBlockSize, headerSize + packet.getDataSize());
 
-        // Write CCRC's
-        if (packet.getContributingSourcesCount() > 0) {
-            for (Long contributingSourceId : packet.getContributingSourceIds()) {
-                buffer.writeInt(contributingSourceId.intValue());
-            }
-        }
+        ChannelBuffer buffer = ChannelBuffers.buffer(headerSize + packet.getDataSize() + padding);
+        writeHeader(buffer, packet, padding);
 
         // Write RTP data
         if (packet.data != null) {
-            buffer.writeBytes(packet.data.array());
+            buffer.writeBytes(packet.data, 0, packet.getDataSize());
         }
 
-        if (padding > 0) {
-            // Final bytes: padding
-            for (int i = 0; i < (padding - 1); i++) {
-                buffer.writeByte(0x00);
-            }
+        writePadding(buffer, padding);
 
-            // Final byte: the amount of padding bytes that should be discarded.
-            // Unless something's wrong, it will be a multiple of 4.
-            buffer.writeByte(padding);
+        return buffer;
+    }
+
+    /**
+     * Encodes a packet without copying its payload.
+     * <p/>
+     * Header, extension and CSRC's are written into a small buffer taken from a per-thread chunk and returned, along
+     * with the payload (and padding, if {@code fixedBlockSize} requires it), as a single composite buffer. The payload
+     * is only read when the composite is written to the socket, so it must not be modified until then.
+     * <p/>
+     * The composite is deliberately not a gathering buffer: Netty sends each component of a gathering buffer as a
+     * separate datagram. Instead, the NIO transport copies it straight into its pooled direct send buffer.
+     *
+     * @param fixedBlockSize Block size the packet length must be aligned to, or 0 for no padding.
+     * @param packet         Packet to encode.
+     *
+     * @return A composite buffer whose components are header, payload and padding.
+     */
+    public static ChannelBuffer encodeComposite(int fixedBlockSize, DataPacket packet) {
+        int headerSize = getHeaderSize(packet);
+        int padding = getPadding(fixedBlockSize, headerSize + packet.getDataSize());
+
+        ChannelBuffer header = HeaderBufferAllocator.allocate(headerSize);
+        writeHeader(header, packet, padding);
+
+        ChannelBuffer data = packet.data == null ?
+                             ChannelBuffers.EMPTY_BUFFER : packet.data.slice(0, packet.getDataSize());
+        if (padding == 0) {
+            return ChannelBuffers.wrappedBuffer(false, header, data);
         }
 
-        return buffer;
+        ChannelBuffer paddingBuffer = HeaderBufferAllocator.allocate(padding);
+        writePadding(paddingBuffer, padding);
+        return ChannelBuffers.wrappedBuffer(false, header, data, paddingBuffer);
     }
 
     // public methods -------------------------------------------------------------------------------------------------
@@ -221,7 +268,95 @@ public class DataPacket {
         return encode(0, this);
     }
 
+    public ChannelBuffer encodeComposite(int fixedBlockSize) {
+        return encodeComposite(fixedBlockSize, this);
+    }
+
+    public ChannelBuffer encodeComposite() {
+        return encodeComposite(0, this);
+    }
+
+    /**
+     * Increments the reference count of this packet.
+     * <p/>
+     * Packets taken from a {@link DataPacketPool} go back to it as soon as their reference count drops to zero, so
+     * whoever keeps a pooled packet beyond the scope it was handed in (e.g. a {@code RtpSessionDataListener} keeping a
+     * packet after returning) must retain it and later {@link #release()} it. For packets that don't belong to a pool
+     * this is merely bookkeeping.
+     *
+     * @return This packet.
+     */
+    public DataPacket retain() {
+        int count = REFERENCE_COUNT_UPDATER.incrementAndGet(this);
+        if (count <= 1) {
+            REFERENCE_COUNT_UPDATER.decrementAndGet(this);
+            throw new IllegalStateException("Cannot retain a packet that has already been released");
+        }
+
+        return this;
+    }
+
+    /**
+     * Decrements the reference count of this packet, returning it to its pool (if any) when it drops to zero. A
+     * released pooled packet must no longer be used.
+     *
+     * @return {@code true} if the reference count dropped to zero, {@code false} otherwise.
+     */
+    public boolean release() {
+        int count = REFERENCE_COUNT_UPDATER.decrementAndGet(this);
+        if (count > 0) {
+            return false;
+        }
+
+        if (count < 0) {
+            REFERENCE_COUNT_UPDATER.incrementAndGet(this);
+            throw new IllegalStateException("Packet has already been released");
+        }
+
+        if (this.pool != null) {
+            this.clear();
+            this.pool.recycle(this);
+        }
+
+        return true;
+    }
+
+    public int getReferenceCount() {
+        return this.referenceCount;
+    }
+
+    /**
+     * Creates a copy of this packet that shares no memory with it, nor with the datagram it was decoded from.
+     * <p/>
+     * Packets decoded in zero-copy mode (see {@link #decode(ChannelBuffer, boolean)}) must be copied if they, or any of
+     * their buffers, are to be used after the listener they were handed to returns.
+     *
+     * @return A standalone copy of this packet.
+     */
+    public DataPacket copy() {
+        DataPacket copy = new DataPacket();
+        copy.version = this.version;
+        copy.marker = this.marker;
+        copy.payloadType = this.payloadType;
+        copy.sequenceNumber = this.sequenceNumber;
+        copy.timestamp = this.timestamp;
+        copy.ssrc = this.ssrc;
+        copy.extensionHeaderData = this.extensionHeaderData;
+        if (this.extensionData != null) {
+            copy.extensionData = this.extensionData.copy(0, this.extensionData.capacity());
+        }
+        if (this.getContributingSourcesCount() > 0) {
+            copy.contributingSourceIds = new ArrayList<Long>(this.getContributingSourceIds());
+        }
+        if (this.data != null) {
+            copy.data = this.data.copy(0, this.data.capacity());
+        }
+
+        return copy;
+    }
+
     public void addContributingSourceId(long contributingSourceId) {
+        this.materializeContributingSourceIds();
         if (this.contributingSourceIds == null) {
             this.contributingSourceIds = new ArrayList<Long>();
         }
@@ -229,6 +364,25 @@ public class DataPacket {
         this.contributingSourceIds.add(contributingSourceId);
     }
 
+    /**
+     * Retrieves a single CSRC without boxing it or materializing the whole CSRC list.
+     *
+     * @param index Index of the CSRC, in range [0;{@link #getContributingSourcesCount()}[.
+     *
+     * @return The CSRC at the given index.
+     */
+    public long getContributingSourceId(int index) {
+        if (this.contributingSourceIdsView != null) {
+            return this.contributingSourceIdsView.getUnsignedInt(index * 4);
+        }
+
+        if (this.contributingSourceIds == null) {
+            throw new IndexOutOfBoundsException("Packet has no CSRC's");
+        }
+
+        return this.contributingSourceIds.get(index);
+    }
+
     public int getDataSize() {
         if (this.data == null) {
             return 0;
@@ -242,10 +396,14 @@ public class DataPacket {
             return 0;
         }
 
-        return this.extensionData.length;
+        return this.extensionData.capacity();
     }
 
     public int getContributingSourcesCount() {
+        if (this.contributingSourceIdsView != null) {
+            return this.contributingSourceIdsView.capacity() / 4;
+        }
+
         if (this.contributingSourceIds == null) {
             return 0;
         }
@@ -254,13 +412,139 @@ public class DataPacket {
     }
 
     public void setExtensionHeader(short extensionHeaderData, byte[] extensionData) {
-        if (extensionData.length > 65536) {
-            throw new IllegalArgumentException("Extension data cannot exceed 65536 bytes");
+        this.setExtensionHeader(extensionHeaderData, ChannelBuffers.wrappedBuffer(extensionData));
+    }
+
+    public void setExtensionHeader(short extensionHeaderData, ChannelBuffer extensionData) {
+        if (extensionData.capacity() > 65535) {
+            throw new IllegalArgumentException("Extension data cannot exceed 65535 bytes");
         }
         this.extensionHeaderData = extensionHeaderData;
         this.extensionData = extensionData;
     }
 
+    // package-private helpers ----------------------------------------------------------------------------------------
+
+    void reuse() {
+        this.referenceCount = 1;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void clear() {
+        this.version = RtpVersion.V2;
+        this.marker = false;
+        this.payloadType = 0;
+        this.sequenceNumber = 0;
+        this.timestamp = 0;
+        this.ssrc = 0;
+        this.extensionHeaderData = 0;
+        this.extensionData = null;
+        this.contributingSourceIds = null;
+        this.contributingSourceIdsView = null;
+        this.data = null;
+    }
+
+    private void materializeContributingSourceIds() {
+        if (this.contributingSourceIdsView == null) {
+            return;
+        }
+
+        int count = this.getContributingSourcesCount();
+        List<Long> contributingSourceIds = new ArrayList<Long>(count);
+        for (int i = 0; i < count; i++) {
+            contributingSourceIds.add(this.contributingSourceIdsView.getUnsignedInt(i * 4));
+        }
+        this.contributingSourceIds = contributingSourceIds;
+        this.contributingSourceIdsView = null;
+    }
+
+    private static byte[] toArray(ChannelBuffer buffer) {
+        if (buffer.hasArray() && (buffer.arrayOffset() == 0) && (buffer.array().length == buffer.capacity())) {
+            return buffer.array();
+        }
+
+        byte[] array = new byte[buffer.capacity()];
+        buffer.getBytes(0, array);
+        return array;
+    }
+
+    private static int getHeaderSize(DataPacket packet) {
+        int size = 12; // Fixed width
+        if (packet.hasExtension()) {
+            size += 4 + packet.getExtensionDataSize();
+        }
+        size += packet.getContributingSourcesCount() * 4;
+
+        return size;
+    }
+
+    private static int getPadding(int fixedBlockSize, int size) {
+        // If packet was configured to have padding (fixed block size), calculate padding and add it.
+        if (fixedBlockSize <= 0) {
+            return 0;
+        }
+
+        // If padding modulus is > 0 then the padding is equal to:
+        // (global size of the compound RTCP packet) mod (block size)
+        // Block size alignment might be necessary for some encryption algorithms
+        // RFC section 6.4.1
+        int padding = fixedBlockSize - (size % fixedBlockSize);
+        if (padding == fixedBlockSize) {
+            padding = 0;
+        }
+
+        return padding;
+    }
+
+    private static void writeHeader(ChannelBuffer buffer, DataPacket packet, int padding) {
+        // Version, Padding, eXtension, CSRC Count
+        byte b = packet.getVersion().getByte();
+        if (padding > 0) {
+            b |= 0x20;
+        }
+        if (packet.hasExtension()) {
+            b |= 0x10;
+        }
+        b |= packet.getContributingSourcesCount();
+        buffer.writeByte(b);
+
+        // Marker, Payload Type
+        b = (byte) packet.getPayloadType();
+        if (packet.hasMarker()) {
+            b |= 0x80; // 1000 0000
+        }
+        buffer.writeByte(b);
+
+        buffer.writeShort(packet.sequenceNumber);
+        buffer.writeInt((int) packet.timestamp);
+        buffer.writeInt((int) packet.ssrc);
+
+        // Write extension headers & data
+        if (packet.hasExtension()) {
+            buffer.writeShort(packet.extensionHeaderData);
+            buffer.writeShort(packet.getExtensionDataSize());
+            buffer.writeBytes(packet.extensionData, 0, packet.getExtensionDataSize());
+        }
+
+        // Write CCRC's
+        int contributingSourcesCount = packet.getContributingSourcesCount();
+        for (int i = 0; i < contributingSourcesCount; i++) {
+            buffer.writeInt((int) packet.getContributingSourceId(i));
+        }
+    }
+
+    private static void writePadding(ChannelBuffer buffer, int padding) {
+        if (padding > 0) {
+            // Final bytes: padding
+            buffer.writeZero(padding - 1);
+
+            // Final byte: the amount of padding bytes that should be discarded.
+            // Unless something's wrong, it will be a multiple of 4.
+            buffer.writeByte(padding);
+        }
+    }
+
     // getters & setters ----------------------------------------------------------------------------------------------
 
     public RtpVersion getVersion() {
@@ -329,14 +613,30 @@ public class DataPacket {
     }
 
     public byte[] getExtensionData() {
+        if (this.extensionData == null) {
+            return null;
+        }
+
+        return toArray(this.extensionData);
+    }
+
+    public ChannelBuffer getExtensionDataBuffer() {
         return extensionData;
     }
 
+    /**
+     * Retrieves the CSRC list. For packets decoded in zero-copy mode this boxes every CSRC; use
+     * {@link #getContributingSourcesCount()} and {@link #getContributingSourceId(int)} instead on hot paths.
+     *
+     * @return The CSRC list, or {@code null} if this packet has no CSRC's.
+     */
     public List<Long> getContributingSourceIds() {
+        this.materializeContributingSourceIds();
         return contributingSourceIds;
     }
 
     public void setContributingSourceIds(List<Long> contributingSourceIds) {
+        this.contributingSourceIdsView = null;
         this.contributingSourceIds = contributingSourceIds;
     }
 
@@ -349,7 +649,7 @@ public class DataPacket {
     }
 
     public byte[] getDataAsArray() {
-        return this.data.array();
+        return toArray(this.data);
     }
 
     public void setData(byte[] data) {
@@ -369,7 +669,7 @@ public class DataPacket {
                 .append(", SN=").append(this.sequenceNumber)
                 .append(", TS=").append(this.timestamp)
                 .append(", SSRC=").append(this.ssrc)
-                .append(", CSRCs=").append(this.contributingSourceIds)
+                .append(", CSRCs=").append(this.getContributingSourceIds())
                 .append(", data=").append(this.getDataSize()).append(" bytes}")
                 .toString();
     }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free pool of {@link DataPacket} instances.
+ * <p/>
+ * Packets are obtained with {@link #acquire()} and automatically return to the pool they came from once their
+ * reference count drops to zero (see {@link DataPacket#retain()} and {@link DataPacket#release()}). Acquiring and
+ * recycling can happen on different threads, which is the normal case when sessions run with an executor between the
+ * I/O threads and the listeners.
+ * <p/>
+ * When the pool is empty a new packet is created; when it is full recycled packets are simply left to the garbage
+ * collector, so the pool never holds more than its capacity.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class DataPacketPool {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final AtomicReferenceArray<DataPacket> slots;
+    private final int mask;
+    private final AtomicInteger available;
+    /**
+     * Index of the last slot a packet was returned to; acquisitions start probing from here, which makes the common
+     * "acquire, use, release" cycle hit the first probed slot.
+     */
+    private volatile int hint;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public DataPacketPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Maximum amount of idle packets kept by the pool; rounded up to the next power of two.
+     */
+    public DataPacketPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be > 0");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<DataPacket>(size);
+        this.mask = size - 1;
+        this.available = new AtomicInteger();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Obtains a packet from the pool, creating one if the pool is empty. The returned packet has a reference count of 1
+     * and all its fields reset to the defaults of {@link DataPacket#DataPacket()}.
+     *
+     * @return A packet owned by this pool.
+     */
+    public DataPacket acquire() {
+        if (this.available.get() > 0) {
+            int start = this.hint;
+            for (int i = 0; i <= this.mask; i++) {
+                int index = (start - i) & this.mask;
+                DataPacket packet = this.slots.get(index);
+                if ((packet != null) && this.slots.compareAndSet(index, packet, null)) {
+                    this.available.decrementAndGet();
+                    packet.reuse();
+                    return packet;
+                }
+            }
+        }
+
+        return new DataPacket(this);
+    }
+
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * @return Amount of idle packets currently held by the pool.
+     */
+    public int getAvailable() {
+        return this.available.get();
+    }
+
+    // package-private helpers ----------------------------------------------------------------------------------------
+
+    void recycle(DataPacket packet) {
+        if (this.available.get() > this.mask) {
+            return;
+        }
+
+        int start = this.hint + 1;
+        for (int i = 0; i <= this.mask; i++) {
+            int index = (start + i) & this.mask;
+            if ((this.slots.get(index) == null) && this.slots.compareAndSet(index, null, packet)) {
+                this.available.incrementAndGet();
+                this.hint = index;
+                return;
+            }
+        }
+    }
+}
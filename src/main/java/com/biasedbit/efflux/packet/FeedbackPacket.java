@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * RTCP feedback message (RFC 4585, section 6.1), either transport layer (RTPFB) or payload-specific (PSFB).
+ * <pre>
+ *  0                   1                   2                   3
+ *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |V=2|P|   FMT   |       PT      |          length               |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                  SSRC of packet sender                        |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                  SSRC of media source                         |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * :            Feedback Control Information (FCI)                 :
+ * :                                                               :
+ * </pre>
+ * Each feedback message type (FMT) is a subclass; messages of types other than generic NACK, PLI and FIR are skipped
+ * when decoding.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public abstract class FeedbackPacket extends ControlPacket {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final int format;
+    private long senderSsrc;
+    private long mediaSsrc;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    protected FeedbackPacket(Type type, int format) {
+        super(type);
+        this.format = format;
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @return The decoded packet, or {@code null} if its feedback message type isn't supported (in which case it's
+     *         skipped).
+     */
+    public static FeedbackPacket decode(ChannelBuffer buffer, Type type, boolean hasPadding, byte format, int length) {
+        // Length is written in 32bit words, not octet count.
+        int lengthInOctets = (length * 4);
+        int padding = hasPadding ? buffer.getUnsignedByte(buffer.readerIndex() + lengthInOctets - 1) : 0;
+        int fciLength = lengthInOctets - 8 - padding;
+        if (fciLength < 0) {
+            throw new IllegalArgumentException("Invalid feedback packet length: " + lengthInOctets + " bytes, " +
+                                               padding + " of which padding");
+        }
+
+        if (!isSupported(type, format)) {
+            buffer.skipBytes(lengthInOctets);
+            return null;
+        }
+
+        FeedbackPacket packet = newPacket(type, format);
+        packet.senderSsrc = buffer.readUnsignedInt();
+        packet.mediaSsrc = buffer.readUnsignedInt();
+        packet.decodeFci(buffer.readSlice(fciLength));
+        buffer.skipBytes(padding);
+
+        return packet;
+    }
+
+    /**
+     * @return Whether packets of the given type and feedback message type can be decoded.
+     */
+    public static boolean isSupported(Type type, int format) {
+        if (type == Type.TRANSPORT_FEEDBACK) {
+            return format == GenericNackPacket.FORMAT;
+        } else if (type == Type.PAYLOAD_SPECIFIC_FEEDBACK) {
+            return (format == PictureLossIndicationPacket.FORMAT) || (format == FullIntraRequestPacket.FORMAT);
+        }
+
+        return false;
+    }
+
+    // ControlPacket --------------------------------------------------------------------------------------------------
+
+    @Override
+    public int getEncodedLength() {
+        return 12 + this.getFciLength();
+    }
+
+    @Override
+    protected int getInnerBlockCount() {
+        return this.format;
+    }
+
+    @Override
+    protected void encodeBody(ChannelBuffer buffer) {
+        buffer.writeInt((int) this.senderSsrc);
+        buffer.writeInt((int) this.mediaSsrc);
+        this.encodeFci(buffer);
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Length of the FCI, in bytes; a multiple of 4.
+     */
+    protected abstract int getFciLength();
+
+    protected abstract void encodeFci(ChannelBuffer buffer);
+
+    /**
+     * @param fci The whole FCI, padding excluded.
+     *
+     * @throws IllegalArgumentException If the FCI isn't made of whole entries.
+     */
+    protected abstract void decodeFci(ChannelBuffer fci);
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    /**
+     * Only for supported types, see {@link #isSupported(Type, int)}.
+     */
+    private static FeedbackPacket newPacket(Type type, int format) {
+        if (type == Type.TRANSPORT_FEEDBACK) {
+            return new GenericNackPacket();
+        } else if (format == PictureLossIndicationPacket.FORMAT) {
+            return new PictureLossIndicationPacket();
+        }
+
+        return new FullIntraRequestPacket();
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Feedback message type (FMT).
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    public long getSenderSsrc() {
+        return senderSsrc;
+    }
+
+    public void setSenderSsrc(long senderSsrc) {
+        if ((senderSsrc < 0) || (senderSsrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        this.senderSsrc = senderSsrc;
+    }
+
+    /**
+     * @return SSRC of the media source the feedback is about.
+     */
+    public long getMediaSsrc() {
+        return mediaSsrc;
+    }
+
+    public void setMediaSsrc(long mediaSsrc) {
+        if ((mediaSsrc < 0) || (mediaSsrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        this.mediaSsrc = mediaSsrc;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.Arrays;
+
+/**
+ * Full Intra Request (RFC 5104, section 4.3.1): asks one or more media sources for a decoder refresh point, typically a
+ * key frame. The media source SSRC of the common header is unused (0); each FCI entry names a source instead.
+ * <pre>
+ *  0                   1                   2                   3
+ *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                              SSRC                             |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * | Seq nr.       |    Reserved                                   |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * </pre>
+ * The sequence number is incremented by the requester for each new request to the same source, so that repeated
+ * requests can be told apart from retransmissions of the same one.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FullIntraRequestPacket extends FeedbackPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FORMAT = 4;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private long[] ssrcs;
+    private int[] sequenceNumbers;
+    private int requestCount;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public FullIntraRequestPacket() {
+        super(Type.PAYLOAD_SPECIFIC_FEEDBACK, FORMAT);
+    }
+
+    // FeedbackPacket -------------------------------------------------------------------------------------------------
+
+    @Override
+    protected int getFciLength() {
+        return this.requestCount * 8;
+    }
+
+    @Override
+    protected void encodeFci(ChannelBuffer buffer) {
+        for (int i = 0; i < this.requestCount; i++) {
+            buffer.writeInt((int) this.ssrcs[i]);
+            buffer.writeByte(this.sequenceNumbers[i]);
+            buffer.writeMedium(0);
+        }
+    }
+
+    @Override
+    protected void decodeFci(ChannelBuffer fci) {
+        if ((fci.readableBytes() % 8) != 0) {
+            throw new IllegalArgumentException("FIR FCI must be a multiple of 8 bytes long and is " +
+                                               fci.readableBytes());
+        }
+        while (fci.readableBytes() > 0) {
+            long ssrc = fci.readUnsignedInt();
+            int sequenceNumber = fci.readUnsignedByte();
+            fci.skipBytes(3);
+            this.addRequest(ssrc, sequenceNumber);
+        }
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * @param ssrc           SSRC of the media source asked for a decoder refresh point.
+     * @param sequenceNumber Command sequence number, in range [0;255].
+     */
+    public void addRequest(long ssrc, int sequenceNumber) {
+        if ((ssrc < 0) || (ssrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        if ((sequenceNumber < 0) || (sequenceNumber > 255)) {
+            throw new IllegalArgumentException("Valid range for sequence number is [0;255]");
+        }
+
+        if (this.ssrcs == null) {
+            this.ssrcs = new long[1];
+            this.sequenceNumbers = new int[1];
+        } else if (this.requestCount == this.ssrcs.length) {
+            this.ssrcs = Arrays.copyOf(this.ssrcs, this.requestCount * 2);
+            this.sequenceNumbers = Arrays.copyOf(this.sequenceNumbers, this.requestCount * 2);
+        }
+
+        this.ssrcs[this.requestCount] = ssrc;
+        this.sequenceNumbers[this.requestCount] = sequenceNumber;
+        this.requestCount++;
+    }
+
+    /**
+     * @return Amount of FCI entries.
+     */
+    public int getRequestCount() {
+        return this.requestCount;
+    }
+
+    /**
+     * @param index Index of the FCI entry, in range [0;{@link #getRequestCount()}[.
+     */
+    public long getRequestSsrc(int index) {
+        this.checkIndex(index);
+        return this.ssrcs[index];
+    }
+
+    /**
+     * @param index Index of the FCI entry, in range [0;{@link #getRequestCount()}[.
+     */
+    public int getRequestSequenceNumber(int index) {
+        this.checkIndex(index);
+        return this.sequenceNumbers[index];
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= this.requestCount)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", request count: " + this.requestCount);
+        }
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append("FullIntraRequestPacket{")
+                .append("senderSsrc=").append(this.getSenderSsrc())
+                .append(", requests=[");
+        for (int i = 0; i < this.requestCount; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(this.ssrcs[i]).append('#').append(this.sequenceNumbers[i]);
+        }
+        return builder.append("]}").toString();
+    }
+}
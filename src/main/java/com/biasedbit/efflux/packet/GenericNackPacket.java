@@ -0,0 +1,171 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.Arrays;
+
+/**
+ * Generic NACK (RFC 4585, section 6.2.1): reports lost RTP packets, each FCI entry covering up to 17 of them.
+ * <pre>
+ *  0                   1                   2                   3
+ *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |            PID                |             BLP               |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * </pre>
+ * PID is the sequence number of a lost packet and bit i of BLP (least significant first) flags packet PID + i + 1 as
+ * lost too.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class GenericNackPacket extends FeedbackPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FORMAT = 1;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    /**
+     * PID in the upper 16 bits, BLP in the lower ones.
+     */
+    private int[] entries;
+    private int entryCount;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public GenericNackPacket() {
+        super(Type.TRANSPORT_FEEDBACK, FORMAT);
+    }
+
+    // FeedbackPacket -------------------------------------------------------------------------------------------------
+
+    @Override
+    protected int getFciLength() {
+        return this.entryCount * 4;
+    }
+
+    @Override
+    protected void encodeFci(ChannelBuffer buffer) {
+        for (int i = 0; i < this.entryCount; i++) {
+            buffer.writeInt(this.entries[i]);
+        }
+    }
+
+    @Override
+    protected void decodeFci(ChannelBuffer fci) {
+        if ((fci.readableBytes() % 4) != 0) {
+            throw new IllegalArgumentException("Generic NACK FCI must be a multiple of 4 bytes long and is " +
+                                               fci.readableBytes());
+        }
+        while (fci.readableBytes() > 0) {
+            this.addEntry(fci.readInt());
+        }
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Adds a lost packet, in the last FCI entry if it covers it (i.e. the packet follows its PID by 1 to 16) or in a
+     * new one otherwise. Adding lost packets in sequence number order thus takes as few entries as possible.
+     *
+     * @param sequenceNumber Sequence number of the lost packet.
+     */
+    public void addLostPacket(int sequenceNumber) {
+        sequenceNumber &= 0xffff;
+        if (this.entryCount > 0) {
+            int packetId = this.getPacketId(this.entryCount - 1);
+            int distance = (sequenceNumber - packetId) & 0xffff;
+            if ((distance >= 1) && (distance <= 16)) {
+                this.entries[this.entryCount - 1] |= 1 << (distance - 1);
+                return;
+            }
+        }
+
+        this.addEntry(sequenceNumber << 16);
+    }
+
+    /**
+     * @param packetId          Sequence number of a lost packet.
+     * @param lostPacketBitmask Bitmask of the following lost packets.
+     */
+    public void addEntry(int packetId, int lostPacketBitmask) {
+        this.addEntry(((packetId & 0xffff) << 16) | (lostPacketBitmask & 0xffff));
+    }
+
+    /**
+     * @return Amount of FCI entries.
+     */
+    public int getEntryCount() {
+        return this.entryCount;
+    }
+
+    /**
+     * @param index Index of the FCI entry, in range [0;{@link #getEntryCount()}[.
+     */
+    public int getPacketId(int index) {
+        this.checkIndex(index);
+        return this.entries[index] >>> 16;
+    }
+
+    /**
+     * @param index Index of the FCI entry, in range [0;{@link #getEntryCount()}[.
+     */
+    public int getLostPacketBitmask(int index) {
+        this.checkIndex(index);
+        return this.entries[index] & 0xffff;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void addEntry(int entry) {
+        if (this.entries == null) {
+            this.entries = new int[4];
+        } else if (this.entryCount == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, this.entryCount * 2);
+        }
+
+        this.entries[this.entryCount++] = entry;
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= this.entryCount)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", entry count: " + this.entryCount);
+        }
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append("GenericNackPacket{")
+                .append("senderSsrc=").append(this.getSenderSsrc())
+                .append(", mediaSsrc=").append(this.getMediaSsrc())
+                .append(", entries=[");
+        for (int i = 0; i < this.entryCount; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(this.getPacketId(i)).append('/')
+                   .append(Integer.toBinaryString(this.getLostPacketBitmask(i)));
+        }
+        return builder.append("]}").toString();
+    }
+}
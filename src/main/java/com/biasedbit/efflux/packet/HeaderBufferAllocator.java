@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Hands out small outbound buffers (packet headers, padding, RTCP compound packets) as slices of a per-thread chunk.
+ * <p/>
+ * Netty 3 buffers carry no reference count, so there is no safe point at which a header buffer could be handed back
+ * once it has been queued for writing. Instead, slices are never reused: each thread carves consecutive regions out of
+ * its current chunk and moves on to a new chunk once it's exhausted, leaving the old one to the garbage collector once
+ * the last write referencing it completes. This turns one allocation per packet into one allocation per chunk.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+final class HeaderBufferAllocator {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final int CHUNK_SIZE = 8192;
+    /**
+     * Requests larger than this (e.g. headers with big extensions) get their own buffer, so they don't waste chunks.
+     */
+    private static final int MAX_SLICE_SIZE = 512;
+
+    private static final ThreadLocal<ChannelBuffer> CHUNK = new ThreadLocal<ChannelBuffer>() {
+        @Override
+        protected ChannelBuffer initialValue() {
+            return ChannelBuffers.buffer(CHUNK_SIZE);
+        }
+    };
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    private HeaderBufferAllocator() {
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @param size Amount of bytes the buffer must hold.
+     *
+     * @return An empty buffer with exactly {@code size} writable bytes, sharing no memory with any other buffer
+     *         returned by this method.
+     */
+    public static ChannelBuffer allocate(int size) {
+        if (size > MAX_SLICE_SIZE) {
+            return ChannelBuffers.buffer(size);
+        }
+
+        ChannelBuffer chunk = CHUNK.get();
+        if (chunk.writableBytes() < size) {
+            chunk = ChannelBuffers.buffer(CHUNK_SIZE);
+            CHUNK.set(chunk);
+        }
+
+        ChannelBuffer slice = chunk.slice(chunk.writerIndex(), size);
+        chunk.writerIndex(chunk.writerIndex() + size);
+        slice.clear();
+        return slice;
+    }
+}
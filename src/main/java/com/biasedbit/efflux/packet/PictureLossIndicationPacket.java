@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Picture Loss Indication (RFC 4585, section 6.3.1): asks the media source for a way to recover from the loss of
+ * (parts of) a picture, typically a key frame. Has no FCI.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PictureLossIndicationPacket extends FeedbackPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FORMAT = 1;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PictureLossIndicationPacket() {
+        super(Type.PAYLOAD_SPECIFIC_FEEDBACK, FORMAT);
+    }
+
+    // FeedbackPacket -------------------------------------------------------------------------------------------------
+
+    @Override
+    protected int getFciLength() {
+        return 0;
+    }
+
+    @Override
+    protected void encodeFci(ChannelBuffer buffer) {
+    }
+
+    @Override
+    protected void decodeFci(ChannelBuffer fci) {
+        // Nothing expected, anything else is ignored.
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("PictureLossIndicationPacket{")
+                .append("senderSsrc=").append(this.getSenderSsrc())
+                .append(", mediaSsrc=").append(this.getMediaSsrc())
+                .append('}').toString();
+    }
+}
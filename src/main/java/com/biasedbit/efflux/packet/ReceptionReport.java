@@ -43,13 +43,7 @@ public class ReceptionReport {
 
     public static ChannelBuffer encode(ReceptionReport block) {
         ChannelBuffer buffer = ChannelBuffers.buffer(24); // 4 + 1 + 3 + 4 + 4 + 4 + 4
-        buffer.writeInt((int) block.ssrc);
-        buffer.writeByte(block.fractionLost);
-        buffer.writeMedium(block.cumulativeNumberOfPacketsLost);
-        buffer.writeInt((int) block.extendedHighestSequenceNumberReceived);
-        buffer.writeInt((int) block.interArrivalJitter);
-        buffer.writeInt((int) block.lastSenderReport);
-        buffer.writeInt((int) block.delaySinceLastSenderReport);
+        block.encode(buffer);
         return buffer;
     }
 
@@ -71,6 +65,19 @@ public class ReceptionReport {
         return encode(this);
     }
 
+    /**
+     * Writes this block (24 bytes) into the given buffer.
+     */
+    public void encode(ChannelBuffer buffer) {
+        buffer.writeInt((int) this.ssrc);
+        buffer.writeByte(this.fractionLost);
+        buffer.writeMedium(this.cumulativeNumberOfPacketsLost);
+        buffer.writeInt((int) this.extendedHighestSequenceNumberReceived);
+        buffer.writeInt((int) this.interArrivalJitter);
+        buffer.writeInt((int) this.lastSenderReport);
+        buffer.writeInt((int) this.delaySinceLastSenderReport);
+    }
+
     // getters & setters ----------------------------------------------------------------------------------------------
 
     public long getSsrc() {
@@ -73,44 +73,8 @@ public class SdesChunk {
     }
 
     public static ChannelBuffer encode(SdesChunk chunk) {
-        ChannelBuffer buffer;
-        if (chunk.items == null) {
-            // Allocate 8 bytes: 4 for ssrc, 1 for null item and other 3 null octets for 32 bit alignment
-            buffer = ChannelBuffers.buffer(8);
-            buffer.writeInt((int) chunk.ssrc); // ssrc
-            buffer.writeInt(0); // 4 null octets (1 for null item and 3 for 32bit alignment)
-            return buffer;
-        } else {
-            // Start with SSRC
-            int size = 4;
-            // Add the length of each item
-            List<ChannelBuffer> encodedChunkItems = new ArrayList<ChannelBuffer>(chunk.items.size());
-            for (SdesChunkItem item : chunk.items) {
-                ChannelBuffer encodedChunk = item.encode();
-                encodedChunkItems.add(encodedChunk);
-                size += encodedChunk.readableBytes();
-            }
-            // Add the null item
-            size += 1;
-            // Calculate padding and add it (for 32bit alignment).
-            int padding = 4 - (size % 4);
-            if (padding == 4) {
-                padding = 0;
-            }
-            size += padding;
-
-            // Write the buffer contents: SSRC, chunks, null item and padding
-            buffer = ChannelBuffers.buffer(size);
-            buffer.writeInt((int) chunk.ssrc);
-            for (ChannelBuffer encodedChunk : encodedChunkItems) {
-                buffer.writeBytes(encodedChunk);
-            }
-            buffer.writeByte(0x00);
-            for (int i = 0; i < padding; i++) {
-                buffer.writeByte(0x00);
-            }
-        }
-
+        ChannelBuffer buffer = ChannelBuffers.buffer(chunk.getEncodedLength());
+        chunk.encode(buffer);
         return buffer;
     }
 
@@ -120,6 +84,39 @@ public class SdesChunk {
         return encode(this);
     }
 
+    /**
+     * @return Length of this chunk once encoded, null item and 32 bit alignment included.
+     */
+    public int getEncodedLength() {
+        // SSRC
+        int length = 4;
+        if (this.items != null) {
+            for (SdesChunkItem item : this.items) {
+                length += item.getEncodedLength();
+            }
+        }
+
+        // Add the null item and pad to 32 bit alignment.
+        return (length + 1 + 3) & ~3;
+    }
+
+    /**
+     * Writes this chunk (SSRC, items, null item and padding) into the given buffer.
+     */
+    public void encode(ChannelBuffer buffer) {
+        int start = buffer.writerIndex();
+        buffer.writeInt((int) this.ssrc);
+        if (this.items != null) {
+            for (SdesChunkItem item : this.items) {
+                item.encode(buffer);
+            }
+        }
+
+        // Null item, followed by null octets up to the 32 bit alignment
+        int padding = 4 - ((buffer.writerIndex() - start) % 4);
+        buffer.writeZero(padding);
+    }
+
     public boolean addItem(SdesChunkItem item) {
         if (item.getType() == SdesChunkItem.Type.NULL) {
             throw new IllegalArgumentException("You don't need to manually add the null/end element");
@@ -29,6 +29,8 @@ public class SdesChunkItem {
 
     protected final Type type;
     protected final String value;
+    // Items are encoded by several threads at once (e.g. the session's cached SDES packet), so publish safely.
+    private volatile byte[] valueBytes;
 
     // constructors ---------------------------------------------------------------------------------------------------
 
@@ -40,34 +42,62 @@ public class SdesChunkItem {
     // public methods -------------------------------------------------------------------------------------------------
 
     public ChannelBuffer encode() {
+        ChannelBuffer buffer = ChannelBuffers.buffer(this.getEncodedLength());
+        this.encode(buffer);
+        return buffer;
+    }
+
+    /**
+     * @return Length of this item once encoded.
+     */
+    public int getEncodedLength() {
         // Technically, this never happens as you're not allowed to add NULL items to a SdesChunk instance, but...
         if (this.type == Type.NULL) {
-            ChannelBuffer buffer = ChannelBuffers.buffer(1);
-            buffer.writeByte(0x00);
-            return buffer;
+            return 1;
         }
 
-        byte[] valueBytes;
-        if (this.value != null) {
-            // RFC section 6.5 mandates that this must be UTF8
-            // http://tools.ietf.org/html/rfc3550#section-6.5
-            valueBytes = this.value.getBytes(CharsetUtil.UTF_8);
-        } else {
-            valueBytes = new byte[]{};
-        }
+        // Type (1b), length (1b), value (xb)
+        return 2 + this.getValueBytes().length;
+    }
 
-        if (valueBytes.length > 255) {
-            throw new IllegalArgumentException("Content (text) can be no longer than 255 bytes and this has " +
-                                               valueBytes.length);
+    /**
+     * Writes this item into the given buffer.
+     */
+    public void encode(ChannelBuffer buffer) {
+        if (this.type == Type.NULL) {
+            buffer.writeByte(0x00);
+            return;
         }
 
-        // Type (1b), length (1b), value (xb)
-        ChannelBuffer buffer = ChannelBuffers.buffer(2 + valueBytes.length);
+        byte[] valueBytes = this.getValueBytes();
         buffer.writeByte(this.type.getByte());
         buffer.writeByte(valueBytes.length);
         buffer.writeBytes(valueBytes);
+    }
 
-        return buffer;
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return The value, encoded once and kept for subsequent encodings (items are immutable and sent periodically).
+     */
+    protected byte[] getValueBytes() {
+        byte[] valueBytes = this.valueBytes;
+        if (valueBytes == null) {
+            if (this.value == null) {
+                valueBytes = new byte[0];
+            } else {
+                // RFC section 6.5 mandates that this must be UTF8
+                // http://tools.ietf.org/html/rfc3550#section-6.5
+                valueBytes = this.value.getBytes(CharsetUtil.UTF_8);
+                if (valueBytes.length > 255) {
+                    throw new IllegalArgumentException("Content (text) can be no longer than 255 bytes and this has " +
+                                                       valueBytes.length);
+                }
+            }
+            this.valueBytes = valueBytes;
+        }
+
+        return valueBytes;
     }
 
     // getters & setters ----------------------------------------------------------------------------------------------
@@ -17,7 +17,6 @@
 package com.biasedbit.efflux.packet;
 
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.util.CharsetUtil;
 
 /**
@@ -28,6 +27,8 @@ public class SdesChunkPrivItem extends SdesChunkItem {
     // internal vars --------------------------------------------------------------------------------------------------
 
     private final String prefix;
+    // Encoded by several threads at once, like the value (see SdesChunkItem).
+    private volatile byte[] prefixBytes;
 
     // constructors ---------------------------------------------------------------------------------------------------
 
@@ -39,39 +40,46 @@ public class SdesChunkPrivItem extends SdesChunkItem {
     // public methods -------------------------------------------------------------------------------------------------
 
     @Override
-    public ChannelBuffer encode() {
-        byte[] prefixBytes;
-        if (this.prefix != null) {
-            // RFC section 6.5 mandates that this must be UTF8
-            // http://tools.ietf.org/html/rfc3550#section-6.5
-            prefixBytes = this.prefix.getBytes(CharsetUtil.UTF_8);
-        } else {
-            prefixBytes = new byte[]{};
-        }
-
-        byte[] valueBytes;
-        if (this.value != null) {
-            // RFC section 6.5 mandates that this must be UTF8
-            // http://tools.ietf.org/html/rfc3550#section-6.5
-            valueBytes = this.value.getBytes(CharsetUtil.UTF_8);
-        } else {
-            valueBytes = new byte[]{};
-        }
-
-        if ((prefixBytes.length + valueBytes.length) > 254) {
-            throw new IllegalArgumentException("Content (prefix + text) can be no longer than 255 bytes and this has " +
-                                               valueBytes.length);
-        }
-
+    public int getEncodedLength() {
         // Type (1b), total item length (1b), prefix length (1b), prefix (xb), text (xb)
-        ChannelBuffer buffer = ChannelBuffers.buffer(2 + 1 + prefixBytes.length + valueBytes.length);
+        return 2 + 1 + this.getPrefixBytes().length + this.getValueBytes().length;
+    }
+
+    @Override
+    public void encode(ChannelBuffer buffer) {
+        byte[] prefixBytes = this.getPrefixBytes();
+        byte[] valueBytes = this.getValueBytes();
         buffer.writeByte(this.type.getByte());
         buffer.writeByte(1 + prefixBytes.length + valueBytes.length);
         buffer.writeByte(prefixBytes.length);
         buffer.writeBytes(prefixBytes);
         buffer.writeBytes(valueBytes);
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private byte[] getPrefixBytes() {
+        byte[] prefixBytes = this.prefixBytes;
+        if (prefixBytes == null) {
+            byte[] bytes;
+            if (this.prefix == null) {
+                bytes = new byte[0];
+            } else {
+                // RFC section 6.5 mandates that this must be UTF8
+                // http://tools.ietf.org/html/rfc3550#section-6.5
+                bytes = this.prefix.getBytes(CharsetUtil.UTF_8);
+            }
+
+            int length = bytes.length + this.getValueBytes().length;
+            if (length > 254) {
+                throw new IllegalArgumentException("Content (prefix + text) can be no longer than 255 bytes and this " +
+                                                   "has " + (length + 1));
+            }
+            prefixBytes = bytes;
+            this.prefixBytes = prefixBytes;
+        }
 
-        return buffer;
+        return prefixBytes;
     }
 
     // getters & setters ----------------------------------------------------------------------------------------------
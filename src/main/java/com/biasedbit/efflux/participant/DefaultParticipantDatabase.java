@@ -19,6 +19,7 @@ package com.biasedbit.efflux.participant;
 import com.biasedbit.efflux.packet.DataPacket;
 import com.biasedbit.efflux.packet.SdesChunk;
 import com.biasedbit.efflux.packet.SdesChunkItem;
+import com.biasedbit.efflux.util.SsrcMap;
 import com.biasedbit.efflux.util.TimeUtils;
 import org.jboss.netty.util.Timeout;
 import org.jboss.netty.util.Timer;
@@ -27,16 +28,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.SocketAddress;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * Participant database safe for concurrent use without a global lock.
+ * <p/>
+ * Looking up a known SSRC, which happens for every inbound packet, is a lock-free {@link SsrcMap} read. Creating
+ * members for new SSRCs is serialized per lock stripe, selected by SSRC, so that concurrent packets from the same new
+ * source create a single participant and fire a single {@link ParticipantEventListener} event, while new sources on
+ * different stripes don't wait for each other. Receivers change seldom and are iterated for every packet sent, so they
+ * are kept in a copy-on-write list.
+ * <p/>
+ * Matching new sources to receivers, and new receivers to members, goes through indexes by data destination, control
+ * destination and CNAME rather than scanning every receiver or member. Receiver indexes only change along with the
+ * receivers list; the member CNAME index is updated whenever a member is created or matched and whenever an SDES chunk
+ * carries its CNAME.
+ * <p/>
+ * Members that aren't receivers expire after {@link #getTimeoutAfterNoPacketsReceived()} seconds without packets and
+ * all members expire {@link #getTimeoutAfterByeAndNoPacketsReceived()} seconds after leaving. Each member has its own
+ * timer task, so there's no periodic sweep over the whole table.
+ *
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
  */
 public class DefaultParticipantDatabase implements ParticipantDatabase {
@@ -46,6 +63,10 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultParticipantDatabase.class);
     private static final int TIMEOUT_AFTER_NO_PACKETS_RECEIVED = 60;
     private static final int TIMEOUT_AFTER_BYE_AND_NO_PACKETS_RECEIVED = 5;
+    /**
+     * Amount of locks serializing the creation of members; must be a power of 2.
+     */
+    private static final int CREATION_LOCK_STRIPES = 32;
 
     // configuration --------------------------------------------------------------------------------------------------
 
@@ -58,37 +79,52 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
 
     /**
      * List of unicast receivers. This is a list of explicitly added participants, by the applications using this lib.
-     * They might get linked to
+     * They might get linked to members once their SSRC is known.
      */
     private final Collection<RtpParticipant> receivers;
     /**
      * List of existing members.
      */
-    private final Map<Long, RtpParticipant> members;
-    private final ReentrantReadWriteLock lock;
+    private final SsrcMap<RtpParticipant> members;
+    private final ConcurrentMap<SocketAddress, RtpParticipant> receiversByDataDestination;
+    private final ConcurrentMap<SocketAddress, RtpParticipant> receiversByControlDestination;
+    private final ConcurrentMap<String, RtpParticipant> receiversByCname;
+    private final ConcurrentMap<String, RtpParticipant> membersByCname;
+    private final Object[] creationLocks;
+    /**
+     * Serializes changes to the receivers list, which must check the list before modifying it.
+     */
+    private final Object receiversLock;
+    private final Timer timer;
+    /**
+     * Expiry task of each member entry, by SSRC.
+     */
+    private final SsrcMap<ExpiryTask> expiryTasks;
 
     // constructors ---------------------------------------------------------------------------------------------------
 
-    public DefaultParticipantDatabase(final Timer timer, String id, ParticipantEventListener eventListener) {
+    public DefaultParticipantDatabase(Timer timer, String id, ParticipantEventListener eventListener) {
         this.id = id;
         this.listener = eventListener;
 
-        this.receivers = new ArrayList<RtpParticipant>();
-        this.members = new HashMap<Long, RtpParticipant>();
+        this.receivers = new CopyOnWriteArrayList<RtpParticipant>();
+        this.members = new SsrcMap<RtpParticipant>();
+        this.receiversByDataDestination = new ConcurrentHashMap<SocketAddress, RtpParticipant>();
+        this.receiversByControlDestination = new ConcurrentHashMap<SocketAddress, RtpParticipant>();
+        this.receiversByCname = new ConcurrentHashMap<String, RtpParticipant>();
+        this.membersByCname = new ConcurrentHashMap<String, RtpParticipant>();
 
-        this.lock = new ReentrantReadWriteLock();
+        this.creationLocks = new Object[CREATION_LOCK_STRIPES];
+        for (int i = 0; i < this.creationLocks.length; i++) {
+            this.creationLocks[i] = new Object();
+        }
+        this.receiversLock = new Object();
 
         this.timeoutAfterNoPacketsReceived = TIMEOUT_AFTER_NO_PACKETS_RECEIVED;
         this.timeoutAfterByeAndNoPacketsReceived = TIMEOUT_AFTER_BYE_AND_NO_PACKETS_RECEIVED;
 
-      // Add the cleaner.
-      timer.newTimeout(new TimerTask() {
-        @Override
-        public void run(Timeout timeout) throws Exception {
-          cleanup();
-          timer.newTimeout(this, 10, TimeUnit.SECONDS);
-        }
-      }, 10, TimeUnit.SECONDS);
+        this.timer = timer;
+        this.expiryTasks = new SsrcMap<ExpiryTask>();
     }
 
     // public methods -------------------------------------------------------------------------------------------------
@@ -105,38 +141,28 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
 
     @Override
     public Map<Long, RtpParticipant> getMembers() {
-        return Collections.unmodifiableMap(this.members);
+        return this.members.asMap();
     }
 
     @Override
     public void doWithReceivers(ParticipantOperation operation) {
-        this.lock.readLock().lock();
-        try {
-            for (RtpParticipant receiver : this.receivers) {
-                try {
-                    operation.doWithParticipant(receiver);
-                } catch (Exception e) {
-                    LOG.error("Failed to perform operation {} on receiver {}.", e, operation, receiver);
-                }
+        for (RtpParticipant receiver : this.receivers) {
+            try {
+                operation.doWithParticipant(receiver);
+            } catch (Exception e) {
+                LOG.error("Failed to perform operation {} on receiver {}.", e, operation, receiver);
             }
-        } finally {
-            this.lock.readLock().unlock();
         }
     }
 
     @Override
     public void doWithParticipants(ParticipantOperation operation) {
-        this.lock.readLock().lock();
-        try {
-            for (RtpParticipant member : this.members.values()) {
-                try {
-                    operation.doWithParticipant(member);
-                } catch (Exception e) {
-                    LOG.error("Failed to perform operation {} on member {}.", e, operation, member);
-                }
+        for (RtpParticipant member : this.members.values()) {
+            try {
+                operation.doWithParticipant(member);
+            } catch (Exception e) {
+                LOG.error("Failed to perform operation {} on member {}.", e, operation, member);
             }
-        } finally {
-            this.lock.readLock().unlock();
         }
     }
 
@@ -146,140 +172,144 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
             return false;
         }
 
-        this.lock.writeLock().lock();
-        try {
-            // Iterate through the members, trying to find a match for this participant through the RTP ports or CNAME.
-            boolean isMember = false;
-            for (RtpParticipant member : this.members.values()) {
-                boolean sameDestinationAddresses =
-                        member.getDataDestination() != null &&
-                        member.getControlDestination() != null &&
-                        member.getDataDestination().equals(remoteParticipant.getDataDestination()) &&
-                        member.getControlDestination().equals(remoteParticipant.getControlDestination());
-                boolean sameCname = member.getInfo().getCname() != null &&
-                        member.getInfo().getCname().equals(remoteParticipant.getInfo().getCname());
-                if (sameDestinationAddresses || sameCname) {
-                    // Instead of adding the newly provided participant, reuse the member
-                    this.receivers.add(member);
-                    isMember = true;
-                    break;
-                }
+        synchronized (this.receiversLock) {
+            // Try to find a member matching this participant through the RTP ports or CNAME. Only receivers have
+            // destination addresses, so a member with the same addresses must be a receiver that became a member.
+            RtpParticipant member = this.receiversByDataDestination.get(remoteParticipant.getDataDestination());
+            if ((member == null) ||
+                !member.getControlDestination().equals(remoteParticipant.getControlDestination()) ||
+                (this.members.get(member.getSsrc()) != member)) {
+                String cname = remoteParticipant.getInfo().getCname();
+                member = cname == null ? null : this.membersByCname.get(cname);
             }
 
-            return isMember || this.receivers.add(remoteParticipant);
-        } finally {
-            this.lock.writeLock().unlock();
+            // Instead of adding the newly provided participant, reuse the member
+            RtpParticipant receiver = remoteParticipant;
+            if (member != null) {
+                if (!member.isReceiver()) {
+                    // Matched by CNAME only, so it has yet to learn where to send packets to.
+                    member.setDataDestination(remoteParticipant.getDataDestination());
+                    member.setControlDestination(remoteParticipant.getControlDestination());
+                }
+                receiver = member;
+            }
+            this.receivers.add(receiver);
+            this.indexReceiver(receiver);
+            return true;
         }
     }
 
     @Override
     public boolean removeReceiver(RtpParticipant remoteParticipant) {
-        this.lock.writeLock().lock();
-        try {
-            return this.receivers.remove(remoteParticipant);
-        } finally {
-            this.lock.writeLock().unlock();
+        synchronized (this.receiversLock) {
+            if (!this.receivers.remove(remoteParticipant)) {
+                return false;
+            }
+
+            this.unindexReceiver(remoteParticipant);
+            return true;
         }
     }
 
     @Override
     public RtpParticipant getParticipant(long ssrc) {
-        this.lock.readLock().lock();
-        try {
-            return this.members.get(ssrc);
-        } finally {
-            this.lock.readLock().unlock();
-        }
+        return this.members.get(ssrc);
     }
 
     @Override
     public RtpParticipant getOrCreateParticipantFromDataPacket(SocketAddress origin, DataPacket packet) {
-        this.lock.writeLock().lock();
-        try {
-            RtpParticipant participant = this.members.get(packet.getSsrc());
-            if (participant == null) {
-                // Iterate through the receivers, trying to find a match for this participant through the RTP ports.
-                boolean isReceiver = false;
-                for (RtpParticipant receiver : this.receivers) {
-                    if (receiver.getDataDestination().equals(origin)) {
-                        // Will be added to the members list.
-                        receiver.getInfo().setSsrc(packet.getSsrc());
-                        participant = receiver;
-                        participant.setLastDataOrigin(origin);
-                        isReceiver = true;
-                        break;
-                    }
-                }
-
-                boolean created = false;
-                if (!isReceiver) {
-                    // Will be added to the members list but will NOT be a receiver. 
-                    participant = RtpParticipant.createFromUnexpectedDataPacket(origin, packet);
-                    created = true;
-                }
+        // Fast path: known source, no locking.
+        RtpParticipant participant = this.members.get(packet.getSsrc());
+        if (participant != null) {
+            return participant;
+        }
 
-                this.members.put(packet.getSsrc(), participant);
+        boolean created = false;
+        synchronized (this.getCreationLock(packet.getSsrc())) {
+            // Another thread may have created it while this one waited for the lock.
+            participant = this.members.get(packet.getSsrc());
+            if (participant != null) {
+                return participant;
+            }
 
-                if (created) {
-                    this.listener.participantCreatedFromDataPacket(participant);
-                }
+            // Try to find a match for this participant in the receivers through the RTP ports.
+            RtpParticipant receiver = this.receiversByDataDestination.get(origin);
+            if (receiver != null) {
+                // Will be added to the members list.
+                receiver.getInfo().setSsrc(packet.getSsrc());
+                participant = receiver;
+                participant.setLastDataOrigin(origin);
+                this.indexMemberCname(participant.getInfo().getCname(), participant);
+            } else {
+                // Will be added to the members list but will NOT be a receiver.
+                participant = RtpParticipant.createFromUnexpectedDataPacket(origin, packet);
+                created = true;
             }
 
-            return participant;
-        } finally {
-            this.lock.writeLock().unlock();
+            this.members.put(packet.getSsrc(), participant);
+            this.scheduleExpiry(packet.getSsrc(), participant);
+        }
+
+        // Only the thread that created the participant gets here, so the event fires exactly once.
+        if (created) {
+            this.listener.participantCreatedFromDataPacket(participant);
         }
-    }
 
+        return participant;
+    }
 
     @Override
     public RtpParticipant getOrCreateParticipantFromSdesChunk(SocketAddress origin, SdesChunk chunk) {
-        this.lock.writeLock().lock();
-        try {
-            RtpParticipant participant = this.members.get(chunk.getSsrc());
-            if (participant == null) {
-                // Iterate through the receivers, trying to find a match for this participant through the RTCP ports or
-                // CNAME.
-                boolean isReceiver = false;
-                for (RtpParticipant receiver : this.receivers) {
-                    // Verify if CNAME is the same
-                    boolean equalCname = false;
-                    String chunkCname = chunk.getItemValue(SdesChunkItem.Type.CNAME);
-                    if ((chunkCname != null) && chunkCname.equals(receiver.getInfo().getCname())) {
-                        equalCname = true;
-                    }
-
-                    // If either CNAME matches or control destination matches source, then there's a match in the
-                    // receivers list.
-                    if (receiver.getControlDestination().equals(origin) || equalCname) {
-                        // Will be added to the members list.
-                        receiver.getInfo().setSsrc(chunk.getSsrc());
-                        participant = receiver;
-                        participant.setLastControlOrigin(origin);
-                        participant.receivedSdes();
-                        participant.getInfo().updateFromSdesChunk(chunk);
-                        isReceiver = true;
-                        break;
-                    }
-                }
+        // Fast path: known source, no locking.
+        String chunkCname = chunk.getItemValue(SdesChunkItem.Type.CNAME);
+        RtpParticipant participant = this.members.get(chunk.getSsrc());
+        if (participant != null) {
+            participant.packetReceived();
+            // Members created from data packets only learn their CNAME from SDES.
+            this.indexMemberCname(chunkCname, participant);
+            return participant;
+        }
 
-                boolean created = false;
-                if (!isReceiver) {
-                    // Will be added to the members list but will NOT be a receiver.
-                    participant = RtpParticipant.createFromSdesChunk(origin, chunk);
-                    created = true;
-                }
+        boolean created = false;
+        synchronized (this.getCreationLock(chunk.getSsrc())) {
+            // Another thread may have created it while this one waited for the lock.
+            participant = this.members.get(chunk.getSsrc());
+            if (participant != null) {
+                participant.packetReceived();
+                return participant;
+            }
 
-                this.members.put(chunk.getSsrc(), participant);
-                if (created) {
-                    this.listener.participantCreatedFromSdesChunk(participant);
-                }
+            // Try to find a match for this participant in the receivers through the RTCP ports or CNAME.
+            RtpParticipant receiver = this.receiversByControlDestination.get(origin);
+            if ((receiver == null) && (chunkCname != null)) {
+                receiver = this.receiversByCname.get(chunkCname);
             }
 
-            return participant;
-        } finally {
-            this.lock.writeLock().unlock();
+            if (receiver != null) {
+                // Will be added to the members list.
+                receiver.getInfo().setSsrc(chunk.getSsrc());
+                participant = receiver;
+                participant.setLastControlOrigin(origin);
+                participant.receivedSdes();
+                participant.getInfo().updateFromSdesChunk(chunk);
+            } else {
+                // Will be added to the members list but will NOT be a receiver.
+                participant = RtpParticipant.createFromSdesChunk(origin, chunk);
+                created = true;
+            }
+
+            participant.packetReceived();
+            this.members.put(chunk.getSsrc(), participant);
+            this.indexMemberCname(chunkCname, participant);
+            this.scheduleExpiry(chunk.getSsrc(), participant);
         }
+
+        // Only the thread that created the participant gets here, so the event fires exactly once.
+        if (created) {
+            this.listener.participantCreatedFromSdesChunk(participant);
+        }
+
+        return participant;
     }
 
     @Override
@@ -292,30 +322,118 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
         return this.members.size();
     }
 
-    protected void cleanup() {
-        this.lock.writeLock().lock();
-        long now = TimeUtils.now();
-        try {
-            Iterator<RtpParticipant> iterator = this.members.values().iterator();
-            while (iterator.hasNext()) {
-                RtpParticipant participant = iterator.next();
-                int timeout = this.timeoutAfterByeAndNoPacketsReceived * 1000;
-                if (participant.receivedBye() && TimeUtils
-                        .hasExpired(now, participant.getLastReceptionInstant(), timeout)) {
-                    LOG.trace("Removed {} from session with id '{}' after reception of BYE and {}s of inactivity.",
-                              participant, this.id, this.timeoutAfterByeAndNoPacketsReceived);
-                    iterator.remove();
-                    if (participant.isReceiver()) {
-                        this.receivers.remove(participant);
-                    }
-                    this.listener.participantDeleted(participant);
-                }
+    @Override
+    public void participantLeft(RtpParticipant participant) {
+        participant.byeReceived();
+        ExpiryTask task = this.expiryTasks.get(participant.getSsrc());
+        if ((task != null) && (task.participant == participant)) {
+            // Bring the deadline forward to the (shorter) BYE timeout.
+            task.schedule(this.timeoutAfterByeAndNoPacketsReceived * 1000L);
+        }
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Milliseconds until the member expires, 0 if it already has or -1 if it never expires (receivers are only
+     *         removed after leaving).
+     */
+    protected long getTimeToExpiry(RtpParticipant participant, long now) {
+        long lastReceptionInstant = participant.getLastReceptionInstant();
+        if (participant.receivedBye()) {
+            long since = Math.max(lastReceptionInstant, participant.getByeReceptionInstant());
+            return Math.max((since + (this.timeoutAfterByeAndNoPacketsReceived * 1000L)) - now, 0);
+        }
+
+        if (participant.isReceiver()) {
+            return -1;
+        }
+
+        return Math.max((lastReceptionInstant + (this.timeoutAfterNoPacketsReceived * 1000L)) - now, 0);
+    }
+
+    protected void expire(long ssrc, RtpParticipant participant) {
+        // Hold the stripe so a concurrent creation for the same SSRC doesn't interleave with the removal.
+        synchronized (this.getCreationLock(ssrc)) {
+            if (!this.members.remove(ssrc, participant)) {
+                return;
+            }
+        }
+
+        String cname = participant.getInfo().getCname();
+        if (cname != null) {
+            this.membersByCname.remove(cname, participant);
+        }
+        if (participant.receivedBye()) {
+            LOG.trace("Removed {} from session with id '{}' after reception of BYE and {}s of inactivity.",
+                      participant, this.id, this.timeoutAfterByeAndNoPacketsReceived);
+            if (participant.isReceiver()) {
+                this.removeReceiver(participant);
+            }
+        } else {
+            LOG.trace("Removed {} from session with id '{}' after {}s of inactivity.",
+                      participant, this.id, this.timeoutAfterNoPacketsReceived);
+        }
+        this.listener.participantDeleted(participant);
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    /**
+     * Must be called under the member's creation lock, right after adding it to {@link #members}.
+     */
+    private void scheduleExpiry(long ssrc, RtpParticipant participant) {
+        ExpiryTask task = new ExpiryTask(ssrc, participant);
+        ExpiryTask previous = this.expiryTasks.put(ssrc, task);
+        if (previous != null) {
+            previous.cancel();
+        }
+        task.schedule(this.timeoutAfterNoPacketsReceived * 1000L);
+    }
+
+    /**
+     * Must be called under {@link #receiversLock}. When several receivers share a key, the first one added wins, as
+     * it would when scanning the receivers list in order.
+     */
+    private void indexReceiver(RtpParticipant receiver) {
+        this.receiversByDataDestination.putIfAbsent(receiver.getDataDestination(), receiver);
+        this.receiversByControlDestination.putIfAbsent(receiver.getControlDestination(), receiver);
+        String cname = receiver.getInfo().getCname();
+        if (cname != null) {
+            this.receiversByCname.putIfAbsent(cname, receiver);
+        }
+    }
+
+    /**
+     * Must be called under {@link #receiversLock}, after removing the receiver from the list.
+     */
+    private void unindexReceiver(RtpParticipant receiver) {
+        boolean removed = this.receiversByDataDestination.remove(receiver.getDataDestination(), receiver);
+        removed |= this.receiversByControlDestination.remove(receiver.getControlDestination(), receiver);
+        String cname = receiver.getInfo().getCname();
+        if (cname != null) {
+            removed |= this.receiversByCname.remove(cname, receiver);
+        }
+
+        if (removed) {
+            // Other receivers may share the keys this one was indexed by; removing receivers is rare enough for this.
+            for (RtpParticipant remaining : this.receivers) {
+                this.indexReceiver(remaining);
             }
-        } finally {
-            this.lock.writeLock().unlock();
         }
     }
 
+    private void indexMemberCname(String cname, RtpParticipant member) {
+        if ((cname != null) && (this.membersByCname.get(cname) != member)) {
+            this.membersByCname.put(cname, member);
+        }
+    }
+
+    private Object getCreationLock(long ssrc) {
+        int hash = (int) (ssrc ^ (ssrc >>> 16));
+        return this.creationLocks[hash & (CREATION_LOCK_STRIPES - 1)];
+    }
+
     // getters & setters ----------------------------------------------------------------------------------------------
 
     public int getTimeoutAfterNoPacketsReceived() {
@@ -333,4 +451,58 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
     public void setTimeoutAfterByeAndNoPacketsReceived(int timeoutAfterByeAndNoPacketsReceived) {
         this.timeoutAfterByeAndNoPacketsReceived = timeoutAfterByeAndNoPacketsReceived;
     }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * Expires a member entry once it's been inactive for too long, or once it left.
+     * <p/>
+     * Packets only update the participant's reception instants, never the timer: when the timeout fires before the
+     * member is due to expire (because packets arrived meanwhile), it's simply rescheduled for the remaining time.
+     * Each member thus costs at most one timer rescheduling per timeout period, and removals only touch expired
+     * entries.
+     */
+    private class ExpiryTask implements TimerTask {
+
+        private final long ssrc;
+        private final RtpParticipant participant;
+        private volatile Timeout timeout;
+
+        private ExpiryTask(long ssrc, RtpParticipant participant) {
+            this.ssrc = ssrc;
+            this.participant = participant;
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (timeout != this.timeout) {
+                // Superseded by a later schedule() call.
+                return;
+            }
+
+            long timeToExpiry = getTimeToExpiry(this.participant, TimeUtils.now());
+            if (timeToExpiry > 0) {
+                this.schedule(timeToExpiry);
+            } else if (timeToExpiry == 0) {
+                expiryTasks.remove(this.ssrc, this);
+                expire(this.ssrc, this.participant);
+            }
+        }
+
+        private void schedule(long delay) {
+            Timeout previous = this.timeout;
+            this.timeout = timer.newTimeout(this, delay, TimeUnit.MILLISECONDS);
+            if (previous != null) {
+                previous.cancel();
+            }
+        }
+
+        private void cancel() {
+            Timeout timeout = this.timeout;
+            this.timeout = null;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.participant;
+
+import com.biasedbit.efflux.packet.DataPacket;
+
+/**
+ * Reorders the data packets of a single source and releases them in sequence number order.
+ * <p/>
+ * Packets are kept in a ring buffer indexed by extended sequence number (i.e. the sequence number with the count of
+ * wraparounds in the upper bits, RFC 3550 A.1), so wraparound at 65535 is handled transparently. A packet is held
+ * until it has spent the configured delay in the buffer, or until the buffer would overflow; a missing packet is given
+ * up on (counted as lost) as soon as a later packet is due. Packets arriving after their turn (already released or
+ * given up on) are counted as late and dropped, as are duplicates.
+ * <p/>
+ * Packets are retained while buffered (see {@link DataPacket#retain()}) and released once handed to the listener or
+ * dropped, so pooled packets are recycled. Offering and polling perform no allocation.
+ * <p/>
+ * All methods are synchronized: packets are offered by the thread delivering the source's packets, while timers may
+ * poll from another. The listener is called while the lock is held, which keeps releases in order.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class JitterBuffer {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Sequence number jumps larger than this are taken as a sender restart rather than loss.
+     */
+    private static final int MAX_DROPOUT = 3000;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int capacity;
+    private final long delayNanos;
+    private final JitterBufferListener listener;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final DataPacket[] packets;
+    private final long[] arrivals;
+    private final int mask;
+    /**
+     * Extended sequence number of the next packet to release.
+     */
+    private long head;
+    /**
+     * Highest extended sequence number offered so far, or -1 before the first packet.
+     */
+    private long highest;
+    private int buffered;
+    private long released;
+    private long lost;
+    private long late;
+    private long duplicates;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param capacity   Maximum amount of packets (counting missing ones) between the oldest unreleased one and the
+     *                   newest; the oldest ones are released early, or given up on, to make room.
+     * @param delayNanos Time each packet is held for, waiting for earlier ones, in nanoseconds; with 0, packets are
+     *                   released as soon as they're in order and missing ones are only given up on to make room.
+     * @param listener   Listener to hand packets to, in order.
+     */
+    public JitterBuffer(int capacity, long delayNanos, JitterBufferListener listener) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be > 0");
+        }
+        if (delayNanos < 0) {
+            throw new IllegalArgumentException("Delay must be >= 0");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null");
+        }
+
+        this.capacity = capacity;
+        this.delayNanos = delayNanos;
+        this.listener = listener;
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.packets = new DataPacket[size];
+        this.arrivals = new long[size];
+        this.mask = size - 1;
+        this.highest = -1;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Buffers a packet, then releases whatever is due.
+     *
+     * @param packet       Packet to buffer; retained if buffered.
+     * @param arrivalNanos Arrival instant, as given by {@link System#nanoTime()}.
+     *
+     * @return {@code true} if the packet was buffered (or released right away), {@code false} if it was dropped for
+     *         being late or a duplicate.
+     */
+    public synchronized boolean offer(DataPacket packet, long arrivalNanos) {
+        long sequenceNumber = this.extend(packet.getSequenceNumber());
+        if (this.highest < 0) {
+            this.head = sequenceNumber;
+            this.highest = sequenceNumber;
+        } else if (Math.abs(sequenceNumber - this.head) > MAX_DROPOUT) {
+            // Sender restarted, or lost a lot; start over from this packet.
+            this.flush();
+            this.head = sequenceNumber;
+            this.highest = sequenceNumber;
+        } else if (sequenceNumber < this.head) {
+            this.late++;
+            return false;
+        }
+
+        int index = (int) sequenceNumber & this.mask;
+        if ((sequenceNumber - this.head) < this.packets.length) {
+            if (this.packets[index] != null) {
+                this.duplicates++;
+                return false;
+            }
+        } else {
+            // Release (or give up on) the oldest packets to make room.
+            this.releaseUntil(sequenceNumber - this.packets.length + 1);
+        }
+
+        this.packets[index] = packet.retain();
+        this.arrivals[index] = arrivalNanos;
+        this.buffered++;
+        if (sequenceNumber > this.highest) {
+            this.highest = sequenceNumber;
+        }
+
+        // Enforce the capacity, which may be lower than the ring's size.
+        if ((this.highest - this.head) >= this.capacity) {
+            this.releaseUntil(this.highest - this.capacity + 1);
+        }
+        this.poll(arrivalNanos);
+        return true;
+    }
+
+    /**
+     * Releases the packets that are due: those in order that have been held for the delay, and those following a gap
+     * once any later packet is due.
+     *
+     * @param nowNanos Current instant, as given by {@link System#nanoTime()}.
+     */
+    public synchronized void poll(long nowNanos) {
+        while (this.buffered > 0) {
+            int index = (int) this.head & this.mask;
+            DataPacket packet = this.packets[index];
+            if (packet != null) {
+                if ((nowNanos - this.arrivals[index]) < this.delayNanos) {
+                    return;
+                }
+                this.releaseHead();
+                continue;
+            }
+
+            // Missing packet; give up on it if any later packet is due (without a delay, only lack of room does).
+            if (this.delayNanos == 0) {
+                return;
+            }
+            long next = this.head + 1;
+            while (this.packets[(int) next & this.mask] == null) {
+                next++;
+            }
+            if ((nowNanos - this.arrivals[(int) next & this.mask]) < this.delayNanos) {
+                return;
+            }
+            this.lost += next - this.head;
+            this.head = next;
+        }
+    }
+
+    /**
+     * Releases every buffered packet, in order, regardless of delay; missing ones are counted as lost.
+     */
+    public synchronized void flush() {
+        if (this.buffered > 0) {
+            this.releaseUntil(this.highest + 1);
+        }
+    }
+
+    /**
+     * Drops every buffered packet without handing it to the listener.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < this.packets.length; i++) {
+            if (this.packets[i] != null) {
+                this.packets[i].release();
+                this.packets[i] = null;
+            }
+        }
+        this.buffered = 0;
+        this.highest = -1;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    /**
+     * RFC 3550 A.1: the sequence number closest to the highest seen so far, counting wraparounds.
+     */
+    private long extend(int sequenceNumber) {
+        if (this.highest < 0) {
+            // Start a cycle in, so that packets reordered around the first one don't go negative.
+            return (1 << 16) + (sequenceNumber & 0xffff);
+        }
+
+        return this.highest + (short) (sequenceNumber - (int) this.highest);
+    }
+
+    private void releaseUntil(long sequenceNumber) {
+        while ((this.head < sequenceNumber) && (this.buffered > 0)) {
+            if (this.packets[(int) this.head & this.mask] == null) {
+                this.lost++;
+                this.head++;
+            } else {
+                this.releaseHead();
+            }
+        }
+
+        if (this.head < sequenceNumber) {
+            // Nothing left to release, but the gap still counts.
+            this.lost += sequenceNumber - this.head;
+            this.head = sequenceNumber;
+        }
+    }
+
+    private void releaseHead() {
+        int index = (int) this.head & this.mask;
+        DataPacket packet = this.packets[index];
+        this.packets[index] = null;
+        this.buffered--;
+        this.head++;
+        this.released++;
+        try {
+            this.listener.packetReleased(packet);
+        } finally {
+            packet.release();
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getDelayNanos() {
+        return delayNanos;
+    }
+
+    public synchronized int getBufferedPackets() {
+        return buffered;
+    }
+
+    /**
+     * @return Amount of packets handed to the listener.
+     */
+    public synchronized long getReleasedPackets() {
+        return released;
+    }
+
+    /**
+     * @return Amount of packets given up on; those that show up later count as late too.
+     */
+    public synchronized long getLostPackets() {
+        return lost;
+    }
+
+    /**
+     * @return Amount of packets dropped because they arrived after their turn.
+     */
+    public synchronized long getLatePackets() {
+        return late;
+    }
+
+    public synchronized long getDuplicatePackets() {
+        return duplicates;
+    }
+}
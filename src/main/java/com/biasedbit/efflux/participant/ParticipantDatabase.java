@@ -32,6 +32,12 @@ public interface ParticipantDatabase {
 
     Collection<RtpParticipant> getReceivers();
 
+    /**
+     * Kept for compatibility; may box SSRC's on every access. Use {@link #getParticipant(long)} and
+     * {@link #doWithParticipants(ParticipantOperation)} instead.
+     *
+     * @return Read-only view over the members, by SSRC.
+     */
     Map<Long, RtpParticipant> getMembers();
 
     void doWithReceivers(ParticipantOperation operation);
@@ -42,12 +48,27 @@ public interface ParticipantDatabase {
 
     boolean removeReceiver(RtpParticipant remoteParticipant);
 
+    /**
+     * Looks up a member without boxing the SSRC; called for every inbound packet, so it must not block.
+     *
+     * @param ssrc SSRC of the member.
+     *
+     * @return The member, or {@code null} if there's none with that SSRC.
+     */
     RtpParticipant getParticipant(long ssrc);
 
     RtpParticipant getOrCreateParticipantFromDataPacket(SocketAddress origin, DataPacket packet);
 
     RtpParticipant getOrCreateParticipantFromSdesChunk(SocketAddress origin, SdesChunk chunk);
 
+    /**
+     * Marks a member as having left the session (through a BYE packet), so that it's removed once the database decides
+     * it's safe to do so.
+     *
+     * @param participant Member that left.
+     */
+    void participantLeft(RtpParticipant participant);
+
     int getReceiverCount();
 
     int getParticipantCount();
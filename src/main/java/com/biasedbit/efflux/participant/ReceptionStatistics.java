@@ -0,0 +1,303 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.participant;
+
+import com.biasedbit.efflux.packet.ReceptionReport;
+import com.biasedbit.efflux.util.NtpClock;
+
+/**
+ * Reception statistics for a single synchronisation source, as described in RFC 3550 appendixes A.1 (sequence number
+ * validation), A.3 (packets expected and lost) and A.8 (interarrival jitter).
+ * <p/>
+ * Instances are not locked. Data packet related state is only ever written by the thread delivering data packets for
+ * the source ({@link #update(int, long, long, int)}), sender report related state by the thread delivering control
+ * packets ({@link #senderReportReceived(long, long)}) and the report interval counters by the thread building reports
+ * ({@link #createReceptionReport(long, long)}). All fields are volatile so any thread can read them.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ReceptionStatistics {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final int RTP_SEQ_MOD = 1 << 16;
+    private static final int MAX_DROPOUT = 3000;
+    private static final int MAX_MISORDER = 100;
+    private static final int MAX_CUMULATIVE_LOST = 0x7fffff;
+    private static final int MIN_CUMULATIVE_LOST = -0x800000;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int minSequential;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private volatile boolean initialised;
+    private volatile int maxSeq;
+    private volatile int cycles;
+    private volatile int baseSeq;
+    private volatile int badSeq;
+    private volatile int probation;
+    private volatile long received;
+    private volatile long arrivalBase;
+    private volatile int transit;
+    /**
+     * Interarrival jitter, in timestamp units, scaled by 16 (RFC 3550, A.8).
+     */
+    private volatile int jitter;
+
+    private volatile long expectedPrior;
+    private volatile long receivedPrior;
+
+    private volatile long lastSenderReport;
+    private volatile long lastSenderReportArrival;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param minSequential Amount of packets with consecutive sequence numbers required for the source to be declared
+     *                      valid; packets received while on probation are not counted.
+     */
+    public ReceptionStatistics(int minSequential) {
+        if (minSequential < 0) {
+            throw new IllegalArgumentException("Minimum sequential packets must be >= 0");
+        }
+        this.minSequential = minSequential;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Updates the statistics with a newly received data packet. Performs no allocation.
+     *
+     * @param sequenceNumber Sequence number of the packet.
+     * @param rtpTimestamp   RTP timestamp of the packet.
+     * @param arrivalNanos   Arrival instant, as given by {@link System#nanoTime()}.
+     * @param clockRate      Clock rate of the packet's payload type, in Hz.
+     *
+     * @return {@code true} if the packet was counted, {@code false} if the source is on probation or the packet
+     *         suggests the sender restarted (in which case the next packet will tell).
+     */
+    public boolean update(int sequenceNumber, long rtpTimestamp, long arrivalNanos, int clockRate) {
+        if (!this.initialised) {
+            this.initSequence(sequenceNumber);
+            this.arrivalBase = arrivalNanos;
+            this.transit = this.transit(rtpTimestamp, arrivalNanos, clockRate);
+            this.initialised = true;
+            if (this.minSequential == 0) {
+                this.received++;
+                return true;
+            }
+
+            this.maxSeq = (sequenceNumber - 1) & 0xffff;
+            this.probation = this.minSequential;
+        }
+
+        if (!this.updateSequence(sequenceNumber)) {
+            return false;
+        }
+
+        // RFC 3550, A.8
+        int transit = this.transit(rtpTimestamp, arrivalNanos, clockRate);
+        int d = transit - this.transit;
+        this.transit = transit;
+        if (d < 0) {
+            d = -d;
+        }
+        this.jitter += d - ((this.jitter + 8) >> 4);
+
+        return true;
+    }
+
+    /**
+     * Records the reception of a sender report from this source, to fill in the LSR and DLSR fields of the next
+     * reception report.
+     *
+     * @param ntpTimestamp NTP timestamp of the sender report.
+     * @param arrivalNanos Arrival instant, as given by {@link System#nanoTime()}.
+     */
+    public void senderReportReceived(long ntpTimestamp, long arrivalNanos) {
+        this.lastSenderReportArrival = arrivalNanos;
+        this.lastSenderReport = NtpClock.toCompact(ntpTimestamp);
+    }
+
+    /**
+     * Creates a reception report block for this source and starts a new report interval, so this must be called
+     * exactly once per report sent.
+     *
+     * @param ssrc     SSRC of the source these statistics refer to.
+     * @param nowNanos Current instant, as given by {@link System#nanoTime()}.
+     *
+     * @return A reception report block.
+     */
+    public ReceptionReport createReceptionReport(long ssrc, long nowNanos) {
+        // RFC 3550, A.3
+        long expected = this.getExpected();
+        long received = this.received;
+        long lost = expected - received;
+        if (lost > MAX_CUMULATIVE_LOST) {
+            lost = MAX_CUMULATIVE_LOST;
+        } else if (lost < MIN_CUMULATIVE_LOST) {
+            lost = MIN_CUMULATIVE_LOST;
+        }
+
+        long expectedInterval = expected - this.expectedPrior;
+        this.expectedPrior = expected;
+        long receivedInterval = received - this.receivedPrior;
+        this.receivedPrior = received;
+        long lostInterval = expectedInterval - receivedInterval;
+        short fraction = 0;
+        if ((expectedInterval > 0) && (lostInterval > 0)) {
+            fraction = (short) Math.min((lostInterval << 8) / expectedInterval, 0xff);
+        }
+
+        ReceptionReport block = new ReceptionReport();
+        block.setSsrc(ssrc);
+        block.setFractionLost(fraction);
+        // 24 bit two's complement.
+        block.setCumulativeNumberOfPacketsLost((int) lost & 0x00ffffff);
+        block.setExtendedHighestSequenceNumberReceived(this.getExtendedHighestSequenceNumber());
+        block.setInterArrivalJitter(this.getJitter());
+
+        long lastSenderReportArrival = this.lastSenderReportArrival;
+        long lastSenderReport = this.lastSenderReport;
+        if (lastSenderReport != 0) {
+            block.setLastSenderReport(lastSenderReport);
+            // Expressed in units of 1/65536 seconds.
+            long delay = ((nowNanos - lastSenderReportArrival) << 16) / 1000000000L;
+            block.setDelaySinceLastSenderReport(Math.min(Math.max(delay, 0), 0xffffffffL));
+        }
+
+        return block;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void initSequence(int sequenceNumber) {
+        this.baseSeq = sequenceNumber;
+        this.maxSeq = sequenceNumber;
+        this.badSeq = RTP_SEQ_MOD + 1; // so seq == badSeq is false
+        this.cycles = 0;
+        this.received = 0;
+        this.receivedPrior = 0;
+        this.expectedPrior = 0;
+    }
+
+    private boolean updateSequence(int sequenceNumber) {
+        // RFC 3550, A.1
+        int maxSeq = this.maxSeq;
+        int delta = (sequenceNumber - maxSeq) & 0xffff;
+
+        // Source is not valid until minSequential packets with sequential sequence numbers have been received.
+        if (this.probation > 0) {
+            if (sequenceNumber == ((maxSeq + 1) & 0xffff)) {
+                this.probation--;
+                this.maxSeq = sequenceNumber;
+                if (this.probation == 0) {
+                    this.initSequence(sequenceNumber);
+                    this.received++;
+                    return true;
+                }
+            } else {
+                this.probation = this.minSequential - 1;
+                this.maxSeq = sequenceNumber;
+            }
+            return false;
+        } else if (delta < MAX_DROPOUT) {
+            // In order, with permissible gap.
+            if (sequenceNumber < maxSeq) {
+                // Sequence number wrapped - count another 64K cycle.
+                this.cycles += RTP_SEQ_MOD;
+            }
+            this.maxSeq = sequenceNumber;
+        } else if (delta <= RTP_SEQ_MOD - MAX_MISORDER) {
+            // The sequence number made a very large jump.
+            if (sequenceNumber == this.badSeq) {
+                // Two sequential packets -- assume that the other side restarted without telling us so just re-sync
+                // (i.e., pretend this was the first packet).
+                this.initSequence(sequenceNumber);
+            } else {
+                this.badSeq = (sequenceNumber + 1) & (RTP_SEQ_MOD - 1);
+                return false;
+            }
+        }
+        // Otherwise it's a duplicate or reordered packet, which is counted as received.
+
+        this.received++;
+        return true;
+    }
+
+    private int transit(long rtpTimestamp, long arrivalNanos, int clockRate) {
+        // Arrival time in timestamp units; only differences between transit times matter, so the base is arbitrary.
+        long arrival = ((arrivalNanos - this.arrivalBase) / 1000) * clockRate / 1000000;
+        return (int) arrival - (int) rtpTimestamp;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return {@code true} once enough sequential packets were received for the source to be considered valid.
+     */
+    public boolean isValid() {
+        return this.initialised && (this.probation == 0);
+    }
+
+    public long getReceived() {
+        return this.received;
+    }
+
+    public long getExtendedHighestSequenceNumber() {
+        return (this.cycles + this.maxSeq) & 0xffffffffL;
+    }
+
+    public long getExpected() {
+        if (!this.isValid()) {
+            return 0;
+        }
+
+        return this.getExtendedHighestSequenceNumber() - this.baseSeq + 1;
+    }
+
+    public long getCumulativePacketsLost() {
+        return this.getExpected() - this.received;
+    }
+
+    /**
+     * @return Interarrival jitter, in timestamp units.
+     */
+    public long getJitter() {
+        return (this.jitter >>> 4) & 0xffffffffL;
+    }
+
+    public long getLastSenderReport() {
+        return this.lastSenderReport;
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("ReceptionStatistics{")
+                .append("valid=").append(this.isValid())
+                .append(", received=").append(this.received)
+                .append(", extendedHighestSequenceNumber=").append(this.getExtendedHighestSequenceNumber())
+                .append(", cumulativePacketsLost=").append(this.getCumulativePacketsLost())
+                .append(", jitter=").append(this.getJitter())
+                .append('}').toString();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.participant;
+
+import com.biasedbit.efflux.packet.ReceptionReport;
+
+/**
+ * How a remote participant is receiving the local participant's stream, as told by the reception reports it sends.
+ * <p/>
+ * Besides the values of the last report, exponentially weighted moving averages of round-trip time, fraction lost and
+ * jitter are kept, smoothing out single report spikes. Instances are only written by the thread delivering control
+ * packets; all fields are volatile so any thread can read them.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RemoteReceptionStatistics {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Weight of a new sample in the moving averages; same gain TCP uses for its smoothed RTT (RFC 6298).
+     */
+    public static final double SMOOTHING_FACTOR = 0.125;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private volatile long reports;
+    private volatile long lastReportInstant;
+
+    private volatile double fractionLost;
+    private volatile double smoothedFractionLost;
+    private volatile int cumulativePacketsLost;
+    private volatile long extendedHighestSequenceNumber;
+    private volatile long jitter;
+    private volatile double smoothedJitter;
+
+    private volatile double roundTripTime = -1;
+    private volatile double smoothedRoundTripTime = -1;
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Updates the statistics with a reception report about the local participant.
+     *
+     * @param report             Reception report.
+     * @param roundTripTimeNanos Round-trip time computed from the report, in nanoseconds, or a negative value if it
+     *                           couldn't be computed (e.g. the remote participant didn't receive a sender report yet).
+     * @param arrivalNanos       Arrival instant of the report, as given by {@link System#nanoTime()}.
+     */
+    public void update(ReceptionReport report, long roundTripTimeNanos, long arrivalNanos) {
+        boolean first = this.reports == 0;
+
+        this.fractionLost = report.getFractionLost() / 256d;
+        // 24 bit two's complement.
+        this.cumulativePacketsLost = (report.getCumulativeNumberOfPacketsLost() << 8) >> 8;
+        this.extendedHighestSequenceNumber = report.getExtendedHighestSequenceNumberReceived();
+        this.jitter = report.getInterArrivalJitter();
+        this.smoothedFractionLost = first ? this.fractionLost : smooth(this.smoothedFractionLost, this.fractionLost);
+        this.smoothedJitter = first ? this.jitter : smooth(this.smoothedJitter, this.jitter);
+
+        if (roundTripTimeNanos >= 0) {
+            double roundTripTime = roundTripTimeNanos / 1000000d;
+            this.roundTripTime = roundTripTime;
+            this.smoothedRoundTripTime = this.smoothedRoundTripTime < 0 ?
+                                         roundTripTime : smooth(this.smoothedRoundTripTime, roundTripTime);
+        }
+
+        this.lastReportInstant = arrivalNanos;
+        this.reports++;
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    private static double smooth(double average, double sample) {
+        return average + (SMOOTHING_FACTOR * (sample - average));
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Amount of reception reports received.
+     */
+    public long getReports() {
+        return reports;
+    }
+
+    /**
+     * @return Arrival instant of the last report, as given by {@link System#nanoTime()}.
+     */
+    public long getLastReportInstant() {
+        return lastReportInstant;
+    }
+
+    /**
+     * @return Fraction of packets lost in the last report interval, in range [0;1].
+     */
+    public double getFractionLost() {
+        return fractionLost;
+    }
+
+    public double getSmoothedFractionLost() {
+        return smoothedFractionLost;
+    }
+
+    public int getCumulativePacketsLost() {
+        return cumulativePacketsLost;
+    }
+
+    public long getExtendedHighestSequenceNumber() {
+        return extendedHighestSequenceNumber;
+    }
+
+    /**
+     * @return Interarrival jitter in the last report, in timestamp units.
+     */
+    public long getJitter() {
+        return jitter;
+    }
+
+    public double getSmoothedJitter() {
+        return smoothedJitter;
+    }
+
+    /**
+     * @return Round-trip time computed from the last report that allowed it, in milliseconds, or -1 if none did.
+     */
+    public double getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    public double getSmoothedRoundTripTime() {
+        return smoothedRoundTripTime;
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("RemoteReceptionStatistics{")
+                .append("reports=").append(this.reports)
+                .append(", fractionLost=").append(this.fractionLost)
+                .append(", smoothedFractionLost=").append(this.smoothedFractionLost)
+                .append(", cumulativePacketsLost=").append(this.cumulativePacketsLost)
+                .append(", jitter=").append(this.jitter)
+                .append(", smoothedJitter=").append(this.smoothedJitter)
+                .append(", roundTripTime=").append(this.roundTripTime)
+                .append(", smoothedRoundTripTime=").append(this.smoothedRoundTripTime)
+                .append('}').toString();
+    }
+}
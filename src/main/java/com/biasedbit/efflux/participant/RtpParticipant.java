@@ -46,13 +46,17 @@ public class RtpParticipant {
   private SocketAddress controlDestination;
   private SocketAddress lastDataOrigin;
   private SocketAddress lastControlOrigin;
-  private long lastReceptionInstant;
-  private long byeReceptionInstant;
+  private volatile long lastReceptionInstant;
+  private volatile long lastDataReceptionInstant;
+  private volatile long byeReceptionInstant;
   private int lastSequenceNumber;
   private boolean receivedSdes;
   private final AtomicLong receivedByteCounter;
   private final AtomicLong receivedPacketCounter;
   private final AtomicInteger validPacketCounter;
+  private final ReceptionStatistics receptionStatistics;
+  private final RemoteReceptionStatistics remoteReceptionStatistics;
+  private volatile JitterBuffer jitterBuffer;
 
   // constructors ---------------------------------------------------------------------------------------------------
 
@@ -67,6 +71,8 @@ public class RtpParticipant {
     this.receivedByteCounter = new AtomicLong();
     this.receivedPacketCounter = new AtomicLong();
     this.validPacketCounter = new AtomicInteger();
+    this.receptionStatistics = new ReceptionStatistics(VALID_PACKETS_UNTIL_VALID_PARTICIPANT);
+    this.remoteReceptionStatistics = new RemoteReceptionStatistics();
   }
 
   // public static methods ------------------------------------------------------------------------------------------
@@ -157,6 +163,28 @@ public class RtpParticipant {
     this.lastReceptionInstant = TimeUtils.now();
   }
 
+  /**
+   * Updates counters and reception statistics with a data packet sent by this participant.
+   *
+   * @param packet       Received packet.
+   * @param arrivalNanos Arrival instant, as given by {@link System#nanoTime()}.
+   * @param clockRate    Clock rate of the packet's payload type, in Hz.
+   *
+   * @return {@code true} if the packet was accounted as valid by the reception statistics.
+   */
+  public boolean dataPacketReceived(DataPacket packet, long arrivalNanos, int clockRate) {
+    this.packetReceived();
+    this.lastDataReceptionInstant = this.lastReceptionInstant;
+    this.receivedPacketCounter.incrementAndGet();
+    this.receivedByteCounter.addAndGet(packet.getDataSize());
+    if (this.receptionStatistics.update(packet.getSequenceNumber(), packet.getTimestamp(), arrivalNanos, clockRate)) {
+      this.validPacketCounter.incrementAndGet();
+      return true;
+    }
+
+    return false;
+  }
+
   public boolean isReceiver() {
     return (this.dataDestination != null) && (this.controlDestination != null);
   }
@@ -175,6 +203,14 @@ public class RtpParticipant {
     return lastReceptionInstant;
   }
 
+  /**
+   * @return Instant (as given by {@link TimeUtils#now()}) at which the last data packet from this participant was
+   *         received, or 0 if none was; tells whether this participant counts as a sender for RTCP purposes.
+   */
+  public long getLastDataReceptionInstant() {
+    return lastDataReceptionInstant;
+  }
+
   public long getByeReceptionInstant() {
     return byeReceptionInstant;
   }
@@ -199,6 +235,26 @@ public class RtpParticipant {
     return this.receivedByteCounter.get();
   }
 
+  public ReceptionStatistics getReceptionStatistics() {
+    return receptionStatistics;
+  }
+
+  public RemoteReceptionStatistics getRemoteReceptionStatistics() {
+    return remoteReceptionStatistics;
+  }
+
+  /**
+   * @return The buffer this participant's data packets go through, or {@code null} if they're delivered as they
+   *         arrive.
+   */
+  public JitterBuffer getJitterBuffer() {
+    return jitterBuffer;
+  }
+
+  public void setJitterBuffer(JitterBuffer jitterBuffer) {
+    this.jitterBuffer = jitterBuffer;
+  }
+
   public boolean hasReceivedSdes() {
     return receivedSdes;
   }
@@ -272,12 +328,15 @@ public class RtpParticipant {
       .add("lastDataOrigin", lastDataOrigin)
       .add("lastControlOrigin", lastControlOrigin)
       .add("lastReceptionInstant", lastReceptionInstant)
+      .add("lastDataReceptionInstant", lastDataReceptionInstant)
       .add("byeReceptionInstant", byeReceptionInstant)
       .add("lastSequenceNumber", lastSequenceNumber)
       .add("receivedSdes", receivedSdes)
       .add("receivedByteCounter", receivedByteCounter)
       .add("receivedPacketCounter", receivedPacketCounter)
       .add("validPacketCounter", validPacketCounter)
+      .add("receptionStatistics", receptionStatistics)
+      .add("remoteReceptionStatistics", remoteReceptionStatistics)
       .toString();
   }
 }
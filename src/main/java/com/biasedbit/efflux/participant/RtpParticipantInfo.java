@@ -43,6 +43,7 @@ public class RtpParticipantInfo {
     private String note;
     private String privPrefix;
     private String priv;
+    private volatile int revision;
 
     // constructors ---------------------------------------------------------------------------------------------------
 
@@ -52,6 +53,7 @@ public class RtpParticipantInfo {
         }
 
         this.ssrc = ssrc;
+        this.revision++;
     }
 
     public RtpParticipantInfo() {
@@ -79,7 +81,7 @@ public class RtpParticipantInfo {
     public boolean updateFromSdesChunk(SdesChunk chunk) {
         boolean modified = false;
         if (this.ssrc != chunk.getSsrc()) {
-            this.ssrc = chunk.getSsrc();
+            this.setSsrc(chunk.getSsrc());
             modified = true;
         }
         if (chunk.getItems() == null) {
@@ -154,6 +156,16 @@ public class RtpParticipantInfo {
 
     // getters & setters ----------------------------------------------------------------------------------------------
 
+    /**
+     * Incremented on every change, so that whatever is derived from this info (e.g. the local SDES chunk) can be
+     * cached and rebuilt only once it's stale.
+     *
+     * @return Current revision.
+     */
+    public int getRevision() {
+        return this.revision;
+    }
+
     public long getSsrc() {
         return this.ssrc;
     }
@@ -170,6 +182,7 @@ public class RtpParticipantInfo {
         }
 
         this.ssrc = ssrc;
+        this.revision++;
     }
 
     public String getCname() {
@@ -178,6 +191,7 @@ public class RtpParticipantInfo {
 
     public void setCname(String cname) {
         this.cname = cname;
+        this.revision++;
     }
 
     public String getName() {
@@ -186,6 +200,7 @@ public class RtpParticipantInfo {
 
     public void setName(String name) {
         this.name = name;
+        this.revision++;
     }
 
     public String getEmail() {
@@ -194,6 +209,7 @@ public class RtpParticipantInfo {
 
     public void setEmail(String email) {
         this.email = email;
+        this.revision++;
     }
 
     public String getPhone() {
@@ -202,6 +218,7 @@ public class RtpParticipantInfo {
 
     public void setPhone(String phone) {
         this.phone = phone;
+        this.revision++;
     }
 
     public String getLocation() {
@@ -210,6 +227,7 @@ public class RtpParticipantInfo {
 
     public void setLocation(String location) {
         this.location = location;
+        this.revision++;
     }
 
     public String getTool() {
@@ -218,6 +236,7 @@ public class RtpParticipantInfo {
 
     public void setTool(String tool) {
         this.tool = tool;
+        this.revision++;
     }
 
     public String getNote() {
@@ -226,6 +245,7 @@ public class RtpParticipantInfo {
 
     public void setNote(String note) {
         this.note = note;
+        this.revision++;
     }
 
     public String getPrivPrefix() {
@@ -239,6 +259,7 @@ public class RtpParticipantInfo {
     public void setPriv(String prefix, String priv) {
         this.privPrefix = prefix;
         this.priv = priv;
+        this.revision++;
     }
 
     // low level overrides --------------------------------------------------------------------------------------------
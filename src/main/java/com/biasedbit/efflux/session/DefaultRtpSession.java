@@ -18,10 +18,18 @@ package com.biasedbit.efflux.session;
 
 import com.biasedbit.efflux.network.ControlChannelPipelineFactory;
 import com.biasedbit.efflux.network.DataChannelPipelineFactory;
+import com.biasedbit.efflux.network.MultiplexedChannelPipelineFactory;
+import com.biasedbit.efflux.network.RtpDemultiplexer;
 import com.biasedbit.efflux.packet.*;
 import com.biasedbit.efflux.participant.*;
+import com.biasedbit.efflux.util.NtpClock;
+import com.biasedbit.efflux.util.RtpClock;
+import com.biasedbit.efflux.util.TimeUtils;
+import com.biasedbit.efflux.util.UdpSocketStatistics;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.Channels;
@@ -35,10 +43,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -62,11 +73,21 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
   // TODO not working with USE_NIO = false
   protected static final boolean DISCARD_OUT_OF_ORDER = true;
   protected static final int BANDWIDTH_LIMIT = 256;
-  protected static final int SEND_BUFFER_SIZE = 1500;
-  protected static final int RECEIVE_BUFFER_SIZE = 1500;
+  protected static final int SEND_BUFFER_SIZE = 64 * 1024;
+  protected static final int RECEIVE_BUFFER_SIZE = 256 * 1024;
+  protected static final int READ_BUFFER_SIZE = 1500;
   protected static final int MAX_COLLISIONS_BEFORE_CONSIDERING_LOOP = 3;
   protected static final boolean AUTOMATED_RTCP_HANDLING = true;
   protected static final boolean TRY_TO_UPDATE_ON_EVERY_SDES = true;
+  protected static final boolean ZERO_COPY_DECODE = false;
+  protected static final int CLOCK_RATE = 8000;
+  protected static final boolean EXTERNAL_RTCP_SCHEDULING = false;
+  protected static final boolean RTCP_MUX = false;
+  protected static final int JITTER_BUFFER_CAPACITY = 0;
+  protected static final int JITTER_BUFFER_DELAY = 60;
+  protected static final int JITTER_BUFFER_POLL_INTERVAL = 10;
+  protected static final int RETRANSMISSION_CACHE_SIZE = 0;
+  protected static final int RETRANSMISSION_CACHE_CAPACITY = 1024;
 
   // configuration --------------------------------------------------------------------------------------------------
 
@@ -79,9 +100,19 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
   protected int bandwidthLimit = BANDWIDTH_LIMIT;
   protected int sendBufferSize = SEND_BUFFER_SIZE;
   protected int receiveBufferSize = RECEIVE_BUFFER_SIZE;
+  protected int readBufferSize = READ_BUFFER_SIZE;
   protected int maxCollisionsBeforeConsideringLoop = MAX_COLLISIONS_BEFORE_CONSIDERING_LOOP;
   protected boolean automatedRtcpHandling = AUTOMATED_RTCP_HANDLING;
   protected boolean tryToUpdateOnEverySdes = TRY_TO_UPDATE_ON_EVERY_SDES;
+  protected boolean zeroCopyDecode = ZERO_COPY_DECODE;
+  protected DataPacketPool dataPacketPool;
+  protected int clockRate;
+  protected boolean externalRtcpScheduling = EXTERNAL_RTCP_SCHEDULING;
+  protected boolean rtcpMux = RTCP_MUX;
+  protected int jitterBufferCapacity = JITTER_BUFFER_CAPACITY;
+  protected int jitterBufferDelay = JITTER_BUFFER_DELAY;
+  protected int retransmissionCacheSize = RETRANSMISSION_CACHE_SIZE;
+  protected RtpDemultiplexer demultiplexer;
   protected final DatagramChannelFactory factory;
 
   // internal vars --------------------------------------------------------------------------------------------------
@@ -101,7 +132,18 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
   protected Optional<Channel> controlChannel = Optional.absent();
   protected final RtpParticipant localParticipant;
   protected final ParticipantDatabase participantDatabase;
-  protected int periodicRtcpSendInterval;
+  protected volatile RtcpIntervalCalculator rtcpIntervalCalculator;
+  protected volatile Timeout rtcpTimeout;
+  protected volatile Timeout jitterBufferTimeout;
+  protected final JitterBufferPoller jitterBufferPoller = new JitterBufferPoller();
+  protected volatile long nextRtcpInstant;
+  protected volatile long lastDataSentInstant;
+  protected RtpClock rtpClock;
+  protected final SenderReportHistory senderReportHistory = new SenderReportHistory();
+  protected RetransmissionCache retransmissionCache;
+  protected SourceDescriptionPacket localSdesPacket;
+  protected long localSdesSsrc;
+  protected int localSdesRevision;
 
   // constructors ---------------------------------------------------------------------------------------------------
 
@@ -110,6 +152,8 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
 
     checkArgument((payloadType > 0) || (payloadType < 127), "PayloadType must be in range [0;127]");
     this.payloadType = payloadType;
+    int payloadClockRate = RtpClock.getClockRate(payloadType);
+    this.clockRate = payloadClockRate > 0 ? payloadClockRate : CLOCK_RATE;
 
     this.localParticipant = checkNotNull(local);
     checkArgument(localParticipant.isReceiver(), "Local participant must have its data & control addresses set");
@@ -140,12 +184,24 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
 
     Preconditions.checkState(!isRunning());
 
+    this.rtpClock = new RtpClock(this.clockRate);
+    if (this.retransmissionCacheSize > 0) {
+      this.retransmissionCache = new RetransmissionCache(RETRANSMISSION_CACHE_CAPACITY, this.retransmissionCacheSize);
+    }
+
+    if (this.demultiplexer != null) {
+      return this.initOnDemultiplexer();
+    }
+    if (this.rtcpMux) {
+      return this.initMultiplexed();
+    }
+
     final ConnectionlessBootstrap databs = new ConnectionlessBootstrap(factory);
     databs.setOption("sendBufferSize", this.sendBufferSize);
     databs.setOption("receiveBufferSize", this.receiveBufferSize);
     databs.setOption("receiveBufferSizePredictorFactory",
-      new FixedReceiveBufferSizePredictorFactory(this.receiveBufferSize));
-    databs.setPipelineFactory(new ControlChannelPipelineFactory(executor, this));
+      new FixedReceiveBufferSizePredictorFactory(this.readBufferSize));
+    databs.setPipelineFactory(new ControlChannelPipelineFactory(executor, this, this.zeroCopyDecode, this.dataPacketPool));
 
     this.dataBootstrap = Optional.of(databs);
 
@@ -154,7 +210,7 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     controlbs.setOption("sendBufferSize", this.sendBufferSize);
     controlbs.setOption("receiveBufferSize", this.receiveBufferSize);
     controlbs.setOption("receiveBufferSizePredictorFactory",
-      new FixedReceiveBufferSizePredictorFactory(this.receiveBufferSize));
+      new FixedReceiveBufferSizePredictorFactory(this.readBufferSize));
     controlbs.setPipelineFactory(new DataChannelPipelineFactory(executor, this));
 
     this.controlBootstrap = Optional.of(controlbs);
@@ -177,15 +233,7 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     }
 
     LOG.debug("Data & Control channels bound for RtpSession with id {}.", this.id);
-    // Send first RTCP packet.
-    joinSession(localParticipant.getSsrc());
-    running.set(true);
-
-    // Add the RTCP generator.
-    if (this.automatedRtcpHandling) {
-      this.timer.newTimeout(this, this.updatePeriodicRtcpSendInterval(), TimeUnit.SECONDS);
-    }
-
+    this.start();
     return true;
   }
 
@@ -200,13 +248,19 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
       return false;
     }
 
-    DataPacket packet = new DataPacket();
-    // Other fields will be set by sendDataPacket()
-    packet.setTimestamp(timestamp);
-    packet.setData(data);
-    packet.setMarker(marked);
-
-    return this.sendDataPacket(packet);
+    DataPacket packet = this.dataPacketPool == null ? new DataPacket() : this.dataPacketPool.acquire();
+    try {
+      // Other fields will be set by sendDataPacket()
+      packet.setTimestamp(timestamp);
+      // The payload is only read when the write is flushed, so copy it; callers may reuse the array right away.
+      packet.setData(ChannelBuffers.copiedBuffer(data));
+      packet.setMarker(marked);
+
+      return this.sendDataPacket(packet);
+    } finally {
+      // The encoded buffer references the payload, not the packet, so the packet can go back to the pool now.
+      packet.release();
+    }
   }
 
   @Override
@@ -231,18 +285,44 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
       return false;
     }
 
-    if (ControlPacket.Type.APP_DATA.equals(packet.getType()) || !this.automatedRtcpHandling) {
-      this.internalSendControl(packet);
+    if (ControlPacket.Type.APP_DATA.equals(packet.getType()) || (packet instanceof FeedbackPacket)) {
+      // APP and feedback packets can't be sent on their own, compound packets must start with a report.
+      this.internalSendControl(this.buildCompoundPacket(packet));
+      return true;
+    }
+
+    if (!this.automatedRtcpHandling) {
+      // Receivers drop compound packets that don't start with a report (RFC 3550, appendix A.2).
+      if (packet instanceof AbstractReportPacket) {
+        this.internalSendControl(packet);
+      } else {
+        this.internalSendControl(this.buildCompoundPacket(packet));
+      }
       return true;
     }
 
     return false;
   }
 
+  @Override
+  public boolean sendAppData(int subtype, String name, ChannelBuffer data) {
+    if (!this.running.get()) {
+      return false;
+    }
+
+    AppDataPacket packet = new AppDataPacket();
+    packet.setSubtype(subtype);
+    packet.setSsrc(this.localParticipant.getSsrc());
+    packet.setName(name);
+    packet.setData(data);
+    this.internalSendControl(this.buildCompoundPacket(packet));
+    return true;
+  }
+
   @Override
   public boolean sendControlPacket(CompoundControlPacket packet) {
     if (this.running.get() && !this.automatedRtcpHandling) {
-      this.internalSendControl(packet);
+      this.internalSendControl(this.ensureStartsWithReport(packet));
       return true;
     }
 
@@ -256,13 +336,31 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
 
   @Override
   public boolean addReceiver(RtpParticipant remoteParticipant) {
-    return (remoteParticipant.getSsrc() != this.localParticipant.getSsrc()) &&
-      this.participantDatabase.addReceiver(remoteParticipant);
+    if ((remoteParticipant.getSsrc() == this.localParticipant.getSsrc()) ||
+        !this.participantDatabase.addReceiver(remoteParticipant)) {
+      return false;
+    }
+
+    if (this.running.get() && (this.demultiplexer != null) && !this.addRoutes(remoteParticipant)) {
+      this.participantDatabase.removeReceiver(remoteParticipant);
+      return false;
+    }
+
+    return true;
   }
 
   @Override
   public boolean removeReceiver(RtpParticipant remoteParticipant) {
-    return this.participantDatabase.removeReceiver(remoteParticipant);
+    if (!this.participantDatabase.removeReceiver(remoteParticipant)) {
+      return false;
+    }
+
+    if (this.demultiplexer != null) {
+      this.demultiplexer.removeDataRoute(remoteParticipant.getDataDestination(), this);
+      this.demultiplexer.removeControlRoute(this.getControlDestination(remoteParticipant), this);
+    }
+
+    return true;
   }
 
   @Override
@@ -358,8 +456,27 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
       return;
     }
 
-    // Should the packet be discarded due to out of order SN?
-    if ((participant.getLastSequenceNumber() >= packet.getSequenceNumber()) && this.discardOutOfOrder) {
+    long now = TimeUtils.nowNanos();
+    participant.dataPacketReceived(packet, now, this.clockRate);
+
+    JitterBuffer jitterBuffer = participant.getJitterBuffer();
+    if ((jitterBuffer == null) && (this.jitterBufferCapacity > 0)) {
+      jitterBuffer = this.createJitterBuffer(participant);
+    }
+    if (jitterBuffer != null) {
+      // Listeners are called as packets are released, in order.
+      participant.setLastDataOrigin(origin);
+      jitterBuffer.offer(packet, now);
+      if (jitterBuffer.getBufferedPackets() > 0) {
+        this.jitterBufferPoller.schedule();
+      }
+      return;
+    }
+
+    // Should the packet be discarded due to out of order SN? Sequence numbers wrap around, so compare their distance.
+    int lastSequenceNumber = participant.getLastSequenceNumber();
+    if (this.discardOutOfOrder && (lastSequenceNumber >= 0) &&
+        ((short) (packet.getSequenceNumber() - lastSequenceNumber) <= 0)) {
       LOG.trace("Discarded out of order packet from {} in session with id {} (last SN was {}, packet SN was {}).",
         participant, this.id, participant.getLastSequenceNumber(), packet.getSequenceNumber());
       return;
@@ -391,22 +508,46 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
       return;
     }
 
-    for (ControlPacket controlPacket : packet.getControlPackets()) {
-      switch (controlPacket.getType()) {
+    if (packet.getEncodedSize() > 0) {
+      this.rtcpIntervalCalculator.received(packet.getEncodedSize());
+    }
+
+    // Reports and BYEs are read straight from the datagram; only SDES packets (and APP packets, for the listeners)
+    // are fully decoded.
+    ControlPacketView view = packet.getView();
+    while (view.next()) {
+      ControlPacket.Type type = view.getType();
+      if (type == null) {
+        // Unknown type, skip it.
+        continue;
+      }
+
+      switch (type) {
         case SENDER_REPORT:
         case RECEIVER_REPORT:
-          this.handleReportPacket(origin, (AbstractReportPacket) controlPacket);
+          this.handleReportPacket(origin, view);
           break;
         case SOURCE_DESCRIPTION:
-          this.handleSdesPacket(origin, (SourceDescriptionPacket) controlPacket);
+          this.handleSdesPacket(origin, (SourceDescriptionPacket) view.decode());
           break;
         case BYE:
-          this.handleByePacket(origin, (ByePacket) controlPacket);
+          this.handleByePacket(origin, view);
           break;
         case APP_DATA:
-          for (RtpSessionControlListener listener : this.controlListeners) {
-            listener.appDataReceived(this, (AppDataPacket) controlPacket);
+          AppDataPacket appDataPacket = (AppDataPacket) view.decode();
+          if (appDataPacket != null) {
+            for (RtpSessionControlListener listener : this.controlListeners) {
+              listener.appDataReceived(this, appDataPacket);
+            }
           }
+          break;
+        case TRANSPORT_FEEDBACK:
+        case PAYLOAD_SPECIFIC_FEEDBACK:
+          FeedbackPacket feedbackPacket = (FeedbackPacket) view.decode();
+          if (feedbackPacket != null) {
+            this.handleFeedbackPacket(origin, feedbackPacket);
+          }
+          break;
         default:
           // do nothing, unknown case
       }
@@ -417,52 +558,220 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
 
   @Override
   public void run(Timeout timeout) throws Exception {
-    if (!this.running.get()) {
+    // A stale timeout, replaced by reverse reconsideration after it had already fired.
+    if (!this.running.get() || (timeout != this.rtcpTimeout)) {
       return;
     }
 
-    final long currentSsrc = this.localParticipant.getSsrc();
-    final SourceDescriptionPacket sdesPacket = buildSdesPacket(currentSsrc);
+    this.rtcpTimerExpired(TimeUtils.now());
+  }
+
+  // public methods -------------------------------------------------------------------------------------------------
+
+  /**
+   * Sends RTCP reports if they're due; only to be called when {@link #isExternalRtcpScheduling() external RTCP
+   * scheduling} is enabled, always by the same thread.
+   *
+   * @param now Current instant, as given by {@link TimeUtils#now()}.
+   */
+  public void pollRtcp(long now) {
+    if (!this.running.get() || !this.externalRtcpScheduling || (this.rtcpIntervalCalculator == null)) {
+      return;
+    }
+
+    if (now >= this.nextRtcpInstant) {
+      this.rtcpTimerExpired(now);
+    }
+  }
+
+  // protected helpers ----------------------------------------------------------------------------------------------
+
+  /**
+   * Uses the demultiplexer's channels instead of binding new ones, and routes the receivers' packets to this session.
+   */
+  protected boolean initOnDemultiplexer() {
+    if (!this.demultiplexer.isRunning()) {
+      LOG.error("Cannot initialise session with id {}: demultiplexer is not running.", this.id);
+      return false;
+    }
+    if (this.demultiplexer.isRtcpMux() != this.rtcpMux) {
+      LOG.error("Cannot initialise session with id {}: rtcp-mux setting differs from the demultiplexer's.", this.id);
+      return false;
+    }
+
+    final boolean[] routed = {true};
     this.participantDatabase.doWithReceivers(new ParticipantOperation() {
       @Override
       public void doWithParticipant(RtpParticipant participant) throws Exception {
-        AbstractReportPacket report = buildReportPacket(currentSsrc, participant);
-        internalSendControl(new CompoundControlPacket(report, sdesPacket));
+        routed[0] &= addRoutes(participant);
+      }
+
+      @Override
+      public String toString() {
+        return "initOnDemultiplexer() for session with id " + id;
       }
     });
+    if (!routed[0]) {
+      LOG.error("Cannot initialise session with id {}: some receivers are already routed to other sessions.", this.id);
+      this.demultiplexer.removeRoutes(this);
+      return false;
+    }
 
-    if (!this.running.get()) {
-      return;
+    this.dataChannel = Optional.of(this.demultiplexer.getDataChannel());
+    this.controlChannel = Optional.of(this.demultiplexer.getControlChannel());
+    LOG.debug("RtpSession with id {} attached to shared channels.", this.id);
+    this.start();
+    return true;
+  }
+
+  /**
+   * Binds a single channel, on the local participant's data address, for both RTP and RTCP.
+   */
+  protected boolean initMultiplexed() {
+    ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(this.factory);
+    bootstrap.setOption("sendBufferSize", this.sendBufferSize);
+    bootstrap.setOption("receiveBufferSize", this.receiveBufferSize);
+    bootstrap.setOption("receiveBufferSizePredictorFactory",
+      new FixedReceiveBufferSizePredictorFactory(this.readBufferSize));
+    bootstrap.setPipelineFactory(new MultiplexedChannelPipelineFactory(this.executor, this, this,
+      this.zeroCopyDecode, this.dataPacketPool));
+    this.dataBootstrap = Optional.of(bootstrap);
+
+    try {
+      Channel channel = bootstrap.bind(this.localParticipant.getDataDestination());
+      this.dataChannel = Optional.of(channel);
+      this.controlChannel = Optional.of(channel);
+    } catch (Exception e) {
+      LOG.error("Failed to bind multiplexed channel for session with id " + this.id, e);
+      return false;
     }
-    this.timer.newTimeout(this, this.updatePeriodicRtcpSendInterval(), TimeUnit.SECONDS);
+
+    LOG.debug("Multiplexed channel bound for RtpSession with id {}.", this.id);
+    this.start();
+    return true;
   }
 
-  // protected helpers ----------------------------------------------------------------------------------------------
+  protected void start() {
+    // Send first RTCP packet.
+    this.joinSession(this.localParticipant.getSsrc());
+
+    // The RTCP generator must be in place before the session goes live, as the channel is already bound and peers may
+    // answer the packet just sent.
+    long now = TimeUtils.now();
+    long firstRtcpInstant = 0;
+    if (this.automatedRtcpHandling) {
+      this.rtcpIntervalCalculator = new RtcpIntervalCalculator(this.bandwidthLimit);
+      int[] group = this.countMembersAndSenders(now, false);
+      firstRtcpInstant = this.rtcpIntervalCalculator.start(now, group[0], group[1], false);
+    }
+    this.running.set(true);
+
+    // Add the RTCP generator.
+    if (this.automatedRtcpHandling) {
+      this.scheduleRtcp(now, firstRtcpInstant);
+    }
+  }
+
+  /**
+   * Routes the packets the demultiplexer receives from a receiver's addresses to this session.
+   *
+   * @return {@code false} if either address is already routed to another session.
+   */
+  protected boolean addRoutes(RtpParticipant receiver) {
+    if (!this.demultiplexer.addDataRoute(receiver.getDataDestination(), this)) {
+      return false;
+    }
+    if (!this.demultiplexer.addControlRoute(this.getControlDestination(receiver), this)) {
+      this.demultiplexer.removeDataRoute(receiver.getDataDestination(), this);
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * @return Where RTCP packets for the given participant go: its data address with rtcp-mux, its control address
+   *         otherwise.
+   */
+  protected SocketAddress getControlDestination(RtpParticipant participant) {
+    return this.rtcpMux ? participant.getDataDestination() : participant.getControlDestination();
+  }
+
+  protected void rtcpTimerExpired(long now) {
+    boolean weSent = this.hasSentDataRecently(now);
+    int[] group = this.countMembersAndSenders(now, weSent);
+    if (!this.rtcpIntervalCalculator.isTransmissionDue(now, group[0], group[1], weSent)) {
+      // Timer reconsideration: the group grew since this report was scheduled, so the interval did too.
+      this.scheduleRtcp(now, this.rtcpIntervalCalculator.getNextTransmission());
+      return;
+    }
+
+    // Each receiver gets the report block that concerns it, so the compound packet is built per receiver. The sender
+    // info refers to the same instant for all of them, so a single timestamp per interval is remembered, however many
+    // receivers there are (recorded even if no data was sent yet, as the first packet may go out while reporting).
+    final long currentSsrc = this.localParticipant.getSsrc();
+    final long nowNanos = TimeUtils.nowNanos();
+    this.senderReportHistory.senderReportSent(NtpClock.toNtp(nowNanos));
+    final SourceDescriptionPacket sdesPacket = buildSdesPacket(currentSsrc);
+    final int[] sent = {0, 0};
+    this.participantDatabase.doWithReceivers(new ParticipantOperation() {
+      @Override
+      public void doWithParticipant(RtpParticipant participant) throws Exception {
+        if (!participant.isReceiver() || participant.receivedBye()) {
+          return;
+        }
+        AbstractReportPacket report = buildReportPacket(currentSsrc, participant, nowNanos);
+        ChannelBuffer buffer = new CompoundControlPacket(report, sdesPacket).encode();
+        sent[0]++;
+        sent[1] += buffer.readableBytes();
+        internalSendControl(buffer, participant);
+      }
 
-  protected void handleReportPacket(SocketAddress origin, AbstractReportPacket abstractReportPacket) {
-    if (abstractReportPacket.getReceptionReportCount() == 0) {
+      @Override
+      public String toString() {
+        return "rtcpTimerExpired() for session with id " + id;
+      }
+    });
+
+    if (!this.running.get()) {
       return;
     }
+    int packetSize = sent[0] == 0 ? 0 : sent[1] / sent[0];
+    this.scheduleRtcp(now, this.rtcpIntervalCalculator.transmitted(now, packetSize, group[0], group[1], weSent));
+  }
 
-    RtpParticipant context = this.participantDatabase.getParticipant(abstractReportPacket.getSenderSsrc());
+  /**
+   * Handles a SR or RR; only the report block about the local participant, if any, is decoded.
+   */
+  protected void handleReportPacket(SocketAddress origin, ControlPacketView report) {
+    RtpParticipant context = this.participantDatabase.getParticipant(report.getSenderSsrc());
     if (context == null) {
       // Ignore; RTCP-SDES or RTP packet must first be received.
       return;
     }
+    context.packetReceived();
+
+    // For sender reports, also handle the sender information.
+    if (report.getType() == ControlPacket.Type.SENDER_REPORT) {
+      context.getReceptionStatistics().senderReportReceived(report.getNtpTimestamp(), TimeUtils.nowNanos());
+    }
 
-    for (ReceptionReport receptionReport : abstractReportPacket.getReceptionReports()) {
+    long localSsrc = this.localParticipant.getSsrc();
+    for (int i = 0; i < report.getInnerBlockCount(); i++) {
       // Ignore all reception reports except for the one who pertains to the local participant (only data that
       // matters here is the link between this participant and ourselves).
-      if (receptionReport.getSsrc() == this.localParticipant.getSsrc()) {
-        // TODO
+      if (report.getReportBlockSsrc(i) == localSsrc) {
+        ReceptionReport receptionReport = report.getReceptionReport(i);
+        long now = TimeUtils.nowNanos();
+        long roundTripTime = this.senderReportHistory.computeRoundTripTime(receptionReport.getLastSenderReport(),
+          receptionReport.getDelaySinceLastSenderReport(), now);
+        RemoteReceptionStatistics statistics = context.getRemoteReceptionStatistics();
+        statistics.update(receptionReport, roundTripTime, now);
+        for (RtpSessionEventListener listener : this.eventListeners) {
+          listener.receptionReportReceived(this, context, statistics);
+        }
       }
     }
-
-    // For sender reports, also handle the sender information.
-    if (abstractReportPacket.getType().equals(ControlPacket.Type.SENDER_REPORT)) {
-      SenderReportPacket senderReport = (SenderReportPacket) abstractReportPacket;
-      // TODO
-    }
   }
 
   protected void handleSdesPacket(SocketAddress origin, SourceDescriptionPacket packet) {
@@ -485,21 +794,92 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     }
   }
 
-  protected void handleByePacket(SocketAddress origin, ByePacket packet) {
-    for (Long ssrc : packet.getSsrcList()) {
-      RtpParticipant participant = this.participantDatabase.getParticipant(ssrc);
+  protected void handleByePacket(SocketAddress origin, ControlPacketView bye) {
+    for (int i = 0; i < bye.getInnerBlockCount(); i++) {
+      RtpParticipant participant = this.participantDatabase.getParticipant(bye.getSsrc(i));
       if (participant != null) {
-        participant.byeReceived();
+        this.participantDatabase.participantLeft(participant);
         for (RtpSessionEventListener listener : eventListeners) {
           listener.participantLeft(this, participant);
         }
       }
     }
-    LOG.trace("Received BYE for participants with SSRCs {} in session with id '{}' (reason: '{}').",
-      packet.getSsrcList(), this.id, packet.getReasonForLeaving());
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Received BYE for {} participant(s) in session with id '{}' (reason: '{}').",
+        new Object[]{bye.getInnerBlockCount(), this.id, bye.getReasonForLeaving()});
+    }
+
+    // Reverse reconsideration: with fewer members, the next report is due sooner.
+    long now = TimeUtils.now();
+    int[] group = this.countMembersAndSenders(now, false);
+    if (this.rtcpIntervalCalculator.membersLeft(now, group[0])) {
+      Timeout previous = this.rtcpTimeout;
+      this.scheduleRtcp(now, this.rtcpIntervalCalculator.getNextTransmission());
+      if (previous != null) {
+        previous.cancel();
+      }
+    }
+  }
+
+  /**
+   * Answers generic NACKs for the local source from the retransmission cache, if enabled, sending the lost packets
+   * (as originally sent) to the participant that reported them; then hands the packet to the control listeners.
+   */
+  protected void handleFeedbackPacket(SocketAddress origin, FeedbackPacket packet) {
+    RtpParticipant context = this.participantDatabase.getParticipant(packet.getSenderSsrc());
+    if (context == null) {
+      // Ignore; RTCP-SDES or RTP packet must first be received.
+      return;
+    }
+    context.packetReceived();
+
+    if ((packet instanceof GenericNackPacket) && (this.retransmissionCache != null) &&
+        (packet.getMediaSsrc() == this.localParticipant.getSsrc())) {
+      GenericNackPacket nack = (GenericNackPacket) packet;
+      for (int i = 0; i < nack.getEntryCount(); i++) {
+        int packetId = nack.getPacketId(i);
+        int lostPacketBitmask = nack.getLostPacketBitmask(i);
+        this.retransmit(context, packetId);
+        for (int bit = 0; bit < 16; bit++) {
+          if ((lostPacketBitmask & (1 << bit)) != 0) {
+            this.retransmit(context, packetId + bit + 1);
+          }
+        }
+      }
+    }
+
+    for (RtpSessionControlListener listener : this.controlListeners) {
+      listener.feedbackReceived(this, packet);
+    }
+  }
+
+  protected void retransmit(RtpParticipant participant, int sequenceNumber) {
+    if (!participant.isReceiver() || participant.receivedBye()) {
+      return;
+    }
+
+    ChannelBuffer buffer = this.retransmissionCache.getPacket(sequenceNumber);
+    if (buffer == null) {
+      LOG.trace("Packet {} is no longer cached for retransmission in session with id {}.", sequenceNumber, this.id);
+      return;
+    }
+    try {
+      this.writeToData(buffer, participant.getDataDestination());
+    } catch (Exception e) {
+      LOG.error("Failed to retransmit RTP packet to {} in session with id {}.", participant, this.id);
+    }
   }
 
   protected void internalSendData(final DataPacket packet) {
+    if (packet.getDataSize() == 0) {
+      return;
+    }
+
+    // Encode once and hand each receiver its own view over the same bytes.
+    final ChannelBuffer buffer = packet.encodeComposite();
+    if (this.retransmissionCache != null) {
+      this.retransmissionCache.packetSent(packet.getSequenceNumber(), buffer);
+    }
     this.participantDatabase.doWithReceivers(new ParticipantOperation() {
       @Override
       public void doWithParticipant(RtpParticipant participant) throws Exception {
@@ -507,7 +887,7 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
           return;
         }
         try {
-          writeToData(packet, participant.getDataDestination());
+          writeToData(buffer, participant.getDataDestination());
         } catch (Exception e) {
           LOG.error("Failed to send RTP packet to participants in session with id {}.", id);
         }
@@ -518,6 +898,11 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
         return "internalSendData() for session with id " + id;
       }
     });
+
+    this.incrementSentPackets();
+    this.incrementSentBytes(packet.getDataSize());
+    this.rtpClock.packetSent(packet.getTimestamp(), TimeUtils.nowNanos());
+    this.lastDataSentInstant = TimeUtils.now();
   }
 
   protected void internalSendControl(ControlPacket packet, RtpParticipant participant) {
@@ -526,7 +911,7 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     }
 
     try {
-      this.writeToControl(packet, participant.getControlDestination());
+      this.writeToControl(packet, this.getControlDestination(participant));
     } catch (Exception e) {
       LOG.error("Failed to send RTCP packet to {} in session with id {}.", participant, this.id);
     }
@@ -538,13 +923,36 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     }
 
     try {
-      this.writeToControl(packet, participant.getControlDestination());
+      this.writeToControl(packet, this.getControlDestination(participant));
+    } catch (Exception e) {
+      LOG.error("Failed to send RTCP compound packet to {} in session with id {}.", participant, this.id);
+    }
+  }
+
+  /**
+   * Sends an already encoded RTCP (compound) packet to a single participant.
+   */
+  protected void internalSendControl(ChannelBuffer buffer, RtpParticipant participant) {
+    if (!participant.isReceiver() || participant.receivedBye()) {
+      return;
+    }
+
+    try {
+      this.writeToControl(buffer, this.getControlDestination(participant));
     } catch (Exception e) {
       LOG.error("Failed to send RTCP compound packet to {} in session with id {}.", participant, this.id);
     }
   }
 
   protected void internalSendControl(final ControlPacket packet) {
+    final ChannelBuffer buffer;
+    try {
+      buffer = packet.encode();
+    } catch (Exception e) {
+      LOG.error("Failed to encode RTCP packet to send in session with id {}.", this.id, e);
+      return;
+    }
+
     this.participantDatabase.doWithReceivers(new ParticipantOperation() {
       @Override
       public void doWithParticipant(RtpParticipant participant) throws Exception {
@@ -552,7 +960,7 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
           return;
         }
         try {
-          writeToControl(packet, participant.getControlDestination());
+          writeToControl(buffer, getControlDestination(participant));
         } catch (Exception e) {
           LOG.error("Failed to send RTCP packet to participants in session with id {}.", id);
         }
@@ -566,6 +974,15 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
   }
 
   protected void internalSendControl(final CompoundControlPacket packet) {
+    final ChannelBuffer buffer;
+    try {
+      // APP data, if any, isn't copied.
+      buffer = packet.encodeComposite();
+    } catch (Exception e) {
+      LOG.error("Failed to encode RTCP compound packet to send in session with id {}.", this.id, e);
+      return;
+    }
+
     this.participantDatabase.doWithReceivers(new ParticipantOperation() {
       @Override
       public void doWithParticipant(RtpParticipant participant) throws Exception {
@@ -573,7 +990,7 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
           return;
         }
         try {
-          writeToControl(packet, participant.getControlDestination());
+          writeToControl(buffer, getControlDestination(participant));
         } catch (Exception e) {
           LOG.error("Failed to send RTCP compound packet to participants in session with id {}.", id);
         }
@@ -590,6 +1007,14 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     this.dataChannel.get().write(packet, destination);
   }
 
+  /**
+   * Writes an already encoded RTP packet. The buffer itself is never consumed, so the same buffer can be written to
+   * several destinations.
+   */
+  protected void writeToData(ChannelBuffer buffer, SocketAddress destination) {
+    this.dataChannel.get().write(buffer.duplicate(), destination);
+  }
+
   protected void writeToControl(ControlPacket packet, SocketAddress destination) {
     this.controlChannel.get().write(packet, destination);
   }
@@ -598,6 +1023,14 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     this.controlChannel.get().write(packet, destination);
   }
 
+  /**
+   * Writes an already encoded RTCP (compound) packet. The buffer itself is never consumed, so the same buffer can be
+   * written to several destinations.
+   */
+  protected void writeToControl(ChannelBuffer buffer, SocketAddress destination) {
+    this.controlChannel.get().write(buffer.duplicate(), destination);
+  }
+
   protected void joinSession(long currentSsrc) {
     if (!this.automatedRtcpHandling) {
       return;
@@ -617,55 +1050,105 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
       return;
     }
 
-    final SourceDescriptionPacket sdesPacket = this.buildSdesPacket(currentSsrc);
-    final ByePacket byePacket = new ByePacket();
+    // Compound packets must start with a report (RFC 3550, section 6.1), even the ones carrying a BYE.
+    ReceiverReportPacket emptyReceiverReport = new ReceiverReportPacket();
+    emptyReceiverReport.setSenderSsrc(currentSsrc);
+    SourceDescriptionPacket sdesPacket = this.buildSdesPacket(currentSsrc);
+    ByePacket byePacket = new ByePacket();
     byePacket.addSsrc(currentSsrc);
     byePacket.setReasonForLeaving(motive);
 
-    this.internalSendControl(new CompoundControlPacket(sdesPacket, byePacket));
+    this.internalSendControl(new CompoundControlPacket(emptyReceiverReport, sdesPacket, byePacket));
   }
 
-  protected AbstractReportPacket buildReportPacket(long currentSsrc, RtpParticipant context) {
+  /**
+   * Wraps a packet (other than a report) in a compound packet along with an empty receiver report and the local SDES,
+   * as every compound packet must start with a report and carry a CNAME (RFC 3550, section 6.1, and RFC 4585, section
+   * 3.1). SDES packets take the place of the local one.
+   */
+  protected CompoundControlPacket buildCompoundPacket(ControlPacket packet) {
+    long currentSsrc = this.localParticipant.getSsrc();
+    ReceiverReportPacket emptyReceiverReport = new ReceiverReportPacket();
+    emptyReceiverReport.setSenderSsrc(currentSsrc);
+    if (packet instanceof SourceDescriptionPacket) {
+      return new CompoundControlPacket(emptyReceiverReport, packet);
+    }
+    return new CompoundControlPacket(emptyReceiverReport, this.buildSdesPacket(currentSsrc), packet);
+  }
+
+  /**
+   * Prepends an empty receiver report to compound packets that don't start with a report, which receivers would
+   * otherwise discard (RFC 3550, appendix A.2).
+   */
+  protected CompoundControlPacket ensureStartsWithReport(CompoundControlPacket packet) {
+    List<ControlPacket> packets = packet.getControlPackets();
+    if (packets.get(0) instanceof AbstractReportPacket) {
+      return packet;
+    }
+
+    ReceiverReportPacket emptyReceiverReport = new ReceiverReportPacket();
+    emptyReceiverReport.setSenderSsrc(this.localParticipant.getSsrc());
+    List<ControlPacket> withReport = new ArrayList<ControlPacket>(packets.size() + 1);
+    withReport.add(emptyReceiverReport);
+    withReport.addAll(packets);
+    return new CompoundControlPacket(withReport);
+  }
+
+  /**
+   * @param nowNanos Instant of the sender info, as given by {@link TimeUtils#nowNanos()}, whose NTP timestamp must have
+   *                 been recorded in the {@link #senderReportHistory}.
+   */
+  protected AbstractReportPacket buildReportPacket(long currentSsrc, RtpParticipant context, long nowNanos) {
     AbstractReportPacket packet;
     if (this.getSentPackets() == 0) {
       // If no packets were sent to this source, then send a receiver report.
       packet = new ReceiverReportPacket();
     } else {
       // Otherwise, build a sender report.
+      // Both timestamps refer to the same instant, so receivers can map our RTP timestamps to wall clock time.
       SenderReportPacket senderPacket = new SenderReportPacket();
-      senderPacket.setNtpTimestamp(0); // FIXME
-      senderPacket.setRtpTimestamp(System.currentTimeMillis()); // FIXME
-      senderPacket.setSenderPacketCount(this.getSentPackets());
-      senderPacket.setSenderOctetCount(this.getSentBytes());
+      senderPacket.setNtpTimestamp(NtpClock.toNtp(nowNanos));
+      senderPacket.setRtpTimestamp(this.rtpClock.getTimestamp(nowNanos));
+      // Both counters wrap around (RFC 3550, section 6.4.1).
+      senderPacket.setSenderPacketCount(this.getSentPackets() & 0xffffffffL);
+      senderPacket.setSenderOctetCount(this.getSentBytes() & 0xffffffffL);
       packet = senderPacket;
     }
     packet.setSenderSsrc(currentSsrc);
 
     // If this source sent data, then calculate the link quality to build a reception report block.
-    if (context.getReceivedPackets() > 0) {
-      ReceptionReport block = new ReceptionReport();
-      block.setSsrc(context.getInfo().getSsrc());
-      block.setDelaySinceLastSenderReport(0); // FIXME
-      block.setFractionLost((short) 0); // FIXME
-      block.setExtendedHighestSequenceNumberReceived(0); // FIXME
-      block.setInterArrivalJitter(0); // FIXME
-      block.setCumulativeNumberOfPacketsLost(0); // FIXME
+    if (context.getReceptionStatistics().isValid()) {
+      ReceptionReport block = context.getReceptionStatistics()
+        .createReceptionReport(context.getInfo().getSsrc(), TimeUtils.nowNanos());
       packet.addReceptionReportBlock(block);
     }
 
     return packet;
   }
 
-  protected SourceDescriptionPacket buildSdesPacket(long currentSsrc) {
-    SourceDescriptionPacket sdesPacket = new SourceDescriptionPacket();
-    SdesChunk chunk = new SdesChunk(currentSsrc);
-
+  /**
+   * The local SDES packet only changes when the local participant's info or SSRC do, so it's cached (along with the
+   * UTF-8 encoding of its items) and only rebuilt after either changes.
+   */
+  protected synchronized SourceDescriptionPacket buildSdesPacket(long currentSsrc) {
     RtpParticipantInfo info = this.localParticipant.getInfo();
     if (info.getCname() == null) {
       info.setCname(new StringBuilder()
         .append("efflux/").append(this.id).append('@')
         .append(this.dataChannel.get().getLocalAddress()).toString());
     }
+    if (info.getTool() == null) {
+      info.setTool(VERSION);
+    }
+
+    // Read the revision before the values, so that a change made meanwhile is never cached as up to date.
+    int revision = info.getRevision();
+    if ((this.localSdesPacket != null) && (this.localSdesSsrc == currentSsrc) && (this.localSdesRevision == revision)) {
+      return this.localSdesPacket;
+    }
+
+    SourceDescriptionPacket sdesPacket = new SourceDescriptionPacket();
+    SdesChunk chunk = new SdesChunk(currentSsrc);
     chunk.addItem(SdesChunkItems.createCnameItem(info.getCname()));
 
     if (info.getName() != null) {
@@ -684,16 +1167,16 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
       chunk.addItem(SdesChunkItems.createLocationItem(info.getLocation()));
     }
 
-    if (info.getTool() == null) {
-      info.setTool(VERSION);
-    }
     chunk.addItem(SdesChunkItems.createToolItem(info.getTool()));
 
     if (info.getNote() != null) {
-      chunk.addItem(SdesChunkItems.createLocationItem(info.getNote()));
+      chunk.addItem(SdesChunkItems.createNoteItem(info.getNote()));
     }
     sdesPacket.addItem(chunk);
 
+    this.localSdesPacket = sdesPacket;
+    this.localSdesSsrc = currentSsrc;
+    this.localSdesRevision = revision;
     return sdesPacket;
   }
 
@@ -705,11 +1188,28 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
 
     this.dataListeners.clear();
     this.controlListeners.clear();
+    if (this.jitterBufferTimeout != null) {
+      this.jitterBufferTimeout.cancel();
+    }
+    this.clearJitterBuffers();
+    if (this.retransmissionCache != null) {
+      this.retransmissionCache.clear();
+    }
 
-    // Close data channel, send BYE RTCP packets and close control channel.
-    this.dataChannel.get().close();
-    this.leaveSession(this.localParticipant.getSsrc(), "Session terminated.");
-    this.controlChannel.get().close();
+    if (this.demultiplexer != null) {
+      // Shared channels stay open; just stop receiving.
+      this.demultiplexer.removeRoutes(this);
+      this.leaveSession(this.localParticipant.getSsrc(), "Session terminated.");
+    } else if (this.rtcpMux) {
+      // Send BYE RTCP packets and close the only channel.
+      this.leaveSession(this.localParticipant.getSsrc(), "Session terminated.");
+      this.dataChannel.get().close();
+    } else {
+      // Close data channel, send BYE RTCP packets and close control channel.
+      this.dataChannel.get().close();
+      this.leaveSession(this.localParticipant.getSsrc(), "Session terminated.");
+      this.controlChannel.get().close();
+    }
 
     LOG.debug("RtpSession with id {} terminated.", this.id);
 
@@ -736,9 +1236,98 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     return this.sentPacketCounter.incrementAndGet();
   }
 
-  protected long updatePeriodicRtcpSendInterval() {
-    // TODO make this adaptative
-    return (this.periodicRtcpSendInterval = 5);
+  /**
+   * Creates the buffer a participant's data packets go through; listeners get the packets as the buffer releases them.
+   */
+  protected synchronized JitterBuffer createJitterBuffer(final RtpParticipant participant) {
+    // Packets from a source usually come through a single thread, but the same source may show up on several.
+    JitterBuffer jitterBuffer = participant.getJitterBuffer();
+    if (jitterBuffer != null) {
+      return jitterBuffer;
+    }
+
+    JitterBufferListener listener = new JitterBufferListener() {
+      @Override
+      public void packetReleased(DataPacket packet) {
+        participant.setLastSequenceNumber(packet.getSequenceNumber());
+        for (RtpSessionDataListener listener : dataListeners) {
+          listener.dataPacketReceived(DefaultRtpSession.this, participant.getInfo(), packet);
+        }
+      }
+    };
+    jitterBuffer = new JitterBuffer(this.jitterBufferCapacity, TimeUnit.MILLISECONDS.toNanos(this.jitterBufferDelay),
+      listener);
+    participant.setJitterBuffer(jitterBuffer);
+    return jitterBuffer;
+  }
+
+  protected void clearJitterBuffers() {
+    this.participantDatabase.doWithParticipants(new ParticipantOperation() {
+      @Override
+      public void doWithParticipant(RtpParticipant participant) throws Exception {
+        JitterBuffer jitterBuffer = participant.getJitterBuffer();
+        if (jitterBuffer != null) {
+          jitterBuffer.clear();
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "clearJitterBuffers() for session with id " + id;
+      }
+    });
+  }
+
+  protected void scheduleRtcp(long now, long instant) {
+    this.nextRtcpInstant = instant;
+    if (!this.externalRtcpScheduling) {
+      this.rtcpTimeout = this.timer.newTimeout(this, Math.max(instant - now, 0), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * @return {@code true} if the local participant sent data within the last two RTCP intervals.
+   */
+  protected boolean hasSentDataRecently(long now) {
+    long lastDataSentInstant = this.lastDataSentInstant;
+    return (lastDataSentInstant != 0) && ((now - lastDataSentInstant) < this.getSenderTimeout());
+  }
+
+  /**
+   * Counts the members of the session (participants that didn't leave) and, among those, the senders (participants
+   * that sent data within the last two RTCP intervals), both including the local participant.
+   *
+   * @return Array with the amount of members and the amount of senders, in that order.
+   */
+  protected int[] countMembersAndSenders(final long now, boolean weSent) {
+    final long senderTimeout = this.getSenderTimeout();
+    final int[] group = {1, weSent ? 1 : 0};
+    this.participantDatabase.doWithParticipants(new ParticipantOperation() {
+      @Override
+      public void doWithParticipant(RtpParticipant participant) throws Exception {
+        if (participant.receivedBye()) {
+          return;
+        }
+        group[0]++;
+        long lastDataReceptionInstant = participant.getLastDataReceptionInstant();
+        if ((lastDataReceptionInstant != 0) && ((now - lastDataReceptionInstant) < senderTimeout)) {
+          group[1]++;
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "countMembersAndSenders() for session with id " + id;
+      }
+    });
+
+    return group;
+  }
+
+  protected long getSenderTimeout() {
+    long interval = this.rtcpIntervalCalculator.getNextTransmission() -
+      this.rtcpIntervalCalculator.getPreviousTransmission();
+    return 2 * Math.max(interval, (long) (RtcpIntervalCalculator.RTCP_MIN_TIME * 1000));
   }
 
   // getters & setters ----------------------------------------------------------------------------------------------
@@ -773,6 +1362,9 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     return bandwidthLimit;
   }
 
+  /**
+   * @param bandwidthLimit Session bandwidth, in kbit/s; RTCP reports are spaced so that they use 5% of it.
+   */
   public void setBandwidthLimit(int bandwidthLimit) {
     if (this.running.get()) {
       throw new IllegalArgumentException("Cannot modify property after initialisation");
@@ -784,6 +1376,9 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     return sendBufferSize;
   }
 
+  /**
+   * @param sendBufferSize Size of the sockets' send buffers ({@code SO_SNDBUF}), in bytes.
+   */
   public void setSendBufferSize(int sendBufferSize) {
     if (this.running.get()) {
       throw new IllegalArgumentException("Cannot modify property after initialisation");
@@ -795,6 +1390,13 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     return receiveBufferSize;
   }
 
+  /**
+   * Datagrams that arrive while the receive buffer is full are dropped by the kernel (see {@link #getKernelDrops()}),
+   * so it should hold the largest burst expected (e.g. a video keyframe); the OS may cap it (on Linux, at
+   * {@code net.core.rmem_max}).
+   *
+   * @param receiveBufferSize Size of the sockets' receive buffers ({@code SO_RCVBUF}), in bytes.
+   */
   public void setReceiveBufferSize(int receiveBufferSize) {
     if (this.running.get()) {
       throw new IllegalArgumentException("Cannot modify property after initialisation");
@@ -802,6 +1404,20 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     this.receiveBufferSize = receiveBufferSize;
   }
 
+  public int getReadBufferSize() {
+    return readBufferSize;
+  }
+
+  /**
+   * @param readBufferSize Size of the buffer each datagram is read into, in bytes; larger datagrams are truncated.
+   */
+  public void setReadBufferSize(int readBufferSize) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    this.readBufferSize = readBufferSize;
+  }
+
   public int getMaxCollisionsBeforeConsideringLoop() {
     return maxCollisionsBeforeConsideringLoop;
   }
@@ -835,6 +1451,203 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     this.tryToUpdateOnEverySdes = tryToUpdateOnEverySdes;
   }
 
+  public boolean isZeroCopyDecode() {
+    return zeroCopyDecode;
+  }
+
+  /**
+   * When enabled, packets handed to {@link RtpSessionDataListener}s are views over the inbound datagrams and are only
+   * valid until the listener returns; see {@link RtpSessionDataListener} for the lifetime rules.
+   *
+   * @param zeroCopyDecode Whether inbound RTP packets should be decoded without copying payload, extension or CSRC's.
+   */
+  public void setZeroCopyDecode(boolean zeroCopyDecode) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    this.zeroCopyDecode = zeroCopyDecode;
+  }
+
+  public DataPacketPool getDataPacketPool() {
+    return dataPacketPool;
+  }
+
+  /**
+   * Sets the pool used for inbound packets and for the packets created by {@link #sendData(byte[], long, boolean)}.
+   * Pooled inbound packets go back to the pool as soon as the {@link RtpSessionDataListener}s return, so listeners must
+   * {@link DataPacket#retain() retain} any packet they want to keep. A single pool can be shared by many sessions.
+   *
+   * @param dataPacketPool Pool to use, or {@code null} (default) to disable pooling.
+   */
+  public void setDataPacketPool(DataPacketPool dataPacketPool) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    this.dataPacketPool = dataPacketPool;
+  }
+
+  public int getClockRate() {
+    return clockRate;
+  }
+
+  /**
+   * Defaults to the clock rate RFC 3551 assigns to the session's payload type, or 8000Hz for dynamic payload types.
+   *
+   * @param clockRate Clock rate of this session's payload type, in Hz; used to compute interarrival jitter and to
+   *                  extrapolate the RTP timestamps of sender reports.
+   */
+  public void setClockRate(int clockRate) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    if (clockRate <= 0) {
+      throw new IllegalArgumentException("Clock rate must be > 0");
+    }
+    this.clockRate = clockRate;
+  }
+
+  public boolean isExternalRtcpScheduling() {
+    return externalRtcpScheduling;
+  }
+
+  /**
+   * When enabled, the session doesn't schedule its RTCP reports on the timer; instead, whoever enabled it must call
+   * {@link #pollRtcp(long)} periodically. Used by {@link RtpSessionManager} to drive the reports of all its sessions
+   * from a single timer task.
+   *
+   * @param externalRtcpScheduling Whether RTCP reports are triggered by calls to {@link #pollRtcp(long)}.
+   */
+  public void setExternalRtcpScheduling(boolean externalRtcpScheduling) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    this.externalRtcpScheduling = externalRtcpScheduling;
+  }
+
+  public boolean isRtcpMux() {
+    return rtcpMux;
+  }
+
+  /**
+   * When enabled, RTP and RTCP share a single channel, bound to the local participant's data address, and RTCP is sent
+   * to the receivers' data addresses (RFC 5761). Both ends must agree on it. Sessions on a {@link RtpDemultiplexer}
+   * must use the same setting as the demultiplexer.
+   *
+   * @param rtcpMux Whether RTP and RTCP are multiplexed on the same port.
+   *
+   * @throws IllegalArgumentException If the session's payload type is in the range [64;95], which can't be told apart
+   *                                  from RTCP.
+   */
+  public void setRtcpMux(boolean rtcpMux) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    if (rtcpMux && (this.payloadType >= 64) && (this.payloadType <= 95)) {
+      throw new IllegalArgumentException("Payload types 64 to 95 cannot be used with rtcp-mux");
+    }
+    this.rtcpMux = rtcpMux;
+  }
+
+  public int getJitterBufferCapacity() {
+    return jitterBufferCapacity;
+  }
+
+  /**
+   * Enables a jitter buffer for each remote participant: data packets are reordered and handed to the
+   * {@link RtpSessionDataListener}s in sequence number order, each delayed by {@link #setJitterBufferDelay(int)} (see
+   * {@link JitterBuffer}). Packets that arrive too late are dropped and counted, as are the ones never received, in
+   * each participant's {@link RtpParticipant#getJitterBuffer()}. Out of order packets are never discarded then,
+   * regardless of {@link #setDiscardOutOfOrder(boolean)}.
+   * <p/>
+   * Buffered packets are retained, so pooled packets stay out of the pool while buffered; with zero-copy decoding,
+   * they keep their inbound datagrams alive as well.
+   * <p/>
+   * Packets pushed out by newer ones are handed to the listeners by the thread that received the newer packet. Those
+   * that are only due to time are released by a poll that runs on the executor every
+   * {@link #JITTER_BUFFER_POLL_INTERVAL} milliseconds while packets are buffered, though never more often than the
+   * timer ticks: they may be held up to one tick longer than {@link #setJitterBufferDelay(int)} (with
+   * {@link RtpSessionManager}, up to its timer's tick of {@link RtpSessionManager#TIMER_TICK} milliseconds).
+   *
+   * @param jitterBufferCapacity Maximum amount of packets each buffer spans, or 0 (default) for no jitter buffer.
+   */
+  public void setJitterBufferCapacity(int jitterBufferCapacity) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    if (jitterBufferCapacity < 0) {
+      throw new IllegalArgumentException("Jitter buffer capacity must be >= 0");
+    }
+    this.jitterBufferCapacity = jitterBufferCapacity;
+  }
+
+  public int getJitterBufferDelay() {
+    return jitterBufferDelay;
+  }
+
+  /**
+   * @param jitterBufferDelay Time each packet is held in the jitter buffer, in milliseconds; 0 holds packets only
+   *                          while earlier ones are missing and there's room for them. Packets may be held up to one
+   *                          tick of the timer longer (see {@link #setJitterBufferCapacity(int)}).
+   */
+  public void setJitterBufferDelay(int jitterBufferDelay) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    if (jitterBufferDelay < 0) {
+      throw new IllegalArgumentException("Jitter buffer delay must be >= 0");
+    }
+    this.jitterBufferDelay = jitterBufferDelay;
+  }
+
+  public int getRetransmissionCacheSize() {
+    return retransmissionCacheSize;
+  }
+
+  /**
+   * Enables a cache of the last data packets sent (see {@link RetransmissionCache}), from which generic NACKs (RFC
+   * 4585) for the local source are answered: lost packets are sent again, unchanged, to whoever reported them. Every
+   * packet sent is then copied into the cache.
+   *
+   * @param retransmissionCacheSize Maximum amount of bytes cached, or 0 (default) for no cache. At most
+   *                                {@link #RETRANSMISSION_CACHE_CAPACITY} packets are cached either way.
+   */
+  public void setRetransmissionCacheSize(int retransmissionCacheSize) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    if (retransmissionCacheSize < 0) {
+      throw new IllegalArgumentException("Retransmission cache size must be >= 0");
+    }
+    this.retransmissionCacheSize = retransmissionCacheSize;
+  }
+
+  /**
+   * @return The retransmission cache, or {@code null} if disabled or the session wasn't initialised.
+   */
+  public RetransmissionCache getRetransmissionCache() {
+    return retransmissionCache;
+  }
+
+  public RtpDemultiplexer getDemultiplexer() {
+    return demultiplexer;
+  }
+
+  /**
+   * Makes the session use the demultiplexer's channels rather than binding its own, so that many sessions can share a
+   * single pair of ports. The demultiplexer must already be initialised, and the local participant should have its
+   * addresses. The session then only receives packets from the addresses of its receivers (RTP is assumed to be
+   * symmetric, i.e. each receiver sends from the same address it receives on) or from sources it already knows; no two
+   * sessions on the same demultiplexer may have a receiver with the same address.
+   *
+   * @param demultiplexer Demultiplexer to attach to, or {@code null} (default) to bind dedicated channels.
+   */
+  public void setDemultiplexer(RtpDemultiplexer demultiplexer) {
+    if (this.running.get()) {
+      throw new IllegalArgumentException("Cannot modify property after initialisation");
+    }
+    this.demultiplexer = demultiplexer;
+  }
+
   public long getSentBytes() {
     return this.sentByteCounter.get();
   }
@@ -843,6 +1656,21 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
     return this.sentPacketCounter.get();
   }
 
+  /**
+   * Sessions on a demultiplexer share its sockets, and thus its drops.
+   *
+   * @return Amount of datagrams the kernel dropped on this session's sockets because their receive buffers were full,
+   *         or -1 if the session isn't running or the OS doesn't expose it (see {@link UdpSocketStatistics}).
+   */
+  public long getKernelDrops() {
+    if (!this.running.get()) {
+      return -1;
+    }
+
+    return UdpSocketStatistics.getDrops((InetSocketAddress) this.dataChannel.get().getLocalAddress(),
+      (InetSocketAddress) this.controlChannel.get().getLocalAddress());
+  }
+
   // ParticipantEventListener ---------------------------------------------------------------------------------------
 
   @Override
@@ -861,9 +1689,107 @@ public class DefaultRtpSession implements RtpSession, TimerTask, ParticipantEven
 
   @Override
   public void participantDeleted(RtpParticipant participant) {
+    JitterBuffer jitterBuffer = participant.getJitterBuffer();
+    if (jitterBuffer != null) {
+      jitterBuffer.clear();
+    }
+
     for (RtpSessionEventListener listener : this.eventListeners) {
       listener.participantDeleted(this, participant);
     }
   }
 
+  // protected classes ----------------------------------------------------------------------------------------------
+
+  /**
+   * Polls the jitter buffers every {@link #JITTER_BUFFER_POLL_INTERVAL} milliseconds (or every tick of the timer, if
+   * longer) while any of them holds packets, so that buffered packets are released even when no more packets arrive
+   * to push them out. Offering a packet that stays buffered schedules a poll if none is pending.
+   * <p/>
+   * The timer may be shared with other sessions (see {@link RtpSessionManager}) and drives RTCP and participant expiry
+   * as well, so it only queues the poll on the executor: the packets released, and the listeners they're handed to,
+   * never hold up the timer. At most one poll is pending or running, so a single instance per session serves as timer
+   * task, executor task and participant operation; only the timer's own {@link Timeout}s are allocated.
+   */
+  protected class JitterBufferPoller implements TimerTask, Runnable, ParticipantOperation {
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final BufferedPacketsCheck check = new BufferedPacketsCheck();
+    // Only touched by the poll running.
+    private long nowNanos;
+    private boolean buffered;
+
+    public void schedule() {
+      if (running.get() && this.scheduled.compareAndSet(false, true)) {
+        jitterBufferTimeout = timer.newTimeout(this, JITTER_BUFFER_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+      if (!running.get()) {
+        return;
+      }
+
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        // Executor was shut down, which only happens once the session terminates.
+        LOG.debug("Could not poll jitter buffers for session with id {}: executor shut down.", id);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (!running.get()) {
+        return;
+      }
+
+      this.nowNanos = TimeUtils.nowNanos();
+      this.buffered = false;
+      participantDatabase.doWithParticipants(this);
+      if (this.buffered && running.get()) {
+        jitterBufferTimeout = timer.newTimeout(this, JITTER_BUFFER_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        return;
+      }
+
+      // Packets offered from now on schedule the next poll; those offered while polling are caught by a second look.
+      this.scheduled.set(false);
+      this.check.buffered = false;
+      participantDatabase.doWithParticipants(this.check);
+      if (this.check.buffered) {
+        this.schedule();
+      }
+    }
+
+    @Override
+    public void doWithParticipant(RtpParticipant participant) throws Exception {
+      JitterBuffer jitterBuffer = participant.getJitterBuffer();
+      if (jitterBuffer != null) {
+        jitterBuffer.poll(this.nowNanos);
+        this.buffered |= jitterBuffer.getBufferedPackets() > 0;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "pollJitterBuffers() for session with id " + id;
+    }
+  }
+
+  private class BufferedPacketsCheck implements ParticipantOperation {
+
+    private boolean buffered;
+
+    @Override
+    public void doWithParticipant(RtpParticipant participant) throws Exception {
+      JitterBuffer jitterBuffer = participant.getJitterBuffer();
+      this.buffered |= (jitterBuffer != null) && (jitterBuffer.getBufferedPackets() > 0);
+    }
+
+    @Override
+    public String toString() {
+      return "hasBufferedPackets() for session with id " + id;
+    }
+  }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Keeps the most recently sent RTP packets, encoded, so that the ones reported lost through generic NACKs (RFC 4585)
+ * can be sent again without the application's help.
+ * <p/>
+ * Packets are kept in a ring buffer indexed by sequence number, which bounds how far back they're kept; the total size
+ * of the packets kept is capped as well, the oldest ones being evicted first to make room. Packets are copied when
+ * added: sent packets reference the application's payload, which may be reused once written.
+ * <p/>
+ * All methods are synchronized: packets are added by the threads sending data, while NACKs are handled by the thread
+ * receiving control packets.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RetransmissionCache {
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int maxBytes;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final ChannelBuffer[] packets;
+    private final int[] sequenceNumbers;
+    private final int mask;
+    /**
+     * Sequence number of the oldest packet that may be kept; every other packet kept follows it by less than the ring's
+     * size.
+     */
+    private int head;
+    private int bytes;
+    private long hits;
+    private long misses;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param capacity Maximum amount of packets kept, rounded up to a power of two; at most 32768, so that sequence
+     *                 numbers in the ring are never ambiguous.
+     * @param maxBytes Maximum amount of bytes kept, as encoded.
+     */
+    public RetransmissionCache(int capacity, int maxBytes) {
+        if ((capacity <= 0) || (capacity > 32768)) {
+            throw new IllegalArgumentException("Capacity must be in range [1;32768]");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Maximum amount of bytes must be > 0");
+        }
+
+        this.maxBytes = maxBytes;
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.packets = new ChannelBuffer[size];
+        this.sequenceNumbers = new int[size];
+        this.mask = size - 1;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Keeps a copy of a sent packet, evicting the oldest ones as needed. Packets older than all of those kept, or
+     * larger than the whole cache, are not kept.
+     *
+     * @param sequenceNumber Sequence number of the packet.
+     * @param packet         Encoded packet, from its reader index to its writer index; neither index is modified.
+     */
+    public synchronized void packetSent(int sequenceNumber, ChannelBuffer packet) {
+        int size = packet.readableBytes();
+        if (size > this.maxBytes) {
+            return;
+        }
+
+        sequenceNumber &= 0xffff;
+        if (this.bytes == 0) {
+            this.head = sequenceNumber;
+        } else if ((short) (sequenceNumber - this.head) < 0) {
+            // Older than everything kept.
+            return;
+        }
+
+        // Slide the ring forward until the packet fits in it, then evict until its bytes fit too.
+        int distance = (sequenceNumber - this.head) & 0xffff;
+        if (distance > (2 * this.mask)) {
+            // Nothing kept would remain in the ring.
+            this.clear();
+        }
+        while ((this.bytes > 0) && (((sequenceNumber - this.head) & 0xffff) > this.mask)) {
+            this.evictHead();
+        }
+        this.evict(sequenceNumber);
+        while ((this.bytes + size) > this.maxBytes) {
+            this.evictHead();
+        }
+        if ((this.bytes == 0) || ((short) (sequenceNumber - this.head) < 0)) {
+            // Everything older (and, if added out of order, some newer packets) had to go.
+            this.head = sequenceNumber;
+        }
+
+        int index = sequenceNumber & this.mask;
+        this.packets[index] = ChannelBuffers.copiedBuffer(packet);
+        this.sequenceNumbers[index] = sequenceNumber;
+        this.bytes += size;
+    }
+
+    /**
+     * @param sequenceNumber Sequence number of a sent packet.
+     *
+     * @return The packet, as encoded, or {@code null} if it's no longer kept. The buffer is shared, so it must not be
+     *         modified; indexes included.
+     */
+    public synchronized ChannelBuffer getPacket(int sequenceNumber) {
+        sequenceNumber &= 0xffff;
+        int index = sequenceNumber & this.mask;
+        if ((this.packets[index] == null) || (this.sequenceNumbers[index] != sequenceNumber)) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return this.packets[index];
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < this.packets.length; i++) {
+            this.packets[i] = null;
+        }
+        this.bytes = 0;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void evictHead() {
+        this.evict(this.head);
+        this.head = (this.head + 1) & 0xffff;
+    }
+
+    private void evict(int sequenceNumber) {
+        int index = sequenceNumber & this.mask;
+        if (this.packets[index] != null) {
+            this.bytes -= this.packets[index].readableBytes();
+            this.packets[index] = null;
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getCapacity() {
+        return this.packets.length;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Amount of bytes currently kept.
+     */
+    public synchronized int getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Amount of lookups that found the packet.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Amount of lookups for packets no longer (or never) kept.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import java.util.Random;
+
+/**
+ * RTCP transmission interval computation, as defined by RFC 3550 section 6.3 and appendix A.7.
+ * <p/>
+ * Keeps the state the algorithm needs (last and next transmission instants, previous member count, average compound
+ * packet size) and implements timer reconsideration, so that a large group joining at once doesn't flood the network,
+ * and reverse reconsideration, so that a shrinking group doesn't wait for intervals computed for a larger one.
+ * <p/>
+ * The caller owns the timer: it schedules a check at {@link #getNextTransmission()}, asks
+ * {@link #isTransmissionDue(long, int, int, boolean)} when it fires and, if so, sends a report and calls
+ * {@link #transmitted(long, int, int, int, boolean)}. All instants are in milliseconds. Methods are synchronized as
+ * they're called both from the timer and from the threads receiving control packets.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtcpIntervalCalculator {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Fraction of the session bandwidth RTCP is allowed to use.
+     */
+    public static final double RTCP_BANDWIDTH_FRACTION = 0.05;
+    /**
+     * Minimum average time between RTCP packets from this site, in seconds.
+     */
+    public static final double RTCP_MIN_TIME = 5;
+    /**
+     * Fraction of the RTCP bandwidth to be shared among active senders.
+     */
+    public static final double RTCP_SENDER_BANDWIDTH_FRACTION = 0.25;
+    public static final double RTCP_RECEIVER_BANDWIDTH_FRACTION = 1 - RTCP_SENDER_BANDWIDTH_FRACTION;
+    /**
+     * Overhead of UDP and IPv4 headers, which counts towards the size of RTCP packets.
+     */
+    public static final int UDP_IP_OVERHEAD = 28;
+    /**
+     * To compensate for "timer reconsideration" converging to a value below the intended average.
+     */
+    private static final double COMPENSATION = Math.E - 1.5;
+    /**
+     * Initial average RTCP packet size: a receiver report and an SDES packet with a CNAME.
+     */
+    private static final double INITIAL_AVERAGE_PACKET_SIZE = 128;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    /**
+     * RTCP bandwidth, in octets per second.
+     */
+    private final double rtcpBandwidth;
+    private final Random random;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private double averagePacketSize;
+    private boolean initial;
+    private long previousTransmission;
+    private long nextTransmission;
+    private int previousMembers;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param sessionBandwidth Session bandwidth, in kbit/s.
+     */
+    public RtcpIntervalCalculator(int sessionBandwidth) {
+        this(sessionBandwidth, new Random());
+    }
+
+    /**
+     * @param sessionBandwidth Session bandwidth, in kbit/s.
+     * @param random           Source of randomness for the interval's randomization.
+     */
+    public RtcpIntervalCalculator(int sessionBandwidth, Random random) {
+        if (sessionBandwidth <= 0) {
+            throw new IllegalArgumentException("Session bandwidth must be > 0");
+        }
+
+        this.rtcpBandwidth = (sessionBandwidth * 1000 / 8d) * RTCP_BANDWIDTH_FRACTION;
+        this.random = random;
+        this.averagePacketSize = INITIAL_AVERAGE_PACKET_SIZE;
+        this.initial = true;
+        this.previousMembers = 1;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Computes a randomized, compensated, RTCP transmission interval (RFC 3550, A.7).
+     *
+     * @param members Amount of members in the session, including the local participant.
+     * @param senders Amount of members that sent data recently, including the local participant.
+     * @param weSent  Whether the local participant sent data recently.
+     *
+     * @return The interval, in milliseconds.
+     */
+    public synchronized long computeInterval(int members, int senders, boolean weSent) {
+        double minTime = this.initial ? RTCP_MIN_TIME / 2 : RTCP_MIN_TIME;
+        double bandwidth = this.rtcpBandwidth;
+        int n = members;
+
+        // Dedicate a fraction of the RTCP bandwidth to senders unless the number of senders is large enough that their
+        // share is more than that fraction.
+        if (senders <= (members * RTCP_SENDER_BANDWIDTH_FRACTION)) {
+            if (weSent) {
+                bandwidth *= RTCP_SENDER_BANDWIDTH_FRACTION;
+                n = senders;
+            } else {
+                bandwidth *= RTCP_RECEIVER_BANDWIDTH_FRACTION;
+                n -= senders;
+            }
+        }
+
+        double interval = Math.max((this.averagePacketSize * n) / bandwidth, minTime);
+        // Randomize in range [0.5;1.5] times the calculated interval to avoid synchronization with other members.
+        interval *= this.random.nextDouble() + 0.5;
+        interval /= COMPENSATION;
+
+        return (long) (interval * 1000);
+    }
+
+    /**
+     * Starts the schedule; to be called when the session starts, before any report is sent.
+     *
+     * @param now     Current instant.
+     * @param members Amount of members in the session, including the local participant.
+     * @param senders Amount of members that sent data recently, including the local participant.
+     * @param weSent  Whether the local participant sent data recently.
+     *
+     * @return Instant at which the first report should be sent.
+     */
+    public synchronized long start(long now, int members, int senders, boolean weSent) {
+        this.initial = true;
+        this.previousTransmission = now;
+        this.previousMembers = members;
+        this.nextTransmission = now + this.computeInterval(members, senders, weSent);
+        return this.nextTransmission;
+    }
+
+    /**
+     * Timer reconsideration: checks whether a report should be sent now, recomputing the interval with the current
+     * group size. If not, {@link #getNextTransmission()} holds the instant at which this should be asked again.
+     *
+     * @param now     Current instant.
+     * @param members Amount of members in the session, including the local participant.
+     * @param senders Amount of members that sent data recently, including the local participant.
+     * @param weSent  Whether the local participant sent data recently.
+     *
+     * @return {@code true} if a report should be sent now.
+     */
+    public synchronized boolean isTransmissionDue(long now, int members, int senders, boolean weSent) {
+        long next = this.previousTransmission + this.computeInterval(members, senders, weSent);
+        this.previousMembers = members;
+        if (next <= now) {
+            return true;
+        }
+
+        this.nextTransmission = next;
+        return false;
+    }
+
+    /**
+     * Records that a report was sent and computes the instant for the next one.
+     *
+     * @param now        Current instant.
+     * @param packetSize Size of the compound packet sent, in bytes, excluding UDP and IP headers; 0 if there was no
+     *                   one to send it to, which leaves the average packet size untouched.
+     * @param members    Amount of members in the session, including the local participant.
+     * @param senders    Amount of members that sent data recently, including the local participant.
+     * @param weSent     Whether the local participant sent data recently.
+     *
+     * @return Instant at which the next report should be sent.
+     */
+    public synchronized long transmitted(long now, int packetSize, int members, int senders, boolean weSent) {
+        if (packetSize > 0) {
+            this.updateAveragePacketSize(packetSize);
+        }
+        this.previousTransmission = now;
+        this.initial = false;
+        this.previousMembers = members;
+        this.nextTransmission = now + this.computeInterval(members, senders, weSent);
+        return this.nextTransmission;
+    }
+
+    /**
+     * Records the reception of a compound packet, which is accounted for in the average packet size.
+     *
+     * @param packetSize Size of the compound packet, in bytes, excluding UDP and IP headers.
+     */
+    public synchronized void received(int packetSize) {
+        this.updateAveragePacketSize(packetSize);
+    }
+
+    /**
+     * Reverse reconsideration: when members leave, bring the next transmission closer in proportion.
+     *
+     * @param now     Current instant.
+     * @param members Amount of members left in the session, including the local participant.
+     *
+     * @return {@code true} if the next transmission instant changed (and the caller must reschedule).
+     */
+    public synchronized boolean membersLeft(long now, int members) {
+        if (members >= this.previousMembers) {
+            return false;
+        }
+
+        double ratio = members / (double) this.previousMembers;
+        this.nextTransmission = now + (long) (ratio * (this.nextTransmission - now));
+        this.previousTransmission = now - (long) (ratio * (now - this.previousTransmission));
+        this.previousMembers = members;
+        return true;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void updateAveragePacketSize(int packetSize) {
+        this.averagePacketSize = ((packetSize + UDP_IP_OVERHEAD) / 16d) + ((15 * this.averagePacketSize) / 16d);
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public synchronized long getNextTransmission() {
+        return nextTransmission;
+    }
+
+    public synchronized long getPreviousTransmission() {
+        return previousTransmission;
+    }
+
+    /**
+     * @return Average compound RTCP packet size (sent and received), including UDP and IP headers.
+     */
+    public synchronized double getAveragePacketSize() {
+        return averagePacketSize;
+    }
+
+    /**
+     * @return RTCP bandwidth, in octets per second.
+     */
+    public double getRtcpBandwidth() {
+        return rtcpBandwidth;
+    }
+}
@@ -22,6 +22,7 @@ import com.biasedbit.efflux.packet.CompoundControlPacket;
 import com.biasedbit.efflux.packet.ControlPacket;
 import com.biasedbit.efflux.packet.DataPacket;
 import com.biasedbit.efflux.participant.RtpParticipant;
+import org.jboss.netty.buffer.ChannelBuffer;
 
 import java.util.Map;
 
@@ -38,14 +39,37 @@ public interface RtpSession extends DataPacketReceiver, ControlPacketReceiver {
 
     void terminate();
 
+    /**
+     * Sends a data packet with the given payload. The payload is copied, so {@code data} can be reused as soon as
+     * this method returns.
+     */
     boolean sendData(byte[] data, long timestamp, boolean marked);
 
+    /**
+     * Sends a data packet without copying its payload. The payload is only read when the write is flushed to the
+     * socket, asynchronously, so the packet's data must not be modified until the write completes.
+     */
     boolean sendDataPacket(DataPacket packet);
 
+    /**
+     * Sends a RTCP packet. Only APP and feedback packets are accepted while RTCP is handled automatically. Packets other
+     * than reports are sent within a compound packet that starts with an empty receiver report, as receivers discard
+     * compound packets that don't start with one.
+     */
     boolean sendControlPacket(ControlPacket packet);
 
+    /**
+     * Sends a RTCP compound packet, if RTCP isn't handled automatically. Compound packets that don't start with a
+     * report are sent with an empty receiver report in front.
+     */
     boolean sendControlPacket(CompoundControlPacket packet);
 
+    /**
+     * Sends an APP packet (RFC 3550, section 6.7) from the local participant, within a compound packet. The data,
+     * a multiple of 4 bytes long, isn't copied, so it must not be modified until sent.
+     */
+    boolean sendAppData(int subtype, String name, ChannelBuffer data);
+
     RtpParticipant getLocalParticipant();
 
     boolean addReceiver(RtpParticipant remoteParticipant);
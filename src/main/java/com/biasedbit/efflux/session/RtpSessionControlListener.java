@@ -18,6 +18,7 @@ package com.biasedbit.efflux.session;
 
 import com.biasedbit.efflux.packet.AppDataPacket;
 import com.biasedbit.efflux.packet.CompoundControlPacket;
+import com.biasedbit.efflux.packet.FeedbackPacket;
 
 /**
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
@@ -27,4 +28,10 @@ public interface RtpSessionControlListener {
     void controlPacketReceived(RtpSession session, CompoundControlPacket packet);
 
     void appDataReceived(RtpSession session, AppDataPacket appDataPacket);
+
+    /**
+     * Called for generic NACK, PLI and FIR packets (RFC 4585 and RFC 5104); NACKs may already have been answered by
+     * the session.
+     */
+    void feedbackReceived(RtpSession session, FeedbackPacket packet);
 }
@@ -17,9 +17,21 @@
 package com.biasedbit.efflux.session;
 
 import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.DataPacketPool;
 import com.biasedbit.efflux.participant.RtpParticipantInfo;
 
 /**
+ * Receives the RTP packets of a session.
+ * <p/>
+ * Packets are only guaranteed to be valid until {@link #dataPacketReceived(RtpSession, RtpParticipantInfo, DataPacket)}
+ * returns. When the session decodes in zero-copy mode (see {@link DefaultRtpSession#setZeroCopyDecode(boolean)}) the
+ * payload, extension data and CSRC's of a packet are views over the inbound datagram; listeners that need to keep a
+ * packet or any of its buffers after returning must explicitly retain it with {@link DataPacket#copy()}.
+ * <p/>
+ * When the session pools packets (see {@link DefaultRtpSession#setDataPacketPool(DataPacketPool)}) the packet instance
+ * itself is recycled once the listeners return; keeping it requires {@link DataPacket#retain()} and a matching
+ * {@link DataPacket#release()} when done.
+ *
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
  */
 public interface RtpSessionDataListener {
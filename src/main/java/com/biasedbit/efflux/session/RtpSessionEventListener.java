@@ -16,6 +16,7 @@
 
 package com.biasedbit.efflux.session;
 
+import com.biasedbit.efflux.participant.RemoteReceptionStatistics;
 import com.biasedbit.efflux.participant.RtpParticipant;
 
 /**
@@ -35,6 +36,17 @@ public interface RtpSessionEventListener {
 
     void participantDeleted(RtpSession session, RtpParticipant participant);
 
+    /**
+     * Called whenever a remote participant reports on how it's receiving the local participant's stream, i.e. at most
+     * once per RTCP interval per participant.
+     *
+     * @param session     Session in which the report was received.
+     * @param participant Participant that sent the report.
+     * @param statistics  Updated statistics, also available through
+     *                    {@link RtpParticipant#getRemoteReceptionStatistics()}.
+     */
+    void receptionReportReceived(RtpSession session, RtpParticipant participant, RemoteReceptionStatistics statistics);
+
     void resolvedSsrcConflict(RtpSession session, long oldSsrc, long newSsrc);
 
     void sessionTerminated(RtpSession session, Throwable cause);
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.util.TimeUtils;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hosts many sessions on a single set of resources: one NIO worker pool (through a shared
+ * {@link DatagramChannelFactory}), one {@link HashedWheelTimer} and one {@link OrderedMemoryAwareThreadPoolExecutor}.
+ * <p/>
+ * Sessions created by the manager don't schedule their own RTCP timeouts; a single timer task polls all of them every
+ * {@link #RTCP_TICK} milliseconds and sends the reports that are due (see
+ * {@link DefaultRtpSession#setExternalRtcpScheduling(boolean)}). The amount of sessions and the amount of memory held
+ * by events queued in the executor, across all sessions, are capped.
+ * <p/>
+ * Sessions are created, not initialised, so they can be configured first; they stop counting towards the limit once
+ * they're terminated or fail to initialise.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpSessionManager {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    protected static final Logger LOG = LoggerFactory.getLogger(RtpSessionManager.class);
+    /**
+     * Period, in milliseconds, of the task that sends the RTCP reports of all sessions.
+     */
+    public static final int RTCP_TICK = 100;
+    /**
+     * Tick, in milliseconds, of the shared timer. Kept apart from {@link #RTCP_TICK} and fine enough for the sessions'
+     * other timeouts (e.g. jitter buffer polls) to fire close to when they're due.
+     */
+    public static final int TIMER_TICK = 10;
+
+    // configuration defaults -----------------------------------------------------------------------------------------
+
+    protected static final int WORKER_COUNT = Runtime.getRuntime().availableProcessors() * 2;
+    protected static final int EXECUTOR_THREADS = Runtime.getRuntime().availableProcessors();
+    protected static final int MAX_SESSIONS = 5000;
+    protected static final long MAX_QUEUED_MEMORY_PER_SESSION = 0;
+    protected static final long MAX_QUEUED_MEMORY = 64 * 1024 * 1024;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int maxSessions;
+    private final DatagramChannelFactory factory;
+    private final HashedWheelTimer timer;
+    private final OrderedMemoryAwareThreadPoolExecutor executor;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final Map<String, DefaultRtpSession> sessions;
+    private volatile boolean running;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public RtpSessionManager() {
+        this(WORKER_COUNT, EXECUTOR_THREADS, MAX_SESSIONS, MAX_QUEUED_MEMORY_PER_SESSION, MAX_QUEUED_MEMORY);
+    }
+
+    public RtpSessionManager(int maxSessions) {
+        this(WORKER_COUNT, EXECUTOR_THREADS, maxSessions, MAX_QUEUED_MEMORY_PER_SESSION, MAX_QUEUED_MEMORY);
+    }
+
+    /**
+     * @param workerCount               Amount of NIO worker threads, shared by all sessions' channels.
+     * @param executorThreads           Amount of threads delivering packets to sessions.
+     * @param maxSessions               Maximum amount of sessions at any time.
+     * @param maxQueuedMemoryPerSession Maximum amount of bytes queued in the executor for each of a session's channels,
+     *                                  or 0 for no limit.
+     * @param maxQueuedMemory           Maximum amount of bytes queued in the executor across all sessions, or 0 for no
+     *                                  limit; reads from all channels are suspended while it's exceeded.
+     */
+    public RtpSessionManager(int workerCount, int executorThreads, int maxSessions, long maxQueuedMemoryPerSession,
+                             long maxQueuedMemory) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count must be > 0");
+        }
+        if (executorThreads <= 0) {
+            throw new IllegalArgumentException("Executor threads must be > 0");
+        }
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("Maximum sessions must be > 0");
+        }
+
+        this.maxSessions = maxSessions;
+        this.factory = new NioDatagramChannelFactory(Executors.newCachedThreadPool(), workerCount);
+        this.timer = new HashedWheelTimer(TIMER_TICK, TimeUnit.MILLISECONDS);
+        this.executor = new OrderedMemoryAwareThreadPoolExecutor(executorThreads, maxQueuedMemoryPerSession,
+                                                                 maxQueuedMemory);
+        this.sessions = new ConcurrentHashMap<String, DefaultRtpSession>();
+        this.running = true;
+
+        this.timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                if (!running) {
+                    return;
+                }
+
+                pollRtcp();
+                timer.newTimeout(this, RTCP_TICK, TimeUnit.MILLISECONDS);
+            }
+        }, RTCP_TICK, TimeUnit.MILLISECONDS);
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a session that runs on this manager's resources. The session must still be initialised, with
+     * {@link RtpSession#init()}.
+     *
+     * @param id          Session id, unique within this manager.
+     * @param payloadType Payload type of the session.
+     * @param local       Local participant.
+     *
+     * @return The new session.
+     *
+     * @throws IllegalStateException    If the manager was terminated or the maximum amount of sessions was reached.
+     * @throws IllegalArgumentException If there's already a session with the same id.
+     */
+    public synchronized DefaultRtpSession createSession(String id, int payloadType, RtpParticipant local) {
+        if (!this.running) {
+            throw new IllegalStateException("Session manager was terminated");
+        }
+        if (this.sessions.size() >= this.maxSessions) {
+            throw new IllegalStateException("Maximum amount of sessions (" + this.maxSessions + ") reached");
+        }
+        if (this.sessions.containsKey(id)) {
+            throw new IllegalArgumentException("A session with id " + id + " already exists");
+        }
+
+        DefaultRtpSession session = new ManagedRtpSession(this, id, payloadType, local);
+        session.setExternalRtcpScheduling(true);
+        this.sessions.put(id, session);
+        return session;
+    }
+
+    public DefaultRtpSession getSession(String id) {
+        return this.sessions.get(id);
+    }
+
+    public Collection<DefaultRtpSession> getSessions() {
+        return Collections.unmodifiableCollection(this.sessions.values());
+    }
+
+    /**
+     * Terminates all sessions and releases all shared resources.
+     */
+    public void terminate() {
+        synchronized (this) {
+            if (!this.running) {
+                return;
+            }
+            this.running = false;
+        }
+
+        for (DefaultRtpSession session : this.sessions.values()) {
+            session.terminate();
+        }
+
+        this.factory.releaseExternalResources();
+        this.executor.shutdownNow();
+        this.timer.stop();
+        LOG.debug("RtpSessionManager terminated.");
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    protected void pollRtcp() {
+        long now = TimeUtils.now();
+        for (DefaultRtpSession session : this.sessions.values()) {
+            try {
+                session.pollRtcp(now);
+            } catch (Exception e) {
+                LOG.error("Failed to send RTCP reports for session with id {}.", session.getId(), e);
+            }
+        }
+    }
+
+    protected void sessionFinished(DefaultRtpSession session) {
+        this.sessions.remove(session.getId());
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public int getSessionCount() {
+        return this.sessions.size();
+    }
+
+    public long getMaxQueuedMemoryPerSession() {
+        return this.executor.getMaxChannelMemorySize();
+    }
+
+    public long getMaxQueuedMemory() {
+        return this.executor.getMaxTotalMemorySize();
+    }
+
+    public DatagramChannelFactory getFactory() {
+        return factory;
+    }
+
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    public OrderedMemoryAwareThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * Leaves the manager once terminated or if it fails to initialise.
+     */
+    private static class ManagedRtpSession extends DefaultRtpSession {
+
+        private final RtpSessionManager manager;
+
+        private ManagedRtpSession(RtpSessionManager manager, String id, int payloadType, RtpParticipant local) {
+            super(id, payloadType, local, manager.timer, manager.executor, manager.factory);
+            this.manager = manager;
+        }
+
+        @Override
+        public synchronized boolean init() {
+            boolean initialised = false;
+            try {
+                initialised = super.init();
+                return initialised;
+            } finally {
+                if (!initialised) {
+                    this.manager.sessionFinished(this);
+                }
+            }
+        }
+
+        @Override
+        protected synchronized void terminate(Throwable cause) {
+            super.terminate(cause);
+            this.manager.sessionFinished(this);
+        }
+    }
+}
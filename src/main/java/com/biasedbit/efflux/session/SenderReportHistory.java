@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.util.NtpClock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the (compact) NTP timestamps of the last sender reports sent, so that the LSR field of incoming reception
+ * reports can be checked against timestamps this session actually sent before using it to compute round-trip times.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class SenderReportHistory {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Sessions record a single timestamp per RTCP interval, whatever the amount of receivers, and reception reports
+     * refer to the last sender report received, so a few intervals are enough.
+     */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final AtomicLongArray timestamps;
+    private int next;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public SenderReportHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SenderReportHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be > 0");
+        }
+
+        // Slots hold compact timestamps (32 bit) so -1 is never a valid one.
+        this.timestamps = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.timestamps.set(i, -1);
+        }
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Records a sent sender report. Must only be called by one thread at a time.
+     *
+     * @param ntpTimestamp 64 bit NTP timestamp of the sender report.
+     */
+    public void senderReportSent(long ntpTimestamp) {
+        this.timestamps.set(this.next, NtpClock.toCompact(ntpTimestamp));
+        this.next = (this.next + 1) % this.timestamps.length();
+    }
+
+    /**
+     * @param lastSenderReport LSR field of a reception report.
+     *
+     * @return {@code true} if the LSR matches one of the last sender reports sent.
+     */
+    public boolean wasSent(long lastSenderReport) {
+        for (int i = 0; i < this.timestamps.length(); i++) {
+            if (this.timestamps.get(i) == lastSenderReport) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Computes the round-trip time from a reception report about the local participant (RFC 3550, section 6.4.1).
+     *
+     * @param lastSenderReport           LSR field of the report.
+     * @param delaySinceLastSenderReport DLSR field of the report.
+     * @param arrivalNanos               Arrival instant of the report, as given by {@link System#nanoTime()}.
+     *
+     * @return The round-trip time, in nanoseconds, or -1 if the report doesn't refer to a sender report sent by this
+     *         session.
+     */
+    public long computeRoundTripTime(long lastSenderReport, long delaySinceLastSenderReport, long arrivalNanos) {
+        if ((lastSenderReport == 0) || !this.wasSent(lastSenderReport)) {
+            return -1;
+        }
+
+        long roundTripTime = (NtpClock.toCompactNtp(arrivalNanos) - lastSenderReport - delaySinceLastSenderReport) &
+                             0xffffffffL;
+        if (roundTripTime >= 0x80000000L) {
+            // Negative; remote end reported a DLSR larger than the time that actually elapsed.
+            return -1;
+        }
+
+        // Units of 1/65536 seconds.
+        return (roundTripTime * 1000000000L) >> 16;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+/**
+ * Monotonic 64 bit NTP timestamps (RFC 3550, section 4).
+ * <p/>
+ * The wall clock is only read once, when this class is loaded; from then on timestamps are derived from
+ * {@link System#nanoTime()}, so they never jump back when the system clock is adjusted and converting an instant
+ * neither allocates nor requires anything but the (cheap) monotonic clock read.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class NtpClock {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Seconds between the NTP epoch (1900-01-01) and the Unix epoch (1970-01-01).
+     */
+    public static final long NTP_EPOCH_OFFSET_SECONDS = 2208988800L;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long ANCHOR_NANOS;
+    private static final long ANCHOR_NTP;
+
+    static {
+        long millis = System.currentTimeMillis();
+        ANCHOR_NANOS = System.nanoTime();
+        ANCHOR_NTP = ((millis / 1000 + NTP_EPOCH_OFFSET_SECONDS) << 32) + (((millis % 1000) << 32) / 1000);
+    }
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    private NtpClock() {
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @return NTP timestamp for the current instant.
+     */
+    public static long now() {
+        return toNtp(System.nanoTime());
+    }
+
+    /**
+     * Converts an instant, as given by {@link System#nanoTime()}, into a NTP timestamp.
+     *
+     * @param nanos Instant to convert.
+     *
+     * @return 64 bit NTP timestamp: seconds since 1900 in the upper 32 bits, fraction of second in the lower 32 bits.
+     */
+    public static long toNtp(long nanos) {
+        long elapsed = nanos - ANCHOR_NANOS;
+        long seconds = elapsed / NANOS_PER_SECOND;
+        long fraction = ((elapsed % NANOS_PER_SECOND) << 32) / NANOS_PER_SECOND;
+        return ANCHOR_NTP + (seconds << 32) + fraction;
+    }
+
+    /**
+     * @param ntpTimestamp 64 bit NTP timestamp.
+     *
+     * @return The middle 32 bits of the timestamp, as used in the LSR field of reception reports.
+     */
+    public static long toCompact(long ntpTimestamp) {
+        return (ntpTimestamp >>> 16) & 0xffffffffL;
+    }
+
+    /**
+     * @param nanos Instant, as given by {@link System#nanoTime()}.
+     *
+     * @return The middle 32 bits of the NTP timestamp for that instant (units of 1/65536 seconds).
+     */
+    public static long toCompactNtp(long nanos) {
+        return toCompact(toNtp(nanos));
+    }
+}
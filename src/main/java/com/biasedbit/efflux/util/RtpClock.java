@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+/**
+ * Maps instants to the RTP timestamps of a sender's media clock.
+ * <p/>
+ * RTP timestamps are set by applications, so the clock follows the last packet sent: the timestamp for any later
+ * instant is extrapolated from that packet's timestamp at the clock rate. This is what sender reports need to let
+ * receivers map RTP timestamps to NTP (wall clock) time.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpClock {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    /**
+     * Clock rates of the static payload types, as defined by RFC 3551 (tables 4 and 5); 0 for unassigned and dynamic
+     * payload types.
+     */
+    private static final int[] STATIC_PAYLOAD_CLOCK_RATES = new int[128];
+
+    static {
+        // Audio
+        for (int payloadType : new int[]{0, 3, 4, 5, 7, 8, 9, 12, 13, 15, 18}) {
+            STATIC_PAYLOAD_CLOCK_RATES[payloadType] = 8000;
+        }
+        STATIC_PAYLOAD_CLOCK_RATES[6] = 16000; // DVI4
+        STATIC_PAYLOAD_CLOCK_RATES[10] = 44100; // L16 stereo
+        STATIC_PAYLOAD_CLOCK_RATES[11] = 44100; // L16 mono
+        STATIC_PAYLOAD_CLOCK_RATES[14] = 90000; // MPA
+        STATIC_PAYLOAD_CLOCK_RATES[16] = 11025; // DVI4
+        STATIC_PAYLOAD_CLOCK_RATES[17] = 22050; // DVI4
+        // Video
+        for (int payloadType : new int[]{25, 26, 28, 31, 32, 33, 34}) {
+            STATIC_PAYLOAD_CLOCK_RATES[payloadType] = 90000;
+        }
+    }
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int clockRate;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private boolean hasTimestamp;
+    private long lastTimestamp;
+    private long lastTimestampNanos;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param clockRate Media clock rate, in Hz.
+     */
+    public RtpClock(int clockRate) {
+        if (clockRate <= 0) {
+            throw new IllegalArgumentException("Clock rate must be > 0");
+        }
+        this.clockRate = clockRate;
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @param payloadType RTP payload type.
+     *
+     * @return Clock rate of the payload type, as defined by RFC 3551, or 0 for dynamic or unassigned payload types.
+     */
+    public static int getClockRate(int payloadType) {
+        if ((payloadType < 0) || (payloadType >= STATIC_PAYLOAD_CLOCK_RATES.length)) {
+            throw new IllegalArgumentException("PayloadType must be in range [0;127]");
+        }
+
+        return STATIC_PAYLOAD_CLOCK_RATES[payloadType];
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Records the RTP timestamp of a packet sent at a given instant.
+     *
+     * @param timestamp RTP timestamp of the packet.
+     * @param nanos     Instant at which the packet was sent, as given by {@link System#nanoTime()}.
+     */
+    public synchronized void packetSent(long timestamp, long nanos) {
+        this.lastTimestamp = timestamp & 0xffffffffL;
+        this.lastTimestampNanos = nanos;
+        this.hasTimestamp = true;
+    }
+
+    /**
+     * @param nanos Instant, as given by {@link System#nanoTime()}.
+     *
+     * @return RTP timestamp corresponding to the instant, extrapolated from the last packet sent; 0 if no packet was
+     *         sent yet.
+     */
+    public synchronized long getTimestamp(long nanos) {
+        if (!this.hasTimestamp) {
+            return 0;
+        }
+
+        long elapsed = nanos - this.lastTimestampNanos;
+        // Split to avoid overflowing for high clock rates.
+        long ticks = ((elapsed / NANOS_PER_SECOND) * this.clockRate) +
+                     (((elapsed % NANOS_PER_SECOND) * this.clockRate) / NANOS_PER_SECOND);
+        return (this.lastTimestamp + ticks) & 0xffffffffL;
+    }
+
+    public synchronized void reset() {
+        this.hasTimestamp = false;
+        this.lastTimestamp = 0;
+        this.lastTimestampNanos = 0;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getClockRate() {
+        return clockRate;
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open-addressing hash map from SSRC (32 bit unsigned integers) to objects, which never boxes keys.
+ * <p/>
+ * Keys are stored as {@code int}s and values in a parallel array, with linear probing; a slot takes 8 to 12 bytes
+ * (depending on reference size) and at most 3/4 of the slots are used, against the 50 to 80 bytes of a
+ * {@link java.util.HashMap} or {@link java.util.concurrent.ConcurrentHashMap} entry and its boxed key.
+ * <p/>
+ * Reads are lock-free and can run concurrently with writes, which are serialized. To allow that, slots are never
+ * reused in place: removed entries leave a tombstone behind and the table is rebuilt (and republished) once live
+ * entries and tombstones exceed the load factor. A reader that sees a value in a slot is thus guaranteed to see the key
+ * that was written before it. Iteration is weakly consistent, like that of {@link java.util.concurrent.ConcurrentHashMap}.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class SsrcMap<V> {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    /**
+     * Occupied slots (live entries and tombstones) per total slots, in 1/4ths.
+     */
+    private static final int LOAD_FACTOR_QUARTERS = 3;
+    private static final Object TOMBSTONE = new Object();
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private volatile Table table;
+    private volatile int size;
+    private final Map<Long, V> mapView;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public SsrcMap() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize Amount of entries the map should hold without being rebuilt.
+     */
+    public SsrcMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size must be >= 0");
+        }
+
+        this.table = new Table(capacityFor(expectedSize));
+        this.mapView = new MapView();
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @return {@code true} if the value can be used as a key (is in range [0;0xffffffff]).
+     */
+    public static boolean isValidSsrc(long ssrc) {
+        return (ssrc >= 0) && (ssrc <= 0xffffffffL);
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public V get(long ssrc) {
+        if (!isValidSsrc(ssrc)) {
+            return null;
+        }
+
+        Table table = this.table;
+        int index = table.find((int) ssrc);
+        return index < 0 ? null : table.<V>valueAt(index);
+    }
+
+    public boolean containsKey(long ssrc) {
+        return this.get(ssrc) != null;
+    }
+
+    /**
+     * @return The previous value for the SSRC, or {@code null} if there was none.
+     */
+    public synchronized V put(long ssrc, V value) {
+        return this.doPut(ssrc, value, false);
+    }
+
+    /**
+     * @return The current value for the SSRC, or {@code null} if there was none and the value was inserted.
+     */
+    public synchronized V putIfAbsent(long ssrc, V value) {
+        return this.doPut(ssrc, value, true);
+    }
+
+    /**
+     * @return The removed value, or {@code null} if there was none.
+     */
+    public synchronized V remove(long ssrc) {
+        if (!isValidSsrc(ssrc)) {
+            return null;
+        }
+
+        Table table = this.table;
+        int index = table.find((int) ssrc);
+        if (index < 0) {
+            return null;
+        }
+
+        V previous = table.valueAt(index);
+        table.values.set(index, TOMBSTONE);
+        this.size--;
+        return previous;
+    }
+
+    /**
+     * Removes the entry for the SSRC only if it currently maps to the given value.
+     *
+     * @return {@code true} if the entry was removed.
+     */
+    public synchronized boolean remove(long ssrc, V value) {
+        if (!isValidSsrc(ssrc)) {
+            return false;
+        }
+
+        Table table = this.table;
+        int index = table.find((int) ssrc);
+        if ((index < 0) || (table.valueAt(index) != value)) {
+            return false;
+        }
+
+        table.values.set(index, TOMBSTONE);
+        this.size--;
+        return true;
+    }
+
+    public synchronized void clear() {
+        this.table = new Table(DEFAULT_INITIAL_CAPACITY);
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return Weakly consistent view over the values, without boxing.
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V, V>(table) {
+                    @Override
+                    protected V toElement(int key, V value) {
+                        return value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Read-only {@link Map} view, for compatibility with APIs that expose a {@code Map<Long, V>}; boxes keys on every
+     * access, so it shouldn't be used on hot paths.
+     */
+    public Map<Long, V> asMap() {
+        return this.mapView;
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = DEFAULT_INITIAL_CAPACITY;
+        while ((capacity < MAXIMUM_CAPACITY) && (((capacity * LOAD_FACTOR_QUARTERS) >> 2) <= expectedSize)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(int key) {
+        // SSRC's are supposed to be random, but nothing prevents peers from choosing sequential ones.
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private V doPut(long ssrc, V value, boolean onlyIfAbsent) {
+        if (!isValidSsrc(ssrc)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+
+        int key = (int) ssrc;
+        Table table = this.table;
+        int index = table.find(key);
+        if (index >= 0) {
+            V previous = table.valueAt(index);
+            if (!onlyIfAbsent) {
+                // Same key, so a concurrent reader sees either the old or the new value.
+                table.values.set(index, value);
+            }
+            return previous;
+        }
+
+        if (table.used >= table.threshold) {
+            // Rebuild, dropping tombstones, and grow only if live entries alone need it.
+            int capacity = capacityFor(this.size + 1);
+            table = table.rebuild(Math.max(capacity, DEFAULT_INITIAL_CAPACITY));
+            this.table = table;
+        }
+
+        table.insert(key, value);
+        this.size++;
+        return null;
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private static final class Table {
+
+        private final int[] keys;
+        /**
+         * {@code null} for free slots, {@link #TOMBSTONE} for removed entries. A slot's key is written before its
+         * value, which is a volatile write, so readers that see a value also see the right key.
+         */
+        private final AtomicReferenceArray<Object> values;
+        private final int mask;
+        private final int threshold;
+        /**
+         * Slots taken by live entries and tombstones; only accessed by writers.
+         */
+        private int used;
+
+        private Table(int capacity) {
+            this.keys = new int[capacity];
+            this.values = new AtomicReferenceArray<Object>(capacity);
+            this.mask = capacity - 1;
+            this.threshold = (capacity * LOAD_FACTOR_QUARTERS) >> 2;
+        }
+
+        private int find(int key) {
+            int index = hash(key) & this.mask;
+            while (true) {
+                Object value = this.values.get(index);
+                if (value == null) {
+                    return -1;
+                }
+                if ((value != TOMBSTONE) && (this.keys[index] == key)) {
+                    return index;
+                }
+                index = (index + 1) & this.mask;
+            }
+        }
+
+        private void insert(int key, Object value) {
+            int index = hash(key) & this.mask;
+            while (this.values.get(index) != null) {
+                index = (index + 1) & this.mask;
+            }
+            this.keys[index] = key;
+            this.values.set(index, value);
+            this.used++;
+        }
+
+        private Table rebuild(int capacity) {
+            Table table = new Table(capacity);
+            for (int i = 0; i < this.keys.length; i++) {
+                Object value = this.values.get(i);
+                if ((value != null) && (value != TOMBSTONE)) {
+                    table.insert(this.keys[i], value);
+                }
+            }
+            return table;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <V> V valueAt(int index) {
+            Object value = this.values.get(index);
+            return value == TOMBSTONE ? null : (V) value;
+        }
+    }
+
+    /**
+     * Iterates over the live slots of a table snapshot.
+     */
+    private abstract static class SlotIterator<V, T> implements Iterator<T> {
+
+        private final Table table;
+        private int index;
+        private V nextValue;
+
+        private SlotIterator(Table table) {
+            this.table = table;
+            this.index = -1;
+            this.advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.nextValue != null;
+        }
+
+        @Override
+        public T next() {
+            if (this.nextValue == null) {
+                throw new NoSuchElementException();
+            }
+            T element = this.toElement(this.table.keys[this.index], this.nextValue);
+            this.advance();
+            return element;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        protected abstract T toElement(int key, V value);
+
+        private void advance() {
+            this.nextValue = null;
+            while (++this.index < this.table.keys.length) {
+                V value = this.table.valueAt(this.index);
+                if (value != null) {
+                    this.nextValue = value;
+                    return;
+                }
+            }
+        }
+    }
+
+    private class MapView extends AbstractMap<Long, V> {
+
+        @Override
+        public V get(Object key) {
+            return (key instanceof Long) ? SsrcMap.this.get((Long) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return this.get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Collection<V> values() {
+            return SsrcMap.this.values();
+        }
+
+        @Override
+        public Set<Entry<Long, V>> entrySet() {
+            return new AbstractSet<Entry<Long, V>>() {
+                @Override
+                public Iterator<Entry<Long, V>> iterator() {
+                    return new SlotIterator<V, Entry<Long, V>>(table) {
+                        @Override
+                        protected Entry<Long, V> toElement(int key, V value) {
+                            return new SimpleImmutableEntry<Long, V>(key & 0xffffffffL, value);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+}
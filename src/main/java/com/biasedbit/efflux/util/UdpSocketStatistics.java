@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Kernel-side statistics of UDP sockets, where the OS exposes them (Linux, through {@code /proc/net/udp} and
+ * {@code /proc/net/udp6}).
+ * <p/>
+ * Datagrams that arrive while a socket's receive buffer ({@code SO_RCVBUF}) is full are dropped by the kernel, before
+ * the application ever sees them; the drop counter is the only way to tell those losses apart from network losses.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class UdpSocketStatistics {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final File UDP = new File("/proc/net/udp");
+    private static final File UDP6 = new File("/proc/net/udp6");
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    private UdpSocketStatistics() {
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether drop counters can be read on this platform.
+     */
+    public static boolean isSupported() {
+        return UDP.canRead();
+    }
+
+    /**
+     * Retrieve the amount of datagrams the kernel dropped on the sockets bound to the given local addresses, since they
+     * were bound. All sockets bound to the same address (with {@code SO_REUSEPORT}) count.
+     *
+     * @param addresses Local addresses, as bound; duplicates are only counted once.
+     *
+     * @return Sum of the drops of all matching sockets, or -1 if drop counters can't be read.
+     */
+    public static long getDrops(InetSocketAddress... addresses) {
+        if (!isSupported()) {
+            return -1;
+        }
+
+        long drops = 0;
+        for (InetSocketAddress address : new HashSet<InetSocketAddress>(Arrays.asList(addresses))) {
+            try {
+                // IPv4 addresses may also be bound by IPv6 sockets (as IPv4-mapped addresses), which is what Java
+                // does by default.
+                drops += getDrops(UDP6, address);
+                if (!(address.getAddress() instanceof Inet6Address)) {
+                    drops += getDrops(UDP, address);
+                }
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        return drops;
+    }
+
+    // protected static helpers ---------------------------------------------------------------------------------------
+
+    /**
+     * Parses a line of {@code /proc/net/udp} or {@code /proc/net/udp6}.
+     *
+     * @return The socket's drop counter, or -1 if it isn't bound to the given address.
+     */
+    protected static long parseDrops(String line, InetSocketAddress address) {
+        // sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length < 13) {
+            return -1;
+        }
+
+        int separator = fields[1].indexOf(':');
+        if ((separator < 0) || (Integer.parseInt(fields[1].substring(separator + 1), 16) != address.getPort())) {
+            return -1;
+        }
+        byte[] bound = parseAddress(fields[1].substring(0, separator));
+        byte[] expected = address.getAddress().getAddress();
+        if ((bound.length == 16) && (expected.length == 4)) {
+            expected = toIpv4Mapped(expected);
+        }
+        if (!Arrays.equals(bound, expected)) {
+            return -1;
+        }
+
+        return Long.parseLong(fields[fields.length - 1]);
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    private static long getDrops(File file, InetSocketAddress address) throws IOException {
+        if (!file.canRead()) {
+            return 0;
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            long drops = 0;
+            // Skip the header.
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                long socketDrops = parseDrops(line, address);
+                if (socketDrops > 0) {
+                    drops += socketDrops;
+                }
+            }
+
+            return drops;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static byte[] toIpv4Mapped(byte[] address) {
+        byte[] mapped = new byte[16];
+        mapped[10] = (byte) 0xff;
+        mapped[11] = (byte) 0xff;
+        System.arraycopy(address, 0, mapped, 12, 4);
+        return mapped;
+    }
+
+    /**
+     * Addresses are printed as 32 bit words, in host byte order.
+     */
+    private static byte[] parseAddress(String hex) {
+        boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+        byte[] address = new byte[hex.length() / 2];
+        for (int word = 0; word < address.length; word += 4) {
+            for (int i = 0; i < 4; i++) {
+                int index = littleEndian ? word + 3 - i : word + i;
+                address[index] = (byte) Integer.parseInt(hex.substring((word + i) * 2, (word + i) * 2 + 2), 16);
+            }
+        }
+
+        return address;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import com.biasedbit.efflux.packet.ByePacket;
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.ReceiverReportPacket;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class MultiplexedPacketDecoderTest {
+
+    @Test
+    public void testClassifyControlPackets() throws Exception {
+        ReceiverReportPacket receiverReport = new ReceiverReportPacket();
+        receiverReport.setSenderSsrc(0x45);
+        assertTrue(MultiplexedPacketDecoder.isControlPacket(receiverReport.encode()));
+
+        ByePacket bye = new ByePacket();
+        bye.addSsrc(0x45);
+        assertTrue(MultiplexedPacketDecoder.isControlPacket(bye.encode()));
+
+        // Edges of the range reserved for RTCP.
+        assertTrue(MultiplexedPacketDecoder.isControlPacket(ChannelBuffers.wrappedBuffer(new byte[]{(byte) 0x80,
+                                                                                                    (byte) 192})));
+        assertTrue(MultiplexedPacketDecoder.isControlPacket(ChannelBuffers.wrappedBuffer(new byte[]{(byte) 0x80,
+                                                                                                    (byte) 223})));
+    }
+
+    @Test
+    public void testClassifyDataPackets() throws Exception {
+        DataPacket packet = new DataPacket();
+        packet.setPayloadType(8);
+        packet.setData(new byte[]{0x45, 0x45});
+        assertFalse(MultiplexedPacketDecoder.isControlPacket(packet.encode()));
+
+        // Marker bit set on a dynamic payload type (0x80 | 96 = 224) is just past the RTCP range.
+        packet.setPayloadType(96);
+        packet.setMarker(true);
+        assertFalse(MultiplexedPacketDecoder.isControlPacket(packet.encode()));
+
+        assertFalse(MultiplexedPacketDecoder.isControlPacket(ChannelBuffers.wrappedBuffer(new byte[]{(byte) 0x80})));
+    }
+}
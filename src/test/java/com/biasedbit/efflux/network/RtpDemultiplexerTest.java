@@ -0,0 +1,294 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import com.biasedbit.efflux.packet.CompoundControlPacket;
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.ReceiverReportPacket;
+import com.biasedbit.efflux.packet.SdesChunk;
+import com.biasedbit.efflux.packet.SdesChunkItems;
+import com.biasedbit.efflux.packet.SourceDescriptionPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.DefaultRtpSession;
+import com.biasedbit.efflux.session.RtpSession;
+import com.biasedbit.efflux.session.RtpSessionDataListener;
+import com.biasedbit.efflux.session.RtpSessionManager;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.socket.oio.OioDatagramChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpDemultiplexerTest {
+
+    private RtpSessionManager manager;
+    private RtpDemultiplexer demultiplexer;
+
+    @Before
+    public void setUp() {
+        this.manager = new RtpSessionManager();
+        this.demultiplexer = new RtpDemultiplexer(this.manager.getFactory(), new InetSocketAddress("127.0.0.1", 9100),
+                                                  new InetSocketAddress("127.0.0.1", 9101));
+        assertTrue(this.demultiplexer.init());
+    }
+
+    @After
+    public void tearDown() {
+        // Sessions must leave before the shared channels are closed, and those before the manager's resources are
+        // released.
+        for (DefaultRtpSession session : this.manager.getSessions()) {
+            session.terminate();
+        }
+        this.demultiplexer.terminate();
+        this.manager.terminate();
+    }
+
+    @Test
+    public void testRouteToSessionsSharingChannels() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final List<Long> receivedByA = new CopyOnWriteArrayList<Long>();
+        final List<Long> receivedByB = new CopyOnWriteArrayList<Long>();
+
+        DefaultRtpSession a = this.createSharedSession("a", 1, 9200);
+        a.addDataListener(new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                receivedByA.add(packet.getSsrc());
+                latch.countDown();
+            }
+        });
+        DefaultRtpSession b = this.createSharedSession("b", 2, 9300);
+        b.addDataListener(new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                receivedByB.add(packet.getSsrc());
+                latch.countDown();
+            }
+        });
+
+        DefaultRtpSession peerA = this.createPeer("peerA", 11, 9200);
+        DefaultRtpSession peerB = this.createPeer("peerB", 12, 9300);
+        assertTrue(peerA.sendData(new byte[]{0x45, 0x45, 0x45, 0x45}, 0, false));
+        assertTrue(peerB.sendData(new byte[]{0x45, 0x45, 0x45, 0x45}, 0, false));
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(1, receivedByA.size());
+        assertEquals(11L, (long) receivedByA.get(0));
+        assertEquals(1, receivedByB.size());
+        assertEquals(12L, (long) receivedByB.get(0));
+
+        // Neither session closes the shared channels when terminated.
+        a.terminate();
+        assertTrue(this.demultiplexer.getDataChannel().isBound());
+        assertTrue(this.demultiplexer.getControlChannel().isBound());
+    }
+
+    @Test
+    public void testReceiverAlreadyRoutedToOtherSession() throws Exception {
+        DefaultRtpSession a = this.createSharedSession("a", 1, 9200);
+        this.createSharedSession("b", 2, 9300);
+        assertFalse(a.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(12), "127.0.0.1", 9300, 9301)));
+
+        DefaultRtpSession c = this.manager.createSession("c", 8, RtpParticipant.createReceiver(
+                new RtpParticipantInfo(3), "127.0.0.1", 9100, 9101));
+        c.setDemultiplexer(this.demultiplexer);
+        assertTrue(c.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(11), "127.0.0.1", 9200, 9201)));
+        assertFalse(c.init());
+
+        // Once a session is gone, its receivers can be routed to another.
+        a.terminate();
+        assertTrue(c.init());
+    }
+
+    @Test
+    public void testUnroutablePacketsAreDropped() throws Exception {
+        DefaultRtpSession peer = this.createPeer("peer", 11, 9200);
+        assertTrue(peer.sendData(new byte[]{0x45, 0x45, 0x45, 0x45}, 0, false));
+
+        for (int i = 0; (i < 20) && (this.demultiplexer.getUnroutablePackets() < 2); i++) {
+            Thread.sleep(100);
+        }
+        // The peer's initial RTCP report and its RTP packet.
+        assertEquals(2, this.demultiplexer.getUnroutablePackets());
+    }
+
+    @Test
+    public void testControlPacketsRoutedWithoutDecoding() throws Exception {
+        final List<CompoundControlPacket> received = new CopyOnWriteArrayList<CompoundControlPacket>();
+        InetSocketAddress origin = new InetSocketAddress("127.0.0.1", 9201);
+        assertTrue(this.demultiplexer.addControlRoute(origin, new ControlPacketReceiver() {
+            @Override
+            public void controlPacketReceived(SocketAddress origin, CompoundControlPacket packet) {
+                received.add(packet);
+            }
+        }));
+
+        ReceiverReportPacket report = new ReceiverReportPacket();
+        report.setSenderSsrc(11);
+        SourceDescriptionPacket sdes = new SourceDescriptionPacket();
+        SdesChunk chunk = new SdesChunk(11);
+        chunk.addItem(SdesChunkItems.createCnameItem("peer@127.0.0.1"));
+        sdes.addItem(chunk);
+        ChannelBuffer buffer = new CompoundControlPacket(report, sdes).encode();
+        CompoundControlPacket packet = CompoundControlPacket.decode(buffer);
+        assertNotNull(packet);
+
+        this.demultiplexer.controlPacketReceived(origin, packet);
+        assertEquals(1, received.size());
+        assertSame(packet, received.get(0));
+        assertFalse(packet.isDecoded());
+        assertEquals(0, this.demultiplexer.getUnroutablePackets());
+    }
+
+    @Test
+    public void testRtcpMux() throws Exception {
+        RtpDemultiplexer multiplexed = new RtpDemultiplexer(this.manager.getFactory(), this.manager.getExecutor(),
+                                                            new InetSocketAddress("127.0.0.1", 9110));
+        assertTrue(multiplexed.init());
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            DefaultRtpSession session = this.manager.createSession("a", 8, RtpParticipant.createReceiver(
+                    new RtpParticipantInfo(1), "127.0.0.1", 9110, 9110));
+            session.setRtcpMux(true);
+            session.setDemultiplexer(multiplexed);
+            assertTrue(session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(11), "127.0.0.1", 9210,
+                                                                         9211)));
+            assertTrue(session.init());
+            session.addDataListener(new RtpSessionDataListener() {
+                @Override
+                public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                    latch.countDown();
+                }
+            });
+
+            // A standalone session, also multiplexing, on a single port of its own.
+            DefaultRtpSession peer = this.manager.createSession("peer", 8, RtpParticipant.createReceiver(
+                    new RtpParticipantInfo(11), "127.0.0.1", 9210, 9211));
+            peer.setRtcpMux(true);
+            assertTrue(peer.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 9110,
+                                                                      9111)));
+            assertTrue(peer.init());
+            assertTrue(peer.sendData(new byte[]{0x45, 0x45, 0x45, 0x45}, 0, false));
+
+            // RTP got through, and so did the RTCP (SDES) the peer sent when joining.
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            RtpParticipant participant = session.getRemoteParticipant(11);
+            assertNotNull(participant);
+            for (int i = 0; (i < 20) && !participant.hasReceivedSdes(); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(participant.hasReceivedSdes());
+            assertEquals(0, multiplexed.getUnroutablePackets());
+            session.terminate();
+        } finally {
+            multiplexed.terminate();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRtcpMuxWithConflictingPayloadType() throws Exception {
+        this.manager.createSession("a", 72, RtpParticipant.createReceiver("127.0.0.1", 9200, 9201)).setRtcpMux(true);
+    }
+
+    @Test
+    public void testSeveralReceiveChannels() throws Exception {
+        RtpDemultiplexer fannedOut = new RtpDemultiplexer(this.manager.getFactory(), this.manager.getExecutor(),
+                                                          new InetSocketAddress("127.0.0.1", 9120),
+                                                          new InetSocketAddress("127.0.0.1", 9121));
+        assumeTrue(fannedOut.getTransport().isReusePortSupported());
+        fannedOut.setReceiveChannels(2);
+        assertTrue(fannedOut.init());
+        try {
+            assertEquals(2, fannedOut.getDataChannels().size());
+            assertEquals(2, fannedOut.getControlChannels().size());
+            for (Channel channel : fannedOut.getDataChannels()) {
+                assertEquals(9120, ((InetSocketAddress) channel.getLocalAddress()).getPort());
+            }
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            DefaultRtpSession session = this.manager.createSession("a", 8, RtpParticipant.createReceiver(
+                    new RtpParticipantInfo(1), "127.0.0.1", 9120, 9121));
+            session.setDemultiplexer(fannedOut);
+            assertTrue(session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(11), "127.0.0.1", 9220,
+                                                                         9221)));
+            assertTrue(session.init());
+            session.addDataListener(new RtpSessionDataListener() {
+                @Override
+                public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                    latch.countDown();
+                }
+            });
+
+            DefaultRtpSession peer = this.manager.createSession("peer", 8, RtpParticipant.createReceiver(
+                    new RtpParticipantInfo(11), "127.0.0.1", 9220, 9221));
+            assertTrue(peer.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 9120,
+                                                                      9121)));
+            assertTrue(peer.init());
+            assertTrue(peer.sendData(new byte[]{0x45, 0x45, 0x45, 0x45}, 0, false));
+
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            session.terminate();
+        } finally {
+            fannedOut.terminate();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSeveralReceiveChannelsWithoutReusePort() throws Exception {
+        OioDatagramChannelFactory factory = new OioDatagramChannelFactory();
+        try {
+            new RtpDemultiplexer(factory, new InetSocketAddress("127.0.0.1", 9120),
+                                 new InetSocketAddress("127.0.0.1", 9121)).setReceiveChannels(2);
+        } finally {
+            factory.releaseExternalResources();
+        }
+    }
+
+    private DefaultRtpSession createSharedSession(String id, long ssrc, int peerPort) {
+        DefaultRtpSession session = this.manager.createSession(id, 8, RtpParticipant.createReceiver(
+                new RtpParticipantInfo(ssrc), "127.0.0.1", 9100, 9101));
+        session.setDemultiplexer(this.demultiplexer);
+        assertTrue(session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(ssrc + 10), "127.0.0.1",
+                                                                     peerPort, peerPort + 1)));
+        assertTrue(session.init());
+        return session;
+    }
+
+    private DefaultRtpSession createPeer(String id, long ssrc, int port) {
+        DefaultRtpSession peer = this.manager.createSession(id, 8, RtpParticipant.createReceiver(
+                new RtpParticipantInfo(ssrc), "127.0.0.1", port, port + 1));
+        assertTrue(peer.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(ssrc - 10), "127.0.0.1", 9100,
+                                                                  9101)));
+        assertTrue(peer.init());
+        return peer;
+    }
+}
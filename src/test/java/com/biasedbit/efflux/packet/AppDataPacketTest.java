@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import com.biasedbit.efflux.util.ByteUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class AppDataPacketTest {
+
+    @Test
+    public void testDecode() throws Exception {
+        // subtype 3, SSRC 0x45, name "efdx", 8 bytes of data.
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("83cc000400000045656664780001020304050607");
+
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(packetBytes);
+        ControlPacket controlPacket = ControlPacket.decode(buffer);
+        assertEquals(ControlPacket.Type.APP_DATA, controlPacket.getType());
+
+        AppDataPacket packet = (AppDataPacket) controlPacket;
+        assertEquals(3, packet.getSubtype());
+        assertEquals(0x45, packet.getSsrc());
+        assertEquals("efdx", packet.getName());
+        assertEquals(8, packet.getDataSize());
+        assertEquals(7, packet.getData().getByte(7));
+        assertEquals(0, buffer.readableBytes());
+
+        // The data is a slice of the datagram, not a copy.
+        buffer.setByte(19, 0x45);
+        assertEquals(0x45, packet.getData().getByte(7));
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        AppDataPacket packet = new AppDataPacket();
+        packet.setSubtype(31);
+        packet.setSsrc(0xffffffffL);
+        packet.setName("efdx");
+        packet.setData(ChannelBuffers.wrappedBuffer(new byte[]{1, 2, 3, 4}));
+
+        ChannelBuffer buffer = packet.encode();
+        assertEquals(16, buffer.readableBytes());
+
+        AppDataPacket decoded = (AppDataPacket) ControlPacket.decode(buffer);
+        assertEquals(31, decoded.getSubtype());
+        assertEquals(0xffffffffL, decoded.getSsrc());
+        assertEquals("efdx", decoded.getName());
+        assertEquals(packet.getData(), decoded.getData());
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    public void testEncodeDecodeWithFixedBlockSize64() throws Exception {
+        AppDataPacket packet = new AppDataPacket();
+        packet.setSsrc(0x45);
+        packet.setName("efdx");
+        packet.setData(ChannelBuffers.wrappedBuffer(new byte[]{1, 2, 3, 4}));
+
+        ChannelBuffer buffer = packet.encode(0, 64);
+        assertEquals(64, buffer.readableBytes());
+
+        AppDataPacket decoded = (AppDataPacket) ControlPacket.decode(buffer);
+        assertEquals(4, decoded.getDataSize());
+        assertEquals(packet.getData(), decoded.getData());
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    public void testEncodeWithoutData() throws Exception {
+        AppDataPacket packet = new AppDataPacket();
+        packet.setName("efdx");
+
+        ChannelBuffer buffer = packet.encode();
+        assertEquals(12, buffer.readableBytes());
+        assertEquals(0, ((AppDataPacket) ControlPacket.decode(buffer)).getDataSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNameMustBe4Characters() throws Exception {
+        new AppDataPacket().setName("efflux");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDataMustBeAligned() throws Exception {
+        new AppDataPacket().setData(ChannelBuffers.wrappedBuffer(new byte[]{1, 2, 3}));
+    }
+}
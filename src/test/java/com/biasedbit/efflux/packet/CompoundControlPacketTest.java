@@ -0,0 +1,326 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class CompoundControlPacketTest {
+
+    private ReceiverReportPacket receiverReport;
+    private SourceDescriptionPacket sdes;
+    private ByePacket bye;
+
+    @Before
+    public void setUp() {
+        this.receiverReport = new ReceiverReportPacket();
+        this.receiverReport.setSenderSsrc(0x45);
+        ReceptionReport block = new ReceptionReport();
+        block.setSsrc(0x46);
+        this.receiverReport.addReceptionReportBlock(block);
+
+        this.sdes = new SourceDescriptionPacket();
+        SdesChunk chunk = new SdesChunk(0x45);
+        chunk.addItem(SdesChunkItems.createCnameItem("efflux@127.0.0.1"));
+        this.sdes.addItem(chunk);
+
+        this.bye = new ByePacket();
+        this.bye.addSsrc(0x45);
+        this.bye.setReasonForLeaving("Leaving");
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        ChannelBuffer buffer = new CompoundControlPacket(this.receiverReport, this.sdes, this.bye).encode();
+        int size = buffer.readableBytes();
+        assertEquals(3, CompoundControlPacket.validate(buffer));
+
+        CompoundControlPacket packet = CompoundControlPacket.decode(buffer);
+        assertNotNull(packet);
+        assertEquals(0, buffer.readableBytes());
+        assertEquals(size, packet.getEncodedSize());
+        assertEquals(3, packet.getPacketCount());
+        assertEquals(ControlPacket.Type.RECEIVER_REPORT, packet.getControlPackets().get(0).getType());
+        assertEquals(ControlPacket.Type.SOURCE_DESCRIPTION, packet.getControlPackets().get(1).getType());
+        assertEquals(ControlPacket.Type.BYE, packet.getControlPackets().get(2).getType());
+        assertEquals("Leaving", ((ByePacket) packet.getControlPackets().get(2)).getReasonForLeaving());
+    }
+
+    @Test
+    public void testFirstPacketMustBeReport() throws Exception {
+        assertEquals(-1, CompoundControlPacket.validate(new CompoundControlPacket(this.sdes, this.bye).encode()));
+        assertNull(CompoundControlPacket.decode(this.bye.encode()));
+    }
+
+    @Test
+    public void testInvalidVersion() throws Exception {
+        ChannelBuffer buffer = new CompoundControlPacket(this.receiverReport, this.sdes).encode();
+        int second = this.receiverReport.getEncodedLength();
+        buffer.setByte(second, buffer.getByte(second) & 0x3f);
+        assertNull(CompoundControlPacket.decode(buffer));
+    }
+
+    @Test
+    public void testLengthsMustAddUp() throws Exception {
+        ChannelBuffer buffer = new CompoundControlPacket(this.receiverReport, this.sdes).encode();
+
+        // Truncated.
+        assertEquals(-1, CompoundControlPacket.validate(buffer.slice(0, buffer.readableBytes() - 4)));
+        // Trailing garbage.
+        ChannelBuffer extended = ChannelBuffers.buffer(buffer.readableBytes() + 4);
+        extended.writeBytes(buffer.duplicate());
+        extended.writeInt(0);
+        assertEquals(-1, CompoundControlPacket.validate(extended));
+        // Not a multiple of 4.
+        assertEquals(-1, CompoundControlPacket.validate(buffer.slice(0, buffer.readableBytes() - 1)));
+    }
+
+    @Test
+    public void testPaddingOnlyOnLastPacket() throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.buffer(128);
+        this.receiverReport.encode(buffer, 0, 0);
+        this.bye.encode(buffer, buffer.writerIndex(), 64);
+        assertEquals(64, buffer.readableBytes());
+        assertEquals(2, CompoundControlPacket.decode(buffer).getPacketCount());
+
+        buffer.clear();
+        this.receiverReport.encode(buffer, 0, 64);
+        this.bye.encode(buffer, buffer.writerIndex(), 0);
+        assertNull(CompoundControlPacket.decode(buffer));
+    }
+
+    @Test
+    public void testEmptyPackets() throws Exception {
+        // BYE with no SSRC (length 0) is still a valid packet.
+        ReceiverReportPacket emptyReport = new ReceiverReportPacket();
+        ChannelBuffer buffer = new CompoundControlPacket(emptyReport, new ByePacket()).encode();
+        CompoundControlPacket packet = CompoundControlPacket.decode(buffer);
+        assertNotNull(packet);
+        assertEquals(2, packet.getPacketCount());
+        assertEquals(0, ((ByePacket) packet.getControlPackets().get(1)).getSsrcCount());
+    }
+
+    @Test
+    public void testUnknownPacketsAreSkipped() throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.buffer(128);
+        this.receiverReport.encode(buffer, 0, 0);
+        // APP packet: subtype 0, ssrc, name, 4 bytes of data.
+        buffer.writeByte(0x80);
+        buffer.writeByte(ControlPacket.Type.APP_DATA.getByte());
+        buffer.writeShort(3);
+        buffer.writeInt(0x45);
+        buffer.writeBytes(new byte[]{'t', 'e', 's', 't'});
+        buffer.writeInt(0x45454545);
+        // TMMBR (RFC 5104), a transport layer feedback message unknown to this decoder.
+        buffer.writeByte(0x83);
+        buffer.writeByte(ControlPacket.Type.TRANSPORT_FEEDBACK.getByte());
+        buffer.writeShort(4);
+        buffer.writeInt(0x45);
+        buffer.writeInt(0);
+        buffer.writeInt(0x46);
+        buffer.writeInt(0x04000000);
+        this.bye.encode(buffer, buffer.writerIndex(), 0);
+
+        CompoundControlPacket packet = CompoundControlPacket.decode(buffer);
+        assertNotNull(packet);
+        assertEquals(3, packet.getPacketCount());
+        assertEquals("test", ((AppDataPacket) packet.getControlPackets().get(1)).getName());
+        assertEquals(ControlPacket.Type.BYE, packet.getControlPackets().get(2).getType());
+    }
+
+    @Test
+    public void testAppNameMustFitLength() throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.buffer(64);
+        this.receiverReport.encode(buffer, 0, 0);
+        // APP packet with room for the SSRC but not the name.
+        buffer.writeByte(0x80);
+        buffer.writeByte(ControlPacket.Type.APP_DATA.getByte());
+        buffer.writeShort(1);
+        buffer.writeInt(0x45);
+        assertEquals(-1, CompoundControlPacket.validate(buffer));
+    }
+
+    @Test
+    public void testEncodeCompositeKeepsAppData() throws Exception {
+        ChannelBuffer data = ChannelBuffers.wrappedBuffer(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        AppDataPacket app = new AppDataPacket();
+        app.setSsrc(0x45);
+        app.setName("test");
+        app.setData(data);
+        CompoundControlPacket packet = new CompoundControlPacket(this.receiverReport, app, this.bye);
+
+        ChannelBuffer composite = packet.encodeComposite();
+        assertEquals(packet.encode(), composite);
+        assertEquals(0, data.readerIndex());
+
+        // Data is read from the original buffer when the composite is, not copied.
+        data.setByte(0, 0x45);
+        assertEquals(0x45, composite.getByte(this.receiverReport.getEncodedLength() + 12));
+
+        // Nothing to keep apart without APP data.
+        assertEquals(new CompoundControlPacket(this.receiverReport, this.bye).encode(),
+                     new CompoundControlPacket(this.receiverReport, this.bye).encodeComposite());
+    }
+
+    @Test
+    public void testInnerCountMustMatchLength() throws Exception {
+        ChannelBuffer buffer = new CompoundControlPacket(this.receiverReport, this.sdes).encode();
+        // Claim 2 report blocks where there's room for 1; the second would be read from the SDES packet.
+        buffer.setByte(0, (buffer.getByte(0) & 0xe0) | 2);
+        assertEquals(-1, CompoundControlPacket.validate(buffer));
+        assertNull(CompoundControlPacket.decode(buffer));
+    }
+
+    @Test
+    public void testSdesItemsMustFitLength() throws Exception {
+        ChannelBuffer buffer = new CompoundControlPacket(this.receiverReport, this.sdes, this.bye).encode();
+        // CNAME item length, right after the SDES header and chunk SSRC.
+        int itemLength = this.receiverReport.getEncodedLength() + 8 + 1;
+        buffer.setByte(itemLength, 200);
+        assertEquals(-1, CompoundControlPacket.validate(buffer));
+    }
+
+    @Test
+    public void testView() throws Exception {
+        SenderReportPacket senderReport = new SenderReportPacket();
+        senderReport.setSenderSsrc(0x45);
+        senderReport.setNtpTimestamp(0x0102030405060708L);
+        senderReport.setRtpTimestamp(0xfffffffeL);
+        senderReport.setSenderPacketCount(10);
+        senderReport.setSenderOctetCount(1600);
+        for (int i = 0; i < 3; i++) {
+            ReceptionReport block = new ReceptionReport();
+            block.setSsrc(0x50 + i);
+            block.setCumulativeNumberOfPacketsLost(i);
+            senderReport.addReceptionReportBlock(block);
+        }
+
+        CompoundControlPacket packet = CompoundControlPacket
+                .decode(new CompoundControlPacket(senderReport, this.sdes, this.bye).encode());
+        assertEquals(3, packet.getPacketCount());
+
+        ControlPacketView view = packet.getView();
+        assertTrue(view.next());
+        assertEquals(ControlPacket.Type.SENDER_REPORT, view.getType());
+        assertEquals(senderReport.getEncodedLength(), view.getLength());
+        assertEquals(0x45, view.getSenderSsrc());
+        assertEquals(0x0102030405060708L, view.getNtpTimestamp());
+        assertEquals(0xfffffffeL, view.getRtpTimestamp());
+        assertEquals(10, view.getSenderPacketCount());
+        assertEquals(1600, view.getSenderOctetCount());
+        assertEquals(3, view.getInnerBlockCount());
+        assertEquals(0x52, view.getReportBlockSsrc(2));
+        assertEquals(2, view.getReceptionReport(2).getCumulativeNumberOfPacketsLost());
+
+        assertTrue(view.next());
+        assertEquals(ControlPacket.Type.SOURCE_DESCRIPTION, view.getType());
+        assertEquals("efflux@127.0.0.1", ((SourceDescriptionPacket) view.decode()).getChunks().get(0)
+                .getItemValue(SdesChunkItem.Type.CNAME));
+
+        assertTrue(view.next());
+        assertEquals(ControlPacket.Type.BYE, view.getType());
+        assertEquals(1, view.getInnerBlockCount());
+        assertEquals(0x45, view.getSsrc(0));
+        assertEquals("Leaving", view.getReasonForLeaving());
+        assertFalse(view.next());
+
+        // Decoded only now.
+        assertEquals(3, packet.getControlPackets().size());
+        assertEquals(0x0102030405060708L, ((SenderReportPacket) packet.getControlPackets().get(0)).getNtpTimestamp());
+    }
+
+    @Test
+    public void testViewOfUnknownPackets() throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.buffer(64);
+        this.receiverReport.encode(buffer, 0, 0);
+        // XR (RFC 3611), unknown to this decoder.
+        buffer.writeByte(0x80);
+        buffer.writeByte(207);
+        buffer.writeShort(2);
+        buffer.writeInt(0x45);
+        buffer.writeInt(0x46);
+        ByePacket emptyBye = new ByePacket();
+        emptyBye.encode(buffer, buffer.writerIndex(), 0);
+
+        ControlPacketView view = CompoundControlPacket.decode(buffer).getView();
+        assertTrue(view.next());
+        assertTrue(view.next());
+        assertNull(view.getType());
+        assertNull(view.decode());
+        assertTrue(view.next());
+        assertEquals(ControlPacket.Type.BYE, view.getType());
+        assertEquals(0, view.getInnerBlockCount());
+        assertNull(view.getReasonForLeaving());
+        assertFalse(view.next());
+    }
+
+    @Test
+    public void testFuzz() throws Exception {
+        byte[] valid = toArray(new CompoundControlPacket(this.receiverReport, this.sdes, this.bye).encode());
+        Random random = new Random(0x45);
+        int decoded = 0;
+        for (int i = 0; i < 100000; i++) {
+            byte[] mutated;
+            if ((i % 10) == 0) {
+                // Garbage.
+                mutated = new byte[random.nextInt(valid.length) + 1];
+                random.nextBytes(mutated);
+            } else {
+                // Flip a few random bits, maybe truncate.
+                mutated = valid.clone();
+                for (int j = random.nextInt(4); j >= 0; j--) {
+                    mutated[random.nextInt(mutated.length)] ^= 1 << random.nextInt(8);
+                }
+                if ((i % 3) == 0) {
+                    mutated = Arrays.copyOf(mutated, random.nextInt(mutated.length) + 1);
+                }
+            }
+
+            ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(mutated);
+            int count = CompoundControlPacket.validate(buffer);
+            CompoundControlPacket packet = CompoundControlPacket.decode(buffer);
+            if (packet != null) {
+                decoded++;
+                assertTrue(count > 0);
+                assertTrue(packet.getPacketCount() <= count);
+                assertEquals(mutated.length, packet.getEncodedSize());
+                assertEquals(0, buffer.readableBytes());
+                // Validation guarantees that decoding can't fail.
+                assertEquals(packet.getPacketCount(), packet.getControlPackets().size());
+            }
+        }
+
+        // Bit flips in values (SSRCs, text) go unnoticed, so some mutated packets must still decode.
+        assertTrue(decoded > 0);
+    }
+
+    private static byte[] toArray(ChannelBuffer buffer) {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return bytes;
+    }
+}
@@ -60,4 +60,82 @@ public class ControlPacketTest {
 
         // No more tests needed as there is plenty of unit testing for each of those packets individually.
     }
+
+    @Test
+    public void testEncodeCompoundPacket() throws Exception {
+        // Same packets as above, re-encoded in a single buffer.
+        byte[] packetBytes = ByteUtils
+                .convertHexStringToByteArray("80c80006e6aa996ed01f8460ea7ef9db001eb9b4000006e30004a084" +
+                                             "81ca001ee6aa996e013d383232433634303536464438344539414231324438333442463" +
+                                             "836303931354140756e697175652e7a333644423331373042303744344333302e6f7267" +
+                                             "083110782d7274702d73657373696f6e2d6964363539413238344341443842344436313" +
+                                             "83641324643304336383039363137300000" +
+                                             "81cb0001e6aa996e");
+
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(packetBytes);
+        List<ControlPacket> controlPackets = new ArrayList<ControlPacket>(3);
+        while (buffer.readableBytes() > 0) {
+            controlPackets.add(ControlPacket.decode(buffer));
+        }
+
+        CompoundControlPacket compoundPacket = new CompoundControlPacket(controlPackets);
+        assertEquals(packetBytes.length, compoundPacket.getEncodedLength());
+        ChannelBuffer encoded = compoundPacket.encode();
+        assertEquals(packetBytes.length, encoded.readableBytes());
+        assertEquals(ChannelBuffers.wrappedBuffer(packetBytes), encoded);
+    }
+
+    @Test
+    public void testEncodeEveryPacketTypeIntoSingleBuffer() throws Exception {
+        ReceiverReportPacket receiverReport = new ReceiverReportPacket();
+        receiverReport.setSenderSsrc(0x45);
+        SourceDescriptionPacket sdesPacket = new SourceDescriptionPacket();
+        SdesChunk chunk = new SdesChunk(0x45);
+        chunk.addItem(SdesChunkItems.createCnameItem("efflux@127.0.0.1"));
+        sdesPacket.addItem(chunk);
+        AppDataPacket appPacket = new AppDataPacket();
+        appPacket.setSsrc(0x45);
+        appPacket.setName("efdx");
+        appPacket.setData(ChannelBuffers.wrappedBuffer(new byte[]{1, 2, 3, 4}));
+        GenericNackPacket nackPacket = new GenericNackPacket();
+        nackPacket.setSenderSsrc(0x45);
+        nackPacket.setMediaSsrc(0x46);
+        nackPacket.addLostPacket(10);
+        ByePacket byePacket = new ByePacket();
+        byePacket.addSsrc(0x45);
+
+        CompoundControlPacket compoundPacket = new CompoundControlPacket(receiverReport, sdesPacket, appPacket,
+                                                                         nackPacket, byePacket);
+        ChannelBuffer encoded = compoundPacket.encode();
+        assertEquals(compoundPacket.getEncodedLength(), encoded.readableBytes());
+        assertEquals(compoundPacket.encodeComposite(), encoded);
+
+        CompoundControlPacket decoded = CompoundControlPacket.decode(encoded);
+        assertNotNull(decoded);
+        assertEquals(5, decoded.getPacketCount());
+        AppDataPacket decodedApp = (AppDataPacket) decoded.getControlPackets().get(2);
+        assertEquals("efdx", decodedApp.getName());
+        assertEquals(appPacket.getData(), decodedApp.getData());
+        GenericNackPacket decodedNack = (GenericNackPacket) decoded.getControlPackets().get(3);
+        assertEquals(10, decodedNack.getPacketId(0));
+        assertEquals(ControlPacket.Type.BYE, decoded.getControlPackets().get(4).getType());
+    }
+
+    @Test
+    public void testEncodeWithPaddingIntoSharedBuffer() throws Exception {
+        ByePacket packet = new ByePacket();
+        packet.addSsrc(0x45);
+        packet.setReasonForLeaving("So long, cruel world.");
+
+        // Preceded by 12 bytes, aligned to 64 byte blocks.
+        ChannelBuffer expected = packet.encode(12, 64);
+        assertEquals(52, expected.readableBytes());
+        assertEquals(52, packet.getEncodedLength(12, 64));
+
+        ChannelBuffer buffer = ChannelBuffers.buffer(64);
+        buffer.writeZero(12);
+        packet.encode(buffer, 12, 64);
+        assertEquals(64, buffer.readableBytes());
+        assertEquals(expected, buffer.slice(12, 52));
+    }
 }
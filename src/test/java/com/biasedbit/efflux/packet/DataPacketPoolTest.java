@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class DataPacketPoolTest {
+
+    @Test
+    public void testAcquireReleaseReusesInstance() throws Exception {
+        DataPacketPool pool = new DataPacketPool(4);
+        DataPacket packet = pool.acquire();
+        packet.setSsrc(0x45);
+        packet.setMarker(true);
+        packet.setData(new byte[]{0x45, 0x45});
+        assertTrue(packet.release());
+        assertEquals(1, pool.getAvailable());
+
+        DataPacket reused = pool.acquire();
+        assertSame(packet, reused);
+        assertEquals(0, pool.getAvailable());
+        assertEquals(1, reused.getReferenceCount());
+        assertEquals(0, reused.getSsrc());
+        assertFalse(reused.hasMarker());
+        assertNull(reused.getData());
+    }
+
+    @Test
+    public void testRetainDelaysRecycling() throws Exception {
+        DataPacketPool pool = new DataPacketPool(4);
+        DataPacket packet = pool.acquire();
+        packet.retain();
+        assertFalse(packet.release());
+        assertEquals(0, pool.getAvailable());
+        assertTrue(packet.release());
+        assertEquals(1, pool.getAvailable());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTwice() throws Exception {
+        DataPacket packet = new DataPacketPool(4).acquire();
+        packet.release();
+        packet.release();
+    }
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        DataPacketPool pool = new DataPacketPool(3);
+        assertEquals(4, pool.getCapacity());
+
+        DataPacket[] packets = new DataPacket[6];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = pool.acquire();
+        }
+        for (DataPacket packet : packets) {
+            packet.release();
+        }
+        assertEquals(4, pool.getAvailable());
+    }
+
+    @Test
+    public void testDecodeFromPool() throws Exception {
+        DataPacketPool pool = new DataPacketPool(4);
+        DataPacket recycled = pool.acquire();
+        recycled.release();
+
+        DataPacket decoded = DataPacket.decode(ChannelBuffers.wrappedBuffer(DataPacketTest.ALAW_RTP_PACKET_SAMPLE),
+                                               true, pool);
+        assertSame(recycled, decoded);
+        assertEquals(0x1fcc779a, decoded.getSsrc());
+        assertEquals(6, decoded.getDataSize());
+    }
+}
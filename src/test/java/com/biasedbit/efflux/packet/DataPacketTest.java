@@ -174,4 +174,66 @@ public class DataPacketTest {
         assertTrue(Arrays.equals(packet.getDataAsArray(), decoded.getDataAsArray()));
         System.out.println("decoded = " + decoded);
     }
+
+    @Test
+    public void testZeroCopyDecode() {
+        DataPacket packet = new DataPacket();
+        packet.setMarker(true);
+        packet.setPayloadType(98);
+        packet.setSequenceNumber(69);
+        packet.setTimestamp(696969);
+        packet.setSsrc(96);
+        packet.setExtensionHeader((short) 0x8080, new byte[]{0x70, 0x70, 0x70, 0x70});
+        packet.addContributingSourceId(69);
+        packet.addContributingSourceId(0xffffffffL);
+        packet.setData(new byte[]{0x69, 0x69, 0x69, 0x69});
+
+        ChannelBuffer buffer = packet.encode(64);
+        DataPacket decoded = DataPacket.decode(buffer, true);
+        assertEquals(0, buffer.readableBytes());
+        assertEquals(packet.getSsrc(), decoded.getSsrc());
+        assertEquals(2, decoded.getContributingSourcesCount());
+        assertEquals(69, decoded.getContributingSourceId(0));
+        assertEquals(0xffffffffL, decoded.getContributingSourceId(1));
+        assertTrue(Arrays.equals(packet.getExtensionData(), decoded.getExtensionData()));
+        assertEquals(packet.getDataSize(), decoded.getDataSize());
+        assertTrue(Arrays.equals(packet.getDataAsArray(), decoded.getDataAsArray()));
+
+        // Payload is a view over the datagram, so changes to the datagram are visible until the packet is copied.
+        DataPacket copy = decoded.copy();
+        // Fixed header (12), extension (4 + 4) and CSRC's (8) come before the payload.
+        buffer.setByte(28, 0x00);
+        assertEquals(0x00, decoded.getData().getByte(0));
+        assertEquals(0x69, copy.getData().getByte(0));
+        assertEquals(packet.getContributingSourceIds(), copy.getContributingSourceIds());
+    }
+
+    @Test
+    public void testEncodeComposite() {
+        DataPacket packet = new DataPacket();
+        packet.setMarker(true);
+        packet.setPayloadType(98);
+        packet.setSequenceNumber(69);
+        packet.setTimestamp(696969);
+        packet.setSsrc(96);
+        packet.setExtensionHeader((short) 0x8080, new byte[]{0x70, 0x70, 0x70, 0x70});
+        packet.addContributingSourceId(69);
+        byte[] data = new byte[]{0x69, 0x69, 0x69, 0x69, 0x69};
+        packet.setData(data);
+
+        assertEquals(packet.encode(), packet.encodeComposite());
+        ChannelBuffer composite = packet.encodeComposite(64);
+        assertEquals(64, composite.readableBytes());
+        assertEquals(packet.encode(64), composite);
+
+        // Payload is not copied, only referenced.
+        data[0] = 0x00;
+        assertEquals(0x00, composite.getByte(24));
+
+        // Headers of consecutive packets don't share memory.
+        ChannelBuffer other = packet.encodeComposite();
+        packet.setSsrc(97);
+        assertEquals(97, packet.encodeComposite().getInt(8));
+        assertEquals(96, other.getInt(8));
+    }
 }
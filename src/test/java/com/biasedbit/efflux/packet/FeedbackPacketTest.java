@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import com.biasedbit.efflux.util.ByteUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FeedbackPacketTest {
+
+    @Test
+    public void testDecodeGenericNack() throws Exception {
+        // Sender 0x45, media source 0x46, packets 1000, 1001 and 1016 lost.
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("81cd0003000000450000004603e88001");
+
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(packetBytes);
+        ControlPacket controlPacket = ControlPacket.decode(buffer);
+        assertEquals(ControlPacket.Type.TRANSPORT_FEEDBACK, controlPacket.getType());
+
+        GenericNackPacket packet = (GenericNackPacket) controlPacket;
+        assertEquals(GenericNackPacket.FORMAT, packet.getFormat());
+        assertEquals(0x45, packet.getSenderSsrc());
+        assertEquals(0x46, packet.getMediaSsrc());
+        assertEquals(1, packet.getEntryCount());
+        assertEquals(1000, packet.getPacketId(0));
+        assertEquals(0x8001, packet.getLostPacketBitmask(0));
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    public void testAddLostPackets() throws Exception {
+        GenericNackPacket packet = new GenericNackPacket();
+        packet.addLostPacket(65534);
+        packet.addLostPacket(65535);
+        // Wraps around, still within the first entry.
+        packet.addLostPacket(14);
+        // 17 after the first entry's PID, so a new entry.
+        packet.addLostPacket(15);
+        packet.addLostPacket(20);
+
+        assertEquals(2, packet.getEntryCount());
+        assertEquals(65534, packet.getPacketId(0));
+        assertEquals(0x8001, packet.getLostPacketBitmask(0));
+        assertEquals(15, packet.getPacketId(1));
+        assertEquals(0x0010, packet.getLostPacketBitmask(1));
+
+        packet.setSenderSsrc(0x45);
+        packet.setMediaSsrc(0xffffffffL);
+        ChannelBuffer buffer = packet.encode();
+        assertEquals(20, buffer.readableBytes());
+
+        GenericNackPacket decoded = (GenericNackPacket) ControlPacket.decode(buffer);
+        assertEquals(0xffffffffL, decoded.getMediaSsrc());
+        assertEquals(2, decoded.getEntryCount());
+        assertEquals(15, decoded.getPacketId(1));
+        assertEquals(0x0010, decoded.getLostPacketBitmask(1));
+    }
+
+    @Test
+    public void testEncodeDecodePictureLossIndication() throws Exception {
+        PictureLossIndicationPacket packet = new PictureLossIndicationPacket();
+        packet.setSenderSsrc(0x45);
+        packet.setMediaSsrc(0x46);
+
+        ChannelBuffer buffer = packet.encode(0, 64);
+        assertEquals(64, buffer.readableBytes());
+
+        ControlPacket controlPacket = ControlPacket.decode(buffer);
+        assertEquals(ControlPacket.Type.PAYLOAD_SPECIFIC_FEEDBACK, controlPacket.getType());
+        assertEquals(0x46, ((PictureLossIndicationPacket) controlPacket).getMediaSsrc());
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    public void testEncodeDecodeFullIntraRequest() throws Exception {
+        FullIntraRequestPacket packet = new FullIntraRequestPacket();
+        packet.setSenderSsrc(0x45);
+        packet.addRequest(0x46, 255);
+        packet.addRequest(0x47, 1);
+
+        ChannelBuffer buffer = packet.encode();
+        assertEquals(28, buffer.readableBytes());
+
+        FullIntraRequestPacket decoded = (FullIntraRequestPacket) ControlPacket.decode(buffer);
+        assertEquals(0, decoded.getMediaSsrc());
+        assertEquals(2, decoded.getRequestCount());
+        assertEquals(0x46, decoded.getRequestSsrc(0));
+        assertEquals(255, decoded.getRequestSequenceNumber(0));
+        assertEquals(0x47, decoded.getRequestSsrc(1));
+        assertEquals(1, decoded.getRequestSequenceNumber(1));
+    }
+
+    @Test
+    public void testUnsupportedFormatIsSkipped() throws Exception {
+        // TMMBR (RFC 5104).
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(
+                ByteUtils.convertHexStringToByteArray("83cd000400000045000000000000004604000000"));
+        assertNull(ControlPacket.decode(buffer));
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    public void testFullIntraRequestEntriesMustBeWhole() throws Exception {
+        ReceiverReportPacket report = new ReceiverReportPacket();
+        FullIntraRequestPacket fir = new FullIntraRequestPacket();
+        fir.addRequest(0x46, 0);
+        ChannelBuffer buffer = new CompoundControlPacket(report, fir).encode();
+        assertEquals(2, CompoundControlPacket.validate(buffer));
+
+        // Drop the last word of the FIR.
+        ChannelBuffer truncated = buffer.slice(0, buffer.readableBytes() - 4);
+        int lengthOffset = report.getEncodedLength() + 2;
+        truncated.setShort(lengthOffset, truncated.getUnsignedShort(lengthOffset) - 1);
+        assertEquals(-1, CompoundControlPacket.validate(truncated));
+    }
+}
@@ -18,12 +18,14 @@ package com.biasedbit.efflux.participant;
 
 import com.biasedbit.efflux.packet.DataPacket;
 import com.biasedbit.efflux.packet.SdesChunk;
+import com.biasedbit.efflux.packet.SdesChunkItems;
 import org.jboss.netty.util.HashedWheelTimer;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -198,7 +200,150 @@ public class DefaultParticipantDatabaseTest {
     }
 
     @Test
-    public void testCleanup() throws Exception {
+    public void testAssociationOfParticipantViaCname() throws Exception {
+        RtpParticipant receiver = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        receiver.getInfo().setCname("efflux@localhost");
+        assertTrue(this.database.addReceiver(receiver));
+
+        SdesChunk chunk = new SdesChunk(0x45);
+        chunk.addItem(SdesChunkItems.createCnameItem("efflux@localhost"));
+        // Neither control nor data address match, only the CNAME.
+        SocketAddress address = new InetSocketAddress("localhost", 9001);
+
+        RtpParticipant participant = this.database.getOrCreateParticipantFromSdesChunk(address, chunk);
+        assertSame(receiver, participant);
+        assertEquals(0x45, participant.getSsrc());
+        assertEquals(0, this.listener.getSdesCreations());
+    }
+
+    @Test
+    public void testAddReceiverReusesMemberWithSameCname() throws Exception {
+        SdesChunk chunk = new SdesChunk(0x45);
+        chunk.addItem(SdesChunkItems.createCnameItem("efflux@localhost"));
+        SocketAddress address = new InetSocketAddress("localhost", 9001);
+        RtpParticipant member = this.database.getOrCreateParticipantFromSdesChunk(address, chunk);
+
+        RtpParticipant receiver = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        receiver.getInfo().setCname("efflux@localhost");
+        assertTrue(this.database.addReceiver(receiver));
+        assertEquals(1, this.database.getReceiverCount());
+        assertSame(member, this.database.getReceivers().iterator().next());
+        assertEquals(receiver.getDataDestination(), member.getDataDestination());
+        assertEquals(receiver.getControlDestination(), member.getControlDestination());
+    }
+
+    @Test
+    public void testRemovedReceiverIsNoLongerMatched() throws Exception {
+        RtpParticipant receiver = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        RtpParticipant sameAddresses = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        assertTrue(this.database.addReceiver(receiver));
+        assertTrue(this.database.addReceiver(sameAddresses));
+        assertTrue(this.database.removeReceiver(receiver));
+
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(0x45);
+        RtpParticipant participant = this.database
+                .getOrCreateParticipantFromDataPacket(new InetSocketAddress("localhost", 8000), packet);
+        // The remaining receiver with the same addresses takes its place.
+        assertSame(sameAddresses, participant);
+        assertEquals(0, this.listener.getDataPacketCreations());
+    }
+
+    @Test
+    public void testConcurrentCreationOfSameParticipant() throws Exception {
+        final DataPacket packet = new DataPacket();
+        packet.setSsrc(0x45);
+        final SocketAddress address = new InetSocketAddress("localhost", 8000);
+
+        final int threadCount = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final RtpParticipant[] participants = new RtpParticipant[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    participants[index] = database.getOrCreateParticipantFromDataPacket(address, packet);
+                }
+            };
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNotNull(participants[0]);
+        for (RtpParticipant participant : participants) {
+            assertSame(participants[0], participant);
+        }
+        assertEquals(1, this.database.getParticipantCount());
+        assertEquals(1, this.listener.getDataPacketCreations());
+    }
+
+    @Test
+    public void testExpiryAfterInactivity() throws Exception {
+        this.database.setTimeoutAfterNoPacketsReceived(1);
+        RtpParticipant receiver = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        assertTrue(this.database.addReceiver(receiver));
+
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(0x45);
+        SocketAddress address = new InetSocketAddress("localhost", 9000);
+        this.database.getOrCreateParticipantFromDataPacket(address, packet).packetReceived();
+        packet.setSsrc(0x46);
+        address = new InetSocketAddress("localhost", 8000);
+        assertSame(receiver, this.database.getOrCreateParticipantFromDataPacket(address, packet));
+        assertEquals(2, this.database.getParticipantCount());
+
+        Thread.sleep(1500);
+        // Only the member that isn't a receiver expires.
+        assertNull(this.database.getParticipant(0x45));
+        assertSame(receiver, this.database.getParticipant(0x46));
+        assertEquals(1, this.listener.getDeletions());
+    }
+
+    @Test
+    public void testActivityPostponesExpiry() throws Exception {
+        this.database.setTimeoutAfterNoPacketsReceived(1);
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(0x45);
+        SocketAddress address = new InetSocketAddress("localhost", 9000);
+        RtpParticipant participant = this.database.getOrCreateParticipantFromDataPacket(address, packet);
+
+        for (int i = 0; i < 6; i++) {
+            participant.packetReceived();
+            Thread.sleep(250);
+        }
+        assertSame(participant, this.database.getParticipant(0x45));
+
+        Thread.sleep(1500);
+        assertNull(this.database.getParticipant(0x45));
+        assertEquals(1, this.listener.getDeletions());
+    }
+
+    @Test
+    public void testExpiryAfterBye() throws Exception {
+        this.database.setTimeoutAfterByeAndNoPacketsReceived(1);
+        RtpParticipant receiver = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        assertTrue(this.database.addReceiver(receiver));
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(0x45);
+        this.database.getOrCreateParticipantFromDataPacket(new InetSocketAddress("localhost", 8000), packet);
+
+        this.database.participantLeft(receiver);
+        assertTrue(receiver.receivedBye());
+        Thread.sleep(1500);
+        assertNull(this.database.getParticipant(0x45));
+        assertEquals(0, this.database.getReceiverCount());
+        assertEquals(1, this.listener.getDeletions());
     }
 
     // private classes ------------------------------------------------------------------------------------------------
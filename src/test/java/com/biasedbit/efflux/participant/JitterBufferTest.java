@@ -0,0 +1,173 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.participant;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.DataPacketPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class JitterBufferTest {
+
+    private static final long DELAY = 50000000L;
+
+    private List<Integer> released;
+    private JitterBufferListener listener;
+
+    @Before
+    public void setUp() {
+        this.released = new ArrayList<Integer>();
+        this.listener = new JitterBufferListener() {
+            @Override
+            public void packetReleased(DataPacket packet) {
+                released.add(packet.getSequenceNumber());
+            }
+        };
+    }
+
+    @Test
+    public void testReorderWithoutDelay() throws Exception {
+        JitterBuffer buffer = new JitterBuffer(16, 0, this.listener);
+        assertTrue(buffer.offer(packet(1), 0));
+        assertTrue(buffer.offer(packet(3), 0));
+        assertEquals(Arrays.asList(1), this.released);
+        assertTrue(buffer.offer(packet(2), 0));
+        assertEquals(Arrays.asList(1, 2, 3), this.released);
+        assertEquals(0, buffer.getLostPackets());
+        assertEquals(0, buffer.getBufferedPackets());
+    }
+
+    @Test
+    public void testWraparound() throws Exception {
+        JitterBuffer buffer = new JitterBuffer(16, 0, this.listener);
+        assertTrue(buffer.offer(packet(65534), 0));
+        assertTrue(buffer.offer(packet(0), 0));
+        assertTrue(buffer.offer(packet(65535), 0));
+        assertTrue(buffer.offer(packet(1), 0));
+        assertEquals(Arrays.asList(65534, 65535, 0, 1), this.released);
+
+        // Still older than everything released, even though the raw sequence number is higher.
+        assertFalse(buffer.offer(packet(65535), 0));
+        assertEquals(1, buffer.getLatePackets());
+    }
+
+    @Test
+    public void testDelayAndLoss() throws Exception {
+        JitterBuffer buffer = new JitterBuffer(16, DELAY, this.listener);
+        assertTrue(buffer.offer(packet(10), 0));
+        assertTrue(buffer.offer(packet(12), 1000000L));
+        buffer.poll(DELAY - 1);
+        assertTrue(this.released.isEmpty());
+
+        // 10 is due; 11 is still missing, but 12 isn't due yet.
+        buffer.poll(DELAY);
+        assertEquals(Arrays.asList(10), this.released);
+        assertEquals(0, buffer.getLostPackets());
+
+        // 12 is due, so 11 is given up on.
+        buffer.poll(DELAY + 1000000L);
+        assertEquals(Arrays.asList(10, 12), this.released);
+        assertEquals(1, buffer.getLostPackets());
+
+        assertFalse(buffer.offer(packet(11), DELAY + 2000000L));
+        assertEquals(1, buffer.getLatePackets());
+        assertEquals(2, buffer.getReleasedPackets());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        JitterBuffer buffer = new JitterBuffer(4, DELAY, this.listener);
+        assertTrue(buffer.offer(packet(1), 0));
+        assertTrue(buffer.offer(packet(2), 0));
+        assertTrue(buffer.offer(packet(4), 0));
+        assertTrue(this.released.isEmpty());
+
+        // 1 to 6 doesn't fit, so 1 and 2 go out early; 3 to 6 does.
+        assertTrue(buffer.offer(packet(6), 0));
+        assertEquals(Arrays.asList(1, 2), this.released);
+        assertEquals(0, buffer.getLostPackets());
+        assertEquals(2, buffer.getBufferedPackets());
+
+        buffer.flush();
+        assertEquals(Arrays.asList(1, 2, 4, 6), this.released);
+        assertEquals(2, buffer.getLostPackets());
+    }
+
+    @Test
+    public void testDuplicate() throws Exception {
+        JitterBuffer buffer = new JitterBuffer(16, DELAY, this.listener);
+        assertTrue(buffer.offer(packet(1), 0));
+        assertFalse(buffer.offer(packet(1), 0));
+        assertEquals(1, buffer.getDuplicatePackets());
+        assertEquals(1, buffer.getBufferedPackets());
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        JitterBuffer buffer = new JitterBuffer(16, DELAY, this.listener);
+        assertTrue(buffer.offer(packet(1), 0));
+        assertTrue(buffer.offer(packet(30000), 0));
+        assertEquals(Arrays.asList(1), this.released);
+        assertEquals(0, buffer.getLostPackets());
+        assertEquals(1, buffer.getBufferedPackets());
+    }
+
+    @Test
+    public void testPooledPacketsAreRecycled() throws Exception {
+        DataPacketPool pool = new DataPacketPool(4);
+        JitterBuffer buffer = new JitterBuffer(16, DELAY, this.listener);
+        DataPacket first = pool.acquire();
+        first.setSequenceNumber(1);
+        DataPacket second = pool.acquire();
+        second.setSequenceNumber(2);
+
+        // Whoever handed the packets over lets go of them right away.
+        assertTrue(buffer.offer(first, 0));
+        first.release();
+        assertTrue(buffer.offer(second, 0));
+        second.release();
+        assertEquals(1, first.getReferenceCount());
+        assertEquals(0, pool.getAvailable());
+
+        buffer.poll(DELAY);
+        assertEquals(Arrays.asList(1, 2), this.released);
+        assertEquals(2, pool.getAvailable());
+
+        DataPacket third = pool.acquire();
+        third.setSequenceNumber(3);
+        assertTrue(buffer.offer(third, DELAY));
+        third.release();
+        buffer.clear();
+        assertEquals(Arrays.asList(1, 2), this.released);
+        assertEquals(2, pool.getAvailable());
+    }
+
+    private static DataPacket packet(int sequenceNumber) {
+        DataPacket packet = new DataPacket();
+        packet.setSequenceNumber(sequenceNumber);
+        return packet;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.participant;
+
+import com.biasedbit.efflux.packet.ReceptionReport;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ReceptionStatisticsTest {
+
+    private static final int CLOCK_RATE = 8000;
+    // 20ms worth of samples at 8kHz.
+    private static final int SAMPLES = 160;
+    private static final long PERIOD_NANOS = 20000000L;
+
+    @Test
+    public void testProbation() throws Exception {
+        ReceptionStatistics statistics = new ReceptionStatistics(3);
+        assertFalse(statistics.update(10, 0, 0, CLOCK_RATE));
+        assertFalse(statistics.update(11, 0, 0, CLOCK_RATE));
+        assertFalse(statistics.isValid());
+        assertTrue(statistics.update(12, 0, 0, CLOCK_RATE));
+        assertTrue(statistics.isValid());
+        assertEquals(1, statistics.getReceived());
+        assertEquals(1, statistics.getExpected());
+        assertEquals(12, statistics.getExtendedHighestSequenceNumber());
+    }
+
+    @Test
+    public void testProbationRestartsOnGap() throws Exception {
+        ReceptionStatistics statistics = new ReceptionStatistics(2);
+        assertFalse(statistics.update(10, 0, 0, CLOCK_RATE));
+        assertFalse(statistics.update(20, 0, 0, CLOCK_RATE));
+        assertTrue(statistics.update(21, 0, 0, CLOCK_RATE));
+        assertEquals(21, statistics.getExtendedHighestSequenceNumber());
+    }
+
+    @Test
+    public void testLossAndWraparound() throws Exception {
+        ReceptionStatistics statistics = new ReceptionStatistics(0);
+        int received = 0;
+        for (int i = 0; i < 100; i++) {
+            if ((i % 10) == 5) {
+                // Lose one in every 10 packets.
+                continue;
+            }
+            assertTrue(statistics.update((65500 + i) & 0xffff, i * SAMPLES, i * PERIOD_NANOS, CLOCK_RATE));
+            received++;
+        }
+
+        assertEquals(received, statistics.getReceived());
+        assertEquals(100, statistics.getExpected());
+        assertEquals(10, statistics.getCumulativePacketsLost());
+        // 65500 + 99 wrapped once.
+        assertEquals(0x10000 + 63, statistics.getExtendedHighestSequenceNumber());
+
+        ReceptionReport report = statistics.createReceptionReport(0x45, 0);
+        assertEquals(0x45, report.getSsrc());
+        assertEquals(10, report.getCumulativeNumberOfPacketsLost());
+        assertEquals((10 << 8) / 100, report.getFractionLost());
+        assertEquals(0x10000 + 63, report.getExtendedHighestSequenceNumberReceived());
+        assertEquals(0, report.getInterArrivalJitter());
+
+        // Nothing lost in the next interval.
+        statistics.update(64, 100 * SAMPLES, 100 * PERIOD_NANOS, CLOCK_RATE);
+        report = statistics.createReceptionReport(0x45, 0);
+        assertEquals(0, report.getFractionLost());
+        assertEquals(10, report.getCumulativeNumberOfPacketsLost());
+    }
+
+    @Test
+    public void testDuplicatesYieldNegativeLoss() throws Exception {
+        ReceptionStatistics statistics = new ReceptionStatistics(0);
+        statistics.update(1, 0, 0, CLOCK_RATE);
+        statistics.update(2, 0, 0, CLOCK_RATE);
+        statistics.update(2, 0, 0, CLOCK_RATE);
+        assertEquals(-1, statistics.getCumulativePacketsLost());
+
+        ReceptionReport report = statistics.createReceptionReport(0x45, 0);
+        // -1 as a 24 bit two's complement.
+        assertEquals(0xffffff, report.getCumulativeNumberOfPacketsLost());
+        assertEquals(0, report.getFractionLost());
+    }
+
+    @Test
+    public void testJitter() throws Exception {
+        ReceptionStatistics statistics = new ReceptionStatistics(0);
+        for (int i = 0; i < 1000; i++) {
+            // Every other packet arrives 5ms late (40 timestamp units at 8kHz).
+            long delay = (i % 2) == 0 ? 0 : 5000000L;
+            statistics.update(i, i * SAMPLES, (i * PERIOD_NANOS) + delay, CLOCK_RATE);
+        }
+
+        // Transit time changes by 40 on every packet, so jitter converges to 40.
+        assertTrue("jitter was " + statistics.getJitter(), (statistics.getJitter() >= 38) &&
+                                                             (statistics.getJitter() <= 40));
+    }
+
+    @Test
+    public void testLargeJumpResynchronises() throws Exception {
+        ReceptionStatistics statistics = new ReceptionStatistics(0);
+        statistics.update(1, 0, 0, CLOCK_RATE);
+        statistics.update(2, 0, 0, CLOCK_RATE);
+        assertFalse(statistics.update(30000, 0, 0, CLOCK_RATE));
+        assertEquals(2, statistics.getReceived());
+        assertTrue(statistics.update(30001, 0, 0, CLOCK_RATE));
+        assertEquals(1, statistics.getReceived());
+        assertEquals(30001, statistics.getExtendedHighestSequenceNumber());
+    }
+
+    @Test
+    public void testDelaySinceLastSenderReport() throws Exception {
+        ReceptionStatistics statistics = new ReceptionStatistics(0);
+        statistics.update(1, 0, 0, CLOCK_RATE);
+        statistics.senderReportReceived(0x0123456789abcdefL, 1000000000L);
+
+        ReceptionReport report = statistics.createReceptionReport(0x45, 3500000000L);
+        assertEquals(0x456789abL, report.getLastSenderReport());
+        assertEquals((5 * 65536) / 2, report.getDelaySinceLastSenderReport());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.participant;
+
+import com.biasedbit.efflux.packet.ReceptionReport;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RemoteReceptionStatisticsTest {
+
+    @Test
+    public void testUpdate() throws Exception {
+        RemoteReceptionStatistics statistics = new RemoteReceptionStatistics();
+        assertEquals(-1, statistics.getRoundTripTime(), 0);
+
+        statistics.update(report((short) 64, 0xffffff, 80), 100000000L, 1);
+        assertEquals(1, statistics.getReports());
+        assertEquals(0.25, statistics.getFractionLost(), 0);
+        assertEquals(0.25, statistics.getSmoothedFractionLost(), 0);
+        assertEquals(-1, statistics.getCumulativePacketsLost());
+        assertEquals(80, statistics.getJitter());
+        assertEquals(100, statistics.getRoundTripTime(), 0);
+        assertEquals(100, statistics.getSmoothedRoundTripTime(), 0);
+
+        // No RTT in this one.
+        statistics.update(report((short) 0, 10, 0), -1, 2);
+        assertEquals(0.25 * 0.875, statistics.getSmoothedFractionLost(), 0.0001);
+        assertEquals(80 * 0.875, statistics.getSmoothedJitter(), 0.0001);
+        assertEquals(10, statistics.getCumulativePacketsLost());
+        assertEquals(100, statistics.getSmoothedRoundTripTime(), 0);
+
+        statistics.update(report((short) 0, 10, 0), 300000000L, 3);
+        assertEquals(300, statistics.getRoundTripTime(), 0);
+        assertEquals(125, statistics.getSmoothedRoundTripTime(), 0.0001);
+        assertEquals(3, statistics.getLastReportInstant());
+    }
+
+    private static ReceptionReport report(short fractionLost, int cumulativeLost, long jitter) {
+        ReceptionReport report = new ReceptionReport();
+        report.setFractionLost(fractionLost);
+        report.setCumulativeNumberOfPacketsLost(cumulativeLost);
+        report.setInterArrivalJitter(jitter);
+        return report;
+    }
+}
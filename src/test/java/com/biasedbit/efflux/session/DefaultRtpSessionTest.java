@@ -0,0 +1,274 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.packet.AppDataPacket;
+import com.biasedbit.efflux.packet.ByePacket;
+import com.biasedbit.efflux.packet.CompoundControlPacket;
+import com.biasedbit.efflux.packet.ControlPacket;
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.SdesChunk;
+import com.biasedbit.efflux.packet.SdesChunkItem;
+import com.biasedbit.efflux.packet.SdesChunkItems;
+import com.biasedbit.efflux.packet.SenderReportPacket;
+import com.biasedbit.efflux.packet.SourceDescriptionPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.util.NtpClock;
+import com.biasedbit.efflux.util.RtpClock;
+import com.biasedbit.efflux.util.TimeUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.socket.oio.OioDatagramChannelFactory;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class DefaultRtpSessionTest {
+
+    private HashedWheelTimer timer;
+    private OrderedMemoryAwareThreadPoolExecutor executor;
+    private OioDatagramChannelFactory factory;
+    private RtpParticipant local;
+    private DefaultRtpSession session;
+
+    @Before
+    public void setUp() {
+        this.timer = new HashedWheelTimer();
+        this.executor = new OrderedMemoryAwareThreadPoolExecutor(1, 0, 0);
+        this.factory = new OioDatagramChannelFactory(Executors.newCachedThreadPool());
+        this.local = RtpParticipant.createReceiver("127.0.0.1", 9500, 9501);
+        this.local.getInfo().setSsrc(0x45);
+        this.local.getInfo().setCname("efflux@127.0.0.1");
+        this.session = new DefaultRtpSession("id", 8, this.local, this.timer, this.executor, this.factory);
+    }
+
+    @After
+    public void tearDown() {
+        this.timer.stop();
+        this.executor.shutdown();
+        this.factory.releaseExternalResources();
+    }
+
+    @Test
+    public void testSdesPacketIsCachedUntilInfoChanges() throws Exception {
+        SourceDescriptionPacket packet = this.session.buildSdesPacket(0x45);
+        assertSame(packet, this.session.buildSdesPacket(0x45));
+        assertNull(packet.getChunks().get(0).getItemValue(SdesChunkItem.Type.NAME));
+
+        this.local.getInfo().setName("efflux");
+        SourceDescriptionPacket updated = this.session.buildSdesPacket(0x45);
+        assertNotSame(packet, updated);
+        assertEquals("efflux", updated.getChunks().get(0).getItemValue(SdesChunkItem.Type.NAME));
+        assertSame(updated, this.session.buildSdesPacket(0x45));
+
+        SourceDescriptionPacket otherSsrc = this.session.buildSdesPacket(0x46);
+        assertNotSame(updated, otherSsrc);
+        assertEquals(0x46, otherSsrc.getChunks().get(0).getSsrc());
+    }
+
+    @Test
+    public void testSdesPacketItems() throws Exception {
+        this.local.getInfo().setLocation("Lisbon");
+        this.local.getInfo().setNote("On a break");
+        SdesChunk chunk = this.session.buildSdesPacket(0x45).getChunks().get(0);
+        assertEquals("efflux@127.0.0.1", chunk.getItemValue(SdesChunkItem.Type.CNAME));
+        assertEquals("Lisbon", chunk.getItemValue(SdesChunkItem.Type.LOCATION));
+        assertEquals("On a break", chunk.getItemValue(SdesChunkItem.Type.NOTE));
+        assertNotNull(chunk.getItemValue(SdesChunkItem.Type.TOOL));
+    }
+
+    @Test
+    public void testAppDataIsSentInCompoundPacket() throws Exception {
+        AppDataPacket packet = new AppDataPacket();
+        packet.setSsrc(0x45);
+        packet.setName("efdx");
+        packet.setData(ChannelBuffers.wrappedBuffer(new byte[]{1, 2, 3, 4}));
+
+        ChannelBuffer encoded = this.session.buildCompoundPacket(packet).encodeComposite();
+        CompoundControlPacket decoded = CompoundControlPacket.decode(encoded);
+        assertNotNull(decoded);
+        assertEquals(3, decoded.getPacketCount());
+        assertEquals(ControlPacket.Type.RECEIVER_REPORT, decoded.getControlPackets().get(0).getType());
+        assertEquals(ControlPacket.Type.SOURCE_DESCRIPTION, decoded.getControlPackets().get(1).getType());
+        AppDataPacket app = (AppDataPacket) decoded.getControlPackets().get(2);
+        assertEquals("efdx", app.getName());
+        assertEquals(packet.getData(), app.getData());
+    }
+
+    @Test
+    public void testSendDataCopiesPayload() throws Exception {
+        final List<ChannelBuffer> sent = new ArrayList<ChannelBuffer>();
+        DefaultRtpSession session = new DefaultRtpSession("id", 8, this.local, this.timer, this.executor,
+                                                          this.factory) {
+            @Override
+            protected void writeToData(ChannelBuffer buffer, SocketAddress destination) {
+                sent.add(buffer);
+            }
+        };
+        assertTrue(session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(0x46), "127.0.0.1",
+                                                                     9510, 9511)));
+        session.rtpClock = new RtpClock(8000);
+        session.running.set(true);
+
+        byte[] data = new byte[]{0x45, 0x45, 0x45, 0x45};
+        assertTrue(session.sendData(data, 0, false));
+        // The caller reuses its array before the write is flushed.
+        data[0] = 0x46;
+
+        assertEquals(1, sent.size());
+        DataPacket packet = DataPacket.decode(sent.get(0));
+        assertArrayEquals(new byte[]{0x45, 0x45, 0x45, 0x45}, packet.getDataAsArray());
+    }
+
+    @Test
+    public void testControlPacketsAreSentStartingWithReport() throws Exception {
+        final List<ChannelBuffer> sent = new ArrayList<ChannelBuffer>();
+        DefaultRtpSession session = new DefaultRtpSession("id", 8, this.local, this.timer, this.executor,
+                                                          this.factory) {
+            @Override
+            protected void writeToControl(ChannelBuffer buffer, SocketAddress destination) {
+                sent.add(buffer);
+            }
+        };
+        assertTrue(session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(0x46), "127.0.0.1",
+                                                                     9510, 9511)));
+        session.setAutomatedRtcpHandling(false);
+        session.running.set(true);
+
+        SourceDescriptionPacket sdesPacket = new SourceDescriptionPacket();
+        SdesChunk chunk = new SdesChunk(0x45);
+        chunk.addItem(SdesChunkItems.createCnameItem("efflux@127.0.0.1"));
+        sdesPacket.addItem(chunk);
+        ByePacket byePacket = new ByePacket();
+        byePacket.addSsrc(0x45);
+
+        assertTrue(session.sendControlPacket(sdesPacket));
+        assertTrue(session.sendControlPacket(new CompoundControlPacket(sdesPacket, byePacket)));
+
+        assertEquals(2, sent.size());
+        CompoundControlPacket single = CompoundControlPacket.decode(sent.get(0));
+        assertNotNull(single);
+        assertEquals(2, single.getPacketCount());
+        assertEquals(ControlPacket.Type.RECEIVER_REPORT, single.getControlPackets().get(0).getType());
+        assertEquals(ControlPacket.Type.SOURCE_DESCRIPTION, single.getControlPackets().get(1).getType());
+
+        CompoundControlPacket compound = CompoundControlPacket.decode(sent.get(1));
+        assertNotNull(compound);
+        assertEquals(3, compound.getPacketCount());
+        assertEquals(ControlPacket.Type.RECEIVER_REPORT, compound.getControlPackets().get(0).getType());
+        assertEquals(ControlPacket.Type.BYE, compound.getControlPackets().get(2).getType());
+    }
+
+    @Test
+    public void testSenderReportsToManyReceiversShareOneTimestamp() throws Exception {
+        final List<ChannelBuffer> sent = new ArrayList<ChannelBuffer>();
+        DefaultRtpSession session = new DefaultRtpSession("id", 8, this.local, this.timer, this.executor,
+                                                          this.factory) {
+            @Override
+            protected void internalSendControl(ChannelBuffer buffer, RtpParticipant participant) {
+                sent.add(buffer);
+            }
+        };
+        // More receivers than the sender report history could hold if it kept one timestamp per report.
+        for (int i = 0; i < 300; i++) {
+            assertTrue(session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(0x1000 + i),
+                                                                         "127.0.0.1", 10000 + (i * 2),
+                                                                         10001 + (i * 2))));
+        }
+        session.rtpClock = new RtpClock(8000);
+        session.rtcpIntervalCalculator = new RtcpIntervalCalculator(session.getBandwidthLimit());
+        session.sentPacketCounter.set(1);
+
+        session.rtcpTimerExpired(TimeUtils.now());
+        assertEquals(300, sent.size());
+        long ntpTimestamp = -1;
+        for (ChannelBuffer buffer : sent) {
+            CompoundControlPacket packet = CompoundControlPacket.decode(buffer);
+            assertNotNull(packet);
+            SenderReportPacket report = (SenderReportPacket) packet.getControlPackets().get(0);
+            if (ntpTimestamp == -1) {
+                ntpTimestamp = report.getNtpTimestamp();
+            }
+            assertEquals(ntpTimestamp, report.getNtpTimestamp());
+        }
+
+        // A reception report from the first receiver still yields a round-trip time.
+        long lastSenderReport = NtpClock.toCompact(ntpTimestamp);
+        assertTrue(session.senderReportHistory.computeRoundTripTime(lastSenderReport, 0, TimeUtils.nowNanos()) >= 0);
+    }
+
+    @Test
+    public void testTimerDrivenJitterBufferReleasesRunOnExecutor() throws Exception {
+        final CountDownLatch timerLatch = new CountDownLatch(1);
+        final AtomicReference<Thread> timerThread = new AtomicReference<Thread>();
+        this.timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                timerThread.set(Thread.currentThread());
+                timerLatch.countDown();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        assertTrue(timerLatch.await(2, TimeUnit.SECONDS));
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Thread> listenerThread = new AtomicReference<Thread>();
+        this.session.setJitterBufferCapacity(16);
+        this.session.addDataListener(new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                listenerThread.set(Thread.currentThread());
+                latch.countDown();
+            }
+        });
+        assertTrue(this.session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(0x46), "127.0.0.1",
+                                                                          9510, 9511)));
+        assertTrue(this.session.init());
+
+        RtpParticipant remote = RtpParticipant.createReceiver(new RtpParticipantInfo(0x46), "127.0.0.1", 9510, 9511);
+        DefaultRtpSession peer = new DefaultRtpSession("peer", 8, remote, this.timer, this.executor, this.factory);
+        assertTrue(peer.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(0x45), "127.0.0.1", 9500,
+                                                                  9501)));
+        assertTrue(peer.init());
+        try {
+            // A single packet is only released once its delay expires, by the periodic poll.
+            assertTrue(peer.sendData(new byte[]{0x45, 0x45, 0x45, 0x45}, 0, false));
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            assertNotSame(timerThread.get(), listenerThread.get());
+        } finally {
+            peer.terminate();
+            this.session.terminate();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.biasedbit.efflux.session;
 
 import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RemoteReceptionStatistics;
 import com.biasedbit.efflux.participant.RtpParticipant;
 import com.biasedbit.efflux.participant.RtpParticipantInfo;
 import org.jboss.netty.util.HashedWheelTimer;
@@ -73,6 +74,11 @@ public class MultiParticipantSessionTest {
             public void participantDeleted(RtpSession session, RtpParticipant participant) {
             }
 
+            @Override
+            public void receptionReportReceived(RtpSession session, RtpParticipant participant,
+                                                RemoteReceptionStatistics statistics) {
+            }
+
             @Override
             public void resolvedSsrcConflict(RtpSession session, long oldSsrc, long newSsrc) {
             }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RetransmissionCacheTest {
+
+    @Test
+    public void testPacketsAreCopied() throws Exception {
+        RetransmissionCache cache = new RetransmissionCache(16, 1024);
+        ChannelBuffer sent = packet(100);
+        cache.packetSent(1, sent);
+        sent.setByte(0, 0x45);
+
+        ChannelBuffer cached = cache.getPacket(1);
+        assertEquals(100, cached.readableBytes());
+        assertEquals(0, cached.getByte(0));
+        assertEquals(100, cache.getBytes());
+        assertNull(cache.getPacket(2));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testByteLimit() throws Exception {
+        RetransmissionCache cache = new RetransmissionCache(16, 250);
+        cache.packetSent(1, packet(100));
+        cache.packetSent(2, packet(100));
+        cache.packetSent(3, packet(100));
+        assertNull(cache.getPacket(1));
+        assertNotNull(cache.getPacket(2));
+        assertNotNull(cache.getPacket(3));
+        assertEquals(200, cache.getBytes());
+
+        // Larger than the whole cache, so not cached (and nothing evicted).
+        cache.packetSent(4, packet(251));
+        assertNull(cache.getPacket(4));
+        assertEquals(200, cache.getBytes());
+
+        // Takes the room of both.
+        cache.packetSent(5, packet(250));
+        assertNull(cache.getPacket(2));
+        assertNull(cache.getPacket(3));
+        assertNotNull(cache.getPacket(5));
+        assertEquals(250, cache.getBytes());
+    }
+
+    @Test
+    public void testCapacityAndWraparound() throws Exception {
+        RetransmissionCache cache = new RetransmissionCache(4, 1024);
+        for (int sequenceNumber = 65533; sequenceNumber <= 65538; sequenceNumber++) {
+            cache.packetSent(sequenceNumber & 0xffff, packet(10));
+        }
+
+        // 65533 and 65534 were pushed out of the ring, 65535 to 2 remain.
+        assertNull(cache.getPacket(65533));
+        assertNull(cache.getPacket(65534));
+        assertNotNull(cache.getPacket(65535));
+        assertNotNull(cache.getPacket(0));
+        assertNotNull(cache.getPacket(2));
+        assertEquals(40, cache.getBytes());
+
+        // Older than everything cached.
+        cache.packetSent(65534, packet(10));
+        assertNull(cache.getPacket(65534));
+        assertEquals(40, cache.getBytes());
+    }
+
+    @Test
+    public void testJumpEvictsEverything() throws Exception {
+        RetransmissionCache cache = new RetransmissionCache(4, 1024);
+        cache.packetSent(1, packet(10));
+        cache.packetSent(2, packet(10));
+        cache.packetSent(30000, packet(10));
+        assertNull(cache.getPacket(1));
+        assertNull(cache.getPacket(2));
+        assertNotNull(cache.getPacket(30000));
+        assertEquals(10, cache.getBytes());
+
+        cache.clear();
+        assertNull(cache.getPacket(30000));
+        assertEquals(0, cache.getBytes());
+    }
+
+    private static ChannelBuffer packet(int size) {
+        return ChannelBuffers.wrappedBuffer(new byte[size]);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.session;
+
+import org.junit.Test;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtcpIntervalCalculatorTest {
+
+    private static final int SESSION_BANDWIDTH = 64; // kbps
+    private static final int PACKET_SIZE = 100;
+
+    @Test
+    public void testMinimumInterval() throws Exception {
+        RtcpIntervalCalculator calculator = new RtcpIntervalCalculator(SESSION_BANDWIDTH, new Random(0));
+        for (int i = 0; i < 100; i++) {
+            // Initial interval is half the minimum, randomized in [0.5;1.5] and compensated.
+            long interval = calculator.computeInterval(2, 1, true);
+            assertTrue(interval >= (long) (2500 * 0.5 / (Math.E - 1.5)));
+            assertTrue(interval <= (long) (2500 * 1.5 / (Math.E - 1.5)));
+        }
+
+        calculator.transmitted(0, PACKET_SIZE, 2, 1, true);
+        for (int i = 0; i < 100; i++) {
+            long interval = calculator.computeInterval(2, 1, true);
+            assertTrue(interval >= (long) (5000 * 0.5 / (Math.E - 1.5)));
+        }
+    }
+
+    @Test
+    public void testSendersShareQuarterOfBandwidth() throws Exception {
+        RtcpIntervalCalculator calculator = new RtcpIntervalCalculator(SESSION_BANDWIDTH, new Random(0));
+        calculator.transmitted(0, PACKET_SIZE, 1000, 10, true);
+
+        // 1000 members, 10 senders: each sender gets 1/10 of 25% of the RTCP bandwidth, each receiver 1/990 of 75%.
+        double senderAverage = 0;
+        double receiverAverage = 0;
+        for (int i = 0; i < 10000; i++) {
+            senderAverage += calculator.computeInterval(1000, 10, true) / 10000d;
+            receiverAverage += calculator.computeInterval(1000, 10, false) / 10000d;
+        }
+
+        double packetSize = calculator.getAveragePacketSize();
+        double rtcpBandwidth = calculator.getRtcpBandwidth();
+        assertEquals((packetSize * 10 / (rtcpBandwidth * 0.25)) * 1000 / (Math.E - 1.5), senderAverage,
+                     senderAverage * 0.02);
+        assertEquals((packetSize * 990 / (rtcpBandwidth * 0.75)) * 1000 / (Math.E - 1.5), receiverAverage,
+                     receiverAverage * 0.02);
+    }
+
+    @Test
+    public void testReverseReconsideration() throws Exception {
+        RtcpIntervalCalculator calculator = new RtcpIntervalCalculator(SESSION_BANDWIDTH, new Random(0));
+        long next = calculator.transmitted(0, PACKET_SIZE, 100, 1, false);
+        assertFalse(calculator.membersLeft(1000, 100));
+
+        // Half the members leave: next transmission is brought twice closer.
+        assertTrue(calculator.membersLeft(1000, 50));
+        assertEquals(1000 + ((next - 1000) / 2), calculator.getNextTransmission(), 1);
+        assertEquals(500, calculator.getPreviousTransmission());
+    }
+
+    @Test
+    public void testBandwidthStaysWithinFractionAsGroupGrows() throws Exception {
+        double sessionBandwidth = SESSION_BANDWIDTH * 1000 / 8d;
+        for (int members : new int[]{2, 10, 100, 1000, 10000}) {
+            double fraction = simulate(members) / sessionBandwidth;
+            System.out.println(String.format("%5d members: RTCP used %.2f%% of the session bandwidth",
+                                             members, fraction * 100));
+            assertTrue(fraction <= RtcpIntervalCalculator.RTCP_BANDWIDTH_FRACTION * 1.1);
+            if (members >= 100) {
+                // Large enough for the minimum interval not to matter to receivers, which use 75% of the RTCP share.
+                assertTrue(fraction >= RtcpIntervalCalculator.RTCP_BANDWIDTH_FRACTION * 0.8);
+            }
+        }
+    }
+
+    /**
+     * Simulates a group whose members all join at instant 0 and run the interval algorithm, with 1% of them (at least
+     * one) sending data.
+     *
+     * @return Aggregate RTCP bandwidth used in steady state, in octets per second.
+     */
+    private static double simulate(int members) {
+        int senders = Math.max(1, members / 100);
+        Random random = new Random(members);
+        RtcpIntervalCalculator[] calculators = new RtcpIntervalCalculator[members];
+        PriorityQueue<long[]> timers = new PriorityQueue<long[]>(members, new java.util.Comparator<long[]>() {
+            @Override
+            public int compare(long[] o1, long[] o2) {
+                return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < members; i++) {
+            calculators[i] = new RtcpIntervalCalculator(SESSION_BANDWIDTH, random);
+            timers.add(new long[]{calculators[i].start(0, members, senders, i < senders), i});
+        }
+
+        // Let the initial burst settle during a few receiver intervals, then measure over many more.
+        long interval = calculators[members - 1].computeInterval(members, senders, false);
+        long start = Math.max(interval, 5000) * 5;
+        long end = start + (Math.max(interval, 5000) * 20);
+        long bytes = 0;
+        while (true) {
+            long[] timer = timers.poll();
+            long now = timer[0];
+            if (now > end) {
+                break;
+            }
+
+            int member = (int) timer[1];
+            boolean weSent = member < senders;
+            RtcpIntervalCalculator calculator = calculators[member];
+            if (calculator.isTransmissionDue(now, members, senders, weSent)) {
+                if (now >= start) {
+                    bytes += PACKET_SIZE + RtcpIntervalCalculator.UDP_IP_OVERHEAD;
+                }
+                timer[0] = calculator.transmitted(now, PACKET_SIZE, members, senders, weSent);
+            } else {
+                timer[0] = calculator.getNextTransmission();
+            }
+            timers.add(timer);
+        }
+
+        return bytes / ((end - start) / 1000d);
+    }
+}
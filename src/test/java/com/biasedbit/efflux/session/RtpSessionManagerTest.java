@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.participant.RtpParticipant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpSessionManagerTest {
+
+    private RtpSessionManager manager;
+
+    @Before
+    public void setUp() {
+        this.manager = new RtpSessionManager(2);
+    }
+
+    @After
+    public void tearDown() {
+        this.manager.terminate();
+    }
+
+    @Test
+    public void testSessionLimit() throws Exception {
+        DefaultRtpSession session = this.manager.createSession("a", 8, RtpParticipant.createReceiver("localhost", 9000,
+                                                                                                      9001));
+        assertTrue(session.isExternalRtcpScheduling());
+        assertTrue(session.init());
+        this.manager.createSession("b", 8, RtpParticipant.createReceiver("localhost", 9002, 9003));
+        assertEquals(2, this.manager.getSessionCount());
+
+        try {
+            this.manager.createSession("c", 8, RtpParticipant.createReceiver("localhost", 9004, 9005));
+            fail("Session limit should have been enforced");
+        } catch (IllegalStateException expected) {
+        }
+
+        // A terminated session no longer counts towards the limit.
+        session.terminate();
+        assertNull(this.manager.getSession("a"));
+        assertEquals(1, this.manager.getSessionCount());
+        assertNotNull(this.manager.createSession("c", 8, RtpParticipant.createReceiver("localhost", 9004, 9005)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateSessionId() throws Exception {
+        this.manager.createSession("a", 8, RtpParticipant.createReceiver("localhost", 9000, 9001));
+        this.manager.createSession("a", 8, RtpParticipant.createReceiver("localhost", 9002, 9003));
+    }
+
+    @Test
+    public void testSessionsTerminatedWithManager() throws Exception {
+        DefaultRtpSession session = this.manager.createSession("a", 8, RtpParticipant.createReceiver("localhost", 9000,
+                                                                                                      9001));
+        assertTrue(session.init());
+        this.manager.terminate();
+
+        assertFalse(session.isRunning());
+        assertFalse(this.manager.isRunning());
+        assertEquals(0, this.manager.getSessionCount());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.util.NtpClock;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class SenderReportHistoryTest {
+
+    @Test
+    public void testRoundTripTime() throws Exception {
+        SenderReportHistory history = new SenderReportHistory();
+        long sent = System.nanoTime();
+        long ntp = NtpClock.toNtp(sent);
+        history.senderReportSent(ntp);
+
+        // Remote end held the report for 1s and it took 100ms each way.
+        long lastSenderReport = NtpClock.toCompact(ntp);
+        long delaySinceLastSenderReport = 65536;
+        long arrival = sent + 1200000000L;
+        long roundTripTime = history.computeRoundTripTime(lastSenderReport, delaySinceLastSenderReport, arrival);
+        // Compact NTP timestamps have a resolution of ~15us.
+        assertEquals(200000000L, roundTripTime, 50000);
+    }
+
+    @Test
+    public void testUnknownLastSenderReport() throws Exception {
+        SenderReportHistory history = new SenderReportHistory();
+        long now = System.nanoTime();
+        history.senderReportSent(NtpClock.toNtp(now));
+
+        assertEquals(-1, history.computeRoundTripTime(0, 0, now));
+        assertEquals(-1, history.computeRoundTripTime(NtpClock.toCompactNtp(now) + 1, 0, now));
+    }
+
+    @Test
+    public void testDelayLargerThanElapsedTime() throws Exception {
+        SenderReportHistory history = new SenderReportHistory();
+        long now = System.nanoTime();
+        long ntp = NtpClock.toNtp(now);
+        history.senderReportSent(ntp);
+
+        assertEquals(-1, history.computeRoundTripTime(NtpClock.toCompact(ntp), 65536, now + 500000000L));
+    }
+
+    @Test
+    public void testOldestReportsAreForgotten() throws Exception {
+        SenderReportHistory history = new SenderReportHistory(2);
+        history.senderReportSent(0x10000L);
+        history.senderReportSent(0x20000L);
+        assertTrue(history.wasSent(1));
+        history.senderReportSent(0x30000L);
+        assertFalse(history.wasSent(1));
+        assertTrue(history.wasSent(2));
+        assertTrue(history.wasSent(3));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class NtpClockTest {
+
+    @Test
+    public void testMatchesWallClock() throws Exception {
+        long ntp = NtpClock.now();
+        long unixMillis = (((ntp >>> 32) - NtpClock.NTP_EPOCH_OFFSET_SECONDS) * 1000) +
+                          (((ntp & 0xffffffffL) * 1000) >>> 32);
+        assertTrue(Math.abs(unixMillis - System.currentTimeMillis()) < 1000);
+    }
+
+    @Test
+    public void testElapsedTime() throws Exception {
+        long nanos = System.nanoTime();
+        long ntp = NtpClock.toNtp(nanos);
+        // 1.5 seconds later
+        long later = NtpClock.toNtp(nanos + 1500000000L);
+        assertEquals(0x180000000L, later - ntp, 1);
+        // 1/65536 seconds, in compact form
+        assertEquals(1, NtpClock.toCompactNtp(nanos + 15259) - NtpClock.toCompactNtp(nanos), 1);
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        assertEquals(0x456789abL, NtpClock.toCompact(0x0123456789abcdefL));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpClockTest {
+
+    @Test
+    public void testStaticPayloadClockRates() throws Exception {
+        assertEquals(8000, RtpClock.getClockRate(0));
+        assertEquals(8000, RtpClock.getClockRate(8));
+        assertEquals(44100, RtpClock.getClockRate(11));
+        assertEquals(90000, RtpClock.getClockRate(34));
+        assertEquals(0, RtpClock.getClockRate(96));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPayloadType() throws Exception {
+        RtpClock.getClockRate(128);
+    }
+
+    @Test
+    public void testExtrapolation() throws Exception {
+        RtpClock clock = new RtpClock(8000);
+        assertEquals(0, clock.getTimestamp(0));
+
+        clock.packetSent(1000, 5000000000L);
+        assertEquals(1000, clock.getTimestamp(5000000000L));
+        // 20ms later
+        assertEquals(1160, clock.getTimestamp(5020000000L));
+        // 10 minutes later
+        assertEquals(1000 + (600 * 8000), clock.getTimestamp(605000000000L));
+    }
+
+    @Test
+    public void testWraparound() throws Exception {
+        RtpClock clock = new RtpClock(90000);
+        clock.packetSent(0xffffffffL, 0);
+        // 1 second later
+        assertEquals(89999, clock.getTimestamp(1000000000L));
+    }
+}
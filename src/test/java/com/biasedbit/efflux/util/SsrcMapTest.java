@@ -0,0 +1,129 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class SsrcMapTest {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        SsrcMap<String> map = new SsrcMap<String>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(0x45, "a"));
+        assertNull(map.put(0, "zero"));
+        assertNull(map.put(0xffffffffL, "max"));
+        assertEquals(3, map.size());
+
+        assertEquals("a", map.get(0x45));
+        assertEquals("zero", map.get(0));
+        assertEquals("max", map.get(0xffffffffL));
+        assertNull(map.get(0x46));
+        // Out of the SSRC range, so never present.
+        assertNull(map.get(-1));
+        assertNull(map.get(0x1ffffffffL));
+
+        assertEquals("a", map.put(0x45, "b"));
+        assertEquals("b", map.putIfAbsent(0x45, "c"));
+        assertEquals("b", map.get(0x45));
+        assertEquals(3, map.size());
+
+        assertFalse(map.remove(0x45, "a"));
+        assertTrue(map.remove(0x45, "b"));
+        assertNull(map.get(0x45));
+        assertEquals("max", map.remove(0xffffffffL));
+        assertNull(map.remove(0xffffffffL));
+        assertEquals(1, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutInvalidSsrc() throws Exception {
+        new SsrcMap<String>().put(0x100000000L, "a");
+    }
+
+    @Test
+    public void testAgainstHashMap() throws Exception {
+        // Random operations on a narrow key range, so that entries are often overwritten and removed, leaving
+        // tombstones behind, and the table is rebuilt several times.
+        SsrcMap<Long> map = new SsrcMap<Long>();
+        Map<Long, Long> reference = new HashMap<Long, Long>();
+        Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            long ssrc = random.nextInt(2000) * 0x10001L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(reference.remove(ssrc), map.remove(ssrc));
+            } else {
+                assertEquals(reference.put(ssrc, (long) i), map.put(ssrc, (long) i));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+
+        for (Map.Entry<Long, Long> entry : reference.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        assertEquals(reference, map.asMap());
+
+        int values = 0;
+        for (Long value : map.values()) {
+            assertNotNull(value);
+            values++;
+        }
+        assertEquals(reference.size(), values);
+    }
+
+    @Test
+    public void testReadersDuringWrites() throws Exception {
+        final SsrcMap<Long> map = new SsrcMap<Long>();
+        // Stable entries, which readers must always find, while other entries are added and removed.
+        for (long ssrc = 0; ssrc < 100; ssrc++) {
+            map.put(ssrc, ssrc);
+        }
+
+        final boolean[] failed = {false};
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200000; i++) {
+                    long ssrc = i % 100;
+                    Long value = map.get(ssrc);
+                    if ((value == null) || (value != ssrc)) {
+                        failed[0] = true;
+                        return;
+                    }
+                }
+            }
+        };
+        reader.start();
+
+        for (long ssrc = 1000; reader.isAlive(); ssrc++) {
+            map.put(ssrc, ssrc);
+            map.remove(ssrc - 50);
+        }
+        reader.join();
+
+        assertFalse(failed[0]);
+    }
+}
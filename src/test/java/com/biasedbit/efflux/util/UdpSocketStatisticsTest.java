@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class UdpSocketStatisticsTest {
+
+    @Test
+    public void testParseDrops() throws Exception {
+        assumeTrue(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+
+        String line = "  836: 0100007F:2328 00000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 " +
+                      "123456 2 0000000000000000 42";
+        assertEquals(42, UdpSocketStatistics.parseDrops(line, new InetSocketAddress("127.0.0.1", 9000)));
+        assertEquals(-1, UdpSocketStatistics.parseDrops(line, new InetSocketAddress("127.0.0.1", 9001)));
+        assertEquals(-1, UdpSocketStatistics.parseDrops(line, new InetSocketAddress("127.0.0.2", 9000)));
+
+        // IPv6 socket, bound to an IPv4-mapped address.
+        line = "  836: 0000000000000000FFFF00000100007F:2328 00000000000000000000000000000000:0000 07 " +
+               "00000000:00000000 00:00000000 00000000     0        0 123456 2 0000000000000000 7";
+        assertEquals(7, UdpSocketStatistics.parseDrops(line, new InetSocketAddress("127.0.0.1", 9000)));
+    }
+
+    @Test
+    public void testDropsWhenReceiveBufferIsFull() throws Exception {
+        assumeTrue(UdpSocketStatistics.isSupported());
+
+        DatagramSocket receiver = new DatagramSocket(null);
+        receiver.setReceiveBufferSize(2048);
+        receiver.bind(new InetSocketAddress("127.0.0.1", 9400));
+        DatagramSocket sender = new DatagramSocket(new InetSocketAddress("127.0.0.1", 9401));
+        try {
+            InetSocketAddress address = (InetSocketAddress) receiver.getLocalSocketAddress();
+            assertEquals(0, UdpSocketStatistics.getDrops(address));
+
+            // Nothing reads from the receiver, so most of these don't fit in its buffer.
+            byte[] data = new byte[1000];
+            for (int i = 0; i < 100; i++) {
+                sender.send(new DatagramPacket(data, data.length, address));
+            }
+
+            assertTrue(UdpSocketStatistics.getDrops(address) > 0);
+            // Duplicates only count once.
+            assertEquals(UdpSocketStatistics.getDrops(address), UdpSocketStatistics.getDrops(address, address));
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+    }
+}